@@ -0,0 +1,74 @@
+package io.cloudonix.arity.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.cloudonix.arity.ARIty;
+import io.cloudonix.arity.CallState;
+import io.cloudonix.test.support.Events;
+
+/**
+ * Cost of reading channel variables that are already in the call state's variable cache, such as SIP headers that
+ * call controllers read repeatedly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CallStateVariablesBenchmark {
+
+	private static final int VARIABLES = 50;
+
+	private ARIty arity;
+	private CallState callState;
+	private String[] names = new String[VARIABLES];
+	private int next;
+
+	@Setup
+	public void setUp() throws Exception {
+		arity = new ARIty(b -> b.setAppName("benchmark"));
+		callState = new CallState(Events.channel("channel-1"), arity);
+		for (int i = 0; i < VARIABLES; i++) {
+			names[i] = "SIP_HEADER(X-Header-" + i + ")";
+			callState.cacheVariable(names[i], "value-" + i);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		arity.disconnect();
+	}
+
+	private String nextName() {
+		next = (next + 1) % VARIABLES;
+		return names[next];
+	}
+
+	@Benchmark
+	public String getVariable() {
+		return callState.getVariable(nextName());
+	}
+
+	@Benchmark
+	public String readCachedVariable() {
+		return callState.readVariable(nextName()).join();
+	}
+
+	@Benchmark
+	public void cacheVariable() {
+		callState.cacheVariable(nextName(), "updated");
+	}
+}
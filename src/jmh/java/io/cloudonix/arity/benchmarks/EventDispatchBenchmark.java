@@ -0,0 +1,90 @@
+package io.cloudonix.arity.benchmarks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.loway.oss.ari4java.generated.models.ChannelDtmfReceived;
+import ch.loway.oss.ari4java.generated.models.ChannelStateChange;
+import ch.loway.oss.ari4java.generated.models.Message;
+import ch.loway.oss.ari4java.generated.models.PlaybackFinished;
+import ch.loway.oss.ari4java.generated.models.StasisStart;
+import io.cloudonix.arity.ARIty;
+import io.cloudonix.arity.CallState;
+import io.cloudonix.test.support.Events;
+
+/**
+ * Throughput of {@link ARIty#onSuccess(Message)} for a stream of channel events spread over many live calls, measured
+ * until the event handlers have run, so the cost of routing, lane hand-off and handler invocation are all included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventDispatchBenchmark {
+
+	private static final int BATCH = 1000;
+
+	@Param({ "1000", "10000", "50000" })
+	public int channels;
+
+	private ARIty arity;
+	private Message[] events;
+	private int next;
+	private LongAdder handled = new LongAdder();
+	private long expected;
+
+	@Setup
+	public void setUp() throws Exception {
+		arity = new ARIty(b -> b.setAppName("benchmark"));
+		@SuppressWarnings("unchecked")
+		CompletableFuture<CallState>[] calls = new CompletableFuture[channels];
+		events = new Message[channels * 3];
+		for (int i = 0; i < channels; i++) {
+			String channelId = "channel-" + i;
+			calls[i] = arity.waitForNewCallState(channelId);
+			arity.onSuccess(Events.channelEvent(StasisStart.class, channelId));
+			arity.addEventHandler(ChannelStateChange.class, channelId, (e,h) -> handled.increment());
+			arity.addEventHandler(ChannelDtmfReceived.class, channelId, (e,h) -> handled.increment());
+			arity.addEventHandler(PlaybackFinished.class, channelId, (e,h) -> handled.increment());
+			// interleave channels, as a busy server would see them
+			events[i] = Events.channelEvent(ChannelStateChange.class, channelId);
+			events[channels + i] = Events.channelEvent(ChannelDtmfReceived.class, channelId);
+			events[channels * 2 + i] = Events.playbackEvent(PlaybackFinished.class, channelId);
+		}
+		CompletableFuture.allOf(calls).get(1, TimeUnit.MINUTES);
+	}
+
+	@TearDown
+	public void tearDown() {
+		arity.disconnect();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void dispatchChannelEvents() {
+		for (int i = 0; i < BATCH; i++) {
+			arity.onSuccess(events[next]);
+			next = (next + 1) % events.length;
+		}
+		expected += BATCH;
+		while (handled.sum() < expected)
+			Thread.onSpinWait();
+	}
+}
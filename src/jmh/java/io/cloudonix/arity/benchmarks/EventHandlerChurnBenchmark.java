@@ -0,0 +1,81 @@
+package io.cloudonix.arity.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.loway.oss.ari4java.generated.models.ChannelStateChange;
+import ch.loway.oss.ari4java.generated.models.PlaybackFinished;
+import io.cloudonix.arity.ARIty;
+import io.cloudonix.arity.EventHandler;
+
+/**
+ * Cost of registering and unregistering event handlers - as call controllers do for every operation that waits for an
+ * event - while many other channels have handlers registered.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventHandlerChurnBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Calls {
+		@Param({ "1000", "10000", "50000" })
+		public int channels;
+
+		ARIty arity;
+		String[] channelIds;
+
+		@Setup
+		public void setUp() throws Exception {
+			arity = new ARIty(b -> b.setAppName("benchmark"));
+			channelIds = new String[channels];
+			for (int i = 0; i < channels; i++) {
+				channelIds[i] = "channel-" + i;
+				arity.addEventHandler(ChannelStateChange.class, channelIds[i], (e,h) -> {});
+			}
+		}
+
+		@TearDown
+		public void tearDown() {
+			arity.disconnect();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+
+		String nextChannel(Calls calls) {
+			next = (next + 1) % calls.channels;
+			return calls.channelIds[next];
+		}
+	}
+
+	@Benchmark
+	public void addAndRemove(Calls calls, Cursor cursor) {
+		EventHandler<PlaybackFinished> handler = calls.arity.addEventHandler(PlaybackFinished.class,
+				cursor.nextChannel(calls), (e,h) -> {});
+		calls.arity.removeEventHandler(handler);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void addAndRemoveContended(Calls calls, Cursor cursor) {
+		addAndRemove(calls, cursor);
+	}
+}
@@ -0,0 +1,60 @@
+package io.cloudonix.arity.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.cloudonix.arity.helpers.Futures;
+
+/**
+ * Cost of {@link Futures#resolveAll(java.util.stream.Stream)}, for promises that are already resolved and for promises
+ * that resolve after they have been collected.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FuturesBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int size;
+
+	private List<CompletableFuture<Integer>> completed = new ArrayList<>();
+
+	@Setup
+	public void setUp() {
+		for (int i = 0; i < size; i++)
+			completed.add(CompletableFuture.completedFuture(i));
+	}
+
+	@Benchmark
+	public List<Integer> resolveCompleted() {
+		return Futures.resolveAll(completed.stream()).join();
+	}
+
+	@Benchmark
+	public List<Integer> resolvePending() {
+		List<CompletableFuture<Integer>> pending = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			pending.add(new CompletableFuture<>());
+		CompletableFuture<List<Integer>> all = Futures.resolveAll(pending.stream());
+		for (int i = 0; i < size; i++)
+			pending.get(i).complete(i);
+		return all.join();
+	}
+}
@@ -0,0 +1,92 @@
+package io.cloudonix.arity.benchmarks;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.loway.oss.ari4java.tools.AriCallback;
+import ch.loway.oss.ari4java.tools.RestException;
+import io.cloudonix.arity.Operation;
+
+/**
+ * Overhead of {@link Operation#retry(io.cloudonix.arity.Operation.AriOperation)} around an in-process fake ARI, that
+ * responds either on the calling thread or - like the ari4java HTTP client - on a separate I/O thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperationBenchmark {
+
+	@Param({ "DIRECT", "EXECUTOR" })
+	public Operation.CompletionStrategy completion;
+
+	@Param({ "ALWAYS", "NEVER" })
+	public Operation.CallSiteCapture callSites;
+
+	@Param({ "false", "true" })
+	public boolean ioThread;
+
+	private ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "fake-ari-io");
+		t.setDaemon(true);
+		return t;
+	});
+
+	@Setup
+	public void setUp() {
+		Operation.setCompletionStrategy(completion);
+		Operation.setCallSiteCapture(callSites);
+	}
+
+	@TearDown
+	public void tearDown() {
+		io.shutdown();
+	}
+
+	private void respond(Runnable response) {
+		if (ioThread)
+			io.execute(response);
+		else
+			response.run();
+	}
+
+	private void succeed(AriCallback<String> cb) {
+		respond(() -> cb.onSuccess("ok"));
+	}
+
+	private void channelNotFound(AriCallback<String> cb) {
+		respond(() -> cb.onFailure(new RestException("Channel not found", "{\"message\":\"Channel not found\"}", 404)));
+	}
+
+	@Benchmark
+	public String success() {
+		return Operation.retry(this::succeed).join();
+	}
+
+	@Benchmark
+	public Throwable fatalFailure() {
+		try {
+			Operation.retry(this::channelNotFound).join();
+			throw new IllegalStateException("Fake ARI failure was not reported");
+		} catch (CompletionException e) {
+			return e.getCause();
+		}
+	}
+}
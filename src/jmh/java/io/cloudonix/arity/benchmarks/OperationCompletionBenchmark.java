@@ -0,0 +1,104 @@
+package io.cloudonix.arity.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+import ch.loway.oss.ari4java.tools.RestException;
+import io.cloudonix.arity.Operation;
+import io.cloudonix.arity.helpers.LaneExecutor;
+
+/**
+ * Per-operation latency of the operation completion strategies, for chains of operations that are started from an
+ * event lane - each from the completion of the previous one - against a loopback HTTP server standing in for ARI.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperationCompletionBenchmark {
+
+	private static final int CHAIN = 100;
+
+	@Param({ "DIRECT", "EXECUTOR", "CALLER_LANE" })
+	public Operation.CompletionStrategy completion;
+
+	private HttpServer server;
+	private HttpClient client;
+	private HttpRequest request;
+	private LaneExecutor lanes;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/ari/channels", exchange -> {
+			byte[] body = "{\"id\":\"1234\"}".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.start();
+		client = HttpClient.newHttpClient();
+		request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/ari/channels"))
+				.build();
+		lanes = new LaneExecutor("benchmark", 1, 100);
+		Operation.setCompletionStrategy(completion);
+	}
+
+	@TearDown
+	public void tearDown() {
+		Operation.setCompletionStrategy(Operation.CompletionStrategy.EXECUTOR);
+		lanes.shutdown();
+		server.stop(0);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(CHAIN)
+	public int chain() {
+		CompletableFuture<Integer> result = new CompletableFuture<>();
+		lanes.execute("channel", () -> next(CHAIN, 0).whenComplete((v,t) -> {
+			if (t != null)
+				result.completeExceptionally(t);
+			else
+				result.complete(v);
+		}));
+		return result.join();
+	}
+
+	private CompletableFuture<Integer> next(int left, int done) {
+		if (left == 0)
+			return CompletableFuture.completedFuture(done);
+		return Operation.<String>retry(cb -> client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+				.whenComplete((res, t) -> {
+					if (t != null)
+						cb.onFailure(new RestException(t.toString()));
+					else
+						cb.onSuccess(res.body());
+				}))
+				.thenCompose(v -> next(left - 1, done + 1));
+	}
+}
@@ -0,0 +1,71 @@
+package io.cloudonix.arity.benchmarks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.loway.oss.ari4java.generated.models.StasisStart;
+import io.cloudonix.arity.ARIty;
+import io.cloudonix.arity.CallState;
+import io.cloudonix.test.support.Events;
+
+/**
+ * Time to set up a burst of new calls: each invocation dispatches a <code>StasisStart</code> for every simulated channel
+ * and completes when all the call states have been handed to the application.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StasisStartBenchmark {
+
+	@Param({ "1000", "10000", "50000" })
+	public int channels;
+
+	private ARIty arity;
+	private StasisStart[] events;
+	private CompletableFuture<CallState>[] calls;
+
+	@Setup(Level.Trial)
+	public void createEvents() {
+		events = new StasisStart[channels];
+		for (int i = 0; i < channels; i++)
+			events[i] = Events.channelEvent(StasisStart.class, "channel-" + i);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Setup(Level.Iteration)
+	public void setUp() throws Exception {
+		arity = new ARIty(b -> b.setAppName("benchmark"));
+		calls = new CompletableFuture[channels];
+		for (int i = 0; i < channels; i++)
+			calls[i] = arity.waitForNewCallState("channel-" + i);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		arity.disconnect();
+	}
+
+	@Benchmark
+	public void startCalls() throws Exception {
+		for (StasisStart event : events)
+			arity.onSuccess(event);
+		CompletableFuture.allOf(calls).get(1, TimeUnit.MINUTES);
+	}
+}
@@ -0,0 +1,112 @@
+package io.cloudonix.arity.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.cloudonix.arity.helpers.VariableBatcher;
+
+/**
+ * ARI round trips and latency of setting up a call's channel variables - setting 15 variables and reading 7 SIP
+ * headers, 2 of them read twice by different handlers - against an in-process fake ARI with a 1ms round trip.
+ * <code>unbatched</code> sends a request per variable access, like <code>CallState</code> did before variable
+ * batching, and <code>batched</code> goes through a {@link VariableBatcher}. The <code>roundTrips</code> counter
+ * reports the number of ARI requests per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VariableBatchingBenchmark {
+
+	private static final int WRITES = 15;
+	private static final String[] READS = { "SIP_HEADER(X-Account)", "SIP_HEADER(X-Caller)", "SIP_HEADER(X-Account)",
+			"SIP_HEADER(X-Trace)", "SIP_HEADER(X-Caller)", "SIP_HEADER(X-Region)", "SIP_HEADER(X-Priority)" };
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Requests {
+		public long roundTrips;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			roundTrips = 0;
+		}
+	}
+
+	private ExecutorService io = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "fake-ari-io");
+		t.setDaemon(true);
+		return t;
+	});
+	private Executor network = CompletableFuture.delayedExecutor(1, TimeUnit.MILLISECONDS, io);
+	private AtomicLong sent = new AtomicLong();
+	private VariableBatcher.Transport ari = new VariableBatcher.Transport() {
+		@Override
+		public CompletableFuture<String> read(String name) {
+			sent.incrementAndGet();
+			return CompletableFuture.supplyAsync(() -> name.startsWith("EVAL(") ? evaluate(name) : "value", network);
+		}
+
+		@Override
+		public CompletableFuture<Void> write(String name, String value) {
+			sent.incrementAndGet();
+			return CompletableFuture.runAsync(() -> {}, network);
+		}
+	};
+
+	private static String evaluate(String expression) {
+		return expression.substring(5, expression.length() - 1).replaceAll("\\$\\{[^}]*\\}", "value");
+	}
+
+	@TearDown
+	public void tearDown() {
+		io.shutdown();
+	}
+
+	@Benchmark
+	public void unbatched(Requests requests) {
+		long before = sent.get();
+		List<CompletableFuture<?>> pending = new ArrayList<>();
+		for (int i = 0; i < WRITES; i++)
+			pending.add(ari.write("VAR_" + i, "value"));
+		for (String name : READS)
+			pending.add(ari.read(name));
+		CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+		requests.roundTrips += sent.get() - before;
+	}
+
+	@Benchmark
+	public void batched(Requests requests) {
+		long before = sent.get();
+		VariableBatcher batcher = new VariableBatcher(ari, io, 0); // a call state's batcher
+		List<CompletableFuture<?>> pending = new ArrayList<>();
+		for (int i = 0; i < WRITES; i++)
+			pending.add(batcher.write("VAR_" + i, "value"));
+		for (String name : READS)
+			pending.add(batcher.read(name));
+		CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+		requests.roundTrips += sent.get() - before;
+	}
+}
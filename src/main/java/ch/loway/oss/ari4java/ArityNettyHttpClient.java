@@ -1,19 +1,360 @@
 package ch.loway.oss.ari4java;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
+import ch.loway.oss.ari4java.tools.HttpParam;
+import ch.loway.oss.ari4java.tools.HttpResponse;
+import ch.loway.oss.ari4java.tools.HttpResponseHandler;
+import ch.loway.oss.ari4java.tools.RestException;
 import ch.loway.oss.ari4java.tools.http.NettyHttpClient;
+import io.cloudonix.arity.errors.CircuitOpenException;
+import io.cloudonix.arity.helpers.CircuitBreaker;
+import io.cloudonix.arity.helpers.Timers;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 
 public class ArityNettyHttpClient extends NettyHttpClient {
 
 	
 	private static final Duration CONNECTION_TIMEOUT_SEC = Duration.ofSeconds(2);
+	/** ARI resources whose second path segment is an object ID, unless it is one of the resource's actions */
+	private static final Set<String> ID_RESOURCES = Set.of("channels", "bridges", "playbacks", "sounds",
+			"applications", "deviceStates", "mailboxes");
+	private static final Set<String> RESOURCE_ACTIONS = Set.of("create", "externalMedia");
+	private static final ThreadLocal<Consumer<String>> endpointCapture = new ThreadLocal<>();
+	private static final Field webSocketFuture = findWebSocketFutureField();
+
+	private final CircuitBreaker circuitBreaker;
+	private final LongConsumer latencyListener;
+	private int maxInFlight = 0;
+	private long requestTimeout = 0;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final Queue<TrackedRequest> waiting = new ConcurrentLinkedQueue<>();
+
+	public ArityNettyHttpClient() {
+		this(null, null);
+	}
+
+	/**
+	 * Create an HTTP client that tracks asynchronous ARI requests
+	 * @param circuitBreaker circuit breaker to send requests through, or <code>null</code> to send all requests
+	 * @param latencyListener listener to report request latencies to, in nanoseconds, or <code>null</code>
+	 */
+	public ArityNettyHttpClient(CircuitBreaker circuitBreaker, LongConsumer latencyListener) {
+		this.circuitBreaker = circuitBreaker;
+		this.latencyListener = latencyListener;
+	}
+
+	/**
+	 * Limit the number of asynchronous ARI requests that are sent to Asterisk concurrently. Requests above the limit
+	 * wait until an earlier request completes. Should be set before the client is used.
+	 * @param requests maximum number of concurrent requests, or 0 for no limit (the default)
+	 * @return itself for fluent calls
+	 */
+	public ArityNettyHttpClient setMaxInFlightRequests(int requests) {
+		if (requests < 0)
+			throw new IllegalArgumentException("Number of in-flight requests can not be negative");
+		maxInFlight = requests;
+		return this;
+	}
+
+	/**
+	 * Fail asynchronous ARI requests that did not complete in time - including the time spent waiting for an
+	 * in-flight slot - with a {@link RestException} that has no response code. A request that was already sent keeps
+	 * its in-flight slot until its response arrives or its connection closes. Should be set before the client is
+	 * used.
+	 * @param timeout request timeout, or {@link Duration#ZERO} for no timeout (the default)
+	 * @return itself for fluent calls
+	 */
+	public ArityNettyHttpClient setRequestTimeout(Duration timeout) {
+		if (timeout.isNegative())
+			throw new IllegalArgumentException("Request timeout can not be negative");
+		requestTimeout = timeout.toMillis();
+		return this;
+	}
+
+	/**
+	 * Pause or resume reading from the events websocket. While reading is paused, Asterisk's events are held in the
+	 * TCP buffers and Asterisk eventually stops sending, instead of events piling up in ARIty. The websocket's I/O
+	 * thread is never blocked, so HTTP responses keep being handled.
+	 * @param paused whether to pause reading events
+	 * @return whether reading was paused or resumed, or <code>false</code> if the websocket is not open or this
+	 *   version of ari4java does not allow access to it
+	 */
+	public boolean setEventReadsPaused(boolean paused) {
+		if (webSocketFuture == null)
+			return false;
+		ChannelFuture future;
+		try {
+			future = (ChannelFuture) webSocketFuture.get(this);
+		} catch (IllegalAccessException e) {
+			return false;
+		}
+		Channel channel = future == null ? null : future.channel();
+		if (channel == null)
+			return false;
+		channel.config().setAutoRead(!paused);
+		return true;
+	}
+
+	/**
+	 * ari4java keeps the websocket channel private, so look up the field that holds it
+	 * @return the websocket channel future field, or <code>null</code> if it could not be found
+	 */
+	private static Field findWebSocketFutureField() {
+		for (Field field : NettyHttpClient.class.getDeclaredFields()) {
+			if (!ChannelFuture.class.isAssignableFrom(field.getType()) || !field.getName().toLowerCase().contains("ws"))
+				continue;
+			try {
+				field.setAccessible(true);
+				return field;
+			} catch (RuntimeException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	public int getInFlightRequests() {
+		return inFlight.get();
+	}
+
+	public int getWaitingRequests() {
+		return waiting.size();
+	}
 
 	@Override
 	protected void initHttpBootstrap() {
 		super.initHttpBootstrap();
 		httpBootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int)CONNECTION_TIMEOUT_SEC.toMillis());
+		httpBootstrap.option(ChannelOption.TCP_NODELAY, true);
+		httpBootstrap.option(ChannelOption.SO_KEEPALIVE, true);
+		httpBootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+	}
+
+	/**
+	 * Report the endpoint of each asynchronous ARI request that the current thread sends, until
+	 * {@link #stopCapturingEndpoints()} is called. Used to attribute ARI operations to the endpoints they call.
+	 * @param target consumer that receives the HTTP method and templated path of each request, as described by
+	 *   {@link #describeEndpoint(String, String)}
+	 */
+	public static void captureEndpoints(Consumer<String> target) {
+		endpointCapture.set(target);
+	}
+
+	/**
+	 * Stop reporting the endpoints of ARI requests sent by the current thread
+	 */
+	public static void stopCapturingEndpoints() {
+		endpointCapture.remove();
+	}
+
+	/**
+	 * Describe the ARI endpoint of a request for metrics, replacing object IDs in the path with placeholders, so
+	 * all requests to the same endpoint are reported together
+	 * @param method HTTP method
+	 * @param uri request URI
+	 * @return the method and templated path, for example <code>POST /channels/{id}/answer</code>
+	 */
+	public static String describeEndpoint(String method, String uri) {
+		int end = uri.indexOf('?');
+		String[] segments = (end < 0 ? uri : uri.substring(0, end)).split("/");
+		int resource = 0;
+		while (resource < segments.length && !ID_RESOURCES.contains(segments[resource]) &&
+				!segments[resource].equals("recordings") && !segments[resource].equals("endpoints") &&
+				!segments[resource].equals("events") && !segments[resource].equals("asterisk"))
+			resource++;
+		if (resource == segments.length) // not a path we know, report it as is
+			return method + " " + uri;
+		StringBuilder path = new StringBuilder();
+		String name = segments[resource];
+		for (int i = resource; i < segments.length; i++) {
+			int position = i - resource;
+			boolean id;
+			if (ID_RESOURCES.contains(name))
+				id = position == 3 || (position == 1 && !RESOURCE_ACTIONS.contains(segments[i]));
+			else if (name.equals("recordings")) // /recordings/{live|stored}/{name}/...
+				id = position == 2;
+			else if (name.equals("endpoints")) // /endpoints/{tech}/{resource}/...
+				id = position == 2;
+			else
+				id = false;
+			path.append('/').append(id ? "{id}" : segments[i]);
+		}
+		return method + " " + path;
+	}
+
+	@Override
+	public void httpActionAsync(String uri, String method, List<HttpParam> parametersQuery, String body,
+			List<HttpResponse> errors, HttpResponseHandler responseHandler, boolean binary) {
+		Consumer<String> capture = endpointCapture.get();
+		if (capture != null)
+			capture.accept(describeEndpoint(method, uri));
+		if (circuitBreaker == null && latencyListener == null && maxInFlight == 0 && requestTimeout == 0) {
+			super.httpActionAsync(uri, method, parametersQuery, body, errors, responseHandler, binary);
+			return;
+		}
+		CircuitBreaker.Permit permit = circuitBreaker != null ? circuitBreaker.tryAcquire() : null;
+		if (circuitBreaker != null && permit == null) {
+			responseHandler.onFailure(new CircuitOpenException(method + " " + uri));
+			return;
+		}
+		TrackedRequest request = new TrackedRequest(method + " " + uri, responseHandler, permit);
+		request.send = () -> super.httpActionAsync(uri, method, parametersQuery, body, errors, request.proxy(), binary);
+		if (maxInFlight == 0) {
+			if (request.markSent())
+				request.send.run();
+			return;
+		}
+		waiting.add(request);
+		sendWaiting();
+	}
+
+	/**
+	 * Send waiting requests while there are free in-flight slots
+	 */
+	private void sendWaiting() {
+		while (!waiting.isEmpty()) {
+			if (inFlight.incrementAndGet() > maxInFlight) {
+				inFlight.decrementAndGet();
+				return;
+			}
+			TrackedRequest request = waiting.poll();
+			if (request == null || !request.markSent()) { // empty queue, or the request timed out while waiting
+				inFlight.decrementAndGet();
+				continue;
+			}
+			request.send.run();
+		}
+	}
+
+	/**
+	 * An asynchronous request whose response handler is wrapped, to report the request's outcome to the circuit
+	 * breaker and latency listener, time the request out and release its in-flight slot. The handler is wrapped
+	 * using a dynamic proxy, so the wrapper does not depend on the exact handler interface of the ari4java version.
+	 *
+	 * A request that times out after it was sent is failed at its deadline, but keeps its in-flight slot until
+	 * ari4java reports its real outcome - the response arrived or the connection closed - as it is still outstanding
+	 * at Asterisk until then.
+	 */
+	private class TrackedRequest implements InvocationHandler {
+		private static final int WAITING = 0, SENT = 1, TIMED_OUT = 2, COMPLETED = 3;
+		private final String description;
+		private final HttpResponseHandler handler;
+		private final CircuitBreaker.Permit permit;
+		private final long start = System.nanoTime();
+		private final TimerTask timeout;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+		Runnable send;
+
+		TrackedRequest(String description, HttpResponseHandler handler, CircuitBreaker.Permit permit) {
+			this.description = description;
+			this.handler = handler;
+			this.permit = permit;
+			timeout = requestTimeout > 0 ? Timers.schedule(this::timedOut, requestTimeout) : null;
+		}
+
+		HttpResponseHandler proxy() {
+			return (HttpResponseHandler) Proxy.newProxyInstance(HttpResponseHandler.class.getClassLoader(),
+					new Class<?>[] { HttpResponseHandler.class }, this);
+		}
+
+		/**
+		 * Mark the request as holding an in-flight slot
+		 * @return whether the request should be sent, or <code>false</code> if it already timed out
+		 */
+		boolean markSent() {
+			return state.compareAndSet(WAITING, SENT);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+			boolean success = m.getName().equals("onSuccess");
+			if ((success || m.getName().equals("onFailure")) && !completed(success ? null : (Throwable) args[0]))
+				return null; // the request already timed out, so its handler was already called
+			try {
+				return m.invoke(handler, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		private void timedOut() {
+			int previous;
+			do {
+				previous = state.get();
+				if (previous == COMPLETED || previous == TIMED_OUT)
+					return;
+			} while (!state.compareAndSet(previous, previous == WAITING ? COMPLETED : TIMED_OUT));
+			// a request that is still waiting holds no slot, and will be dropped from the queue when its turn comes
+			RestException error = new RestException("Request timed out after " + requestTimeout + "ms: " + description);
+			report(error);
+			handler.onFailure(error);
+		}
+
+		/**
+		 * Handle the real outcome of the request: release its in-flight slot, and report the outcome unless the
+		 * request already timed out
+		 * @param error request failure, or <code>null</code> if the request got a response
+		 * @return whether the request's handler should be called, or <code>false</code> if it already timed out
+		 */
+		private boolean completed(Throwable error) {
+			int previous = state.getAndSet(COMPLETED);
+			if (previous == COMPLETED)
+				return false;
+			if (maxInFlight > 0 && previous != WAITING) {
+				inFlight.decrementAndGet();
+				sendWaiting();
+			}
+			if (previous == TIMED_OUT)
+				return false;
+			if (timeout != null)
+				timeout.cancel();
+			report(error);
+			return true;
+		}
+
+		/**
+		 * Report the request's outcome to the latency listener and circuit breaker
+		 * @param error request failure, or <code>null</code> if the request got a response
+		 */
+		private void report(Throwable error) {
+			long latency = System.nanoTime() - start;
+			if (latencyListener != null)
+				latencyListener.accept(latency);
+			if (permit != null && error != null && isServerFailure(error))
+				permit.onFailure(latency);
+			else if (permit != null)
+				permit.onSuccess(latency);
+		}
+	}
+
+	/**
+	 * Check whether a failed request indicates a failing server, rather than an invalid request
+	 * @param error request failure
+	 * @return whether the server did not respond, or responded with a server error
+	 */
+	private static boolean isServerFailure(Throwable error) {
+		if (error instanceof RestException) {
+			int code = ((RestException) error).getCode();
+			return code <= 0 || code >= 500;
+		}
+		return true;
 	}
 
-}
\ No newline at end of file
+}
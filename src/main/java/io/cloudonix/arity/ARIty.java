@@ -1,24 +1,29 @@
 package io.cloudonix.arity;
 
-import java.lang.reflect.InvocationTargetException;
 import java.net.URISyntaxException;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Queue;
+import java.util.Set;
+import java.util.TimerTask;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import org.slf4j.Logger;
@@ -27,25 +32,29 @@ import org.slf4j.LoggerFactory;
 import ch.loway.oss.ari4java.ARI;
 import ch.loway.oss.ari4java.AriVersion;
 import ch.loway.oss.ari4java.ArityARIFactory;
-import ch.loway.oss.ari4java.generated.models.BridgeCreated;
-import ch.loway.oss.ari4java.generated.models.BridgeDestroyed;
+import ch.loway.oss.ari4java.ArityNettyHttpClient;
 import ch.loway.oss.ari4java.generated.models.Channel;
-import ch.loway.oss.ari4java.generated.models.DeviceStateChanged;
+import ch.loway.oss.ari4java.generated.models.ChannelDestroyed;
 import ch.loway.oss.ari4java.generated.models.Message;
-import ch.loway.oss.ari4java.generated.models.PlaybackFinished;
-import ch.loway.oss.ari4java.generated.models.PlaybackStarted;
-import ch.loway.oss.ari4java.generated.models.RecordingFinished;
-import ch.loway.oss.ari4java.generated.models.RecordingStarted;
 import ch.loway.oss.ari4java.generated.models.StasisEnd;
 import ch.loway.oss.ari4java.generated.models.StasisStart;
 import ch.loway.oss.ari4java.tools.ARIException;
-import ch.loway.oss.ari4java.tools.AriCallback;
+import ch.loway.oss.ari4java.tools.AriConnectionEvent;
+import ch.loway.oss.ari4java.tools.AriWSCallback;
 import ch.loway.oss.ari4java.tools.RestException;
 import ch.loway.oss.ari4java.tools.WsClient;
 import ch.loway.oss.ari4java.tools.http.NettyHttpClient;
+import io.cloudonix.arity.errors.ChannelNotFoundException;
+import io.cloudonix.arity.errors.CircuitOpenException;
 import io.cloudonix.arity.errors.ConnectionFailedException;
+import io.cloudonix.arity.helpers.CircuitBreaker;
+import io.cloudonix.arity.helpers.LaneExecutor;
 import io.cloudonix.arity.helpers.Lazy;
 import io.cloudonix.arity.helpers.Timers;
+import io.cloudonix.arity.helpers.VirtualThreads;
+import io.cloudonix.arity.metrics.ArityMetrics;
+import io.cloudonix.arity.metrics.MicrometerArityMetrics;
+import io.cloudonix.arity.models.AsteriskChannel.HangupReasons;
 
 /**
  * The class represents the creation of ARI and websocket service that handles
@@ -54,7 +63,37 @@ import io.cloudonix.arity.helpers.Timers;
  * @author naamag
  *
  */
-public class ARIty implements AriCallback<Message> {
+public class ARIty implements AriWSCallback<Message> {
+
+	/**
+	 * State of the ARI events websocket
+	 */
+	public enum ConnectionState {
+		/** The websocket is being opened for the first time */
+		CONNECTING,
+		/** Events are being received */
+		CONNECTED,
+		/** The websocket dropped, and ARIty is reconnecting. Events that Asterisk sends meanwhile are lost */
+		DISCONNECTED,
+		/** ARIty was disconnected by the application, or does not use a websocket */
+		CLOSED
+	}
+
+	/**
+	 * What to do with an event whose event lane is full
+	 */
+	public enum EventOverflowPolicy {
+		/**
+		 * Dispatch the event, and pause reading events from Asterisk until the full lanes catch up. This is the
+		 * default
+		 */
+		PAUSE_READS,
+		/**
+		 * Drop the event and count it in the <code>arity.events.dropped</code> counter. StasisStart events are
+		 * never dropped, so that new calls are always handled
+		 */
+		DROP
+	}
 	
 	public class Builder {
 
@@ -67,6 +106,23 @@ public class ARIty implements AriCallback<Message> {
 		private Consumer<Exception> errorHandler = e -> {};
 		private int connectionAttempts = 0; // do not change
 		private NettyHttpClient httpClient;
+		private int eventLanes = 0; // default depends on the threading mode
+		private int eventLaneQueueSize = 1000;
+		private EventOverflowPolicy eventOverflowPolicy = EventOverflowPolicy.PAUSE_READS;
+		private boolean virtualThreads = false;
+		private Duration channelCleanupGrace = Duration.ofSeconds(30);
+		private ArityMetrics metrics = ArityMetrics.NOOP;
+		private RetryPolicy retryPolicy;
+		private CircuitBreaker circuitBreaker;
+		private HangupReasons loadSheddingReason;
+		private AdmissionController admissionController;
+		private int maxInFlightRequests = 0;
+		private Duration requestTimeout = Duration.ZERO;
+		private Duration reconnectBaseDelay = Duration.ofSeconds(1);
+		private Duration reconnectMaxDelay = Duration.ofSeconds(30);
+		private Duration variableBatchWindow = Duration.ZERO;
+		private Duration unsetVariableCacheTtl = Duration.ofSeconds(2);
+		private Set<String> prefetchVariables = new LinkedHashSet<>();
 
 		public Builder setUri(String uri) {
 			this.uri = uri;
@@ -108,10 +164,225 @@ public class ARIty implements AriCallback<Message> {
 			return this;
 		}
 
+		/**
+		 * Set the number of serial lanes used to dispatch events.
+		 * 
+		 * Events are dispatched to handlers on a lane selected by the event's channel, so that events for the same
+		 * channel are always handled in order, while events for different channels are handled in parallel. The
+		 * default is the number of available processors, or 256 when using virtual threads.
+		 * @param lanes number of event dispatch lanes (and threads)
+		 * @return itself for fluent calls
+		 */
+		public Builder setEventLanes(int lanes) {
+			this.eventLanes = lanes;
+			return this;
+		}
+
+		/**
+		 * Set the maximum number of events waiting to be dispatched in each event lane. When a lane is full, new
+		 * events for it are handled according to the event overflow policy. The default is 1000.
+		 * @param size maximum number of queued events per lane
+		 * @return itself for fluent calls
+		 */
+		public Builder setEventLaneQueueSize(int size) {
+			this.eventLaneQueueSize = size;
+			return this;
+		}
+
+		/**
+		 * Set what to do with events whose event lane is full. Events are received on the ARI client's I/O thread,
+		 * that also handles ARI responses, so ARIty never blocks waiting for a lane to have room. The default is
+		 * {@link EventOverflowPolicy#PAUSE_READS}.
+		 * @param policy event overflow policy
+		 * @return itself for fluent calls
+		 */
+		public Builder setEventOverflowPolicy(EventOverflowPolicy policy) {
+			this.eventOverflowPolicy = Objects.requireNonNull(policy);
+			return this;
+		}
+
+		/**
+		 * Run call controllers, event handlers and ARI operation completions on virtual threads.
+		 * 
+		 * This allows call controllers to use blocking code (such as calling {@link CompletableFuture#join()} on
+		 * operation results) without holding on to platform threads. Virtual threads require Java 21 or later - on
+		 * older JVMs this setting is ignored with a warning.
+		 * 
+		 * Please note that ARI operation completions are dispatched by an executor shared by all ARIty instances in
+		 * the JVM, so enabling virtual threads for one instance affects operations of all instances.
+		 * @param useVirtualThreads whether to use virtual threads instead of platform thread pools
+		 * @return itself for fluent calls
+		 */
+		public Builder setVirtualThreads(boolean useVirtualThreads) {
+			this.virtualThreads = useVirtualThreads;
+			return this;
+		}
+
+		/**
+		 * Set how long to keep event handlers registered on a channel after it leaves stasis or is destroyed, before
+		 * they are discarded. The default is 30 seconds.
+		 * @param grace time to wait before discarding a channel's event handlers
+		 * @return itself for fluent calls
+		 */
+		public Builder setChannelCleanupGrace(Duration grace) {
+			this.channelCleanupGrace = Objects.requireNonNull(grace);
+			return this;
+		}
+
+		/**
+		 * Report ARIty's internal metrics - such as event dispatch latency, ARI request latency and retries, and
+		 * queue depths - to the specified metrics implementation. By default metrics are not collected.
+		 * 
+		 * Please note that ARI operations are issued through static methods that are shared by all ARIty instances
+		 * in the JVM, so their metrics are reported to the last metrics implementation that was set.
+		 * @param metrics metrics implementation, such as {@link MicrometerArityMetrics}
+		 * @return itself for fluent calls
+		 */
+		public Builder setMetrics(ArityMetrics metrics) {
+			this.metrics = Objects.requireNonNull(metrics);
+			return this;
+		}
+
+		/**
+		 * Set the policy that decides whether and when failed ARI operations are retried. By default, operations
+		 * are retried up to 3 times with exponential backoff, within a retry budget shared by all operations.
+		 * 
+		 * Please note that ARI operations are issued through static methods that are shared by all ARIty instances
+		 * in the JVM, so they use the last retry policy that was set.
+		 * @param policy retry policy
+		 * @return itself for fluent calls
+		 */
+		public Builder setRetryPolicy(RetryPolicy policy) {
+			this.retryPolicy = Objects.requireNonNull(policy);
+			return this;
+		}
+
+		/**
+		 * Send ARI requests through a circuit breaker, that fails requests immediately with a
+		 * {@link CircuitOpenException} while too many requests to Asterisk are failing or are slow, instead of
+		 * adding load to an overloaded Asterisk. By default, no circuit breaker is used.
+		 * @param circuitBreaker circuit breaker to track ARI requests with
+		 * @return itself for fluent calls
+		 */
+		public Builder setCircuitBreaker(CircuitBreaker circuitBreaker) {
+			this.circuitBreaker = Objects.requireNonNull(circuitBreaker);
+			return this;
+		}
+
+		/**
+		 * Hang up new calls, instead of handing them to the application, while the circuit breaker set by
+		 * {@link #setCircuitBreaker(CircuitBreaker)} is open. Channels that the application waits for (such as
+		 * channels it dialed) are not affected.
+		 * @param reason hangup reason to report for shed calls, for example {@link HangupReasons#CONGESTION}
+		 * @return itself for fluent calls
+		 */
+		public Builder setLoadShedding(HangupReasons reason) {
+			this.loadSheddingReason = Objects.requireNonNull(reason);
+			return this;
+		}
+
+		/**
+		 * Limit the number of new calls handled by the default call handler (the registered voice application),
+		 * using an admission controller that rejects or queues excess calls. Channels that the application waits for
+		 * (such as channels it dialed) are not affected. By default, all new calls are admitted.
+		 * @param admissionController admission controller for new calls
+		 * @return itself for fluent calls
+		 */
+		public Builder setAdmissionController(AdmissionController admissionController) {
+			this.admissionController = Objects.requireNonNull(admissionController);
+			return this;
+		}
+
+		/**
+		 * Limit the number of ARI requests sent to Asterisk concurrently, so a burst of operations queues in the
+		 * application instead of overloading Asterisk's HTTP server. By default the number of requests is not limited.
+		 * @param requests maximum number of concurrent ARI requests
+		 * @return itself for fluent calls
+		 */
+		public Builder setMaxInFlightRequests(int requests) {
+			if (requests < 1)
+				throw new IllegalArgumentException("At least one in-flight request must be allowed");
+			this.maxInFlightRequests = requests;
+			return this;
+		}
+
+		/**
+		 * Fail ARI requests that did not complete in time, including the time they waited for the in-flight limit set
+		 * by {@link #setMaxInFlightRequests(int)}. Timed out requests are retried according to the retry policy.
+		 * By default requests are only timed out by ari4java.
+		 * @param timeout maximum time for an ARI request to complete
+		 * @return itself for fluent calls
+		 */
+		public Builder setRequestTimeout(Duration timeout) {
+			this.requestTimeout = Objects.requireNonNull(timeout);
+			return this;
+		}
+
+		/**
+		 * Set the backoff between attempts to reopen the events websocket, after ari4java gave up reconnecting by
+		 * itself (see {@link #setMaxConnectionAttempts(int)}). ARIty keeps reconnecting until it is disconnected by
+		 * the application. The default is to start at 1 second, doubling up to 30 seconds.
+		 * @param base delay before the first attempt
+		 * @param max maximum delay between attempts
+		 * @return itself for fluent calls
+		 */
+		public Builder setReconnectBackoff(Duration base, Duration max) {
+			if (base.isNegative() || max.compareTo(base) < 0)
+				throw new IllegalArgumentException("Invalid reconnect backoff " + base + "-" + max);
+			this.reconnectBaseDelay = base;
+			this.reconnectMaxDelay = max;
+			return this;
+		}
+
+		/**
+		 * Set how long call states collect channel variable reads and writes before sending them to ARI together.
+		 * By default, reads and writes are sent as soon as an ARIty thread is available, which collects the reads and
+		 * writes that the application makes together. A longer window may combine more requests, but delays each
+		 * read and write by up to the window (rounded up to the ARIty timer resolution).
+		 * @param window time to collect variable reads and writes
+		 * @return itself for fluent calls
+		 */
+		public Builder setVariableBatchWindow(Duration window) {
+			this.variableBatchWindow = Objects.requireNonNull(window);
+			return this;
+		}
+
+		/**
+		 * Set how long call states remember that a channel variable is not set, after reading it from ARI, so that
+		 * repeatedly probing for an unset variable (such as an optional SIP header) does not send a request each
+		 * time. Setting the variable, or receiving a variable set event for it, clears the entry. The default is 2
+		 * seconds.
+		 * @param ttl time to remember unset variables, or {@link Duration#ZERO} to always read them from ARI
+		 * @return itself for fluent calls
+		 */
+		public Builder setUnsetVariableCacheTtl(Duration ttl) {
+			this.unsetVariableCacheTtl = Objects.requireNonNull(ttl);
+			return this;
+		}
+
+		/**
+		 * Set channel variables to read for every new call before its call controller runs, so the controller can
+		 * use them from {@link CallController#getVariables()} without waiting for ARI. The variables and read-only
+		 * dialplan functions are read together in a single request, followed by a separate request for each one that
+		 * turns out to be empty or unset, and for functions with side effects such as <code>SHIFT()</code>. Variables
+		 * that Asterisk sends with the channel (the <code>channelvars</code> option in <code>ari.conf</code>) are not
+		 * requested at all. Call controllers can add their own variables using
+		 * {@link CallController#getPrefetchVariables()}.
+		 * @param names variable names, such as <code>CALLERID(num)</code> or <code>SIP_HEADER(X-Account)</code>
+		 * @return itself for fluent calls
+		 */
+		public Builder setPrefetchVariables(String... names) {
+			this.prefetchVariables = new LinkedHashSet<>(Arrays.asList(names));
+			return this;
+		}
+
 		public NettyHttpClient createHttpClient() throws URISyntaxException {
 			if (httpClient != null)
 				return httpClient;
-			httpClient = new NettyHttpClient();
+			httpClient = new ArityNettyHttpClient(circuitBreaker,
+					admissionController != null ? admissionController::observeLatency : null)
+					.setMaxInFlightRequests(maxInFlightRequests)
+					.setRequestTimeout(requestTimeout);
 			httpClient.initialize(uri, login, password);
 			if (connectionAttempts != 0)
 				httpClient.setMaxReconnectCount(connectionAttempts);
@@ -123,37 +394,44 @@ public class ARIty implements AriCallback<Message> {
 		}
 	}
 	
-	private class ChannelCleanup {
-		private Instant schedule;
-		private String channelId;
-		
-		public ChannelCleanup(String channelId) {
-			this.channelId = channelId;
-			schedule = Instant.now().plusSeconds(30);
-		}
-		
-		private boolean checkCleanup() {
-			if (Instant.now().isBefore(schedule))
-				return false;
-			channelEventHandlers.remove(channelId);
-			return true;
-		}
-	}
-	
 	private final static Logger logger = LoggerFactory.getLogger(ARIty.class);
-	private ConcurrentHashMap<String,Queue<EventHandler<?>>> channelEventHandlers = new ConcurrentHashMap<>();
-	private Queue<EventHandler<?>> rawEventHandlers = new ConcurrentLinkedQueue<>();
+	private EventDispatchTable eventHandlers = new EventDispatchTable();
+	private ChannelIdExtractors channelIdExtractors = new ChannelIdExtractors();
 	private ARI ari;
 	private String appName;
 	private Consumer<CallState> defaultCallHandler = this::hangupDefault;
-	private ConcurrentHashMap<String, Consumer<CallState>> stasisStartListeners = new ConcurrentHashMap<>();
-	private Deque<ChannelCleanup> scheduledCleanups = new ConcurrentLinkedDeque<>();
+	private ConcurrentHashMap<String, CompletableFuture<CallState>> stasisStartListeners = new ConcurrentHashMap<>();
+	private ConcurrentHashMap<String, Instant> scheduledCleanups = new ConcurrentHashMap<>();
+	private Duration channelCleanupGrace;
+	private volatile TimerTask cleanupSweep;
+	private ArityMetrics metrics;
+	private CircuitBreaker circuitBreaker;
+	private HangupReasons loadSheddingReason;
+	private AtomicLong shedCalls = new AtomicLong();
+	private AdmissionController admissionController;
 	private Consumer<Exception> ce;
 	private Lazy<Channels> channels = new Lazy<>(() -> new Channels(this));
 	private Lazy<Bridges> bridges = new Lazy<>(() -> new Bridges(this));
 	private ExecutorService threadpool = Executors.newCachedThreadPool();
+	private LaneExecutor eventLanes;
+	private EventOverflowPolicy eventOverflowPolicy;
+	private AtomicLong droppedEvents = new AtomicLong();
+	private boolean eventReadsPaused, eventReadsUnpausable;
+	private ArityNettyHttpClient httpClient;
 	boolean autoBindBridges = false;
 	private String url;
+	private volatile ConnectionState connectionState = ConnectionState.CLOSED;
+	private List<Consumer<ConnectionState>> connectionStateListeners = new CopyOnWriteArrayList<>();
+	private Duration reconnectBaseDelay, reconnectMaxDelay;
+	private int reconnectAttempts;
+	private TimerTask reconnectTask;
+	private long disconnectedAt;
+	private Set<String> liveAtDisconnect;
+	private AtomicLong reconnects = new AtomicLong(), lostChannels = new AtomicLong();
+	private volatile String asteriskId;
+	private long variableBatchWindow;
+	private long unsetVariableCacheTtl;
+	private Set<String> prefetchVariables;
 
 	/**
 	 * Create and connect ARIty to Asterisk
@@ -234,6 +512,59 @@ public class ARIty implements AriCallback<Message> {
 		builder.accept(b);
 		this.appName = Objects.requireNonNull(b.appName, "Application name must be specified");
 		this.ce = b.errorHandler;
+		this.channelCleanupGrace = b.channelCleanupGrace;
+		boolean virtual = b.virtualThreads && VirtualThreads.isAvailable();
+		if (b.virtualThreads && !virtual)
+			logger.warn("Virtual threads are not supported by this JVM, using platform threads");
+		if (virtual) {
+			threadpool = VirtualThreads.newExecutor("arity-calls-" + appName);
+			Operation.useVirtualThreads();
+		}
+		int lanes = b.eventLanes > 0 ? b.eventLanes : virtual ? 256 : Runtime.getRuntime().availableProcessors();
+		this.eventLanes = new LaneExecutor("arity-events-" + appName, lanes, b.eventLaneQueueSize,
+				virtual ? VirtualThreads.factory("arity-events-" + appName) : null)
+				.setDrainListener(this::resumeEventReads);
+		eventOverflowPolicy = b.eventOverflowPolicy;
+		scheduleCleanupSweep();
+		this.metrics = b.metrics.forInstance(appName, b.uri);
+		if (b.retryPolicy != null)
+			Operation.setRetryPolicy(b.retryPolicy);
+		circuitBreaker = b.circuitBreaker;
+		loadSheddingReason = circuitBreaker != null ? b.loadSheddingReason : null;
+		admissionController = b.admissionController;
+		reconnectBaseDelay = b.reconnectBaseDelay;
+		reconnectMaxDelay = b.reconnectMaxDelay;
+		variableBatchWindow = b.variableBatchWindow.toMillis();
+		unsetVariableCacheTtl = b.unsetVariableCacheTtl.toNanos();
+		prefetchVariables = Collections.unmodifiableSet(new LinkedHashSet<>(b.prefetchVariables));
+		if (metrics.isEnabled()) {
+			Operation.useMetrics(b.metrics);
+			metrics.gauge("arity.events.queued", eventLanes::getQueuedTasks);
+			metrics.counter("arity.events.dropped", droppedEvents, AtomicLong::get);
+			metrics.gauge("arity.channels.live", this::getLiveChannelCount);
+			metrics.gauge("arity.channels.pending.cleanup", this::getPendingCleanupCount);
+			metrics.gauge("arity.events.handlers", this::getEventHandlerCount);
+			metrics.gauge("arity.stasis.listeners", this::getStasisStartListenerCount);
+			metrics.gauge("arity.rest.retry.budget", () -> Operation.getRetryPolicy().getAvailableRetries());
+			if (circuitBreaker != null) {
+				metrics.gauge("arity.circuit.open", () -> circuitBreaker.isOpen() ? 1 : 0);
+				metrics.counter("arity.circuit.rejected", circuitBreaker, CircuitBreaker::getRejectedCount);
+				metrics.counter("arity.calls.shed", shedCalls, AtomicLong::get);
+			}
+			if (admissionController != null) {
+				metrics.gauge("arity.calls.running", admissionController::getRunningCalls);
+				metrics.gauge("arity.calls.queued", admissionController::getQueuedCalls);
+				metrics.gauge("arity.calls.limit", admissionController::getConcurrencyLimit);
+				metrics.counter("arity.calls.admitted.total", admissionController, AdmissionController::getAdmittedCount);
+				metrics.counter("arity.calls.rejected.total", admissionController, AdmissionController::getRejectedCount);
+				metrics.counter("arity.calls.queued.total", admissionController, AdmissionController::getQueuedCount);
+			}
+			metrics.gauge("arity.ws.connected", () -> connectionState == ConnectionState.CONNECTED ? 1 : 0);
+			metrics.counter("arity.ws.reconnects", reconnects, AtomicLong::get);
+			metrics.counter("arity.ws.channels.lost", lostChannels, AtomicLong::get);
+			metrics.gauge("arity.timers.pending", () -> Timers.getScheduler().getPendingCount());
+			metrics.gauge("arity.timers.lateness.max", () -> Timers.getScheduler().getMaxLatenessMillis());
+		}
 		if (b.uri == null)
 			return; // users might want to not connect, start ARIty just for tests
 		if (!b.uri.endsWith("/"))
@@ -242,16 +573,25 @@ public class ARIty implements AriCallback<Message> {
 		try {
 			ArityARIFactory.setupHttpClient(b.uri, b.login, b.password);
 			ari = ArityARIFactory.nettyHttp(this.url = b.uri, b.login, b.password, b.ariVersion, appName, true);
-			ari.setHttpClient(b.createHttpClient());
+			NettyHttpClient httpClient = b.createHttpClient();
+			ari.setHttpClient(httpClient);
+			if (httpClient instanceof ArityNettyHttpClient)
+				this.httpClient = (ArityNettyHttpClient) httpClient;
+			if (metrics.isEnabled() && this.httpClient != null) {
+				metrics.gauge("arity.rest.inflight", this.httpClient::getInFlightRequests);
+				metrics.gauge("arity.rest.waiting", this.httpClient::getWaitingRequests);
+			}
 			ari.setWsClient(b.createWsClient());
 			logger.info("Ari created {}", url);
 			logger.info("Ari version: " + ari.getVersion());
 			if (b.openWebSocket) {
+				connectionState = ConnectionState.CONNECTING;
 				ari.events().eventWebsocket(appName).setSubscribeAll(true).execute(this);
 				logger.info("Websocket is open");
 			}
 		} catch (ARIException e) {
 			logger.error("Connection failed: ",e);
+			stopDispatching();
 			throw new ConnectionFailedException(e);
 		}
 	}
@@ -285,6 +625,32 @@ public class ARIty implements AriCallback<Message> {
 	void dispatchTask(Runnable task) {
 		CompletableFuture.runAsync(task, threadpool);
 	}
+
+	/**
+	 * Execute an event handling task in the event lane of the specified channel, after all previously dispatched
+	 * tasks for the same channel
+	 * @param channelId channel the task handles an event for, or <code>null</code> if the task is not channel specific
+	 * @param task task to dispatch
+	 */
+	void dispatchTask(String channelId, Runnable task) {
+		eventLanes.execute(channelId, task);
+	}
+
+	/**
+	 * Retrieve the window for batching channel variable reads and writes
+	 * @return window in milliseconds, or 0 to batch only requests made together
+	 */
+	long getVariableBatchWindow() {
+		return variableBatchWindow;
+	}
+
+	/**
+	 * Retrieve how long call states remember that a channel variable is not set
+	 * @return time to live in nanoseconds, or 0 if unset variables are not remembered
+	 */
+	long getUnsetVariableCacheTtl() {
+		return unsetVariableCacheTtl;
+	}
 	
 	private void getControllerAndRunCall(CallState newcall, Supplier<CallController> controllerSupplier) {
 		try {
@@ -450,7 +816,7 @@ public class ARIty implements AriCallback<Message> {
 	 */
 	public CompletableFuture<CallState> waitForNewCallState(String channelId, Duration timeout) {
 		CompletableFuture<CallState> promise = new CompletableFuture<>();
-		stasisStartListeners.put(channelId, promise::complete);
+		stasisStartListeners.put(channelId, promise);
 		if (timeout != null)
 			Timers.schedule(() -> {
 				if (stasisStartListeners.remove(channelId) != null)
@@ -460,6 +826,17 @@ public class ARIty implements AriCallback<Message> {
 		return promise;
 	}
 
+	/**
+	 * Stop waiting for a specific stasis call, such as when the request that creates the channel failed. A promise
+	 * returned for the channel by {@link #waitForNewCallState(String, Duration)} is cancelled.
+	 * @param channelId the channel id that was waited for
+	 */
+	public void cancelWaitForNewCall(String channelId) {
+		CompletableFuture<CallState> listener = stasisStartListeners.remove(channelId);
+		if (listener != null)
+			listener.cancel(false);
+	}
+
 	/**
 	 * Register to receive a specific stasis call as a default call controller implementation.
 	 * 
@@ -546,32 +923,158 @@ public class ARIty implements AriCallback<Message> {
 
 	@Override
 	public void onSuccess(Message event) {
-		if (event instanceof StasisStart) {
-			threadpool.submit(() -> handleStasisStart(event));
+		long received = metrics.isEnabled() ? System.nanoTime() : 0;
+		if (asteriskId == null)
+			asteriskId = event.getAsterisk_id();
+		String channelId = getEventChannelId(event);
+		if (eventLanes.isFull(channelId) && !admitOverflowingEvent(event, channelId))
 			return;
+		long handlersReceived = received;
+		if (event instanceof StasisStart) {
+			// handle on the channel's lane, so the call is set up before any later event for the channel is handled -
+			// including the handlers of this event
+			eventLanes.execute(channelId, () -> {
+				reportDispatch(event, received);
+				handleStasisStart(event);
+			});
+			handlersReceived = 0; // already reported
 		}
 
-		String channelId = getEventChannelId(event);
 		logger.debug("Received event {} {}", event.getClass().getSimpleName(), channelId == null ? "" : (
 				"on channel " + channelId));
-		if (channelId != null)
-			handleChannelEvents(event, channelId);
-		// dispatch global event handlers
-		for (Iterator<EventHandler<?>> itr = rawEventHandlers.iterator(); itr.hasNext(); )
-			itr.next().accept(event);
-		var c = scheduledCleanups.poll();
-		if (c != null && !c.checkCleanup())
-			scheduledCleanups.offerFirst(c);
-	}
-
-	private void handleChannelEvents(Message event, String channelId) {
-		// fire events in reverse addition order: newer listeners get to handle the event first.
-		// The event "bubbles" from deeper elements to upper elements 
-		new ArrayDeque<>(channelEventHandlers.computeIfAbsent(channelId, id -> new ConcurrentLinkedQueue<>()))
-		.descendingIterator().forEachRemaining(h -> h.accept(event));
-		// clear event handlers for this channel on stasis end
-		if (event instanceof StasisEnd)
-			scheduledCleanups.offerLast(new ChannelCleanup(channelId));
+		// fire channel events in reverse addition order: newer listeners get to handle the event first, so the event
+		// "bubbles" from deeper elements to upper elements. Then fire global events in addition order
+		eventHandlers.dispatch(event, channelId, handlersReceived);
+		// clear event handlers for this channel some time after it is gone
+		if (channelId != null && (event instanceof StasisEnd || event instanceof ChannelDestroyed)) {
+			scheduledCleanups.put(channelId, Instant.now().plus(channelCleanupGrace));
+			if (admissionController != null)
+				admissionController.release(channelId);
+		}
+	}
+
+	/**
+	 * Apply the event overflow policy to an event whose lane is full
+	 * @param event event that was received
+	 * @param channelId channel of the event
+	 * @return whether the event should still be dispatched
+	 */
+	private boolean admitOverflowingEvent(Message event, String channelId) {
+		if (eventOverflowPolicy == EventOverflowPolicy.DROP && !(event instanceof StasisStart)) {
+			droppedEvents.incrementAndGet();
+			logger.debug("Event lane of {} is full, dropping {}", channelId, event.getType());
+			return false;
+		}
+		if (eventOverflowPolicy == EventOverflowPolicy.PAUSE_READS)
+			pauseEventReads();
+		return true;
+	}
+
+	private synchronized void pauseEventReads() {
+		if (eventReadsPaused || eventReadsUnpausable)
+			return;
+		if (httpClient != null && httpClient.setEventReadsPaused(true)) {
+			eventReadsPaused = true;
+			logger.warn("Event lanes are full, pausing reading events from Asterisk");
+			return;
+		}
+		eventReadsUnpausable = true;
+		logger.warn("Event lanes are full, but reading events can not be paused - events will be queued");
+	}
+
+	private synchronized void resumeEventReads() {
+		eventReadsUnpausable = false;
+		if (!eventReadsPaused)
+			return;
+		eventReadsPaused = false;
+		httpClient.setEventReadsPaused(false);
+		logger.info("Event lanes caught up, resuming reading events from Asterisk");
+	}
+
+	/**
+	 * Report the dispatch latency of an event that is about to be handled
+	 * @param event event being handled
+	 * @param received time the event was received, or 0 if metrics are not collected
+	 */
+	void reportDispatch(Message event, long received) {
+		if (received != 0)
+			metrics.eventDispatched(event.getType(), System.nanoTime() - received);
+	}
+
+	private void stopDispatching() {
+		eventLanes.shutdown();
+		var sweep = cleanupSweep;
+		cleanupSweep = null;
+		if (sweep != null)
+			sweep.cancel();
+	}
+
+	private void scheduleCleanupSweep() {
+		long period = Math.max(100, Math.min(TimeUnit.SECONDS.toMillis(1), channelCleanupGrace.toMillis()));
+		cleanupSweep = Timers.schedule(() -> {
+			try {
+				sweepChannelCleanups();
+			} catch (Throwable t) {
+				logger.error("Unexpected error cleaning up channels", t);
+			}
+			if (cleanupSweep != null)
+				scheduleCleanupSweep();
+		}, period);
+	}
+
+	/**
+	 * Discard the event handlers and stasis start listeners of all channels whose clean up grace period has expired
+	 */
+	private void sweepChannelCleanups() {
+		Instant now = Instant.now();
+		for (var cleanup : scheduledCleanups.entrySet()) {
+			if (now.isBefore(cleanup.getValue()))
+				continue;
+			String channelId = cleanup.getKey();
+			if (!scheduledCleanups.remove(channelId, cleanup.getValue()))
+				continue; // rescheduled or cancelled concurrently
+			eventHandlers.removeChannel(channelId);
+			var listener = stasisStartListeners.remove(channelId);
+			if (listener != null)
+				listener.completeExceptionally(new ChannelNotFoundException(
+						new Exception("Channel " + channelId + " was destroyed before entering stasis")));
+		}
+	}
+
+	/**
+	 * Retrieve the number of channels that currently have event handlers registered, including channels that ended
+	 * and are waiting to be cleaned up
+	 * @return number of channels with registered event handlers
+	 */
+	public int getLiveChannelCount() {
+		return eventHandlers.channelCount();
+	}
+
+	/**
+	 * Retrieve the number of registered event handlers, on channels and global. Handlers that are not unregistered
+	 * when their operations end accumulate until their channel is cleaned up, so a growing count while the number
+	 * of live channels is stable indicates a handler leak. Counting scans all handlers, so this should be used for
+	 * monitoring only.
+	 * @return number of registered event handlers
+	 */
+	public int getEventHandlerCount() {
+		return eventHandlers.handlerCount();
+	}
+
+	/**
+	 * Retrieve the number of channels that ended and whose event handlers are waiting to be cleaned up
+	 * @return number of channels scheduled for clean up
+	 */
+	public int getPendingCleanupCount() {
+		return scheduledCleanups.size();
+	}
+
+	/**
+	 * Retrieve the number of channels that the application waits for to enter stasis
+	 * @return number of registered stasis start listeners
+	 */
+	public int getStasisStartListenerCount() {
+		return stasisStartListeners.size();
 	}
 
 	private void handleStasisStart(Message event) {
@@ -582,24 +1085,61 @@ public class ARIty implements AriCallback<Message> {
 			return;
 		}
 
+		// see if an application waits for this channel
+		CompletableFuture<CallState> channelHandler = stasisStartListeners.remove(channel.getId());
+		if (channelHandler == null && loadSheddingReason != null && circuitBreaker.isOpen()) {
+			logger.warn("ARI circuit breaker is {}, hanging up new call {}", circuitBreaker.getState(), channel.getId());
+			shedCalls.incrementAndGet();
+			CircuitBreaker.exempt(() -> channels().hangup(channel.getId(), loadSheddingReason));
+			return;
+		}
+
 		CallState callState = new CallState(ss, this);
+		// the channel may be re-entering stasis, in which case its handlers are still needed
+		scheduledCleanups.remove(channel.getId());
 
-		// see if an application waits for this channel
-		Consumer<CallState> channelHandler = stasisStartListeners.remove(channel.getId());
 		if (channelHandler != null) {
 			logger.debug("Stasis started for {} (id: {}), handling using {}", channel.getId(), event.getAsterisk_id(), channelHandler);
-			threadpool.execute(() -> channelHandler.accept(callState));
+			threadpool.execute(() -> channelHandler.complete(callState));
 			return;
 		}
 
 		logger.debug("Stasis started for {} (id: {}), running default handler", ss.getChannel().getId(), event.getAsterisk_id());
-		defaultCallHandler.accept(callState);
+		if (admissionController == null) {
+			defaultCallHandler.accept(callState);
+			return;
+		}
+		admissionController.admit(channel.getId(),
+				() -> dispatchTask(channel.getId(), () -> defaultCallHandler.accept(callState)),
+				() -> channels().hangup(channel.getId(), admissionController.getRejectReason()));
 	}
 	
 	public void initAndRun(CallController controller, CallState callState) {
+		Objects.requireNonNull(controller, "Missing call controller to handle the call");
+		Collection<String> prefetch = prefetchVariables;
+		Collection<String> controllerPrefetch = controller.getPrefetchVariables();
+		if (!controllerPrefetch.isEmpty()) {
+			prefetch = new LinkedHashSet<>(prefetch);
+			prefetch.addAll(controllerPrefetch);
+		}
+		CompletableFuture<VariableSnapshot> snapshot = callState.prefetchVariables(prefetch);
+		if (snapshot.isDone()) // nothing to read from ARI, start the controller right away
+			initAndRunNow(controller, callState);
+		else
+			snapshot.whenCompleteAsync((vars, t) -> {
+				if (t != null) // run the controller anyway, it can read the variables itself
+					logger.warn("Failed to prefetch variables for channel {}: {}", callState.getChannelId(), t.toString());
+				try {
+					initAndRunNow(controller, callState);
+				} catch (Throwable e) { // already logged
+				}
+			}, threadpool);
+	}
+
+	private void initAndRunNow(CallController controller, CallState callState) {
 		logger.debug("Initializing and running call controller {}", controller);
 		try {
-			Objects.requireNonNull(controller, "Missing call controller to handle the call").init(callState);
+			controller.init(callState);
 			(autoBindBridges ? controller.bindToBridge() : CompletableFuture.completedFuture(null))
 			.thenComposeAsync(v -> controller.run(), threadpool)
 			.whenComplete((v,t) -> {
@@ -623,44 +1163,202 @@ public class ARIty implements AriCallback<Message> {
 	 * @return
 	 */
 	private String getEventChannelId(Message event) {
-		if (event instanceof DeviceStateChanged || event instanceof BridgeCreated || event instanceof BridgeDestroyed)
-			return null; // skip this, it never has a channel
+		return channelIdExtractors.getChannelId(event);
+	}
 
-		if (event instanceof ch.loway.oss.ari4java.generated.models.Dial)
-			return ((ch.loway.oss.ari4java.generated.models.Dial) event).getPeer().getId();
+	/**
+	 * Register a function that determines which channel events of a specific type should be routed to.
+	 *
+	 * ARIty knows how to route all the channel events it handles, as well as playback and recording events, so this is
+	 * only needed for custom events or for events that are not channel specific - for example, to have bridge events
+	 * dispatched to handlers that were registered (using {@link #addEventHandler(Class, String, BiConsumer)}) with the
+	 * bridge ID instead of a channel ID.
+	 * @param <T> type of message
+	 * @param type message type to register for. The extractor is also used for sub-types of this type that have no
+	 *   extractor of their own
+	 * @param extractor function that returns the ID to route the event by, or <code>null</code> to only dispatch the
+	 *   event to general event handlers
+	 * @return itself for fluent calls
+	 */
+	public <T extends Message> ARIty registerChannelIdExtractor(Class<T> type, Function<? super T, String> extractor) {
+		channelIdExtractors.register(Objects.requireNonNull(type), Objects.requireNonNull(extractor));
+		return this;
+	}
 
-		if (event instanceof PlaybackStarted)
-			return ((PlaybackStarted) event).getPlayback().getTarget_uri()
-					.substring(((PlaybackStarted) event).getPlayback().getTarget_uri().indexOf(":") + 1);
+	@Override
+	public void onFailure(RestException e) {
+		logger.warn(e.getMessage());
+		ce.accept(e);
+		synchronized (this) {
+			// ari4java reports a failure after it gave up reconnecting the websocket, so take over reconnecting
+			if (connectionState == ConnectionState.DISCONNECTED && reconnectTask == null)
+				scheduleReconnect();
+		}
+	}
 
-		if (event instanceof PlaybackFinished)
-			return ((PlaybackFinished) event).getPlayback().getTarget_uri()
-					.substring(((PlaybackFinished) event).getPlayback().getTarget_uri().indexOf(":") + 1);
+	@Override
+	public void onConnectionEvent(AriConnectionEvent event) {
+		switch (event) {
+		case WS_CONNECTED:
+			Set<String> tracked;
+			long disconnectedFor;
+			synchronized (this) {
+				if (connectionState == ConnectionState.CLOSED || connectionState == ConnectionState.CONNECTED)
+					return;
+				tracked = liveAtDisconnect;
+				liveAtDisconnect = null;
+				disconnectedFor = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - disconnectedAt);
+				if (reconnectTask != null)
+					reconnectTask.cancel();
+				reconnectTask = null;
+				reconnectAttempts = 0;
+				eventReadsPaused = false; // a new websocket reads events until it is paused again
+				connectionState = ConnectionState.CONNECTED;
+			}
+			if (tracked != null) {
+				reconnects.incrementAndGet();
+				logger.info("Websocket reconnected after {}ms", disconnectedFor);
+				resynchronize(tracked);
+			}
+			break;
+		case WS_DISCONNECTED:
+			int live;
+			synchronized (this) {
+				if (connectionState == ConnectionState.CLOSED || connectionState == ConnectionState.DISCONNECTED)
+					return;
+				// remember which channels were live, to find out which of them ended while events were lost
+				liveAtDisconnect = new HashSet<>(eventHandlers.channelIds());
+				live = liveAtDisconnect.size();
+				disconnectedAt = System.nanoTime();
+				connectionState = ConnectionState.DISCONNECTED;
+			}
+			logger.warn("Websocket disconnected, {} channels may miss events until it reconnects", live);
+			break;
+		}
+		fireConnectionStateListeners();
+	}
 
-		if (event instanceof RecordingStarted)
-			return ((RecordingStarted) event).getRecording().getTarget_uri()
-					.substring(((RecordingStarted) event).getRecording().getTarget_uri().indexOf(":") + 1);
-		if (event instanceof RecordingFinished)
-			return ((RecordingFinished) event).getRecording().getTarget_uri()
-					.substring(((RecordingFinished) event).getRecording().getTarget_uri().indexOf(":") + 1);
+	/**
+	 * Reopen the events websocket after a delay. Must be called while synchronized
+	 */
+	private void scheduleReconnect() {
+		long backoff = Math.min(reconnectMaxDelay.toMillis(),
+				reconnectBaseDelay.toMillis() << Math.min(reconnectAttempts++, 20));
+		long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+		logger.info("Reopening the websocket in {}ms (attempt {})", delay, reconnectAttempts);
+		reconnectTask = Timers.schedule(() -> {
+			synchronized (this) {
+				reconnectTask = null;
+				if (connectionState != ConnectionState.DISCONNECTED)
+					return;
+			}
+			try {
+				ari.events().eventWebsocket(appName).setSubscribeAll(true).execute(this);
+			} catch (Throwable t) {
+				logger.warn("Failed to reopen the websocket: {}", t.toString());
+				synchronized (this) {
+					if (connectionState == ConnectionState.DISCONNECTED && reconnectTask == null)
+						scheduleReconnect();
+				}
+			}
+		}, delay);
+	}
 
-		try {
-			Class<?> msgClass = event.getClass();
-			Object chan = msgClass.getMethod("getChannel").invoke(event);
-			if (Objects.nonNull(chan))
-				return ((Channel) chan).getId();
-			logger.warn("Channel ID is not set for event " + event);
-		} catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException
-				| InvocationTargetException e) {
-			logger.warn("Can not get channel id for event " + event + ": " + e);
+	/**
+	 * Reconcile the channels ARIty tracks with the channels Asterisk has after the websocket reconnected
+	 * @param tracked channels that had event handlers when the websocket disconnected
+	 */
+	private void resynchronize(Set<String> tracked) {
+		getActiveChannels().thenCombine(bridges().list(), (channels, bridges) -> {
+			Set<String> live = new HashSet<>();
+			channels.forEach(c -> live.add(c.getId()));
+			bridges.forEach(br -> live.add(br.getId())); // handlers may be registered on bridge IDs
+			return live;
+		}).thenAccept(live -> {
+			int lost = endLostChannels(tracked, live);
+			if (lost > 0)
+				logger.info("{} channels ended while the websocket was disconnected", lost);
+		}).exceptionally(t -> {
+			logger.error("Failed to resynchronize channels after the websocket reconnected", t);
+			return null;
+		});
+	}
+
+	/**
+	 * Dispatch hangup events for channels that are gone, so their call states, controllers and event handlers
+	 * do not wait forever for events that were lost
+	 * @param tracked channels that had event handlers when the websocket disconnected
+	 * @param live IDs of channels and bridges that currently exist in Asterisk
+	 * @return number of channels that were ended
+	 */
+	int endLostChannels(Set<String> tracked, Set<String> live) {
+		int lost = 0;
+		for (String channelId : tracked) {
+			// channels that are scheduled for clean up already got their hangup events
+			if (live.contains(channelId) || scheduledCleanups.containsKey(channelId))
+				continue;
+			logger.debug("Channel {} ended while the websocket was disconnected", channelId);
+			for (Message event : SyntheticEvents.hangup(channelId, appName, asteriskId))
+				onSuccess(event);
+			lost++;
 		}
-		return null;
+		lostChannels.addAndGet(lost);
+		return lost;
 	}
 
-	@Override
-	public void onFailure(RestException e) {
-		logger.warn(e.getMessage());
-		ce.accept(e);
+	/**
+	 * Register a listener to be notified when the state of the events websocket changes
+	 * @param listener listener that accepts the new state
+	 * @return itself for fluent calls
+	 */
+	public ARIty addConnectionStateListener(Consumer<ConnectionState> listener) {
+		connectionStateListeners.add(Objects.requireNonNull(listener));
+		return this;
+	}
+
+	public void removeConnectionStateListener(Consumer<ConnectionState> listener) {
+		connectionStateListeners.remove(listener);
+	}
+
+	private void fireConnectionStateListeners() {
+		ConnectionState state = connectionState;
+		for (Consumer<ConnectionState> listener : connectionStateListeners) {
+			try {
+				listener.accept(state);
+			} catch (Throwable t) {
+				logger.error("Connection state listener failed", t);
+			}
+		}
+	}
+
+	public ConnectionState getConnectionState() {
+		return connectionState;
+	}
+
+	/**
+	 * Retrieve the number of times the events websocket reconnected after being disconnected
+	 * @return number of reconnections
+	 */
+	public long getReconnectCount() {
+		return reconnects.get();
+	}
+
+	/**
+	 * Retrieve the number of channels that ended while the events websocket was disconnected, for which ARIty
+	 * dispatched synthetic hangup events after reconnecting
+	 * @return number of lost channels
+	 */
+	public long getLostChannelCount() {
+		return lostChannels.get();
+	}
+
+	/**
+	 * Retrieve the number of events that were dropped because their event lane was full, when using the
+	 * {@link EventOverflowPolicy#DROP} event overflow policy
+	 * @return number of dropped events
+	 */
+	public long getDroppedEventCount() {
+		return droppedEvents.get();
 	}
 
 	/**
@@ -672,7 +1370,7 @@ public class ARIty implements AriCallback<Message> {
 	public <T extends Message> EventHandler<T> addEventHandler(Class<T> type, String channelId, BiConsumer<T,EventHandler<T>> eventHandler) {
 		EventHandler<T> se = new EventHandler<T>(channelId, eventHandler, type, this);
 		logger.debug("Registering {}", se);
-		channelEventHandlers.computeIfAbsent(channelId, id -> new ConcurrentLinkedQueue<>()).add(se);
+		eventHandlers.add(se);
 		return se;
 	}
 	
@@ -685,21 +1383,42 @@ public class ARIty implements AriCallback<Message> {
 	public <T extends Message> EventHandler<T> addGeneralEventHandler(Class<T> type, BiConsumer<T, EventHandler<T>> eventHandler) {
 		EventHandler<T> se = new EventHandler<T>(null, eventHandler, type, this);
 		logger.debug("Registering {}", se);
-		rawEventHandlers.add(se);
+		eventHandlers.add(se);
+		return se;
+	}
+
+	/**
+	 * Register a single event handler for a specific message on a group of channels.
+	 *
+	 * The handler is dispatched events of any of the channels, and more channels can be added to it later using
+	 * {@link ChannelGroupEventHandler#addChannel(String)} - so operations that follow many channels do not need a
+	 * separate handler for each channel
+	 * @param type          type of message to listen to (example: ChannelHangupRequest)
+	 * @param channelIds    ids of the channels to listen on
+	 * @param eventHandler  handler to call when the event arrives
+	 */
+	public <T extends Message> ChannelGroupEventHandler<T> addChannelGroupEventHandler(Class<T> type, Collection<String> channelIds,
+			BiConsumer<T, EventHandler<T>> eventHandler) {
+		ChannelGroupEventHandler<T> se = new ChannelGroupEventHandler<T>(eventHandler, type, this);
+		logger.debug("Registering {}", se);
+		channelIds.forEach(se::addChannel);
 		return se;
 	}
 
+	void addEventHandlerChannel(EventHandler<?> handler, String channelId) {
+		eventHandlers.add(handler, channelId);
+	}
+
+	void removeEventHandlerChannel(EventHandler<?> handler, String channelId) {
+		eventHandlers.remove(handler, channelId);
+	}
+
 	/**
 	 * remove event handler when no need to listen to it anymore
 	 * @param handler the event handler to be removed
 	 */
 	public <T extends Message> void removeEventHandler(EventHandler<T>handler) {
-		if (handler.getChannelId() == null) { // it is a raw event handler
-			rawEventHandlers.remove(handler);
-			return;
-		}
-		var channelEvents = channelEventHandlers.get(handler.getChannelId());
-		if (channelEvents != null && channelEvents.remove(handler))
+		if (eventHandlers.remove(handler))
 			logger.debug("Removed {}", handler);
 	}
 
@@ -715,7 +1434,7 @@ public class ARIty implements AriCallback<Message> {
 	public <T extends Message> EventHandler<T> listenForOneTimeEvent(Class<T> type, String channelId, Consumer<T> eventHandler) {
 		EventHandler<T> se = new OnetimeEventHandler<T>(channelId, eventHandler, type, this);
 		logger.debug("Registering {}", se);
-		channelEventHandlers.computeIfAbsent(channelId, id -> new ConcurrentLinkedQueue<>()).add(se);
+		eventHandlers.add(se);
 		return se;
 	}
 
@@ -732,8 +1451,16 @@ public class ARIty implements AriCallback<Message> {
 	 * disconnect from the websocket (user's choice if to call it or not)
 	 */
 	public void disconnect() {
-		if (ari.isWsConnected());
+		synchronized (this) {
+			connectionState = ConnectionState.CLOSED;
+			if (reconnectTask != null)
+				reconnectTask.cancel();
+			reconnectTask = null;
+		}
+		if (ari != null)
 			ari.cleanup();
+		stopDispatching();
+		fireConnectionStateListeners();
 	}
 
 	/**
@@ -754,6 +1481,22 @@ public class ARIty implements AriCallback<Message> {
 		return url;
 	}
 
+	/**
+	 * Retrieve the circuit breaker that ARI requests are sent through
+	 * @return the circuit breaker set on the builder, or <code>null</code> if no circuit breaker is used
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Retrieve the admission controller for new calls
+	 * @return the admission controller set on the builder, or <code>null</code> if all new calls are admitted
+	 */
+	public AdmissionController getAdmissionController() {
+		return admissionController;
+	}
+
 	/**
 	 * Retrieve the ari4java instance that ARIty uses
 	 * @deprecated Please do not use this method as it isn't guaranteed that ari4java will continue
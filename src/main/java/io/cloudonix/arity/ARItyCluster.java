@@ -0,0 +1,403 @@
+package io.cloudonix.arity;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.loway.oss.ari4java.generated.models.BridgeCreated;
+import ch.loway.oss.ari4java.generated.models.BridgeDestroyed;
+import ch.loway.oss.ari4java.generated.models.ChannelCreated;
+import ch.loway.oss.ari4java.generated.models.ChannelDestroyed;
+import ch.loway.oss.ari4java.generated.models.Message;
+import ch.loway.oss.ari4java.generated.models.StasisStart;
+import io.cloudonix.arity.Bridges.BridgeType;
+import io.cloudonix.arity.errors.ConnectionFailedException;
+import io.cloudonix.arity.helpers.Timers;
+import io.cloudonix.arity.models.AsteriskBridge;
+import io.cloudonix.arity.models.AsteriskChannel;
+
+/**
+ * Client for a cluster of Asterisk servers, that manages an {@link ARIty} instance per server.
+ *
+ * The cluster tracks which server owns each channel and bridge, using the channel and bridge events of each server
+ * (whose <code>asterisk_id</code> identifies the server), so operations on existing channels and bridges can be
+ * routed to the server that owns them. New channels, dials and bridges are placed on the least loaded server - the
+ * one that owns the fewest channels - skipping servers whose ARI circuit breaker is open.
+ *
+ * Voice applications and general event handlers registered on the cluster are registered on all servers, including
+ * servers added later, so the application handles the events of all servers in one place.
+ */
+public class ARItyCluster {
+
+	private final static Logger logger = LoggerFactory.getLogger(ARItyCluster.class);
+	/** Time to wait for the first event of a channel or bridge placed on a server, before its placement is dropped */
+	private static final long PLACEMENT_TIMEOUT = 30000;
+
+	/**
+	 * An Asterisk server in the cluster
+	 */
+	private static class Member {
+		final ARIty arity;
+		volatile String asteriskId;
+		final AtomicInteger channels = new AtomicInteger();
+
+		Member(ARIty arity) {
+			this.arity = arity;
+		}
+	}
+
+	/**
+	 * The server that owns a channel or bridge
+	 */
+	private static class Ownership {
+		final Member member;
+		final boolean channel;
+		volatile boolean seen;
+
+		Ownership(Member member, boolean channel, boolean seen) {
+			this.member = member;
+			this.channel = channel;
+			this.seen = seen;
+		}
+	}
+
+	private final List<Member> members = new CopyOnWriteArrayList<>();
+	private final ConcurrentHashMap<String, Member> membersByAsteriskId = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Ownership> owners = new ConcurrentHashMap<>();
+	private final List<Consumer<ARIty>> memberSetup = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Connect to an Asterisk server and add it to the cluster
+	 * @param builder configuration of the ARIty instance for the server
+	 * @return the ARIty instance connected to the server
+	 * @throws ConnectionFailedException if ARIty failed to connect to the server
+	 * @throws URISyntaxException if the server URI is invalid
+	 */
+	public ARIty addMember(Consumer<ARIty.Builder> builder) throws ConnectionFailedException, URISyntaxException {
+		return addMember(new ARIty(builder));
+	}
+
+	/**
+	 * Add a connected ARIty instance to the cluster. The instance's voice application, if any, is replaced by the
+	 * voice application registered on the cluster.
+	 * @param arity ARIty instance connected to an Asterisk server
+	 * @return the ARIty instance
+	 */
+	public ARIty addMember(ARIty arity) {
+		Member member = new Member(Objects.requireNonNull(arity));
+		arity.addGeneralEventHandler(StasisStart.class, (e, h) -> claim(member, e, e.getChannel().getId(), true));
+		arity.addGeneralEventHandler(ChannelCreated.class, (e, h) -> claim(member, e, e.getChannel().getId(), true));
+		arity.addGeneralEventHandler(ChannelDestroyed.class, (e, h) -> release(member, e.getChannel().getId()));
+		arity.addGeneralEventHandler(BridgeCreated.class, (e, h) -> claim(member, e, e.getBridge().getId(), false));
+		arity.addGeneralEventHandler(BridgeDestroyed.class, (e, h) -> release(member, e.getBridge().getId()));
+		synchronized (memberSetup) { // so setup registered concurrently is applied exactly once
+			memberSetup.forEach(setup -> setup.accept(arity));
+			members.add(member);
+		}
+		logger.info("Added {} to the cluster", arity.getConnetion());
+		return arity;
+	}
+
+	/**
+	 * Disconnect an Asterisk server and remove it from the cluster
+	 * @param arity ARIty instance of the server
+	 */
+	public void removeMember(ARIty arity) {
+		Member member = findMember(arity);
+		if (member == null)
+			return;
+		members.remove(member);
+		if (member.asteriskId != null)
+			membersByAsteriskId.remove(member.asteriskId, member);
+		owners.values().removeIf(o -> o.member == member);
+		arity.disconnect();
+	}
+
+	public List<ARIty> getMembers() {
+		List<ARIty> list = new ArrayList<>();
+		for (Member member : members)
+			list.add(member.arity);
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Retrieve the server with the specified Asterisk ID
+	 * @param asteriskId Asterisk ID of the server, as reported in its events
+	 * @return the ARIty instance of the server, or <code>null</code> if no event was received from such a server
+	 */
+	public ARIty getMember(String asteriskId) {
+		Member member = membersByAsteriskId.get(asteriskId);
+		return member != null ? member.arity : null;
+	}
+
+	/**
+	 * Retrieve the Asterisk ID of a server
+	 * @param arity ARIty instance of the server
+	 * @return the Asterisk ID, or <code>null</code> if no event was received from the server yet
+	 */
+	public String getAsteriskId(ARIty arity) {
+		Member member = findMember(arity);
+		return member != null ? member.asteriskId : null;
+	}
+
+	/**
+	 * Retrieve the number of channels owned by a server
+	 * @param arity ARIty instance of the server
+	 * @return number of live channels on the server, including channels that were just placed on it
+	 */
+	public int getChannelCount(ARIty arity) {
+		Member member = findMember(arity);
+		return member != null ? member.channels.get() : 0;
+	}
+
+	/**
+	 * Register to receive new stasis calls of all servers in the cluster. See
+	 * {@link ARIty#registerVoiceApp(Supplier)}.
+	 * @param controllerSupplier a supplier that can generate ready to use {@link CallController} implementations
+	 */
+	public void registerVoiceApp(Supplier<CallController> controllerSupplier) {
+		Objects.requireNonNull(controllerSupplier, "controllerSupplied is required");
+		addMemberSetup(arity -> arity.registerVoiceApp(controllerSupplier));
+	}
+
+	/**
+	 * Register to receive new stasis calls of all servers in the cluster as bare {@link CallController} instances.
+	 * See {@link ARIty#registerVoiceApp(Consumer)}.
+	 * @param callHandler a method that can accept a call controller instance.
+	 */
+	public void registerVoiceApp(Consumer<CallController> callHandler) {
+		Objects.requireNonNull(callHandler, "callHandler is required");
+		addMemberSetup(arity -> arity.registerVoiceApp(callHandler));
+	}
+
+	/**
+	 * Register an event handler for events of all servers in the cluster. See
+	 * {@link ARIty#addGeneralEventHandler(Class, BiConsumer)}.
+	 * @param type          type of message to listen to (example: PlaybackFinished)
+	 * @param eventHandler  handler to call when the event arrives. The handler may be called concurrently for events
+	 *   of different servers
+	 * @return an action that removes the handler from all servers
+	 */
+	public <T extends Message> Runnable addGeneralEventHandler(Class<T> type, BiConsumer<T, EventHandler<T>> eventHandler) {
+		List<EventHandler<T>> handlers = new CopyOnWriteArrayList<>();
+		Consumer<ARIty> setup = arity -> handlers.add(arity.addGeneralEventHandler(type, eventHandler));
+		addMemberSetup(setup);
+		return () -> {
+			memberSetup.remove(setup);
+			for (EventHandler<T> handler : handlers)
+				for (Member member : members)
+					member.arity.removeEventHandler(handler);
+		};
+	}
+
+	private void addMemberSetup(Consumer<ARIty> setup) {
+		synchronized (memberSetup) {
+			memberSetup.add(setup);
+			for (Member member : members)
+				setup.accept(member.arity);
+		}
+	}
+
+	/**
+	 * Retrieve the server that owns a channel or bridge
+	 * @param id ID of the channel or bridge
+	 * @return the ARIty instance of the owning server, or <code>null</code> if the owner is not known
+	 */
+	public ARIty getOwner(String id) {
+		Ownership owner = owners.get(id);
+		return owner != null ? owner.member.arity : null;
+	}
+
+	/**
+	 * Find the server that owns a channel, asking all servers if the owner is not known - for example for channels
+	 * created before the server was added to the cluster
+	 * @param channelId ID of the channel
+	 * @return a promise for the ARIty instance of the owning server, that rejects if no server has the channel
+	 */
+	public CompletableFuture<ARIty> locateChannel(String channelId) {
+		return locate(channelId, true, arity -> arity.channels().get(channelId));
+	}
+
+	/**
+	 * Find the server that owns a bridge, asking all servers if the owner is not known
+	 * @param bridgeId ID of the bridge
+	 * @return a promise for the ARIty instance of the owning server, that rejects if no server has the bridge
+	 */
+	public CompletableFuture<ARIty> locateBridge(String bridgeId) {
+		return locate(bridgeId, false, arity -> arity.bridges().get(bridgeId));
+	}
+
+	private CompletableFuture<ARIty> locate(String id, boolean channel, Function<ARIty, CompletableFuture<?>> lookup) {
+		Ownership owner = owners.get(id);
+		if (owner != null)
+			return CompletableFuture.completedFuture(owner.member.arity);
+		CompletableFuture<ARIty> located = new CompletableFuture<>();
+		List<Member> candidates = new ArrayList<>(members);
+		if (candidates.isEmpty())
+			return CompletableFuture.failedFuture(new IllegalStateException("No Asterisk servers in the cluster"));
+		AtomicInteger remaining = new AtomicInteger(candidates.size());
+		for (Member member : candidates)
+			lookup.apply(member.arity).whenComplete((v, t) -> {
+				if (t == null) {
+					owners.computeIfAbsent(id, i -> {
+						if (channel)
+							member.channels.incrementAndGet();
+						return new Ownership(member, channel, true);
+					});
+					located.complete(member.arity);
+				} else if (remaining.decrementAndGet() == 0)
+					located.completeExceptionally(t);
+			});
+		return located;
+	}
+
+	/**
+	 * Retrieve a call state for an existing channel on any server. See {@link ARIty#getCallState(String)}.
+	 * @param channelId ID of channel to monitor
+	 * @return A promise for a new call state instance for that channel
+	 */
+	public CompletableFuture<CallState> getCallState(String channelId) {
+		return locateChannel(channelId).thenCompose(arity -> arity.getCallState(channelId));
+	}
+
+	/**
+	 * Select the server to place a new channel or bridge on
+	 * @return the ARIty instance of the server with the fewest channels, preferring servers whose circuit breaker
+	 *   is closed
+	 */
+	public ARIty leastLoaded() {
+		return leastLoadedMember().arity;
+	}
+
+	private Member leastLoadedMember() {
+		Member best = null;
+		boolean bestAvailable = false;
+		for (Member member : members) {
+			boolean available = member.arity.getCircuitBreaker() == null || !member.arity.getCircuitBreaker().isOpen();
+			if (best == null || (available && !bestAvailable) ||
+					(available == bestAvailable && member.channels.get() < best.channels.get())) {
+				best = member;
+				bestAvailable = available;
+			}
+		}
+		if (best == null)
+			throw new IllegalStateException("No Asterisk servers in the cluster");
+		return best;
+	}
+
+	/**
+	 * Initiate an unsolicited dial on the least loaded server. See {@link ARIty#dial(String, String)}.
+	 * @param callerId Caller ID to be published to the destination
+	 * @param destination Asterisk endpoint to be dialed to (including technology and URL)
+	 * @return a Dial operation to configure further and run
+	 */
+	public Dial dial(String callerId, String destination) {
+		Member member = leastLoadedMember();
+		Dial dial = member.arity.dial(callerId, destination);
+		place(member, dial.getEndPointChannelId(), true);
+		return dial;
+	}
+
+	/**
+	 * Create a new channel on the least loaded server. See {@link Channels#create(String, String)}.
+	 * @param endpoint The endpoint this channel will dial to, such as a SIP address
+	 * @param channelId the new channel's id - set to <code>null</code> to have a random id generated
+	 * @return a promise that will resolve with the new {@link AsteriskChannel}
+	 */
+	public CompletableFuture<AsteriskChannel> createChannel(String endpoint, String channelId) {
+		String id = channelId != null ? channelId : UUID.randomUUID().toString();
+		Member member = leastLoadedMember();
+		place(member, id, true);
+		return member.arity.channels().create(endpoint, id).whenComplete((c, t) -> {
+			if (t != null)
+				release(member, id);
+		});
+	}
+
+	/**
+	 * Create a new bridge on the least loaded server. See {@link Bridges#create(BridgeType...)}.
+	 * @param types bridge types
+	 * @return a promise that will resolve with the new {@link AsteriskBridge}
+	 */
+	public CompletableFuture<AsteriskBridge> createBridge(BridgeType... types) {
+		String id = UUID.randomUUID().toString();
+		Member member = leastLoadedMember();
+		place(member, id, false);
+		return member.arity.bridges().create(id, id, types).whenComplete((b, t) -> {
+			if (t != null)
+				release(member, id);
+		});
+	}
+
+	/**
+	 * Disconnect from all servers
+	 */
+	public void disconnect() {
+		for (Member member : members)
+			member.arity.disconnect();
+	}
+
+	/**
+	 * Record that a new channel or bridge is being created on a server, before its events arrive, so the next
+	 * placement accounts for it
+	 */
+	private void place(Member member, String id, boolean channel) {
+		Ownership placed = new Ownership(member, channel, false);
+		if (owners.putIfAbsent(id, placed) != null)
+			return;
+		if (channel)
+			member.channels.incrementAndGet();
+		Timers.schedule(() -> { // drop the placement if the channel or bridge was never created
+			if (!placed.seen && owners.remove(id, placed) && channel)
+				member.channels.decrementAndGet();
+		}, PLACEMENT_TIMEOUT);
+	}
+
+	private void claim(Member member, Message event, String id, boolean channel) {
+		learnAsteriskId(member, event);
+		Ownership owner = owners.computeIfAbsent(id, i -> {
+			if (channel)
+				member.channels.incrementAndGet();
+			return new Ownership(member, channel, true);
+		});
+		owner.seen = true;
+	}
+
+	private void release(Member member, String id) {
+		Ownership owner = owners.get(id);
+		if (owner == null || owner.member != member || !owners.remove(id, owner))
+			return;
+		if (owner.channel)
+			member.channels.decrementAndGet();
+	}
+
+	private void learnAsteriskId(Member member, Message event) {
+		String asteriskId = event.getAsterisk_id();
+		if (asteriskId == null || asteriskId.equals(member.asteriskId))
+			return;
+		member.asteriskId = asteriskId;
+		membersByAsteriskId.put(asteriskId, member);
+		logger.info("{} has Asterisk ID {}", member.arity.getConnetion(), asteriskId);
+	}
+
+	private Member findMember(ARIty arity) {
+		for (Member member : members)
+			if (member.arity == arity)
+				return member;
+		return null;
+	}
+}
@@ -0,0 +1,242 @@
+package io.cloudonix.arity;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.cloudonix.arity.helpers.Timers;
+import io.cloudonix.arity.models.AsteriskChannel.HangupReasons;
+
+/**
+ * Admission control for new calls, that limits the number of calls handled concurrently by the application and the
+ * rate of new calls, so a call storm does not overload the application or Asterisk.
+ *
+ * Calls that can not be admitted immediately are queued, if a queue is configured, and admitted when a running call
+ * ends - otherwise, or if they wait in the queue for too long, they are rejected by hanging them up.
+ *
+ * The concurrency limit can optionally adapt to the ARI request latency (AIMD): while the latency is above the
+ * target latency, the limit is decreased multiplicatively, and while it is below the target and the limit is being
+ * used, the limit is increased by one call at a time, up to the configured maximum.
+ *
+ * Admission controllers should be fully configured before they are set on
+ * {@link ARIty.Builder#setAdmissionController(AdmissionController)}.
+ */
+public class AdmissionController {
+
+	private final static Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+
+	private class QueuedCall {
+		final String channelId;
+		final Runnable start;
+		final Runnable reject;
+		TimerTask timeout;
+
+		QueuedCall(String channelId, Runnable start, Runnable reject) {
+			this.channelId = channelId;
+			this.start = start;
+			this.reject = reject;
+		}
+	}
+
+	private int queueSize = 0;
+	private long maxQueueWait = 5000;
+	private HangupReasons rejectReason = HangupReasons.CONGESTION;
+
+	private final CallPacer pacer = new CallPacer();
+	private Set<String> running = new HashSet<>();
+	private Deque<QueuedCall> queue = new ArrayDeque<>();
+	private AtomicLong admitted = new AtomicLong(), rejected = new AtomicLong(), queued = new AtomicLong();
+
+	/**
+	 * Set the maximum number of calls handled concurrently
+	 * @param calls number of concurrent calls. By default the number of calls is not limited
+	 * @return itself for fluent calls
+	 */
+	public synchronized AdmissionController setMaxConcurrentCalls(int calls) {
+		pacer.setMaxConcurrent(calls);
+		return this;
+	}
+
+	/**
+	 * Set the maximum rate of new calls
+	 * @param callsPerSecond number of calls admitted every second, on average. By default the rate is not limited
+	 * @return itself for fluent calls
+	 */
+	public synchronized AdmissionController setMaxCallsPerSecond(double callsPerSecond) {
+		pacer.setMaxPerSecond(callsPerSecond, Math.max(1, callsPerSecond));
+		return this;
+	}
+
+	/**
+	 * Queue calls that can not be admitted immediately, instead of rejecting them
+	 * @param size maximum number of queued calls. By default calls are not queued
+	 * @param maxWait maximum time a call waits in the queue before it is rejected. The default is 5 seconds
+	 * @return itself for fluent calls
+	 */
+	public synchronized AdmissionController setQueue(int size, Duration maxWait) {
+		queueSize = size;
+		maxQueueWait = maxWait.toMillis();
+		return this;
+	}
+
+	/**
+	 * Set the hangup reason for rejected calls
+	 * @param reason hangup reason. The default is {@link HangupReasons#CONGESTION}
+	 * @return itself for fluent calls
+	 */
+	public AdmissionController setRejectReason(HangupReasons reason) {
+		rejectReason = Objects.requireNonNull(reason);
+		return this;
+	}
+
+	/**
+	 * Adapt the concurrency limit to the ARI request latency. Requires a maximum number of concurrent calls.
+	 * @param target ARI request latency above which the concurrency limit is decreased
+	 * @param minConcurrent minimum concurrency limit
+	 * @return itself for fluent calls
+	 */
+	public synchronized AdmissionController setAdaptiveLimit(Duration target, int minConcurrent) {
+		pacer.setAdaptiveLimit(target, minConcurrent);
+		return this;
+	}
+
+	HangupReasons getRejectReason() {
+		return rejectReason;
+	}
+
+	/**
+	 * Admit a new call, queue it or reject it
+	 * @param channelId channel of the new call
+	 * @param start action that starts handling the call, run when the call is admitted
+	 * @param reject action that rejects the call, run if the call is rejected
+	 */
+	void admit(String channelId, Runnable start, Runnable reject) {
+		boolean admit;
+		synchronized (this) {
+			admit = queue.isEmpty() && canStart();
+			if (admit) {
+				running.add(channelId);
+				admitted.incrementAndGet();
+			} else if (queue.size() < queueSize) {
+				QueuedCall call = new QueuedCall(channelId, start, reject);
+				queue.add(call);
+				queued.incrementAndGet();
+				call.timeout = Timers.schedule(() -> expire(call), maxQueueWait);
+				pacer.whenTokenAvailable(this::drain);
+				return;
+			}
+		}
+		if (admit)
+			start.run();
+		else {
+			logger.info("Rejecting call {}: {} calls running, {} queued", channelId, getRunningCalls(), getQueuedCalls());
+			rejected.incrementAndGet();
+			reject.run();
+		}
+	}
+
+	/**
+	 * Notify the controller that a call has ended, so its slot can be used by another call
+	 * @param channelId channel of the call that ended
+	 */
+	void release(String channelId) {
+		synchronized (this) {
+			if (!running.remove(channelId)) {
+				queue.removeIf(call -> { // the call ended while waiting
+					if (!call.channelId.equals(channelId))
+						return false;
+					call.timeout.cancel();
+					return true;
+				});
+				return;
+			}
+		}
+		drain();
+	}
+
+	/**
+	 * Report the latency of an ARI request, for adapting the concurrency limit
+	 * @param latencyNanos request latency, in nanoseconds
+	 */
+	void observeLatency(long latencyNanos) {
+		if (!pacer.isAdaptive())
+			return;
+		synchronized (this) {
+			if (pacer.observeLatency(latencyNanos, running.size()))
+				logger.debug("ARI latency {}ms, concurrent call limit is now {}", pacer.getLatencyAverageMillis(),
+						pacer.getLimit());
+		}
+		drain();
+	}
+
+	/**
+	 * Check whether a call can start now, and take its rate token. Must be called while synchronized
+	 */
+	private boolean canStart() {
+		return pacer.isBelowLimit(running.size()) && pacer.takeRateToken();
+	}
+
+	private void drain() {
+		List<QueuedCall> starting = new ArrayList<>();
+		synchronized (this) {
+			while (!queue.isEmpty() && canStart()) {
+				QueuedCall call = queue.poll(); // once out of the queue, the call can no longer expire
+				call.timeout.cancel();
+				running.add(call.channelId);
+				admitted.incrementAndGet();
+				starting.add(call);
+			}
+			if (!queue.isEmpty()) // calls that wait only for the rate limit are not admitted by a call ending
+				pacer.whenTokenAvailable(this::drain);
+		}
+		starting.forEach(call -> call.start.run());
+	}
+
+	private void expire(QueuedCall call) {
+		synchronized (this) {
+			if (!queue.remove(call))
+				return;
+		}
+		logger.info("Rejecting call {} after waiting {}ms in the admission queue", call.channelId, maxQueueWait);
+		rejected.incrementAndGet();
+		call.reject.run();
+	}
+
+	public synchronized int getRunningCalls() {
+		return running.size();
+	}
+
+	public synchronized int getQueuedCalls() {
+		return queue.size();
+	}
+
+	/**
+	 * Retrieve the current concurrency limit, that may be lower than the configured maximum when the limit is adaptive
+	 * @return number of calls that may run concurrently
+	 */
+	public int getConcurrencyLimit() {
+		return pacer.getLimit();
+	}
+
+	public long getAdmittedCount() {
+		return admitted.get();
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	public long getQueuedCount() {
+		return queued.get();
+	}
+}
@@ -1,6 +1,8 @@
 package io.cloudonix.arity;
 
 import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
@@ -230,6 +232,15 @@ public abstract class CallController {
 		return dial;
 	}
 
+	/**
+	 * Create a ring group operation, that dials several endpoints and connects the call to the first to answer
+	 * @param callerId Caller ID to present to the endpoints
+	 * @return RingGroup operation to be configured with endpoints and run
+	 */
+	public RingGroup ringGroup(String callerId) {
+		return new RingGroup(this, callerId);
+	}
+
 	/**
 	 * get conference according to it's bridge id
 	 *
@@ -285,6 +296,28 @@ public abstract class CallController {
 		return callState.readVariable(name);
 	}
 
+	/**
+	 * Retrieve the channel variables that were prefetched before this controller started running, without ARI
+	 * requests
+	 * @return the snapshot of the prefetched variables
+	 * @see #getPrefetchVariables()
+	 * @see ARIty.Builder#setPrefetchVariables(String...)
+	 */
+	public VariableSnapshot getVariables() {
+		return callState.getVariableSnapshot();
+	}
+
+	/**
+	 * Called before the call controller is initialized, when it handles a new call, to list the channel variables
+	 * that should be read before it runs, in addition to the variables set using
+	 * {@link ARIty.Builder#setPrefetchVariables(String...)}. The variables are available from {@link #getVariables()}.
+	 * By default no additional variables are prefetched.
+	 * @return variable names to prefetch
+	 */
+	protected Collection<String> getPrefetchVariables() {
+		return Collections.emptyList();
+	}
+
 	/**
 	 * get the value of a specific sip header
 	 *
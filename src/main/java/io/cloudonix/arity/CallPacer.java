@@ -0,0 +1,155 @@
+package io.cloudonix.arity;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import io.cloudonix.arity.helpers.Timers;
+
+/**
+ * Paces the start of new calls, for {@link AdmissionController} and {@link Campaign}: limits the rate of new calls
+ * using a token bucket, and the number of concurrent calls using a limit that can optionally adapt to a request
+ * latency (AIMD) - while the latency is above the target latency, the limit is decreased multiplicatively, and while
+ * it is below the target and the limit is being used, the limit is increased by one call at a time, up to the
+ * configured maximum.
+ */
+class CallPacer {
+
+	private static final long ADJUST_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final double LATENCY_SMOOTHING = 0.1;
+
+	private int maxConcurrent = Integer.MAX_VALUE;
+	private double maxPerMilli = 0;
+	private long targetLatency = 0;
+	private int minLimit = 1;
+
+	private double limit = Integer.MAX_VALUE;
+	private double rateTokens = 1;
+	private long rateUpdated = System.nanoTime();
+	private double latencyAverage = -1;
+	private long lastAdjusted = System.nanoTime();
+	private boolean retryScheduled;
+
+	/**
+	 * Set the maximum number of concurrent calls
+	 * @param calls number of concurrent calls
+	 */
+	synchronized void setMaxConcurrent(int calls) {
+		if (calls < 1)
+			throw new IllegalArgumentException("At least one concurrent call must be allowed");
+		maxConcurrent = calls;
+		limit = calls;
+	}
+
+	/**
+	 * Set the maximum rate of new calls
+	 * @param callsPerSecond number of calls started every second, on average
+	 * @param burst number of calls that may start right away
+	 */
+	synchronized void setMaxPerSecond(double callsPerSecond, double burst) {
+		if (callsPerSecond <= 0)
+			throw new IllegalArgumentException("Call rate must be positive");
+		maxPerMilli = callsPerSecond / 1000;
+		rateTokens = burst;
+	}
+
+	/**
+	 * Adapt the concurrency limit to a request latency. Requires a maximum number of concurrent calls.
+	 * @param target request latency above which the concurrency limit is decreased
+	 * @param minConcurrent minimum concurrency limit
+	 */
+	synchronized void setAdaptiveLimit(Duration target, int minConcurrent) {
+		if (minConcurrent < 1)
+			throw new IllegalArgumentException("At least one concurrent call must be allowed");
+		targetLatency = target.toNanos();
+		minLimit = minConcurrent;
+	}
+
+	/**
+	 * Check whether another call may start under the concurrency limit
+	 * @param active number of calls that are currently active
+	 * @return whether the concurrency limit allows another call
+	 */
+	synchronized boolean isBelowLimit(int active) {
+		return active < (int) limit;
+	}
+
+	/**
+	 * Take a rate token, if one is available
+	 * @return whether the rate limit allows another call
+	 */
+	synchronized boolean takeRateToken() {
+		if (maxPerMilli <= 0)
+			return true;
+		long now = System.nanoTime();
+		rateTokens = Math.min(Math.max(1, maxPerMilli * 1000), rateTokens + (now - rateUpdated) / 1000000.0 * maxPerMilli);
+		rateUpdated = now;
+		if (rateTokens < 1)
+			return false;
+		rateTokens--;
+		return true;
+	}
+
+	/**
+	 * Run an action when the next rate token is available, unless an action is already scheduled or the rate is not
+	 * limited - for calls that wait only for the rate limit, that a call ending will not start
+	 * @param action action that starts waiting calls
+	 */
+	synchronized void whenTokenAvailable(Runnable action) {
+		if (retryScheduled || maxPerMilli <= 0)
+			return;
+		retryScheduled = true;
+		Timers.schedule(() -> {
+			synchronized (this) {
+				retryScheduled = false;
+			}
+			action.run();
+		}, Math.max(1, Math.round((1 - Math.min(rateTokens, 1)) / maxPerMilli)));
+	}
+
+	/**
+	 * Check whether the concurrency limit adapts to the request latency
+	 * @return whether latencies should be reported using {@link #observeLatency(long, int)}
+	 */
+	synchronized boolean isAdaptive() {
+		return targetLatency > 0 && maxConcurrent != Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Report the latency of a request, for adapting the concurrency limit
+	 * @param latencyNanos request latency, in nanoseconds
+	 * @param active number of calls that are currently active
+	 * @return whether the concurrency limit changed
+	 */
+	synchronized boolean observeLatency(long latencyNanos, int active) {
+		if (!isAdaptive())
+			return false;
+		latencyAverage = latencyAverage < 0 ? latencyNanos :
+			latencyAverage + LATENCY_SMOOTHING * (latencyNanos - latencyAverage);
+		long now = System.nanoTime();
+		if (now - lastAdjusted < ADJUST_INTERVAL)
+			return false;
+		lastAdjusted = now;
+		double previous = limit;
+		if (latencyAverage > targetLatency)
+			limit = Math.max(minLimit, limit * 0.9);
+		else if (active >= limit - 1)
+			limit = Math.min(maxConcurrent, limit + 1);
+		return (int) previous != (int) limit;
+	}
+
+	/**
+	 * Retrieve the smoothed request latency
+	 * @return average latency, in milliseconds
+	 */
+	synchronized long getLatencyAverageMillis() {
+		return Math.round(Math.max(0, latencyAverage) / 1000000);
+	}
+
+	/**
+	 * Retrieve the current concurrency limit, that may be lower than the configured maximum when the limit is adaptive
+	 * @return number of calls that may be active concurrently
+	 */
+	synchronized int getLimit() {
+		return (int) Math.min(limit, maxConcurrent);
+	}
+}
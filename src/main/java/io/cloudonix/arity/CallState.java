@@ -1,7 +1,12 @@
 package io.cloudonix.arity;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
@@ -29,6 +34,8 @@ import ch.loway.oss.ari4java.generated.models.Variable;
 import io.cloudonix.arity.errors.ARItyException;
 import io.cloudonix.arity.errors.ProvidedChannelWasNotFoundException;
 import io.cloudonix.arity.helpers.Futures;
+import io.cloudonix.arity.helpers.Lazy;
+import io.cloudonix.arity.helpers.VariableBatcher;
 
 /**
  * View of the current call state.
@@ -85,6 +92,9 @@ public class CallState {
 
 	private Map<String, Object> metadata = new ConcurrentHashMap<>();
 	private Map<String, String> variables = new ConcurrentHashMap<>();
+	private Map<String, Long> unsetVariables = new ConcurrentHashMap<>(); // expiry time of "not set" reads
+	private Lazy<VariableBatcher> batcher = new Lazy<>(this::createBatcher);
+	private volatile VariableSnapshot variableSnapshot = VariableSnapshot.EMPTY;
 	private ConcurrentHashMap<States, Queue<Runnable>> stateListeners = new ConcurrentHashMap<>();
 	private ConcurrentLinkedQueue<EventHandler<?>> eventListeners = new ConcurrentLinkedQueue<>();
 
@@ -100,9 +110,11 @@ public class CallState {
 		this.channelTechnology = channel.getName().split("/")[0];
 		lastState = States.find(channel.getState());
 		wasAnswered = lastState == States.Up;
+		cacheChannelVars(chan);
 		registerEventHandler(ChannelVarset.class, varset -> {
 			log.info(logmarker, "Variable set: " + varset.getVariable() + " => " + varset.getValue());
 			variables.put(varset.getVariable(), varset.getValue());
+			unsetVariables.remove(varset.getVariable());
 		});
 		registerEventHandler(ChannelStateChange.class, stateChange -> {
 			lastState = States.find(stateChange.getChannel().getState());
@@ -217,6 +229,7 @@ public class CallState {
 	 */
 	public void cacheVariable(String name, String value) {
 		variables.put(name, value);
+		unsetVariables.remove(name);
 	}
 
 	/**
@@ -235,6 +248,7 @@ public class CallState {
 	class GetChannelVar extends Operation {
 		private String name;
 		private String value;
+		private Throwable error;
 
 		public GetChannelVar(String channelId, ARIty arity, String varName) {
 			super(channelId, arity);
@@ -255,6 +269,8 @@ public class CallState {
 							log.info(logmarker, "readVariable({}): unexpected error", name, e);
 						else
 							value = var.getValue();
+						if (e != null && !(e instanceof VariableNotFound))
+							error = e;
 						return this;
 					});
 		}
@@ -263,8 +279,16 @@ public class CallState {
 			return value;
 		}
 
+		/**
+		 * Retrieve the error that prevented reading the variable
+		 * @return the error, or <code>null</code> if the variable was read or is not set
+		 */
+		public Throwable getError() {
+			return error;
+		}
+
 		private Exception mapExceptions(Throwable ariError) {
-			switch (ariError.getMessage()) {
+			switch (Objects.toString(ariError.getMessage(), "")) {
 			case "Unable to read provided function": // Asterisk  returns "unable" when the function exists
 					// but reports an error about the arguments, e.g. calling SIP_HEADER() for a non-set header
 					return new VariableNotFound();
@@ -281,23 +305,154 @@ public class CallState {
 	/**
 	 * Retrieve an Asterisk channel variable that was set on the current channel, using
 	 * the local variable cache, or trying to retrieve it from ARI if the value is not cached.
+	 * 
+	 * Concurrent reads of the same variable share a single ARI request, and variables that were found not to be set
+	 * are not read again from ARI for a short while (see {@link ARIty.Builder#setUnsetVariableCacheTtl(Duration)}),
+	 * unless they are set in the meantime. Only a "variable not found" reply from Asterisk marks a variable as not
+	 * set - other failures to read it are not cached.
 	 * @param name variable name to read
 	 * @return a promise for a variable value. The promise may resolve to <code>null</code> if the variable
-	 * is not set.
+	 * is not set, or could not be read - e.g. because the channel no longer exists.
 	 */
 	public CompletableFuture<String> readVariable(String name) {
 		if (variables.containsKey(name))
 			return CompletableFuture.completedFuture(variables.get(name));
-		if (!isActive)
+		if (!isActive || isKnownUnset(name))
 			return CompletableFuture.completedFuture(null);
-		return new GetChannelVar(channelId, arity, name).run()
-			.thenApply(GetChannelVar::getValue)
-			.thenApply(val -> { // cache the variable value locally for next time
-				if (val != null)
-					variables.put(name, val); // the map can't store nulls
-				log.debug(logmarker, "Read channel variable {}: {}", name, val);
-				return val;
-			});
+		return batcher.get().read(name).handle((val, error) -> completeRead(name, val, error));
+	}
+
+	/**
+	 * Cache the result of reading a variable from ARI for next time, unless the read failed
+	 * @param name name of the variable
+	 * @param value value that was read, or <code>null</code> if the variable is not set
+	 * @param error read failure, or <code>null</code> if the variable was read or is not set
+	 * @return the value to report, that is <code>null</code> if the variable could not be read
+	 */
+	private String completeRead(String name, String value, Throwable error) {
+		if (error != null) {
+			log.debug(logmarker, "Failed to read channel variable {}: {}", name, error.toString());
+			return null;
+		}
+		cacheRead(name, value);
+		log.debug(logmarker, "Read channel variable {}: {}", name, value);
+		return value;
+	}
+
+	/**
+	 * Cache the result of reading a variable from ARI
+	 * @param name name of the variable
+	 * @param value value that was read, or <code>null</code> if the variable is not set
+	 */
+	private void cacheRead(String name, String value) {
+		if (value != null) {
+			variables.put(name, value); // the map can't store nulls
+			return;
+		}
+		long ttl = arity.getUnsetVariableCacheTtl();
+		if (ttl > 0)
+			unsetVariables.put(name, System.nanoTime() + ttl);
+	}
+
+	/**
+	 * Check whether a variable was recently read from ARI and found not to be set
+	 * @param name name of the variable
+	 * @return whether the variable is known not to be set
+	 */
+	private boolean isKnownUnset(String name) {
+		Long expiry = unsetVariables.get(name);
+		if (expiry == null)
+			return false;
+		if (System.nanoTime() - expiry < 0)
+			return true;
+		unsetVariables.remove(name, expiry);
+		return false;
+	}
+
+	/**
+	 * Cache the channel variables that Asterisk sends with the channel's events (see the <code>channelvars</code>
+	 * option in Asterisk's <code>ari.conf</code>), so reading them does not require ARI requests
+	 */
+	private void cacheChannelVars(Channel chan) {
+		Map<String, String> channelVars;
+		try {
+			channelVars = chan.getChannelvars();
+		} catch (UnsupportedOperationException e) { // not supported by the ARI version
+			return;
+		}
+		if (channelVars != null)
+			channelVars.forEach(this::cacheVariable);
+	}
+
+	/**
+	 * Read the variables that the call controller needs before it starts running - in a single ARI request, unless
+	 * they are all cached - and keep them as the call's variable snapshot.
+	 * @param names variable names to read
+	 * @return a promise for the snapshot of the variables
+	 * @see #getVariableSnapshot()
+	 */
+	public CompletableFuture<VariableSnapshot> prefetchVariables(Collection<String> names) {
+		if (names.isEmpty())
+			return CompletableFuture.completedFuture(variableSnapshot);
+		return readVariables(names).thenApply(values -> {
+			Map<String, String> snapshot = new LinkedHashMap<>(variableSnapshot.asMap());
+			snapshot.putAll(values);
+			return variableSnapshot = new VariableSnapshot(snapshot);
+		});
+	}
+
+	/**
+	 * Retrieve the snapshot of the variables that were prefetched for the call. The snapshot is not updated when
+	 * variables change - use {@link #readVariable(String)} for the current values.
+	 * @return the prefetched variables, that is empty if no variables were prefetched
+	 */
+	public VariableSnapshot getVariableSnapshot() {
+		return variableSnapshot;
+	}
+
+	/**
+	 * Retrieve several Asterisk channel variables, using the local variable cache for variables that are cached,
+	 * and reading the other variables from ARI together in a single request - except for variables that turn out to be
+	 * empty or unset, and functions with side effects such as <code>SHIFT()</code>, that are read separately.
+	 * @param names variable names to read
+	 * @return a promise for the variable values by name. Variables that are not set, or could not be read, have
+	 * <code>null</code> values
+	 */
+	public CompletableFuture<Map<String, String>> readVariables(Collection<String> names) {
+		Map<String, String> values = new LinkedHashMap<>();
+		List<String> missing = new ArrayList<>();
+		for (String name : names) {
+			String value = variables.get(name);
+			values.put(name, value);
+			if (value == null && !isKnownUnset(name))
+				missing.add(name);
+		}
+		if (missing.isEmpty() || !isActive)
+			return CompletableFuture.completedFuture(Collections.unmodifiableMap(values));
+		List<CompletableFuture<Void>> reads = new ArrayList<>();
+		batcher.get().readEach(missing).forEach((name, read) ->
+			reads.add(read.handle((val, error) -> completeRead(name, val, error)).thenAccept(val -> {
+				synchronized (values) {
+					values.put(name, val);
+				}
+			})));
+		return CompletableFuture.allOf(reads.toArray(CompletableFuture[]::new))
+				.thenApply(v -> Collections.unmodifiableMap(values));
+	}
+
+	private VariableBatcher createBatcher() {
+		return new VariableBatcher(new VariableBatcher.Transport() {
+			@Override
+			public CompletableFuture<String> read(String name) {
+				return new GetChannelVar(channelId, arity, name).run().thenCompose(read -> read.getError() == null ?
+						CompletableFuture.completedFuture(read.getValue()) : CompletableFuture.failedFuture(read.getError()));
+			}
+
+			@Override
+			public CompletableFuture<Void> write(String name, String value) {
+				return new SetChannelVar(channelId, arity, name, value).run().thenAccept(v -> {});
+			}
+		}, arity::dispatchTask, arity.getVariableBatchWindow());
 	}
 
 	class SetChannelVar extends Operation {
@@ -334,13 +489,15 @@ public class CallState {
 	public CompletableFuture<Void> setVariable(String name, String value) {
 		if (Objects.nonNull(value)) // the map can't store nulls
 			variables.put(name, value);
+		unsetVariables.remove(name);
 		if (!isActive)
 			return CompletableFuture.completedFuture(null);
-		return new SetChannelVar(channelId, arity, name, value).run().thenAccept(v -> {});
+		return batcher.get().write(name, value);
 	}
 	
 	/**
-	 * Update multiple asterisk channel variables at once
+	 * Update multiple asterisk channel variables at once. The variables are set concurrently, together with other
+	 * variables set at the same time.
 	 * @param variables a set of variables
 	 * @return a promise that will resolve when all variables have been set
 	 */
@@ -0,0 +1,485 @@
+package io.cloudonix.arity;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.loway.oss.ari4java.generated.models.Channel;
+import ch.loway.oss.ari4java.generated.models.ChannelDestroyed;
+import io.cloudonix.arity.Dial.Status;
+
+/**
+ * Bulk originate for outbound campaigns, that dials a stream of destinations on one Asterisk server.
+ *
+ * Originates are paced to a maximum rate and a maximum number of concurrent calls - a call counts against the limit
+ * from its originate request until its channel is destroyed. The concurrency limit can optionally adapt to the latency
+ * of the originate requests (AIMD), so the campaign backs off when Asterisk is slow to respond. Destinations are read
+ * from the stream only when they can be dialed, so the stream can be generated lazily.
+ *
+ * All the campaign's calls are followed by a single event handler per event type. Answered calls are handed to the
+ * campaign's answer handler, or hung up if there is none. Progress and outcomes are reported per batch of
+ * destinations and for the whole campaign.
+ *
+ * The limits apply to a single ARIty instance - to run a campaign on a cluster, run a campaign on each member.
+ */
+public class Campaign {
+
+	private final static Logger logger = LoggerFactory.getLogger(Campaign.class);
+	private static final Duration STASIS_MARGIN = Duration.ofSeconds(30);
+
+	/**
+	 * Outcome statistics of a set of campaign calls
+	 */
+	public static class Statistics {
+		private final AtomicLong dialed = new AtomicLong(), answered = new AtomicLong(), busy = new AtomicLong(),
+				noAnswer = new AtomicLong(), unavailable = new AtomicLong(), failed = new AtomicLong();
+
+		void countDialed() {
+			dialed.incrementAndGet();
+		}
+
+		void record(Status outcome) {
+			switch (outcome) {
+			case ANSWER: answered.incrementAndGet(); break;
+			case BUSY: busy.incrementAndGet(); break;
+			case NOANSWER: noAnswer.incrementAndGet(); break;
+			case CHANUNAVAIL: unavailable.incrementAndGet(); break;
+			default: failed.incrementAndGet();
+			}
+		}
+
+		/**
+		 * @return number of destinations that were dialed
+		 */
+		public long getDialed() {
+			return dialed.get();
+		}
+
+		/**
+		 * @return number of calls that ended, with any outcome
+		 */
+		public long getCompleted() {
+			return answered.get() + busy.get() + noAnswer.get() + unavailable.get() + failed.get();
+		}
+
+		/**
+		 * @return number of calls that were dialed and did not end yet
+		 */
+		public long getActive() {
+			return getDialed() - getCompleted();
+		}
+
+		public long getAnswered() {
+			return answered.get();
+		}
+
+		public long getBusy() {
+			return busy.get();
+		}
+
+		public long getNoAnswer() {
+			return noAnswer.get();
+		}
+
+		public long getUnavailable() {
+			return unavailable.get();
+		}
+
+		/**
+		 * @return number of calls that failed for other reasons - such as congestion, or a failed originate request
+		 */
+		public long getFailed() {
+			return failed.get();
+		}
+
+		@Override
+		public String toString() {
+			return "dialed " + getDialed() + ", answered " + getAnswered() + ", busy " + getBusy() + ", no answer " +
+					getNoAnswer() + ", unavailable " + getUnavailable() + ", failed " + getFailed();
+		}
+	}
+
+	/**
+	 * Outcome statistics of a batch of consecutive destinations
+	 */
+	public static class Batch extends Statistics {
+		private final int index;
+		private final int size;
+
+		Batch(int index, int size) {
+			this.index = index;
+			this.size = size;
+		}
+
+		/**
+		 * @return the index of the batch in the campaign, starting at 0
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return whether all the destinations of the batch were dialed and their calls ended. The last batch of a
+		 *   campaign may be complete with fewer destinations than the batch size
+		 */
+		public boolean isComplete() {
+			return getDialed() == size && getCompleted() == size;
+		}
+
+		@Override
+		public String toString() {
+			return "Batch " + index + ": " + super.toString();
+		}
+	}
+
+	private static class CampaignCall {
+		private final String destination;
+		private final String channelId = UUID.randomUUID().toString();
+		private final Batch batch;
+		private volatile Status status = Status.UNKNOWN;
+
+		CampaignCall(String destination, Batch batch) {
+			this.destination = destination;
+			this.batch = batch;
+		}
+	}
+
+	private final ARIty arity;
+	private String callerId;
+	private int ringTimeout = 30;
+	private Map<String, String> variables = new Hashtable<>();
+	private Consumer<CallController> answerHandler = call -> call.hangup().run();
+	private Consumer<Batch> progressListener = batch -> {};
+	private int batchSize = 100;
+	private final CallPacer pacer = new CallPacer();
+
+	private final Map<String, CampaignCall> calls = new ConcurrentHashMap<>();
+	private final Statistics totals = new Statistics();
+	private final List<Batch> batches = Collections.synchronizedList(new ArrayList<>());
+	private final CompletableFuture<Statistics> done = new CompletableFuture<>();
+	private Iterator<String> destinations;
+	private Batch currentBatch;
+	private boolean exhausted, stopped;
+	private ChannelGroupEventHandler<ch.loway.oss.ari4java.generated.models.Dial> dialEvents;
+	private ChannelGroupEventHandler<ChannelDestroyed> destroyEvents;
+
+	/**
+	 * Create a campaign
+	 * @param arity ARIty instance of the Asterisk server to dial on
+	 */
+	public Campaign(ARIty arity) {
+		this.arity = Objects.requireNonNull(arity);
+	}
+
+	/**
+	 * Set the Caller ID to present to the destinations
+	 * @param callerId Caller ID
+	 * @return itself for fluent calls
+	 */
+	public Campaign setCallerId(String callerId) {
+		this.callerId = callerId;
+		return this;
+	}
+
+	/**
+	 * Set how long each destination rings before giving up
+	 * @param timeout ring timeout. The default is 30 seconds
+	 * @return itself for fluent calls
+	 */
+	public Campaign setRingTimeout(Duration timeout) {
+		this.ringTimeout = (int) Math.max(1, timeout.getSeconds());
+		return this;
+	}
+
+	/**
+	 * Set Asterisk channel variables on all the outgoing channels
+	 * @param variables variables to set
+	 * @return itself for fluent calls
+	 */
+	public Campaign setVariables(Map<String, String> variables) {
+		this.variables = new Hashtable<>(variables);
+		return this;
+	}
+
+	/**
+	 * Set the handler for answered calls. The handler is run on the event thread of the call, so it must not block
+	 * @param handler handler that receives a controller for each answered call. By default answered calls are hung up
+	 * @return itself for fluent calls
+	 */
+	public Campaign setAnswerHandler(Consumer<CallController> handler) {
+		this.answerHandler = Objects.requireNonNull(handler);
+		return this;
+	}
+
+	/**
+	 * Set the number of consecutive destinations whose outcomes are reported together
+	 * @param size batch size. The default is 100
+	 * @return itself for fluent calls
+	 */
+	public Campaign setBatchSize(int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("Batches must have at least one destination");
+		this.batchSize = size;
+		return this;
+	}
+
+	/**
+	 * Set a listener that is notified when all the calls of a batch ended
+	 * @param listener listener that receives the completed batch
+	 * @return itself for fluent calls
+	 */
+	public Campaign setProgressListener(Consumer<Batch> listener) {
+		this.progressListener = Objects.requireNonNull(listener);
+		return this;
+	}
+
+	/**
+	 * Set the maximum rate of originates
+	 * @param callsPerSecond number of calls dialed every second, on average. By default the rate is not limited
+	 * @return itself for fluent calls
+	 */
+	public Campaign setMaxCallsPerSecond(double callsPerSecond) {
+		pacer.setMaxPerSecond(callsPerSecond, 1);
+		return this;
+	}
+
+	/**
+	 * Set the maximum number of concurrent calls - calls that are being originated, ringing or answered
+	 * @param calls number of concurrent calls. By default the number of calls is not limited
+	 * @return itself for fluent calls
+	 */
+	public Campaign setMaxConcurrentCalls(int calls) {
+		pacer.setMaxConcurrent(calls);
+		return this;
+	}
+
+	/**
+	 * Adapt the concurrency limit to the latency of originate requests. Requires a maximum number of concurrent calls.
+	 * @param target originate latency above which the concurrency limit is decreased
+	 * @param minConcurrent minimum concurrency limit
+	 * @return itself for fluent calls
+	 */
+	public Campaign setAdaptiveLimit(Duration target, int minConcurrent) {
+		pacer.setAdaptiveLimit(target, minConcurrent);
+		return this;
+	}
+
+	/**
+	 * Dial a stream of destinations
+	 * @param destinations Asterisk endpoints to dial (including technology and URL)
+	 * @return a promise for the campaign's statistics, that resolves when all the destinations were dialed and their
+	 *   calls ended, or when the campaign was stopped and its calls ended
+	 */
+	public CompletableFuture<Statistics> run(Stream<String> destinations) {
+		return run(destinations.iterator());
+	}
+
+	/**
+	 * Dial destinations
+	 * @param destinations Asterisk endpoints to dial (including technology and URL)
+	 * @return a promise for the campaign's statistics, that resolves when all the destinations were dialed and their
+	 *   calls ended, or when the campaign was stopped and its calls ended
+	 */
+	public CompletableFuture<Statistics> run(Iterable<String> destinations) {
+		return run(destinations.iterator());
+	}
+
+	private CompletableFuture<Statistics> run(Iterator<String> destinations) {
+		synchronized (this) {
+			if (this.destinations != null)
+				throw new IllegalStateException("Campaign is already running");
+			this.destinations = destinations;
+		}
+		dialEvents = arity.addChannelGroupEventHandler(ch.loway.oss.ari4java.generated.models.Dial.class,
+				Collections.emptyList(), (dial, se) -> handleDialEvent(dial));
+		destroyEvents = arity.addChannelGroupEventHandler(ChannelDestroyed.class, Collections.emptyList(),
+				(destroyed, se) -> handleChannelDestroyed(destroyed));
+		fill();
+		return done;
+	}
+
+	/**
+	 * Stop dialing new destinations. Calls that are already dialed are allowed to end
+	 */
+	public void stop() {
+		synchronized (this) {
+			stopped = true;
+		}
+		checkDone();
+	}
+
+	/**
+	 * Dial as many destinations as the limits allow
+	 */
+	private void fill() {
+		List<CampaignCall> starting = new ArrayList<>();
+		synchronized (this) {
+			while (!stopped && pacer.isBelowLimit(calls.size())) {
+				if (!destinations.hasNext()) {
+					exhausted = true;
+					break;
+				}
+				if (!pacer.takeRateToken()) {
+					pacer.whenTokenAvailable(this::fill);
+					break;
+				}
+				if (currentBatch == null || currentBatch.getDialed() == batchSize) {
+					currentBatch = new Batch(batches.size(), batchSize);
+					batches.add(currentBatch);
+				}
+				CampaignCall call = new CampaignCall(destinations.next(), currentBatch);
+				calls.put(call.channelId, call);
+				currentBatch.countDialed();
+				totals.countDialed();
+				starting.add(call);
+			}
+		}
+		starting.forEach(this::originate);
+		checkDone();
+	}
+
+	private void originate(CampaignCall call) {
+		dialEvents.addChannel(call.channelId);
+		destroyEvents.addChannel(call.channelId);
+		arity.waitForNewCall(call.channelId, Duration.ofSeconds(ringTimeout).plus(STASIS_MARGIN))
+				.thenAccept(answerHandler)
+				.exceptionally(t -> null); // the call was not answered
+		Map<String, String> vars = new Hashtable<>(variables);
+		long start = System.nanoTime();
+		Operation.<Channel>retry(cb -> arity.getAri().channels().originate(call.destination).setApp(arity.getAppName())
+				.setAppArgs("").setChannelId(call.channelId).setCallerId(callerId).setTimeout(ringTimeout)
+				.setVariables(vars).execute(cb))
+				.whenComplete((channel, error) -> {
+					if (pacer.observeLatency(System.nanoTime() - start, calls.size()))
+						logger.debug("Originate latency {}ms, campaign concurrency limit is now {}",
+								pacer.getLatencyAverageMillis(), pacer.getLimit());
+					if (error != null) {
+						logger.info("Failed to originate campaign call to {}: {}", call.destination, error.toString());
+						arity.cancelWaitForNewCall(call.channelId); // the channel will never enter stasis
+						finish(call, Status.UNKNOWN);
+					}
+				});
+	}
+
+	private void handleDialEvent(ch.loway.oss.ari4java.generated.models.Dial dial) {
+		CampaignCall call = dial.getPeer() == null ? null : calls.get(dial.getPeer().getId());
+		if (call == null || dial.getDialstatus() == null || dial.getDialstatus().isEmpty())
+			return;
+		try {
+			call.status = Status.valueOf(dial.getDialstatus());
+		} catch (IllegalArgumentException e) {
+			logger.error("Unknown dial status {}, ignoring for now", dial.getDialstatus());
+		}
+	}
+
+	private void handleChannelDestroyed(ChannelDestroyed destroyed) {
+		CampaignCall call = calls.get(destroyed.getChannel().getId());
+		if (call == null)
+			return;
+		switch (call.status) {
+		case UNKNOWN:
+		case RINGING:
+		case PROGRESS:
+			finish(call, outcomeOfCause(destroyed.getCause()));
+			return;
+		default:
+			finish(call, call.status);
+		}
+	}
+
+	/**
+	 * Classify calls that ended without a final dial status, by their Q.850 hangup cause
+	 */
+	private static Status outcomeOfCause(int cause) {
+		switch (cause) {
+		case 17: // user busy
+			return Status.BUSY;
+		case 18: // no user responding
+		case 19: // no answer
+			return Status.NOANSWER;
+		case 34: // no circuit available
+		case 42: // switching equipment congestion
+			return Status.CONGESTION;
+		default:
+			return Status.CHANUNAVAIL;
+		}
+	}
+
+	private void finish(CampaignCall call, Status outcome) {
+		if (!calls.remove(call.channelId, call))
+			return;
+		dialEvents.removeChannel(call.channelId);
+		destroyEvents.removeChannel(call.channelId);
+		call.batch.record(outcome);
+		totals.record(outcome);
+		if (call.batch.isComplete()) {
+			logger.debug("Campaign {}", call.batch);
+			try {
+				progressListener.accept(call.batch);
+			} catch (Throwable t) {
+				logger.error("Fatal error running campaign progress listener", t);
+			}
+		}
+		fill();
+	}
+
+	private void checkDone() {
+		synchronized (this) {
+			if (destinations == null || !(exhausted || stopped) || !calls.isEmpty() || done.isDone())
+				return;
+		}
+		if (!done.complete(totals))
+			return;
+		dialEvents.unregister();
+		destroyEvents.unregister();
+		logger.info("Campaign ended: {}", totals);
+	}
+
+	/**
+	 * Retrieve the statistics of the whole campaign so far
+	 * @return live campaign statistics
+	 */
+	public Statistics getStatistics() {
+		return totals;
+	}
+
+	/**
+	 * Retrieve the batches that were started so far
+	 * @return a copy of the list of batches, whose statistics are live
+	 */
+	public List<Batch> getBatches() {
+		synchronized (batches) {
+			return new ArrayList<>(batches);
+		}
+	}
+
+	/**
+	 * Retrieve the number of calls that are currently dialed or connected
+	 * @return number of active calls
+	 */
+	public int getActiveCalls() {
+		return calls.size();
+	}
+
+	/**
+	 * Retrieve the current concurrency limit, that may be lower than the configured maximum when the limit is adaptive
+	 * @return number of calls that may be active concurrently
+	 */
+	public int getConcurrencyLimit() {
+		return pacer.getLimit();
+	}
+}
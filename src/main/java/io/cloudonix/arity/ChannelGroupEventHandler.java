@@ -0,0 +1,72 @@
+package io.cloudonix.arity;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import ch.loway.oss.ari4java.generated.models.Message;
+
+/**
+ * An event listener that is registered once to accept a specific message type on a group of channels.
+ *
+ * The handler is indexed under each of its channels, so events are still dispatched to it without scanning unrelated
+ * handlers, while operations that follow many channels - such as a {@link RingGroup} - keep a single subscription per
+ * message type instead of one per channel. Channels can be added to and removed from the group while it is registered.
+ */
+public class ChannelGroupEventHandler<T extends Message> extends EventHandler<T> {
+
+	private final Set<String> channelIds = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Create a new channel group event handler, that does not listen on any channel yet
+	 *
+	 * @param handler function to execute when the event arrives
+	 * @param type message type
+	 * @param arity owner ARIty instance
+	 */
+	ChannelGroupEventHandler(BiConsumer<T, EventHandler<T>> handler, Class<T> type, ARIty arity) {
+		super(null, handler, type, arity);
+	}
+
+	/**
+	 * Start listening on another channel
+	 * @param channelId ID of the channel to add to the group
+	 * @return itself for fluent calls
+	 */
+	public ChannelGroupEventHandler<T> addChannel(String channelId) {
+		if (isRegistered() && channelIds.add(channelId))
+			arity.addEventHandlerChannel(this, channelId);
+		return this;
+	}
+
+	/**
+	 * Stop listening on a channel
+	 * @param channelId ID of the channel to remove from the group
+	 * @return itself for fluent calls
+	 */
+	public ChannelGroupEventHandler<T> removeChannel(String channelId) {
+		if (channelIds.remove(channelId))
+			arity.removeEventHandlerChannel(this, channelId);
+		return this;
+	}
+
+	/**
+	 * Retrieve the channels the handler listens on
+	 * @return a live view of the channel IDs in the group
+	 */
+	public Set<String> getChannelIds() {
+		return channelIds;
+	}
+
+	@Override
+	public void unregister() {
+		super.unregister();
+		for (String channelId : channelIds)
+			removeChannel(channelId);
+	}
+
+	@Override
+	public String toString() {
+		return "Channel group event handler<" + clazz.getSimpleName() + ">" + channelIds;
+	}
+}
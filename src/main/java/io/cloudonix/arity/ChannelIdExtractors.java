@@ -0,0 +1,178 @@
+package io.cloudonix.arity;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.loway.oss.ari4java.generated.models.BridgeCreated;
+import ch.loway.oss.ari4java.generated.models.BridgeDestroyed;
+import ch.loway.oss.ari4java.generated.models.Channel;
+import ch.loway.oss.ari4java.generated.models.ChannelCallerId;
+import ch.loway.oss.ari4java.generated.models.ChannelConnectedLine;
+import ch.loway.oss.ari4java.generated.models.ChannelCreated;
+import ch.loway.oss.ari4java.generated.models.ChannelDestroyed;
+import ch.loway.oss.ari4java.generated.models.ChannelDialplan;
+import ch.loway.oss.ari4java.generated.models.ChannelDtmfReceived;
+import ch.loway.oss.ari4java.generated.models.ChannelEnteredBridge;
+import ch.loway.oss.ari4java.generated.models.ChannelHangupRequest;
+import ch.loway.oss.ari4java.generated.models.ChannelHold;
+import ch.loway.oss.ari4java.generated.models.ChannelLeftBridge;
+import ch.loway.oss.ari4java.generated.models.ChannelStateChange;
+import ch.loway.oss.ari4java.generated.models.ChannelTalkingFinished;
+import ch.loway.oss.ari4java.generated.models.ChannelTalkingStarted;
+import ch.loway.oss.ari4java.generated.models.ChannelUnhold;
+import ch.loway.oss.ari4java.generated.models.ChannelUserevent;
+import ch.loway.oss.ari4java.generated.models.ChannelVarset;
+import ch.loway.oss.ari4java.generated.models.DeviceStateChanged;
+import ch.loway.oss.ari4java.generated.models.Message;
+import ch.loway.oss.ari4java.generated.models.PlaybackContinuing;
+import ch.loway.oss.ari4java.generated.models.PlaybackFinished;
+import ch.loway.oss.ari4java.generated.models.PlaybackStarted;
+import ch.loway.oss.ari4java.generated.models.RecordingFailed;
+import ch.loway.oss.ari4java.generated.models.RecordingFinished;
+import ch.loway.oss.ari4java.generated.models.RecordingStarted;
+import ch.loway.oss.ari4java.generated.models.StasisEnd;
+import ch.loway.oss.ari4java.generated.models.StasisStart;
+
+/**
+ * Registry of functions that extract the ID of the channel an event should be routed to.
+ *
+ * Extractors are registered per message type, and resolved once per ari4java implementation class, so routing an
+ * event costs a single map lookup and a direct getter call. Event types that have no registered extractor but do
+ * have a {@code getChannel()} getter are resolved to a method handle for that getter on first use.
+ */
+class ChannelIdExtractors {
+
+	private final static Logger logger = LoggerFactory.getLogger(ChannelIdExtractors.class);
+	private static final Function<Message, String> NO_CHANNEL = m -> null;
+	private static final Map<Class<?>, Function<Message, String>> defaultExtractors = createDefaults();
+
+	private final ConcurrentHashMap<Class<?>, Function<Message, String>> extractors = new ConcurrentHashMap<>(defaultExtractors);
+	private final ConcurrentHashMap<Class<?>, Function<Message, String>> resolved = new ConcurrentHashMap<>();
+
+	/**
+	 * Register an extractor for a message type, overriding any previous extractor for the same type
+	 * @param <T> type of message
+	 * @param type message type to register the extractor for. The extractor will also be used for sub-types of
+	 *   this type, unless they have a more specific extractor
+	 * @param extractor function that returns the ID to route the event by, or <code>null</code> if the event should
+	 *   only be dispatched to global handlers
+	 */
+	<T extends Message> void register(Class<T> type, Function<? super T, String> extractor) {
+		extractors.put(type, m -> extractor.apply(type.cast(m)));
+		resolved.clear();
+	}
+
+	/**
+	 * Retrieve the ID of the channel an event refers to
+	 * @param event event to route
+	 * @return the channel ID, or <code>null</code> if the event is not a channel event
+	 */
+	String getChannelId(Message event) {
+		Function<Message, String> extractor = resolved.get(event.getClass());
+		if (extractor == null)
+			extractor = resolved.computeIfAbsent(event.getClass(), this::resolve);
+		return extractor.apply(event);
+	}
+
+	private Function<Message, String> resolve(Class<?> eventClass) {
+		Function<Message, String> extractor = null;
+		Class<?> extractorType = null;
+		for (Class<?> type : EventDispatchTable.resolveTypes(eventClass)) {
+			Function<Message, String> candidate = extractors.get(type);
+			if (candidate != null && (extractorType == null || extractorType.isAssignableFrom(type))) {
+				extractor = candidate;
+				extractorType = type;
+			}
+		}
+		return extractor != null ? extractor : getterExtractor(eventClass);
+	}
+
+	/**
+	 * Generate an extractor for event types that have a {@code getChannel()} getter but no registered extractor
+	 */
+	private static Function<Message, String> getterExtractor(Class<?> eventClass) {
+		MethodHandle getter;
+		try {
+			Method method = eventClass.getMethod("getChannel");
+			if (!Channel.class.isAssignableFrom(method.getReturnType())) {
+				logger.warn("Can not get channel id for event type {}: getChannel() returns {}", eventClass, method.getReturnType());
+				return NO_CHANNEL;
+			}
+			getter = MethodHandles.publicLookup().unreflect(method);
+		} catch (NoSuchMethodException e) {
+			logger.debug("Event type {} has no channel", eventClass.getSimpleName());
+			return NO_CHANNEL;
+		} catch (SecurityException | IllegalAccessException e) {
+			logger.warn("Can not get channel id for event type " + eventClass + ": " + e);
+			return NO_CHANNEL;
+		}
+		return event -> {
+			try {
+				Channel chan = (Channel) getter.invoke(event);
+				if (chan != null)
+					return chan.getId();
+				logger.warn("Channel ID is not set for event " + event);
+			} catch (Throwable e) {
+				logger.warn("Can not get channel id for event " + event + ": " + e);
+			}
+			return null;
+		};
+	}
+
+	private static Map<Class<?>, Function<Message, String>> createDefaults() {
+		Map<Class<?>, Function<Message, String>> map = new HashMap<>();
+		// these never have a channel
+		map.put(DeviceStateChanged.class, NO_CHANNEL);
+		map.put(BridgeCreated.class, NO_CHANNEL);
+		map.put(BridgeDestroyed.class, NO_CHANNEL);
+		// the dial event is routed to the dialed channel
+		map.put(ch.loway.oss.ari4java.generated.models.Dial.class,
+				m -> channelId(((ch.loway.oss.ari4java.generated.models.Dial) m).getPeer()));
+		// media events are routed by their target URI
+		map.put(PlaybackStarted.class, m -> targetId(((PlaybackStarted) m).getPlayback().getTarget_uri()));
+		map.put(PlaybackContinuing.class, m -> targetId(((PlaybackContinuing) m).getPlayback().getTarget_uri()));
+		map.put(PlaybackFinished.class, m -> targetId(((PlaybackFinished) m).getPlayback().getTarget_uri()));
+		map.put(RecordingStarted.class, m -> targetId(((RecordingStarted) m).getRecording().getTarget_uri()));
+		map.put(RecordingFinished.class, m -> targetId(((RecordingFinished) m).getRecording().getTarget_uri()));
+		map.put(RecordingFailed.class, m -> targetId(((RecordingFailed) m).getRecording().getTarget_uri()));
+		// channel events
+		map.put(StasisStart.class, m -> channelId(((StasisStart) m).getChannel()));
+		map.put(StasisEnd.class, m -> channelId(((StasisEnd) m).getChannel()));
+		map.put(ChannelCreated.class, m -> channelId(((ChannelCreated) m).getChannel()));
+		map.put(ChannelDestroyed.class, m -> channelId(((ChannelDestroyed) m).getChannel()));
+		map.put(ChannelStateChange.class, m -> channelId(((ChannelStateChange) m).getChannel()));
+		map.put(ChannelVarset.class, m -> channelId(((ChannelVarset) m).getChannel()));
+		map.put(ChannelDtmfReceived.class, m -> channelId(((ChannelDtmfReceived) m).getChannel()));
+		map.put(ChannelHangupRequest.class, m -> channelId(((ChannelHangupRequest) m).getChannel()));
+		map.put(ChannelDialplan.class, m -> channelId(((ChannelDialplan) m).getChannel()));
+		map.put(ChannelCallerId.class, m -> channelId(((ChannelCallerId) m).getChannel()));
+		map.put(ChannelConnectedLine.class, m -> channelId(((ChannelConnectedLine) m).getChannel()));
+		map.put(ChannelEnteredBridge.class, m -> channelId(((ChannelEnteredBridge) m).getChannel()));
+		map.put(ChannelLeftBridge.class, m -> channelId(((ChannelLeftBridge) m).getChannel()));
+		map.put(ChannelTalkingStarted.class, m -> channelId(((ChannelTalkingStarted) m).getChannel()));
+		map.put(ChannelTalkingFinished.class, m -> channelId(((ChannelTalkingFinished) m).getChannel()));
+		map.put(ChannelHold.class, m -> channelId(((ChannelHold) m).getChannel()));
+		map.put(ChannelUnhold.class, m -> channelId(((ChannelUnhold) m).getChannel()));
+		map.put(ChannelUserevent.class, m -> channelId(((ChannelUserevent) m).getChannel()));
+		return Map.copyOf(map);
+	}
+
+	private static String channelId(Channel channel) {
+		return channel == null ? null : channel.getId();
+	}
+
+	/**
+	 * Retrieve the resource ID from a media target URI, such as <code>channel:1234</code>
+	 */
+	private static String targetId(String targetUri) {
+		return targetUri == null ? null : targetUri.substring(targetUri.indexOf(':') + 1);
+	}
+}
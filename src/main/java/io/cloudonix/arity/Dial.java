@@ -6,14 +6,11 @@ import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.Hashtable;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -98,18 +95,7 @@ public class Dial extends CancelableOperations {
 	private Map<String, String> variables = new Hashtable<>();
 	private String callerId;
 	private int timeout;
-	private List<Runnable> channelStateUp = new ArrayList<>(),
-			channelStateRinging = new ArrayList<>(),
-			channelStateFail = new ArrayList<>(),
-			channelStateCancelled = new ArrayList<>(),
-			channelStateDisconnected = new ArrayList<>(),
-			channelStateActive = new ArrayList<>();
-	private volatile boolean wasRinging = false,
-			wasConnected = false,
-			wasCancelled = false,
-			wasFailed = false,
-			wasActive = false;
-	private AtomicBoolean wasDisconnected = new AtomicBoolean(false);
+	private final DialState state = new DialState();
 	private EventHandler<ChannelStateChange> channelStateChangedSe;
 	private Channel channel;
 	// for local channels, which by default we don't do
@@ -477,7 +463,6 @@ public class Dial extends CancelableOperations {
 	@Override
 	public CompletableFuture<Void> cancel() {
 		logger.info("Hang up channel with id: " + endpointChannelId);
-		dialStatus = wasConnected ? Status.ANSWER : Status.CANCEL;
 		cancelled();
 		return (earlyBridge != null ? earlyBridge.removeChannel(endpointChannelId).exceptionally(t -> null) : completedFuture(null))
 				.thenCompose(v -> retryOperation(Void.class, cb -> channels().hangup(endpointChannelId).setReason("normal").execute(cb)))
@@ -511,58 +496,44 @@ public class Dial extends CancelableOperations {
 		return dialStatus;
 	}
 
+	/**
+	 * Register handler for when the dialed channel entered the application
+	 * @param func callback handler, that runs immediately if the channel already entered the application
+	 * @return itself for chaining
+	 */
 	public Dial whenActive(Runnable func) {
-		channelStateActive.add(func);
-		if (wasActive)
-			func.run();
+		state.on(DialState.State.ACTIVE, func);
 		return this;
 	}
 
 	private void active() {
-		if (wasActive)
-			return;
-		wasActive = true;
-		try {
-			channelStateActive.forEach(Runnable::run);
-		} catch (Throwable t) {
-			logger.debug("Fatal error running whenActive callback", t);
-		}
+		state.enter(DialState.State.ACTIVE);
 	}
 
 	/**
 	 * notice when channel state is Ringing
-	 * @param func callback handler
+	 * @param func callback handler, that runs immediately if the endpoint already rang
 	 * @return itself for chaining
 	 */
 	public Dial whenRinging(Runnable func) {
-		channelStateRinging.add(func);
-		if (wasRinging)
-			func.run();
+		state.on(DialState.State.RINGING, func);
 		return this;
 	}
 
 	private void ringing() {
-		if(wasRinging)
-			return;
-		ringingTime = Instant.now();
-		wasRinging = true;
-		try {
-			channelStateRinging.forEach(Runnable::run);
-		} catch (Throwable t) {
-			logger.error("Fatal error running whenRinging callback", t);
-		}
+		if (ringingTime == null && !state.isEnded())
+			ringingTime = Instant.now();
+		state.enter(DialState.State.RINGING);
 	}
 
 	/**
 	 * register handler for handling when channel state is Up
 	 *
-	 * @param func callback handler
+	 * @param func callback handler, that runs immediately if the endpoint already answered
 	 * @return itself for chaining
 	 */
 	public Dial whenConnect(Runnable func) {
-		channelStateUp.add(func);
-		if (wasConnected)
-			func.run();
+		state.on(DialState.State.CONNECTED, func);
 		return this;
 	}
 
@@ -570,27 +541,19 @@ public class Dial extends CancelableOperations {
 	 * handle when the call was answered
 	 */
 	private void connected() {
-		if (wasConnected)
-			return;
 		ringing();
-		wasConnected = true;
-		answerTime = Instant.now();
-		try {
-			channelStateUp.forEach(Runnable::run);
-		} catch (Throwable t) {
-			logger.error("Fatal error running whenConnect callback", t);
-		}
+		if (answerTime == null && !state.isEnded())
+			answerTime = Instant.now();
+		state.enter(DialState.State.CONNECTED);
 	}
 
 	/**
 	 * Register handler for receiving a terminal failure status if the dial failed
-	 * @param func callback handler
+	 * @param func callback handler, that runs immediately if the dial already failed
 	 * @return itself for chaining
 	 */
 	public Dial whenFailed(Runnable func) {
-		channelStateFail.add(func);
-		if (wasFailed)
-			func.run();
+		state.on(DialState.State.FAILED, func);
 		return this;
 	}
 
@@ -598,53 +561,53 @@ public class Dial extends CancelableOperations {
 	 * handle when fail to dial
 	 */
 	private void failed() {
-		if (wasFailed)
-			return;
-		wasFailed = true;
-		computeDurationsAtEndOfCall();
-		try {
-			channelStateFail.forEach(Runnable::run);
-		} catch (Throwable t) {
-			logger.error("Fatal error running whenFailed callback", t);
-		}
-		compFuture.complete(this);
+		end(DialState.State.FAILED, null);
 	}
 
+	/**
+	 * Register handler for when the dial was cancelled
+	 * @param func callback handler, that runs immediately if the dial was already cancelled
+	 * @return itself for chaining
+	 */
 	public Dial whenCancelled(Runnable func) {
-		channelStateCancelled.add(func);
+		state.on(DialState.State.CANCELLED, func);
 		return this;
 	}
 
 	private void cancelled() {
-		if (wasCancelled)
-			return;
-		wasCancelled = true;
-		computeDurationsAtEndOfCall();
-		try {
-			channelStateCancelled.forEach(Runnable::run);
-		} catch (Throwable t) {
-			logger.error("Fatal error running whenCancelled callback", t);
-		}
-		compFuture.complete(this);
+		end(DialState.State.CANCELLED, () -> dialStatus = state.is(DialState.State.CONNECTED) ? Status.ANSWER : Status.CANCEL);
 	}
 
+	/**
+	 * Register handler for when the dialed endpoint hanged up
+	 * @param func callback handler, that runs immediately if the endpoint already hanged up
+	 * @return itself for chaining
+	 */
 	public Dial whenDisconnected(Runnable func) {
-		channelStateDisconnected.add(func);
+		state.on(DialState.State.DISCONNECTED, func);
 		return this;
 	}
 
 	private void disconnected() {
-		if (wasDisconnected.compareAndExchange(false, true) != false) {
+		if (state.is(DialState.State.DISCONNECTED)) {
 			logger.warn("Calle [{}] disconnected twice?", endpointChannelId);
 			return;
 		}
-		computeDurationsAtEndOfCall();
-		try {
-			channelStateDisconnected.forEach(Runnable::run);
-		} catch (Throwable t) {
-			logger.error("Fatal error running whenDisconnected callback", t);
-		}
-		compFuture.complete(this);
+		end(DialState.State.DISCONNECTED, null);
+	}
+
+	/**
+	 * Enter a terminal state, and complete the dial if it was entered. If this is the first terminal state, the
+	 * durations are computed (after running <code>onEnd</code>, if set) before the state's listeners run, so
+	 * listeners see the final durations, and later terminal states do not change them
+	 */
+	private void end(DialState.State endState, Runnable onEnd) {
+		if (state.enter(endState, () -> {
+			if (onEnd != null)
+				onEnd.run();
+			computeDurationsAtEndOfCall();
+		}))
+			compFuture.complete(this); // does nothing if the dial already ended in another state
 	}
 
 	private void computeDurationsAtEndOfCall() {
@@ -0,0 +1,166 @@
+package io.cloudonix.arity;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lock-free state machine of a {@link Dial}, with the listeners for each state.
+ *
+ * The states a dial has reached are kept as a bit set in a single atomic integer, and each state is entered at most
+ * once using compare-and-set, so concurrent events cannot enter a state twice or enter a state that is no longer
+ * allowed - e.g. a dial that was cancelled can not connect afterwards. A dial may enter more than one terminal state
+ * (e.g. the dialed endpoint hangs up after the dial was cancelled), but only the first one runs the end action given to
+ * {@link #enter(State, Runnable)}, before any listeners of that state run. Listeners are kept in copy-on-write arrays,
+ * and a listener that is registered after its state's listeners started running is run immediately. Each listener
+ * runs exactly once, even when it is registered while its state is entered.
+ */
+class DialState {
+
+	private final static Logger logger = LoggerFactory.getLogger(DialState.class);
+
+	enum State {
+		/** The dialed channel entered the application */
+		ACTIVE,
+		/** The dialed endpoint is ringing or progressing */
+		RINGING,
+		/** The dialed endpoint answered */
+		CONNECTED,
+		/** The dial failed before the endpoint answered */
+		FAILED,
+		/** The dial was cancelled by the application */
+		CANCELLED,
+		/** The dialed endpoint hanged up */
+		DISCONNECTED;
+
+		private final int bit = 1 << ordinal();
+	}
+
+	private static final int ENDED = State.FAILED.bit | State.CANCELLED.bit | State.DISCONNECTED.bit;
+	private static final Listener[] NO_LISTENERS = new Listener[0];
+
+	/**
+	 * A listener that runs at most once
+	 */
+	private static class Listener {
+		private final Runnable action;
+		private final AtomicBoolean fired = new AtomicBoolean();
+
+		Listener(Runnable action) {
+			this.action = action;
+		}
+
+		void fire(State state) {
+			if (!fired.compareAndSet(false, true))
+				return;
+			try {
+				action.run();
+			} catch (Throwable t) {
+				logger.error("Fatal error running {} callback", state, t);
+			}
+		}
+	}
+
+	private final AtomicInteger reached = new AtomicInteger();
+	private final AtomicInteger announced = new AtomicInteger();
+	private final AtomicReferenceArray<Listener[]> listeners = new AtomicReferenceArray<>(State.values().length);
+
+	DialState() {
+		for (int i = 0; i < listeners.length(); i++)
+			listeners.set(i, NO_LISTENERS);
+	}
+
+	/**
+	 * Enter a state and run its listeners
+	 * @param state state to enter
+	 * @return whether the state was entered, or <code>false</code> if it was already entered or is not allowed after
+	 *   the states that were already entered
+	 */
+	boolean enter(State state) {
+		return enter(state, null);
+	}
+
+	/**
+	 * Enter a state and run its listeners, after running an end action if the state is the first terminal state
+	 * entered
+	 * @param state state to enter
+	 * @param onEnd action to run before the listeners if the dial has not ended before, or <code>null</code>
+	 * @return whether the state was entered, or <code>false</code> if it was already entered or is not allowed after
+	 *   the states that were already entered
+	 */
+	boolean enter(State state, Runnable onEnd) {
+		int current;
+		do {
+			current = reached.get();
+			if ((current & state.bit) != 0 || !allowed(current, state))
+				return false;
+		} while (!reached.compareAndSet(current, current | state.bit));
+		if (onEnd != null && (state.bit & ENDED) != 0 && (current & ENDED) == 0)
+			onEnd.run();
+		announced.getAndUpdate(bits -> bits | state.bit);
+		for (Listener listener : listeners.get(state.ordinal()))
+			listener.fire(state);
+		return true;
+	}
+
+	private static boolean allowed(int current, State state) {
+		switch (state) {
+		case RINGING:
+		case CONNECTED:
+			return (current & ENDED) == 0;
+		case FAILED:
+			return (current & (State.CONNECTED.bit | ENDED)) == 0;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Check whether a state was entered
+	 * @param state state to check
+	 * @return whether the dial has entered the state
+	 */
+	boolean is(State state) {
+		return (reached.get() & state.bit) != 0;
+	}
+
+	/**
+	 * Check whether the dial has ended, by failing, being cancelled or being disconnected
+	 * @return whether the dial has ended
+	 */
+	boolean isEnded() {
+		return (reached.get() & ENDED) != 0;
+	}
+
+	/**
+	 * Register a listener for a state. If the state was already entered, the listener runs immediately
+	 * @param state state to listen for
+	 * @param action listener to run when the state is entered
+	 */
+	void on(State state, Runnable action) {
+		Listener listener = new Listener(action);
+		int index = state.ordinal();
+		while (true) {
+			Listener[] current = listeners.get(index);
+			Listener[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = listener;
+			if (listeners.compareAndSet(index, current, updated))
+				break;
+		}
+		if ((announced.get() & state.bit) != 0)
+			listener.fire(state);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		for (State state : State.values())
+			if (is(state))
+				out.append(out.length() > 0 ? "," : "").append(state);
+		return out.length() > 0 ? out.toString() : "NEW";
+	}
+}
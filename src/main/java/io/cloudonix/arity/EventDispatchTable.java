@@ -0,0 +1,274 @@
+package io.cloudonix.arity;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.loway.oss.ari4java.generated.models.Message;
+
+/**
+ * Index of registered event handlers, keyed by the channel they listen on and the message type they accept.
+ *
+ * Each event is only offered to the handlers that registered for one of the types the event implements, so
+ * dispatching does not need to scan or copy unrelated handlers. Handlers for each (channel, type) pair are
+ * stored in copy-on-write arrays: registration and removal pay for the copy, while dispatching just reads
+ * the current array.
+ *
+ * Channel handlers are offered events newest-first, so the event "bubbles" from deeper elements to upper elements,
+ * even when the event matches handlers that registered for different types in its hierarchy. Global handlers are
+ * offered events after the channel handlers, in registration order.
+ */
+class EventDispatchTable {
+
+	private static final EventHandler<?>[] NO_HANDLERS = new EventHandler<?>[0];
+	private static final ConcurrentHashMap<Class<?>, Class<?>[]> typeHierarchyCache = new ConcurrentHashMap<>();
+
+	private final AtomicLong registrationSequence = new AtomicLong();
+	private final ConcurrentHashMap<String, HandlerIndex> channelHandlers = new ConcurrentHashMap<>();
+	private final HandlerIndex globalHandlers = new HandlerIndex(false);
+
+	/**
+	 * Register an event handler, on its channel if it has one, or as a global handler otherwise
+	 * @param handler handler to register
+	 */
+	void add(EventHandler<?> handler) {
+		add(handler, handler.getChannelId());
+	}
+
+	/**
+	 * Register an event handler on a specific channel, regardless of the channel it reports - used to index
+	 * {@link ChannelGroupEventHandler}s under each of their channels
+	 * @param handler handler to register
+	 * @param channelId channel to register the handler on, or <code>null</code> to register it as a global handler
+	 */
+	void add(EventHandler<?> handler, String channelId) {
+		synchronized (handler) { // a handler that is added to more channels keeps the order of its first registration
+			if (handler.registration == 0)
+				handler.registration = registrationSequence.incrementAndGet();
+		}
+		(channelId == null ? globalHandlers : channelHandlers.computeIfAbsent(channelId, id -> new HandlerIndex(true)))
+		.add(handler);
+	}
+
+	/**
+	 * Unregister an event handler
+	 * @param handler handler to remove
+	 * @return whether the handler was registered
+	 */
+	boolean remove(EventHandler<?> handler) {
+		return remove(handler, handler.getChannelId());
+	}
+
+	/**
+	 * Unregister an event handler from a specific channel
+	 * @param handler handler to remove
+	 * @param channelId channel the handler was registered on, or <code>null</code> for a global handler
+	 * @return whether the handler was registered on the channel
+	 */
+	boolean remove(EventHandler<?> handler, String channelId) {
+		HandlerIndex index = channelId == null ? globalHandlers : channelHandlers.get(channelId);
+		return index != null && index.remove(handler);
+	}
+
+	/**
+	 * Remove all handlers registered on a channel
+	 * @param channelId channel whose handlers should be discarded
+	 */
+	void removeChannel(String channelId) {
+		channelHandlers.remove(channelId);
+	}
+
+	/**
+	 * Offer an event to the handlers of its channel, then to the global handlers
+	 * @param event event to dispatch
+	 * @param channelId channel the event refers to, or <code>null</code> if it is not a channel event
+	 * @param received time the event was received, for reporting dispatch latency, or 0 if not reported
+	 */
+	void dispatch(Message event, String channelId, long received) {
+		Class<?>[] types = resolveTypes(event.getClass());
+		if (channelId != null) {
+			HandlerIndex index = channelHandlers.get(channelId);
+			if (index != null)
+				index.dispatch(event, channelId, received, types);
+		}
+		globalHandlers.dispatch(event, channelId, received, types);
+	}
+
+	/**
+	 * Retrieve the set of message types an event class can be delivered as - i.e. the class itself and all of its
+	 * super-classes and interfaces that are messages. ari4java delivers version specific implementation classes, so
+	 * this is cached per implementation class.
+	 * @param eventClass concrete class of an event
+	 * @return message types that handlers may have registered for to receive this event
+	 */
+	static Class<?>[] resolveTypes(Class<?> eventClass) {
+		Class<?>[] types = typeHierarchyCache.get(eventClass);
+		if (types != null)
+			return types;
+		return typeHierarchyCache.computeIfAbsent(eventClass, EventDispatchTable::computeTypes);
+	}
+
+	private static Class<?>[] computeTypes(Class<?> eventClass) {
+		Set<Class<?>> types = new HashSet<>();
+		Queue<Class<?>> pending = new ArrayDeque<>();
+		pending.add(eventClass);
+		while (!pending.isEmpty()) {
+			Class<?> type = pending.poll();
+			if (!Message.class.isAssignableFrom(type) || !types.add(type))
+				continue;
+			if (type.getSuperclass() != null)
+				pending.add(type.getSuperclass());
+			pending.addAll(Arrays.asList(type.getInterfaces()));
+		}
+		return types.toArray(new Class<?>[types.size()]);
+	}
+
+	/**
+	 * Retrieve the number of channels that currently have handler entries
+	 * @return number of channel entries
+	 */
+	int channelCount() {
+		return channelHandlers.size();
+	}
+
+	/**
+	 * Count the registered event handlers, for monitoring. This scans the whole table.
+	 * @return number of channel and global handlers
+	 */
+	int handlerCount() {
+		int count = globalHandlers.size();
+		for (HandlerIndex index : channelHandlers.values())
+			count += index.size();
+		return count;
+	}
+
+	/**
+	 * Retrieve the IDs of channels that currently have handler entries
+	 * @return a live view of the channel IDs in the table
+	 */
+	Collection<String> channelIds() {
+		return channelHandlers.keySet();
+	}
+
+	/**
+	 * Handlers registered on a single channel (or globally), indexed by the type they registered for
+	 */
+	private static class HandlerIndex {
+		private final ConcurrentHashMap<Class<?>, HandlerList> handlersByType = new ConcurrentHashMap<>();
+		private final boolean newestFirst;
+
+		HandlerIndex(boolean newestFirst) {
+			this.newestFirst = newestFirst;
+		}
+
+		void add(EventHandler<?> handler) {
+			handlersByType.computeIfAbsent(handler.clazz, t -> new HandlerList()).add(handler);
+		}
+
+		boolean remove(EventHandler<?> handler) {
+			HandlerList list = handlersByType.get(handler.clazz);
+			return list != null && list.remove(handler);
+		}
+
+		int size() {
+			int size = 0;
+			for (HandlerList list : handlersByType.values())
+				size += list.handlers.length;
+			return size;
+		}
+
+		void dispatch(Message event, String channelId, long received, Class<?>[] types) {
+			EventHandler<?>[] single = null;
+			EventHandler<?>[][] matches = null;
+			int matchCount = 0;
+			for (Class<?> type : types) {
+				HandlerList list = handlersByType.get(type);
+				if (list == null)
+					continue;
+				EventHandler<?>[] handlers = list.handlers;
+				if (handlers.length == 0)
+					continue;
+				if (single == null) {
+					single = handlers;
+					continue;
+				}
+				if (matches == null) {
+					matches = new EventHandler<?>[types.length][];
+					matches[matchCount++] = single;
+				}
+				matches[matchCount++] = handlers;
+			}
+			if (matches != null)
+				dispatchMerged(event, channelId, received, matches, matchCount);
+			else if (single != null && newestFirst)
+				for (int i = single.length - 1; i >= 0; i--)
+					single[i].dispatch(event, channelId, received);
+			else if (single != null)
+				for (EventHandler<?> handler : single)
+					handler.dispatch(event, channelId, received);
+		}
+
+		/**
+		 * Dispatch to handlers that registered for different types that the event matches, keeping the registration
+		 * order across all lists
+		 */
+		private void dispatchMerged(Message event, String channelId, long received, EventHandler<?>[][] matches, int matchCount) {
+			int[] positions = new int[matchCount];
+			for (int i = 0; i < matchCount; i++)
+				positions[i] = newestFirst ? matches[i].length - 1 : 0;
+			int step = newestFirst ? -1 : 1;
+			while (true) {
+				int next = -1;
+				for (int i = 0; i < matchCount; i++) {
+					if (positions[i] < 0 || positions[i] >= matches[i].length)
+						continue;
+					if (next < 0 || (matches[i][positions[i]].registration > matches[next][positions[next]].registration) == newestFirst)
+						next = i;
+				}
+				if (next < 0)
+					return;
+				matches[next][positions[next]].dispatch(event, channelId, received);
+				positions[next] += step;
+			}
+		}
+	}
+
+	/**
+	 * Copy-on-write list of handlers, ordered by registration
+	 */
+	private static class HandlerList {
+		private volatile EventHandler<?>[] handlers = NO_HANDLERS;
+
+		synchronized void add(EventHandler<?> handler) {
+			EventHandler<?>[] current = handlers;
+			// usually appended, unless a handler that registered earlier joins another channel
+			int position = current.length;
+			while (position > 0 && current[position - 1].registration > handler.registration)
+				position--;
+			EventHandler<?>[] updated = new EventHandler<?>[current.length + 1];
+			System.arraycopy(current, 0, updated, 0, position);
+			updated[position] = handler;
+			System.arraycopy(current, position, updated, position + 1, current.length - position);
+			handlers = updated;
+		}
+
+		synchronized boolean remove(EventHandler<?> handler) {
+			EventHandler<?>[] current = handlers;
+			for (int i = 0; i < current.length; i++) {
+				if (current[i] != handler)
+					continue;
+				EventHandler<?>[] updated = new EventHandler<?>[current.length - 1];
+				System.arraycopy(current, 0, updated, 0, i);
+				System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+				handlers = updated;
+				return true;
+			}
+			return false;
+		}
+	}
+}
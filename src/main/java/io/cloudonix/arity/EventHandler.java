@@ -17,8 +17,10 @@ public class EventHandler<T extends Message> implements Consumer<T> {
 	private BiConsumer<T, EventHandler<T>> handler;
 	protected String channelId;
 	protected Class<T> clazz;
-	private ARIty arity;
+	protected ARIty arity;
 	private volatile boolean registered = true;
+	/** registration order, assigned once by the dispatch table so events can be dispatched newest-first */
+	long registration;
 	private final static Logger logger = LoggerFactory.getLogger(EventHandler.class);
 
 	/**
@@ -44,6 +46,14 @@ public class EventHandler<T extends Message> implements Consumer<T> {
 		return channelId;
 	}
 
+	/**
+	 * Check whether the handler still listens to events
+	 * @return <code>false</code> if the handler was unregistered
+	 */
+	boolean isRegistered() {
+		return registered;
+	}
+
 	/**
 	 * Unregister from listening to this event
 	 */
@@ -54,10 +64,25 @@ public class EventHandler<T extends Message> implements Consumer<T> {
 
 	@Override
 	public void accept(Message m) {
-		if (!registered || !clazz.isInstance(m))
+		if (clazz.isInstance(m))
+			dispatch(m, channelId, 0);
+	}
+
+	/**
+	 * Dispatch a message that is already known to be of the type this handler listens to
+	 * @param m message to handle
+	 * @param eventChannelId channel the message refers to, used to handle the message in order with other events
+	 *   of the same channel
+	 * @param received time the message was received, for reporting dispatch latency, or 0 if not reported
+	 */
+	void dispatch(Message m, String eventChannelId, long received) {
+		if (!registered)
 			return;
 		logger.debug("Triggering {}", this);
-		arity.dispatchTask(() -> {
+		arity.dispatchTask(eventChannelId, () -> {
+			arity.reportDispatch(m, received);
+			if (!registered) // unregistered while the event was queued, e.g. by handling an earlier event
+				return;
 			try {
 				handler.accept(clazz.cast(m), this);
 			} catch (Throwable t) {
@@ -1,17 +1,21 @@
 package io.cloudonix.arity;
 
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ch.loway.oss.ari4java.ArityNettyHttpClient;
 import ch.loway.oss.ari4java.generated.actions.ActionBridges;
 import ch.loway.oss.ari4java.generated.actions.ActionChannels;
 import ch.loway.oss.ari4java.generated.actions.ActionPlaybacks;
@@ -21,6 +25,9 @@ import ch.loway.oss.ari4java.tools.RestException;
 import io.cloudonix.arity.errors.ARItyException;
 import io.cloudonix.arity.errors.InvalidCallStateException;
 import io.cloudonix.arity.helpers.Futures;
+import io.cloudonix.arity.helpers.LaneExecutor;
+import io.cloudonix.arity.helpers.VirtualThreads;
+import io.cloudonix.arity.metrics.ArityMetrics;
 
 /**
  * A general class that represents an Asterisk operation
@@ -37,8 +44,62 @@ public abstract class Operation {
 		void accept(AriCallback<T> t) throws RestException;
 	}
 
-	private static final long RETRY_TIME = 100;
-	private static final int RETRIES = 3;
+	/**
+	 * Strategies for choosing the thread that completes ARI operation promises - and so runs the operation's
+	 * dependent stages that were not registered using an async method
+	 */
+	public static enum CompletionStrategy {
+		/**
+		 * Complete operations directly on the ARI client I/O thread, saving a thread hand-off. Dependent stages
+		 * run on the I/O thread, so they must never block
+		 */
+		DIRECT,
+		/**
+		 * Complete operations on the shared completion executor. This is the default
+		 */
+		EXECUTOR,
+		/**
+		 * Complete operations on the event lane that started the operation, so completions are handled in order
+		 * with the events of the same channel. Operations that are not started from an event lane are completed
+		 * on the shared completion executor. Completions are queued on the lane regardless of the lane's capacity,
+		 * so the I/O thread is never blocked by a full lane. Code running on an event lane must not block waiting
+		 * for an operation started from that lane
+		 */
+		CALLER_LANE
+	}
+
+	/**
+	 * Modes for capturing the call site of ARI operations, that is reported in the stack trace of operation errors
+	 */
+	public static enum CallSiteCapture {
+		/** Capture the call site of every operation. This is the default */
+		ALWAYS,
+		/** Capture the call site of one in every {@link Operation#setCallSiteSampleRate(int) N} operations */
+		SAMPLED,
+		/** Capture the call site only when debug logging is enabled for {@link Operation} */
+		DEBUG_ONLY,
+		/** Never capture the call site */
+		NEVER
+	}
+
+	private static final StackTraceElement[] NO_CALL_SITE = new StackTraceElement[0];
+	private static final StackWalker stackWalker = StackWalker.getInstance();
+	private static volatile CallSiteCapture callSiteCapture = CallSiteCapture.ALWAYS;
+	private static volatile ArityMetrics metrics = ArityMetrics.NOOP;
+	private static volatile RetryPolicy retryPolicy = new RetryPolicy();
+	/** ARI operations are attributed to the class that issued them, for retry policies */
+	private static final ClassValue<String> issuerNames = new ClassValue<String>() {
+		@Override
+		protected String computeValue(Class<?> type) {
+			String name = type.getName();
+			int lambda = name.indexOf("$$Lambda");
+			return lambda > 0 ? name.substring(0, lambda) : name;
+		}
+	};
+	/** endpoint reported for operations that did not send a request through the ARIty HTTP client */
+	private static final String UNKNOWN_ENDPOINT = "unknown";
+	private static volatile int callSiteSampleRate = 100;
+	private static volatile int callSiteDepth = 32;
 	private String channelId;
 	private ARIty arity;
 
@@ -74,34 +135,176 @@ public abstract class Operation {
 
 	public abstract CompletableFuture<? extends Operation> run();
 
-	private static ExecutorService opDispatch = Executors.newCachedThreadPool();
+	private static volatile Executor opDispatch = Executors.newCachedThreadPool();
+	private static boolean defaultDispatch = true;
+	private static volatile CompletionStrategy completionStrategy = CompletionStrategy.EXECUTOR;
+
+	/**
+	 * Switch the completion of ARI operations to virtual threads, unless a completion executor was already set
+	 */
+	static synchronized void useVirtualThreads() {
+		if (!defaultDispatch || !VirtualThreads.isAvailable())
+			return;
+		opDispatch = VirtualThreads.newExecutor("arity-operations");
+		defaultDispatch = false;
+	}
+
+	/**
+	 * Set the metrics implementation that ARI operations report to, for all ARIty instances
+	 * @param operationMetrics metrics implementation
+	 */
+	static void useMetrics(ArityMetrics operationMetrics) {
+		metrics = Objects.requireNonNull(operationMetrics);
+	}
+
+	/**
+	 * Set the policy that decides whether and when failed ARI operations are retried, for all ARIty instances.
+	 * @param policy retry policy to use
+	 */
+	public static void setRetryPolicy(RetryPolicy policy) {
+		retryPolicy = Objects.requireNonNull(policy);
+	}
+
+	/**
+	 * Retrieve the policy that decides whether and when failed ARI operations are retried
+	 * @return the current retry policy
+	 */
+	public static RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Set the strategy used to complete ARI operation promises, for all ARIty instances.
+	 * @param strategy completion strategy to use
+	 */
+	public static void setCompletionStrategy(CompletionStrategy strategy) {
+		completionStrategy = Objects.requireNonNull(strategy);
+	}
+
+	/**
+	 * Set the shared executor used to complete ARI operation promises, for all ARIty instances.
+	 * If this method is not called, a cached thread pool from {@link Executors} is used.
+	 * @param executor executor to run operation completions
+	 */
+	public static synchronized void setCompletionExecutor(Executor executor) {
+		opDispatch = Objects.requireNonNull(executor);
+		defaultDispatch = false;
+	}
+
+	/**
+	 * Set how ARI operations capture their call site, for all ARIty instances.
+	 * 
+	 * The call site is used to report where a failed operation was called from. Capturing it walks the stack
+	 * of every operation, even though it is only used if the operation fails, so applications with high call
+	 * rates may want to capture it only for some of the operations. Operations that did not capture their call site
+	 * report errors with the stack trace of the thread that handled the failure.
+	 * @param mode call site capture mode
+	 */
+	public static void setCallSiteCapture(CallSiteCapture mode) {
+		callSiteCapture = Objects.requireNonNull(mode);
+	}
+
+	/**
+	 * Set the sample rate used by {@link CallSiteCapture#SAMPLED} call site capture
+	 * @param oneInN capture the call site of one in every <code>oneInN</code> operations. The default is 100
+	 */
+	public static void setCallSiteSampleRate(int oneInN) {
+		if (oneInN < 1)
+			throw new IllegalArgumentException("Sample rate must be positive");
+		callSiteSampleRate = oneInN;
+	}
+
+	/**
+	 * Set the maximum number of stack frames captured for an operation's call site
+	 * @param depth number of frames to capture. The default is 32
+	 */
+	public static void setCallSiteDepth(int depth) {
+		if (depth < 1)
+			throw new IllegalArgumentException("Call site depth must be positive");
+		callSiteDepth = depth;
+	}
+
+	/**
+	 * Capture the call site of an operation, according to the current call site capture mode
+	 * @return the stack of the caller, up to the configured depth, or an empty array if it should not be captured
+	 */
+	private static StackTraceElement[] captureCallSite() {
+		switch (callSiteCapture) {
+		case NEVER:
+			return NO_CALL_SITE;
+		case DEBUG_ONLY:
+			if (!log.isDebugEnabled())
+				return NO_CALL_SITE;
+			break;
+		case SAMPLED:
+			if (ThreadLocalRandom.current().nextInt(callSiteSampleRate) != 0)
+				return NO_CALL_SITE;
+			break;
+		default:
+		}
+		int depth = callSiteDepth;
+		return stackWalker.walk(frames -> frames.skip(1).limit(depth).map(StackWalker.StackFrame::toStackTraceElement)
+				.toArray(StackTraceElement[]::new));
+	}
+
+	/**
+	 * Select the executor that should complete an operation started by the current thread
+	 * @return executor to complete the operation with, or <code>null</code> to complete the operation directly
+	 */
+	private static Executor completionExecutor() {
+		switch (completionStrategy) {
+		case DIRECT:
+			return null;
+		case CALLER_LANE:
+			Executor lane = LaneExecutor.currentLane();
+			if (lane != null)
+				return lane;
+		default:
+			return opDispatch;
+		}
+	}
+
+	private static void complete(Executor completer, Runnable completion) {
+		if (completer == null)
+			completion.run();
+		else
+			completer.execute(completion);
+	}
 	
 	/**
 	 * Convert an ari4java async operation (with onSuccess/onFailure callback) to a Java 8 {@link CompletableFuture}
 	 *
 	 * @param op a Lambda that takes a one-off {@link AriCallback} instance and uses it to run an ARI operation
+	 * @param caller call site of the operation, used to report failures
+	 * @param endpoint consumer for the endpoint the operation sends its request to, or <code>null</code>
 	 * @return a promise for the completion of the ARI operation
 	 */
-	private static <V> CompletableFuture<V> toFuture(AriOperation<V> op) {
-		StackTraceElement[] caller = getCallingStack();
+	private static <V> CompletableFuture<V> toFuture(AriOperation<V> op, StackTraceElement[] caller,
+			Consumer<String> endpoint) {
+		Executor completer = completionExecutor();
 		CompletableFuture<V> cf = new CompletableFuture<V>();
 		AriCallback<V> ariCallback = new AriCallback<V>() {
 
 			@Override
 			public void onSuccess(V result) {
-				CompletableFuture.runAsync(() -> cf.complete(result), opDispatch);
+				complete(completer, () -> cf.complete(result));
 			}
 
 			@Override
 			public void onFailure(RestException e) {
-				CompletableFuture.runAsync(() -> cf.completeExceptionally(rewrapError("ARI operation failed: " + e, caller, e)), opDispatch);
+				complete(completer, () -> cf.completeExceptionally(rewrapError("ARI operation failed: " + e, caller, e)));
 			}
 		};
 
+		if (endpoint != null) // the request is sent synchronously, so its endpoint is reported before it completes
+			ArityNettyHttpClient.captureEndpoints(endpoint);
 		try {
 			op.accept(ariCallback);
 		} catch (RestException e1) {
-			CompletableFuture.runAsync(() -> cf.completeExceptionally(rewrapError("ARI operation failed: " + e1, caller, e1)), opDispatch);
+			complete(completer, () -> cf.completeExceptionally(rewrapError("ARI operation failed: " + e1, caller, e1)));
+		} finally {
+			if (endpoint != null)
+				ArityNettyHttpClient.stopCapturingEndpoints();
 		}
 		return cf;
 	}
@@ -134,7 +337,8 @@ public abstract class Operation {
 			cause = cause.getCause();
 		CompletionException wrap = new CompletionException(message, cause);
 		wrap.fillInStackTrace();
-		wrap.setStackTrace(originalStack);
+		if (originalStack.length > 0) // otherwise the call site was not captured, keep the current stack
+			wrap.setStackTrace(originalStack);
 		return wrap;
 	}
 
@@ -150,7 +354,7 @@ public abstract class Operation {
 	 *   current operation implementation determined an error to be fatal without retrying.
 	 */
 	public <V> CompletableFuture<V> retryOperation(AriOperation<V> op) {
-		return retryOperationImpl(op, RETRIES, this::tryIdentifyError);
+		return retryOperationImpl(op, this::tryIdentifyError);
 	}
 	
 	/**
@@ -162,7 +366,7 @@ public abstract class Operation {
 	 *   current operation implementation determined an error to be fatal without retrying.
 	 */
 	public <V> CompletableFuture<V> retryOperation(Class<V> type, AriOperation<V> op) {
-		return retryOperationImpl(op, RETRIES, this::tryIdentifyError);
+		return retryOperationImpl(op, this::tryIdentifyError);
 	}
 
 	/**
@@ -172,7 +376,7 @@ public abstract class Operation {
 	 * @return result of the operation, if successful, or a failure if the operation failed all retries
 	 */
 	public static <V> CompletableFuture<V> retry(AriOperation<V> op) {
-		return retryOperationImpl(op, RETRIES, ARItyException::ariRestExceptionMapper);
+		return retryOperationImpl(op, ARItyException::ariRestExceptionMapper);
 	}
 
 	/**
@@ -186,58 +390,93 @@ public abstract class Operation {
 	 * @return result of the operation, if successful, or a failure if the operation failed all retries
 	 */
 	public static <V> CompletableFuture<V> retry(AriOperation<V> op, Function<Throwable, Exception> exceptionMapper) {
-		return retryOperationImpl(op, RETRIES, exceptionMapper);
+		return retryOperationImpl(op, exceptionMapper);
 	}
 
 	/**
 	 * Retry to execute ARI operation few times - internal implementation
 	 *
 	 * @param op the ARI operation to execute
-	 * @param triesLeft Number of tries left before determining the failure to be fatal
 	 * @param exceptionMapper user provided logic to determine if an error should be retried. If the provided
 	 *   function returns {@code null}, then the operation will be retried, otherwise the returned exception will
 	 *   be propagated as the failure.
 	 * @return result of the operation, if successful, or a failure if the operation failed all retries, or
 	 *   the provided exception mapper determined the exception to be fatal before retrying
 	 */
-	private static <V> CompletableFuture<V> retryOperationImpl(AriOperation<V> op, int triesLeft,
+	private static <V> CompletableFuture<V> retryOperationImpl(AriOperation<V> op,
 			Function<Throwable, Exception> exceptionMapper) {
-		StackTraceElement[] caller = getCallingStack();
-		return retryOperationImpl(op, triesLeft, exceptionMapper, caller);
+		return retryOperationImpl(op, exceptionMapper, captureCallSite(),
+				retryPolicy.forOperation(issuerNames.get(op.getClass())), 0);
 	}
 	
-	private static <V> CompletableFuture<V> retryOperationImpl(AriOperation<V> op, int triesLeft,
-			Function<Throwable, Exception> exceptionMapper, StackTraceElement[] caller) {
-		Supplier<CompletableFuture<V>> retrier = () -> Futures.delay(RETRY_TIME).apply(null)
-				.thenCompose(v1->retryOperationImpl(op, triesLeft - 1, exceptionMapper, caller));
-		return toFuture(op).handle((v,t) -> {
+	private static <V> CompletableFuture<V> retryOperationImpl(AriOperation<V> op,
+			Function<Throwable, Exception> exceptionMapper, StackTraceElement[] caller, RetryPolicy policy, int retries) {
+		ArityMetrics metrics = Operation.metrics;
+		boolean measure = metrics.isEnabled();
+		long start = measure ? System.nanoTime() : 0;
+		AtomicReference<String> endpointRef = new AtomicReference<>(UNKNOWN_ENDPOINT);
+		return toFuture(op, caller, measure ? endpointRef::set : null).handle((v,t) -> {
+			String failureClass = t == null || !measure ? null : classifyFailure(t);
+			String endpoint = endpointRef.get();
+			if (measure)
+				metrics.restCall(endpoint, System.nanoTime() - start, failureClass);
 			if (t == null)
 				return CompletableFuture.completedFuture(v);
 			Exception recognizedFailure = exceptionMapper.apply(unwrapCompletionError(t));
+			Throwable failure = t;
+			String error = null;
 			if (recognizedFailure != null) {
-				recognizedFailure.setStackTrace(caller);
-				throw rewrapError("Unrecoverable ARI operation error: " + recognizedFailure, caller, recognizedFailure);
-			}
-			if (triesLeft <= 0)
-				throw rewrapError("Unrecoverable ARI operation error (no more retries): " + t, caller, t);
-			RestException restCause = findRestException(t);
-			if (restCause.getCode() >= 500) {// Asterisk error - no need to check mapping, we should immediately try again
-				log.warn("[from {}] ARI {}, retrying: {}", getLastSignificantCaller(caller), restCause, restCause.getResponse());
-				return retrier.get();
-			}
-			if (t.getMessage().toLowerCase().contains("timeout")) {
-				log.warn("[from [}] ARI timeout: {}", getLastSignificantCaller(caller), t.getMessage());
-				return retrier.get();
+				if (caller.length > 0)
+					recognizedFailure.setStackTrace(caller);
+				failure = recognizedFailure;
+				error = "Unrecoverable ARI operation error: ";
+			} else if (retries >= policy.getMaxRetries())
+				error = "Unrecoverable ARI operation error (no more retries): ";
+			else if (!policy.isRetriable(t))
+				error = "Unexpected ARI operation error: ";
+			else if (!retryPolicy.tryAcquireRetry()) {
+				if (measure)
+					metrics.restRetryBudgetExhausted(endpoint);
+				error = "Unrecoverable ARI operation error (retry budget exhausted): ";
 			}
-			if (t.getMessage().contains("Client Shutdown")) {
-				log.warn("[from [}] ARI client shutdown: {}", getLastSignificantCaller(caller), t.getMessage());
-				return retrier.get();
+			if (error != null) {
+				if (measure)
+					metrics.restFailure(endpoint, failureClass);
+				throw rewrapError(error + failure, caller, failure);
 			}
-			throw rewrapError("Unexpected ARI operation error: " + t, caller, t);
+			log.warn("[from {}] ARI operation failed, retrying: {}", getLastSignificantCaller(caller), describeFailure(t));
+			if (measure)
+				metrics.restRetry(endpoint, failureClass);
+			return Futures.delay(policy.getDelay(retries)).apply(null)
+					.thenCompose(v1 -> retryOperationImpl(op, exceptionMapper, caller, policy, retries + 1));
 		})
 		.thenCompose(x -> x);
 	}
+
+	/**
+	 * Describe an operation failure for logging
+	 * @param error failure of an ARI operation
+	 * @return the ARI error and response, if there was one, otherwise the failure message
+	 */
+	private static String describeFailure(Throwable error) {
+		RestException restCause = findRestException(error);
+		if (restCause == null)
+			return unwrapCompletionError(error).toString();
+		return restCause.getResponse() == null ? restCause.toString() : restCause + ": " + restCause.getResponse();
+	}
 	
+	/**
+	 * Classify an operation failure for metrics reporting
+	 * @param error failure of an ARI operation
+	 * @return <code>http_</code> and the status code for ARI errors, otherwise the type of the failure
+	 */
+	private static String classifyFailure(Throwable error) {
+		RestException restCause = findRestException(error);
+		if (restCause != null && restCause.getCode() > 0)
+			return "http_" + restCause.getCode();
+		return unwrapCompletionError(error).getClass().getSimpleName();
+	}
+
 	private static RestException findRestException(Throwable t) {
 		while (t != null) {
 			if (t instanceof RestException)
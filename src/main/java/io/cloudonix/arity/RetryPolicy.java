@@ -0,0 +1,186 @@
+package io.cloudonix.arity;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+import ch.loway.oss.ari4java.tools.RestException;
+import io.cloudonix.arity.errors.CircuitOpenException;
+
+/**
+ * Policy that decides whether and when failed ARI operations are retried.
+ *
+ * Retries are delayed using exponential backoff with jitter, so operations that failed together - for example when
+ * Asterisk is momentarily overloaded - do not all retry at the same time. Failures are classified by their ARI
+ * response code: server errors and failures to get a response (such as timeouts and connection errors) are retried,
+ * while client errors are not.
+ *
+ * Retries of all operations also draw from a shared retry budget - a token bucket that refills at a fixed rate - so
+ * that a failing Asterisk server does not get several times its usual load in retries. When the budget is exhausted,
+ * failed operations fail without retrying.
+ *
+ * Policies can be overridden for operations issued by specific ARIty classes (such as {@link Play}), using
+ * {@link #setOperationPolicy(Class, RetryPolicy)}. Applications may also extend this class to customize the
+ * classification of failures or the backoff calculation.
+ *
+ * Policies should be fully configured before they are set on {@link ARIty.Builder#setRetryPolicy(RetryPolicy)} or
+ * {@link Operation#setRetryPolicy(RetryPolicy)}.
+ */
+public class RetryPolicy {
+
+	private int maxRetries = 3;
+	private long baseDelay = 100;
+	private long maxDelay = 2000;
+	private double multiplier = 2;
+	private double jitter = 0.5;
+	private int budgetCapacity = 100;
+	private double budgetRefillPerMilli = 0.01;
+	private double budgetTokens = budgetCapacity;
+	private long budgetUpdated = System.nanoTime();
+	private Map<String, RetryPolicy> operationPolicies = new ConcurrentHashMap<>();
+
+	/**
+	 * Set the maximum number of times a failed operation is retried
+	 * @param retries number of retries after the first attempt. The default is 3
+	 * @return itself for fluent calls
+	 */
+	public RetryPolicy setMaxRetries(int retries) {
+		if (retries < 0)
+			throw new IllegalArgumentException("Number of retries can not be negative");
+		maxRetries = retries;
+		return this;
+	}
+
+	/**
+	 * Set the backoff between retries: the first retry is delayed by the base delay, and each following retry
+	 * by the previous delay times the multiplier, up to the maximum delay
+	 * @param base delay before the first retry. The default is 100ms
+	 * @param max maximum delay before a retry. The default is 2 seconds
+	 * @param multiplier factor to increase the delay by for each retry. The default is 2
+	 * @return itself for fluent calls
+	 */
+	public RetryPolicy setBackoff(Duration base, Duration max, double multiplier) {
+		if (base.isNegative() || max.compareTo(base) < 0 || multiplier < 1)
+			throw new IllegalArgumentException("Invalid backoff " + base + "-" + max + " x" + multiplier);
+		baseDelay = base.toMillis();
+		maxDelay = max.toMillis();
+		this.multiplier = multiplier;
+		return this;
+	}
+
+	/**
+	 * Set the random part of the retry delay
+	 * @param fraction fraction of the backoff delay that is randomized, between 0 (no jitter) and 1 (the delay is
+	 *   chosen uniformly between 0 and the backoff delay). The default is 0.5
+	 * @return itself for fluent calls
+	 */
+	public RetryPolicy setJitter(double fraction) {
+		if (fraction < 0 || fraction > 1)
+			throw new IllegalArgumentException("Jitter must be between 0 and 1");
+		jitter = fraction;
+		return this;
+	}
+
+	/**
+	 * Set the budget of retries shared by all ARI operations. This is only used on the policy set using
+	 * {@link Operation#setRetryPolicy(RetryPolicy)} - budgets of operation policies are ignored.
+	 * @param capacity maximum number of retries that can be made in a burst. The default is 100
+	 * @param refillPerSecond number of retries added to the budget every second. The default is 10
+	 * @return itself for fluent calls
+	 */
+	public synchronized RetryPolicy setRetryBudget(int capacity, double refillPerSecond) {
+		if (capacity < 0 || refillPerSecond < 0)
+			throw new IllegalArgumentException("Retry budget can not be negative");
+		budgetCapacity = capacity;
+		budgetRefillPerMilli = refillPerSecond / 1000;
+		budgetTokens = capacity;
+		budgetUpdated = System.nanoTime();
+		return this;
+	}
+
+	/**
+	 * Use a different policy for operations issued by the specified ARIty class
+	 * @param issuer ARIty class that issues the operations, such as {@link Play} or {@link CallState}
+	 * @param policy policy to use for operations of that class
+	 * @return itself for fluent calls
+	 */
+	public RetryPolicy setOperationPolicy(Class<?> issuer, RetryPolicy policy) {
+		operationPolicies.put(issuer.getName(), Objects.requireNonNull(policy));
+		return this;
+	}
+
+	/**
+	 * Retrieve the policy for operations issued by a class
+	 * @param issuerName fully qualified name of the class that issued the operation
+	 * @return the overriding policy for the class, or this policy if there is none
+	 */
+	RetryPolicy forOperation(String issuerName) {
+		if (operationPolicies.isEmpty())
+			return this;
+		return operationPolicies.getOrDefault(issuerName, this);
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Calculate the delay before a retry
+	 * @param retry number of the retry, starting from 0 for the first retry
+	 * @return delay in milliseconds
+	 */
+	public long getDelay(int retry) {
+		double backoff = Math.min(maxDelay, baseDelay * Math.pow(multiplier, retry));
+		return Math.round(backoff * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+	}
+
+	/**
+	 * Check whether an operation failure may succeed if retried. Failures with an ARI server error (5xx) response,
+	 * and failures to get a response at all, are considered retriable.
+	 * @param error failure of the ARI operation
+	 * @return whether the operation should be retried
+	 */
+	public boolean isRetriable(Throwable error) {
+		boolean noResponse = false;
+		for (Throwable t = error; t != null; t = t.getCause()) {
+			if (t instanceof RestException) {
+				int code = ((RestException) t).getCode();
+				if (code > 0)
+					return code >= 500;
+				noResponse = true; // ari4java reports timeouts and disconnections without a response code
+			}
+			if (t instanceof CircuitOpenException) // retrying would only add load to the failing server
+				return false;
+			if (t instanceof TimeoutException || t instanceof IOException)
+				return true;
+		}
+		return noResponse;
+	}
+
+	/**
+	 * Take a retry from the retry budget
+	 * @return whether the budget allowed the retry
+	 */
+	synchronized boolean tryAcquireRetry() {
+		long now = System.nanoTime();
+		budgetTokens = Math.min(budgetCapacity, budgetTokens + (now - budgetUpdated) / 1000000.0 * budgetRefillPerMilli);
+		budgetUpdated = now;
+		if (budgetTokens < 1)
+			return false;
+		budgetTokens--;
+		return true;
+	}
+
+	/**
+	 * Retrieve the number of retries currently available in the retry budget
+	 * @return number of retries that can be made right now
+	 */
+	public synchronized int getAvailableRetries() {
+		long elapsed = System.nanoTime() - budgetUpdated;
+		return (int) Math.min(budgetCapacity, budgetTokens + elapsed / 1000000.0 * budgetRefillPerMilli);
+	}
+}
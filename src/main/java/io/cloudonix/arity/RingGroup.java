@@ -0,0 +1,713 @@
+package io.cloudonix.arity;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TimerTask;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.loway.oss.ari4java.generated.models.Channel;
+import ch.loway.oss.ari4java.generated.models.ChannelHangupRequest;
+import io.cloudonix.arity.Dial.Status;
+import io.cloudonix.arity.helpers.Timers;
+import io.cloudonix.arity.models.AsteriskBridge;
+
+/**
+ * A fork dial operation ("ring group"), that dials several endpoints for a caller and connects the caller to the first
+ * endpoint that answers.
+ *
+ * Endpoints are dialed in waves: all the endpoints of a wave are dialed in parallel, and if none of them answers before
+ * the wave's timeout - or all of them fail - the next wave is dialed. A single wave implements a parallel ring group,
+ * a wave per endpoint implements a sequential hunt group, and {@link #withWeightedWaves(Map, int, Duration)} orders
+ * the endpoints randomly by weight.
+ *
+ * Each leg uses the "early bridging" workflow of {@link Dial#withBridge(AsteriskBridge)}: the outgoing channel is
+ * created, added to the caller's bridge and then dialed, so the caller receives the legs' early media. When a leg
+ * answers, all the other legs are hung up together. If the caller is not bound to a bridge (see
+ * {@link CallController#bindToBridge()}), a bridge is created for the operation and destroyed when it ends.
+ *
+ * The operation follows all of its legs with a single event handler per event type, and reports the outcome and timing
+ * of each leg in {@link #getLegs()}.
+ */
+public class RingGroup extends CancelableOperations {
+
+	private final static Logger logger = LoggerFactory.getLogger(RingGroup.class);
+
+	/**
+	 * A dialed endpoint of the ring group
+	 */
+	public static class Leg {
+		private final String endpoint;
+		private final String channelId = UUID.randomUUID().toString();
+		private final int wave;
+		private volatile Status status = Status.UNKNOWN;
+		private volatile Instant startTime, ringingTime, answerTime, endTime;
+		private volatile boolean created, ended;
+
+		Leg(String endpoint, int wave) {
+			this.endpoint = endpoint;
+			this.wave = wave;
+		}
+
+		/**
+		 * @return the dialed endpoint
+		 */
+		public String getEndpoint() {
+			return endpoint;
+		}
+
+		/**
+		 * @return the ID of the leg's channel, which is set before the channel is created
+		 */
+		public String getChannelId() {
+			return channelId;
+		}
+
+		/**
+		 * @return the index of the wave the leg was dialed in, starting at 0
+		 */
+		public int getWave() {
+			return wave;
+		}
+
+		/**
+		 * @return the dial status of the leg: {@link Status#ANSWER} for the leg that was connected to the caller,
+		 *   {@link Status#CANCEL} for legs that were hung up because another leg answered or the operation was
+		 *   cancelled, and {@link Status#NOANSWER} for legs whose wave timed out
+		 */
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return the time the leg was dialed, or <code>null</code> if it was not dialed
+		 */
+		public Instant getStartTime() {
+			return startTime;
+		}
+
+		/**
+		 * @return the time the leg started ringing, or <code>null</code> if it did not ring
+		 */
+		public Instant getRingingTime() {
+			return ringingTime;
+		}
+
+		/**
+		 * @return the time the leg answered, or <code>null</code> if it did not answer
+		 */
+		public Instant getAnswerTime() {
+			return answerTime;
+		}
+
+		/**
+		 * @return the time the leg ended, or <code>null</code> if it is still active
+		 */
+		public Instant getEndTime() {
+			return endTime;
+		}
+
+		/**
+		 * @return the time from dialing the leg until it answered or ended, or {@link Duration#ZERO} if it was not
+		 *   dialed
+		 */
+		public Duration getSetupDuration() {
+			Instant setupEnd = answerTime != null ? answerTime : endTime;
+			return startTime == null || setupEnd == null ? Duration.ZERO : Duration.between(startTime, setupEnd);
+		}
+
+		private boolean end(Status status) {
+			if (ended)
+				return false;
+			ended = true;
+			if (this.status != Status.ANSWER)
+				this.status = status;
+			endTime = Instant.now();
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "[Leg " + endpoint + "|" + channelId + "|wave " + wave + "|" + status.getName() + "]";
+		}
+	}
+
+	/**
+	 * Handlers of an outcome of the operation, that run once when the outcome is reached - or immediately, if they are
+	 * registered after it was reached
+	 */
+	private static class Handlers {
+		private final String name;
+		private final List<Runnable> handlers = new ArrayList<>();
+		private boolean fired;
+
+		Handlers(String name) {
+			this.name = name;
+		}
+
+		void add(Runnable func) {
+			synchronized (this) {
+				if (!fired) {
+					handlers.add(func);
+					return;
+				}
+			}
+			run(func);
+		}
+
+		void fire() {
+			List<Runnable> toRun;
+			synchronized (this) {
+				if (fired)
+					return;
+				fired = true;
+				toRun = new ArrayList<>(handlers);
+			}
+			toRun.forEach(this::run);
+		}
+
+		private void run(Runnable func) {
+			try {
+				func.run();
+			} catch (Throwable t) {
+				logger.error("Fatal error running {} callback", name, t);
+			}
+		}
+	}
+
+	private static class Wave {
+		private final List<String> endpoints;
+		private final Duration timeout;
+
+		Wave(List<String> endpoints, Duration timeout) {
+			this.endpoints = endpoints;
+			this.timeout = timeout;
+		}
+	}
+
+	private final String callerId;
+	private final List<Wave> waves = new ArrayList<>();
+	private final Map<String, String> variables = new Hashtable<>();
+	private final Map<String, String> headers = new Hashtable<>();
+	private final Map<String, Leg> legs = new ConcurrentHashMap<>();
+	private final List<Leg> legOrder = Collections.synchronizedList(new ArrayList<>());
+	private final Handlers connectHandlers = new Handlers("whenConnect"), failHandlers = new Handlers("whenFailed"),
+			disconnectHandlers = new Handlers("whenDisconnected");
+	private final CompletableFuture<RingGroup> compFuture = new CompletableFuture<>();
+	private AsteriskBridge bridge;
+	private boolean ownBridge;
+	private int currentWave = -1;
+	private TimerTask waveTimer;
+	private volatile Leg winner;
+	private volatile boolean finished, wasCancelled;
+	private ChannelGroupEventHandler<ch.loway.oss.ari4java.generated.models.Dial> dialEvents;
+	private ChannelGroupEventHandler<ChannelHangupRequest> hangupEvents;
+	private EventHandler<ChannelHangupRequest> callerHangupListener;
+
+	/**
+	 * Create a ring group for a call
+	 * @param callController controller of the call that should be connected to the first endpoint that answers
+	 * @param callerId Caller ID to be published to the endpoints
+	 */
+	public RingGroup(CallController callController, String callerId) {
+		super(callController.getChannelId(), callController.getARIty());
+		this.callerId = callerId;
+		this.bridge = callController.getBoundBridge();
+	}
+
+	/**
+	 * Add a wave of endpoints that are dialed in parallel, until one of them answers or all of them fail
+	 * @param endpoints Asterisk endpoints to dial (including technology and URL)
+	 * @return itself for fluent calls
+	 */
+	public RingGroup withEndpoints(String... endpoints) {
+		return withWave(null, endpoints);
+	}
+
+	/**
+	 * Add a wave of endpoints that are dialed in parallel
+	 * @param timeout how long to wait for one of the endpoints to answer before hanging them up and dialing the next
+	 *   wave, or <code>null</code> to wait until all of them fail
+	 * @param endpoints Asterisk endpoints to dial (including technology and URL)
+	 * @return itself for fluent calls
+	 */
+	public RingGroup withWave(Duration timeout, String... endpoints) {
+		if (endpoints.length == 0)
+			throw new IllegalArgumentException("A ring group wave must have at least one endpoint");
+		List<String> escaped = new ArrayList<>();
+		for (String endpoint : endpoints)
+			escaped.add(escapeEndpoint(endpoint));
+		waves.add(new Wave(escaped, timeout));
+		return this;
+	}
+
+	/**
+	 * Add endpoints that are dialed one after the other, each in its own wave
+	 * @param timeout how long to ring each endpoint before dialing the next
+	 * @param endpoints Asterisk endpoints to dial (including technology and URL), in order
+	 * @return itself for fluent calls
+	 */
+	public RingGroup withSequence(Duration timeout, String... endpoints) {
+		for (String endpoint : endpoints)
+			withWave(timeout, endpoint);
+		return this;
+	}
+
+	/**
+	 * Add endpoints that are dialed in waves of a fixed size, in a random order where endpoints with higher weights are
+	 * more likely to be dialed earlier
+	 * @param weights Asterisk endpoints to dial (including technology and URL), with their positive weights
+	 * @param waveSize number of endpoints to dial in parallel in each wave
+	 * @param timeout how long to wait for an endpoint of each wave to answer before dialing the next wave
+	 * @return itself for fluent calls
+	 */
+	public RingGroup withWeightedWaves(Map<String, Integer> weights, int waveSize, Duration timeout) {
+		if (waveSize < 1)
+			throw new IllegalArgumentException("Ring group waves must have at least one endpoint");
+		Map<String, Integer> remaining = new LinkedHashMap<>(weights);
+		List<String> order = new ArrayList<>();
+		while (!remaining.isEmpty()) {
+			int total = remaining.values().stream().mapToInt(w -> Math.max(1, w)).sum();
+			int pick = ThreadLocalRandom.current().nextInt(total);
+			for (Map.Entry<String, Integer> entry : remaining.entrySet()) {
+				pick -= Math.max(1, entry.getValue());
+				if (pick < 0) {
+					order.add(entry.getKey());
+					remaining.remove(entry.getKey());
+					break;
+				}
+			}
+		}
+		for (int i = 0; i < order.size(); i += waveSize)
+			withWave(timeout, order.subList(i, Math.min(order.size(), i + waveSize)).toArray(String[]::new));
+		return this;
+	}
+
+	/**
+	 * Set Asterisk channel variables on all the outgoing channels
+	 * @param variables list of variables to set
+	 * @return itself for fluent calls
+	 */
+	public RingGroup withVariables(Map<String, String> variables) {
+		this.variables.putAll(variables);
+		return this;
+	}
+
+	/**
+	 * Add an Asterisk variable to set on all the outgoing channels
+	 * @param name variable name
+	 * @param value variable value
+	 * @return itself for fluent calls
+	 */
+	public RingGroup withVariable(String name, String value) {
+		this.variables.put(name, value);
+		return this;
+	}
+
+	/**
+	 * Add a SIP header to set on all the outgoing SIP channels (only makes sense if the endpoints use "SIP"
+	 * technology)
+	 * @param name header name
+	 * @param value header value
+	 * @return itself for fluent calls
+	 */
+	public RingGroup withHeader(String name, String value) {
+		this.headers.put(name, value);
+		return this;
+	}
+
+	/**
+	 * Connect the caller to the answering endpoint through an existing bridge, that the caller was already added to.
+	 * By default the bridge the caller is bound to is used, or a new bridge is created for the operation.
+	 * @param bridge bridge to add the outgoing channels to
+	 * @return itself for fluent calls
+	 */
+	public RingGroup withBridge(AsteriskBridge bridge) {
+		this.bridge = Objects.requireNonNull(bridge, "Ring group bridge must not be null");
+		return this;
+	}
+
+	/**
+	 * Start dialing the endpoints.
+	 * @return A promise that will be fulfilled when the operation completes: when the connected endpoint hangs up, or
+	 *   when no endpoint answered, or when the operation was cancelled
+	 */
+	public CompletableFuture<RingGroup> run() {
+		if (waves.isEmpty())
+			return CompletableFuture.failedFuture(new IllegalStateException("Ring group has no endpoints to dial"));
+		dialEvents = getArity().addChannelGroupEventHandler(ch.loway.oss.ari4java.generated.models.Dial.class,
+				Collections.emptyList(), (dial, se) -> handleDialEvent(dial));
+		hangupEvents = getArity().addChannelGroupEventHandler(ChannelHangupRequest.class, Collections.emptyList(),
+				(hangup, se) -> handleHangupCallee(hangup));
+		callerHangupListener = getArity().listenForOneTimeEvent(ChannelHangupRequest.class, getChannelId(), hangup -> {
+			logger.info("Caller hanged up, cancelling ring group");
+			cancel();
+		});
+		(bridge != null ? completedFuture(null) : createBridge()).whenComplete((v, t) -> {
+			if (t != null) {
+				logger.error("Failed to create a bridge for ring group of {}", getChannelId(), t);
+				finish();
+				return;
+			}
+			boolean exhausted;
+			synchronized (this) {
+				exhausted = !finished && startWave(0);
+			}
+			if (exhausted)
+				failed();
+		});
+		return compFuture;
+	}
+
+	private CompletableFuture<Void> createBridge() {
+		return getArity().bridges().create("arity-ringgroup-" + getChannelId()).thenCompose(created -> {
+			bridge = created;
+			ownBridge = true;
+			return created.addChannel(getChannelId(), true);
+		});
+	}
+
+	/**
+	 * Dial all the endpoints of a wave, or mark the operation as finished if there are no more waves. Called while
+	 * synchronized - the caller should call {@link #failed()} after releasing the lock, if there are no more waves
+	 * @return whether there are no more waves to dial
+	 */
+	private boolean startWave(int index) {
+		if (waveTimer != null)
+			waveTimer.cancel();
+		waveTimer = null;
+		if (index >= waves.size()) {
+			logger.info("No endpoint answered ring group of {}", getChannelId());
+			return markFinished();
+		}
+		currentWave = index;
+		Wave wave = waves.get(index);
+		List<Leg> waveLegs = new ArrayList<>();
+		for (String endpoint : wave.endpoints) {
+			Leg leg = new Leg(endpoint, index);
+			legs.put(leg.channelId, leg);
+			legOrder.add(leg);
+			dialEvents.addChannel(leg.channelId);
+			hangupEvents.addChannel(leg.channelId);
+			waveLegs.add(leg);
+		}
+		logger.debug("Ring group of {} dialing wave {}: {}", getChannelId(), index, wave.endpoints);
+		if (wave.timeout != null)
+			waveTimer = Timers.schedule(() -> waveTimedOut(index), wave.timeout.toMillis());
+		waveLegs.forEach(leg -> startLeg(leg, wave.timeout));
+		return false;
+	}
+
+	private void startLeg(Leg leg, Duration timeout) {
+		int dialTimeout = timeout == null ? 0 : (int) Math.max(1, (timeout.toMillis() + 999) / 1000);
+		CompletableFuture<CallState> stasis = getArity().waitForNewCallState(leg.channelId);
+		retryOperation(Channel.class, h -> channels().create(leg.endpoint, getArity().getAppName()).setAppArgs("")
+				.setChannelId(leg.channelId).setVariables(formatVariables()).execute(h))
+				.thenCompose(channel -> {
+					leg.created = true;
+					return stasis;
+				})
+				.thenCompose(callState -> callerId == null ? completedFuture(null) : callState.setVariables(formatCallerIdVariables()))
+				.thenCompose(v -> leg.ended ? completedFuture(null) : bridge.addChannel(leg.channelId))
+				.thenCompose(v -> leg.ended ? completedFuture(null) :
+					this.<Void>retryOperation(h -> channels().dial(leg.channelId).setTimeout(dialTimeout).execute(h)))
+				.whenComplete((v, t) -> {
+					if (t != null) {
+						logger.info("Failed to dial {} for ring group of {}: {}", leg.endpoint, getChannelId(), t.toString());
+						if (!leg.created) // the channel will never enter stasis
+							getArity().cancelWaitForNewCall(leg.channelId);
+						legFailed(leg, Status.CHANUNAVAIL);
+					} else if (leg.ended) // ended while we were setting it up
+						hangup(Collections.singletonList(leg));
+					else
+						leg.startTime = Instant.now();
+				});
+	}
+
+	private Map<String, String> formatVariables() {
+		Map<String, String> vars = new Hashtable<>(variables);
+		int i = 0;
+		for (Map.Entry<String, String> header : headers.entrySet())
+			vars.put("SIPADDHEADER" + i++, header.getKey() + ":" + header.getValue());
+		if (callerId != null) {
+			vars.putIfAbsent("CALLERID(num)", callerId);
+			vars.putIfAbsent("CALLERID(name)", callerId);
+		}
+		return vars;
+	}
+
+	private Map<String, String> formatCallerIdVariables() {
+		Map<String, String> vars = new Hashtable<>();
+		vars.put("CALLERID(num)", variables.getOrDefault("CALLERID(num)", callerId));
+		vars.put("CALLERID(name)", variables.getOrDefault("CALLERID(name)", callerId));
+		return vars;
+	}
+
+	private void handleDialEvent(ch.loway.oss.ari4java.generated.models.Dial dial) {
+		Leg leg = dial.getPeer() == null ? null : legs.get(dial.getPeer().getId());
+		if (leg == null || leg.ended)
+			return;
+		Status status;
+		try {
+			if (dial.getDialstatus().isEmpty())
+				return;
+			status = Status.valueOf(dial.getDialstatus());
+		} catch (IllegalArgumentException e) {
+			logger.error("Unknown dial status {}, ignoring for now", dial.getDialstatus());
+			return;
+		}
+		switch (status) {
+		case ANSWER:
+			legAnswered(leg);
+			return;
+		case PROGRESS:
+		case RINGING:
+			if (leg.ringingTime == null)
+				leg.ringingTime = Instant.now();
+			return;
+		case UNKNOWN:
+			return;
+		default:
+			logger.info("Ring group leg {} failed: {}", leg.endpoint, status);
+			hangup(Collections.singletonList(leg));
+			legFailed(leg, status);
+		}
+	}
+
+	private void handleHangupCallee(ChannelHangupRequest hangup) {
+		Leg leg = legs.get(hangup.getChannel().getId());
+		if (leg == null)
+			return;
+		if (leg == winner) {
+			logger.info("The connected endpoint {} of ring group of {} hanged up", leg.endpoint, getChannelId());
+			leg.end(Status.ANSWER);
+			disconnected();
+		} else
+			legFailed(leg, leg.status == Status.UNKNOWN ? Status.CHANUNAVAIL : leg.status);
+	}
+
+	private void legAnswered(Leg leg) {
+		List<Leg> losers = new ArrayList<>();
+		synchronized (this) {
+			if (finished || winner != null) { // lost the race
+				if (leg.end(Status.CANCEL))
+					hangup(Collections.singletonList(leg));
+				return;
+			}
+			winner = leg;
+			leg.status = Status.ANSWER;
+			leg.answerTime = Instant.now();
+			if (leg.ringingTime == null)
+				leg.ringingTime = leg.answerTime;
+			if (waveTimer != null)
+				waveTimer.cancel();
+			waveTimer = null;
+			for (Leg other : legs.values())
+				if (other != leg && other.end(Status.CANCEL))
+					losers.add(other);
+		}
+		logger.info("Endpoint {} answered ring group of {}, hanging up {} other legs", leg.endpoint, getChannelId(),
+				losers.size());
+		hangup(losers);
+		connectHandlers.fire();
+	}
+
+	private void legFailed(Leg leg, Status status) {
+		boolean exhausted;
+		synchronized (this) {
+			if (!leg.end(status) || finished || winner != null || leg.wave != currentWave)
+				return;
+			for (Leg other : legs.values())
+				if (other.wave == currentWave && !other.ended)
+					return;
+			exhausted = startWave(currentWave + 1);
+		}
+		if (exhausted)
+			failed();
+	}
+
+	private void waveTimedOut(int wave) {
+		List<Leg> unanswered = new ArrayList<>();
+		boolean exhausted;
+		synchronized (this) {
+			if (finished || winner != null || wave != currentWave)
+				return;
+			for (Leg leg : legs.values())
+				if (leg.wave == wave && leg.end(Status.NOANSWER))
+					unanswered.add(leg);
+			logger.info("Ring group of {} wave {} timed out", getChannelId(), wave);
+			exhausted = startWave(wave + 1);
+		}
+		hangup(unanswered);
+		if (exhausted)
+			failed();
+	}
+
+	/**
+	 * Hang up legs together
+	 * @return a promise that resolves when all the legs were hung up. Legs that were already gone are ignored
+	 */
+	private CompletableFuture<Void> hangup(List<Leg> hangupLegs) {
+		return CompletableFuture.allOf(hangupLegs.stream().filter(leg -> leg.created)
+				.map(leg -> this.<Void>retryOperation(h -> channels().hangup(leg.channelId).setReason("normal").execute(h))
+						.exceptionally(t -> null))
+				.toArray(CompletableFuture[]::new));
+	}
+
+	/**
+	 * Cancel the operation, hanging up all the legs - including the connected leg, if any
+	 */
+	@Override
+	public CompletableFuture<Void> cancel() {
+		List<Leg> active = new ArrayList<>();
+		synchronized (this) {
+			if (finished)
+				return completedFuture(null);
+			wasCancelled = true;
+			if (waveTimer != null)
+				waveTimer.cancel();
+			for (Leg leg : legs.values())
+				if (leg.end(Status.CANCEL))
+					active.add(leg);
+		}
+		logger.info("Cancelling ring group of {}, hanging up {} legs", getChannelId(), active.size());
+		return hangup(active).thenRun(this::finish);
+	}
+
+	/**
+	 * Run the failure handlers and clean up, after {@link #startWave(int)} found no more waves to dial
+	 */
+	private void failed() {
+		failHandlers.fire();
+		cleanup();
+	}
+
+	private void disconnected() {
+		disconnectHandlers.fire();
+		finish();
+	}
+
+	/**
+	 * Mark the operation as finished. Called while synchronized
+	 * @return whether the operation was not finished before
+	 */
+	private boolean markFinished() {
+		if (finished)
+			return false;
+		finished = true;
+		return true;
+	}
+
+	private void finish() {
+		synchronized (this) {
+			if (!markFinished())
+				return;
+		}
+		cleanup();
+	}
+
+	private void cleanup() {
+		if (dialEvents != null)
+			dialEvents.unregister();
+		if (hangupEvents != null)
+			hangupEvents.unregister();
+		if (callerHangupListener != null)
+			callerHangupListener.unregister();
+		CompletableFuture<Void> cleanup = completedFuture(null);
+		if (ownBridge)
+			cleanup = bridge.destroy().exceptionally(t -> null);
+		cleanup.thenRun(() -> compFuture.complete(this));
+	}
+
+	/**
+	 * Register a handler to run when an endpoint answered and was connected to the caller
+	 * @param func callback handler, that runs immediately if an endpoint already answered
+	 * @return itself for chaining
+	 */
+	public RingGroup whenConnect(Runnable func) {
+		connectHandlers.add(func);
+		return this;
+	}
+
+	/**
+	 * Register a handler to run when no endpoint answered
+	 * @param func callback handler, that runs immediately if the ring group already failed
+	 * @return itself for chaining
+	 */
+	public RingGroup whenFailed(Runnable func) {
+		failHandlers.add(func);
+		return this;
+	}
+
+	/**
+	 * Register a handler to run when the connected endpoint hanged up
+	 * @param func callback handler, that runs immediately if the connected endpoint already hanged up
+	 * @return itself for chaining
+	 */
+	public RingGroup whenDisconnected(Runnable func) {
+		disconnectHandlers.add(func);
+		return this;
+	}
+
+	/**
+	 * Retrieve the leg that answered and was connected to the caller
+	 * @return the connected leg, or <code>null</code> if no endpoint answered
+	 */
+	public Leg getWinner() {
+		return winner;
+	}
+
+	/**
+	 * Retrieve the legs that were dialed, in the order they were dialed
+	 * @return a copy of the list of legs
+	 */
+	public List<Leg> getLegs() {
+		synchronized (legOrder) {
+			return new ArrayList<>(legOrder);
+		}
+	}
+
+	/**
+	 * Retrieve the outcome of the operation
+	 * @return {@link Status#ANSWER} if an endpoint answered, {@link Status#CANCEL} if the operation was cancelled before
+	 *   an endpoint answered, otherwise the status of the last leg that failed, or {@link Status#UNKNOWN} while dialing
+	 */
+	public Status getDialStatus() {
+		if (winner != null)
+			return Status.ANSWER;
+		if (wasCancelled)
+			return Status.CANCEL;
+		if (!finished)
+			return Status.UNKNOWN;
+		List<Leg> dialed = getLegs();
+		return dialed.isEmpty() ? Status.UNKNOWN : dialed.get(dialed.size() - 1).status;
+	}
+
+	private static String escapeEndpoint(String endpoint) {
+		for (char c : endpoint.toCharArray())
+			if (Character.UnicodeBlock.of(c) != Character.UnicodeBlock.BASIC_LATIN || Character.isISOControl(c))
+				return URLEncoder.encode(endpoint, StandardCharsets.UTF_8);
+		return endpoint;
+	}
+
+	@Override
+	public String toString() {
+		return "[RingGroup " + callerId + "->" + legOrder.size() + " legs|" + getDialStatus().getName() + "]";
+	}
+}
@@ -0,0 +1,80 @@
+package io.cloudonix.arity;
+
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import ch.loway.oss.ari4java.generated.models.Channel;
+import ch.loway.oss.ari4java.generated.models.ChannelDestroyed;
+import ch.loway.oss.ari4java.generated.models.ChannelHangupRequest;
+import ch.loway.oss.ari4java.generated.models.Message;
+import ch.loway.oss.ari4java.generated.models.StasisEnd;
+
+/**
+ * Generate ARI events that Asterisk did not send, such as hangup events for channels that disappeared while the
+ * events websocket was disconnected.
+ *
+ * Events are generated as dynamic proxies of the ari4java model interfaces, whose getters answer from a map of
+ * property values, so they do not depend on the ari4java model implementation classes of a specific ARI version.
+ */
+class SyntheticEvents {
+
+	/** Hangup cause reported for channels that were lost: 0 is "unknown" */
+	private static final int CAUSE_UNKNOWN = 0;
+
+	/**
+	 * Generate the events Asterisk sends when a channel is hung up: a hangup request, the end of stasis and the
+	 * channel's destruction
+	 * @param channelId ID of the channel that is gone
+	 * @param appName name of the stasis application
+	 * @param asteriskId ID of the Asterisk server, or <code>null</code> if not known
+	 * @return hangup events, in the order Asterisk would send them
+	 */
+	static Message[] hangup(String channelId, String appName, String asteriskId) {
+		Channel channel = model(Channel.class, Map.of("id", channelId, "state", "Down"));
+		Date now = new Date();
+		return new Message[] {
+				event(ChannelHangupRequest.class, channel, Map.of("cause", CAUSE_UNKNOWN), appName, asteriskId, now),
+				event(StasisEnd.class, channel, Map.of(), appName, asteriskId, now),
+				event(ChannelDestroyed.class, channel, Map.of("cause", CAUSE_UNKNOWN, "cause_txt", "Unknown"),
+						appName, asteriskId, now)
+		};
+	}
+
+	private static <T extends Message> T event(Class<T> type, Channel channel, Map<String, Object> properties,
+			String appName, String asteriskId, Date timestamp) {
+		Map<String, Object> values = new HashMap<>(properties);
+		values.put("type", type.getSimpleName());
+		values.put("channel", channel);
+		values.put("application", appName);
+		values.put("timestamp", timestamp);
+		if (asteriskId != null)
+			values.put("asterisk_id", asteriskId);
+		return model(type, values);
+	}
+
+	private static <T> T model(Class<T> type, Map<String, Object> values) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "toString": return "Synthetic" + type.getSimpleName() + values;
+			case "hashCode": return System.identityHashCode(proxy);
+			case "equals": return proxy == args[0];
+			}
+			if (method.getName().startsWith("get") && method.getParameterCount() == 0) {
+				String property = Character.toLowerCase(method.getName().charAt(3)) + method.getName().substring(4);
+				Object value = values.get(property);
+				if (value != null || !method.getReturnType().isPrimitive())
+					return value;
+				if (method.getReturnType() == boolean.class)
+					return false;
+				if (method.getReturnType() == long.class)
+					return 0L;
+				if (method.getReturnType() == double.class)
+					return 0.0;
+				return 0;
+			}
+			return null; // setters and other methods are not supported
+		}));
+	}
+}
@@ -0,0 +1,140 @@
+package io.cloudonix.arity;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the channel variables that were prefetched for a call before its controller started
+ * running, so the controller can read them without ARI requests.
+ *
+ * The snapshot contains every prefetched variable name - variables that are not set on the channel are
+ * included with a <code>null</code> value.
+ *
+ * @see ARIty.Builder#setPrefetchVariables(String...)
+ * @see CallController#getPrefetchVariables()
+ */
+public final class VariableSnapshot {
+
+	static final VariableSnapshot EMPTY = new VariableSnapshot(Collections.emptyMap());
+
+	private final Map<String, String> values;
+
+	VariableSnapshot(Map<String, String> values) {
+		this.values = Collections.unmodifiableMap(new LinkedHashMap<>(values));
+	}
+
+	/**
+	 * Check whether a variable was prefetched
+	 * @param name variable name
+	 * @return whether the snapshot contains the variable, even if it is not set
+	 */
+	public boolean contains(String name) {
+		return values.containsKey(name);
+	}
+
+	/**
+	 * Check whether a variable was prefetched and is set
+	 * @param name variable name
+	 * @return whether the snapshot has a value for the variable
+	 */
+	public boolean isSet(String name) {
+		return values.get(name) != null;
+	}
+
+	/**
+	 * Retrieve the value of a variable
+	 * @param name variable name
+	 * @return the variable's value, or <code>null</code> if it is not set or was not prefetched
+	 */
+	public String get(String name) {
+		return values.get(name);
+	}
+
+	/**
+	 * Retrieve the value of a variable
+	 * @param name variable name
+	 * @param defaultValue value to return if the variable is not set
+	 * @return the variable's value, or the default value
+	 */
+	public String get(String name, String defaultValue) {
+		String value = values.get(name);
+		return value != null ? value : defaultValue;
+	}
+
+	/**
+	 * Retrieve the value of a SIP header that was prefetched as <code>SIP_HEADER(name)</code> or
+	 * <code>PJSIP_HEADER(read,name)</code>
+	 * @param headerName header name
+	 * @return the header's value, or <code>null</code> if it is not set or was not prefetched
+	 */
+	public String getSipHeader(String headerName) {
+		String value = values.get("SIP_HEADER(" + headerName + ")");
+		return value != null ? value : values.get("PJSIP_HEADER(read," + headerName + ")");
+	}
+
+	/**
+	 * Retrieve the value of a variable as an integer
+	 * @param name variable name
+	 * @param defaultValue value to return if the variable is not set or is not a number
+	 * @return the variable's value, or the default value
+	 */
+	public int getInt(String name, int defaultValue) {
+		return (int) getLong(name, defaultValue);
+	}
+
+	/**
+	 * Retrieve the value of a variable as a long integer
+	 * @param name variable name
+	 * @param defaultValue value to return if the variable is not set or is not a number
+	 * @return the variable's value, or the default value
+	 */
+	public long getLong(String name, long defaultValue) {
+		String value = values.get(name);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Retrieve the value of a variable as a boolean, using the dialplan's notion of truth: a variable is true if it
+	 * is set to a value other than an empty string or <code>0</code>
+	 * @param name variable name
+	 * @param defaultValue value to return if the variable is not set
+	 * @return the variable's value, or the default value
+	 */
+	public boolean getBoolean(String name, boolean defaultValue) {
+		String value = values.get(name);
+		if (value == null)
+			return defaultValue;
+		value = value.trim();
+		return !value.isEmpty() && !value.equals("0");
+	}
+
+	/**
+	 * Retrieve the names of the prefetched variables
+	 * @return variable names
+	 */
+	public Set<String> names() {
+		return values.keySet();
+	}
+
+	/**
+	 * Retrieve the snapshot as a map
+	 * @return an unmodifiable map of variable names to values, where variables that are not set have
+	 *   <code>null</code> values
+	 */
+	public Map<String, String> asMap() {
+		return values;
+	}
+
+	@Override
+	public String toString() {
+		return values.toString();
+	}
+}
@@ -1,13 +1,12 @@
 package io.cloudonix.arity.errors;
 
-import java.lang.reflect.InvocationTargetException;
 import java.net.SocketException;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +20,26 @@ public class ARItyException extends ARIException {
 	
 	private static final Logger log = LoggerFactory.getLogger(ARItyException.class);
 
+	/** Placeholder for messages that are known not to map to an ARIty error */
+	private static final Function<Throwable, ARItyException> NO_ERROR_TYPE = t -> null;
+	/** Bound on the number of distinct messages remembered, in case ARI errors contain variable text */
+	private static final int MAX_MAPPED_MESSAGES = 1000;
+	/** ARIty errors that have a constructor accepting the ari4java exception, keyed by their message key */
+	private static final Map<String, Function<Throwable, ? extends ARItyException>> builtinErrorTypes = Map.ofEntries(
+			errorType(CalleeNotFoundException.class, CalleeNotFoundException::new),
+			errorType(ChannelNotFoundException.class, ChannelNotFoundException::new),
+			errorType(ChannelNotInStasisApplicationException.class, ChannelNotInStasisApplicationException::new),
+			errorType(ConferenceException.class, ConferenceException::new),
+			errorType(ConnectionFailedException.class, ConnectionFailedException::new),
+			errorType(CouldNotStopPlaybackException.class, CouldNotStopPlaybackException::new),
+			errorType(DialException.class, DialException::new),
+			errorType(PlaybackNotFoundException.class, PlaybackNotFoundException::new),
+			errorType(ProvidedChannelWasNotFoundException.class, ProvidedChannelWasNotFoundException::new),
+			errorType(RecordingNotFoundException.class, RecordingNotFoundException::new));
+	private static final Map<String, Function<Throwable, ? extends ARItyException>> userErrorTypes = new ConcurrentHashMap<>();
+	/** Resolved factories by the exact ARI error message, including messages that have no matching error type */
+	private static final Map<String, Function<Throwable, ? extends ARItyException>> mappedMessages = new ConcurrentHashMap<>();
+
 	public ARItyException(Throwable cause) {
 		super(cause);
 	}
@@ -50,6 +69,8 @@ public class ARItyException extends ARIException {
 	public static ARItyException ariRestExceptionMapper(Throwable ariError) {
 		if (ariError instanceof ARItyException) // no need to double map
 			return (ARItyException) ariError;
+		if (ariError.getCause() instanceof ARItyException) // ARIty failed the request, such as a circuit breaker
+			return (ARItyException) ariError.getCause();
 		if (!(ariError instanceof RestException)) {
 			log.error("Unexpected type of ARI error", ariError);
 			return null; // we only map RestExceptions
@@ -62,23 +83,57 @@ public class ARItyException extends ARIException {
 		if (err.getCause() != null && err.getCause() instanceof SocketException) {
 			new ConnectionFailedException((SocketException)err.getCause());
 		}
-		String exception = Stream.of(err.getMessage().trim().split("\\s+"))
-				.map(w -> w.substring(0,1).toUpperCase() + w.substring(1).toLowerCase())
-				.collect(Collectors.joining());
-		try {
-			Class<?> exClazz = Class.forName(String.format("%s.%sException", ARItyException.class.getPackageName(), exception));
-			if (!ARItyException.class.isAssignableFrom(exClazz)) {
-				log.error("Error mapping exceptio {} to ARItyException: class {} is incompatible", ariError, exClazz);
-				return null;
-			}
-			return (ARItyException) exClazz.getConstructor(Throwable.class).newInstance(ariError);
-		} catch (ClassNotFoundException e) {
-			log.warn("No error type {} found", exception);
-			return null;
-		} catch (NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-			log.error("Problem parsing REST excetion {}: {}", err.toString(), e.toString());
-			return null;
+		Function<Throwable, ? extends ARItyException> factory = mappedMessages.get(err.getMessage());
+		if (factory == null)
+			factory = resolveErrorType(err.getMessage());
+		return factory == NO_ERROR_TYPE ? null : factory.apply(ariError);
+	}
+
+	/**
+	 * Register an error type to be created by {@link #ariRestExceptionMapper(Throwable)} for ARI errors with the
+	 * specified message, in addition to the ARIty errors that are mapped by their class names.
+	 * 
+	 * Error types registered here take precedence over the built-in mapping of the same message.
+	 * @param <T> type of error to create
+	 * @param ariMessage ARI error message to map, such as {@code "Channel not found"}. Messages are compared ignoring
+	 *   case and white space
+	 * @param factory creates the error from the ari4java exception
+	 */
+	public static <T extends ARItyException> void registerErrorType(String ariMessage, Function<Throwable, T> factory) {
+		userErrorTypes.put(errorKey(ariMessage), Objects.requireNonNull(factory));
+		mappedMessages.clear(); // forget previous resolutions of this message, including negative ones
+	}
+
+	/**
+	 * The mapping key of an ARI error message, that is also the name of the matching ARIty error type without the
+	 * "Exception" suffix, in lower case. For example "Channel not found" is mapped to {@link ChannelNotFoundException}
+	 * @param message ARI error message or ARIty error type name
+	 * @return the key for the message
+	 */
+	private static String errorKey(String message) {
+		StringBuilder key = new StringBuilder(message.length());
+		for (int i = 0; i < message.length(); i++) {
+			char c = message.charAt(i);
+			if (!Character.isWhitespace(c))
+				key.append(Character.toLowerCase(c));
 		}
+		return key.toString();
+	}
+
+	private static Function<Throwable, ? extends ARItyException> resolveErrorType(String message) {
+		String key = errorKey(message);
+		Function<Throwable, ? extends ARItyException> factory = userErrorTypes.get(key);
+		if (factory == null)
+			factory = builtinErrorTypes.getOrDefault(key, NO_ERROR_TYPE);
+		if (mappedMessages.size() < MAX_MAPPED_MESSAGES && mappedMessages.putIfAbsent(message, factory) == null &&
+				factory == NO_ERROR_TYPE)
+			log.warn("No error type found for ARI error '{}'", message); // only reported once per message
+		return factory;
+	}
+
+	private static <T extends ARItyException> Map.Entry<String, Function<Throwable, ? extends ARItyException>> errorType(
+			Class<T> type, Function<Throwable, T> factory) {
+		return Map.entry(errorKey(type.getSimpleName().replaceFirst("Exception$", "")), factory);
 	}
 
 	/**
@@ -0,0 +1,14 @@
+package io.cloudonix.arity.errors;
+
+/**
+ * An ARI request was not sent because the ARI circuit breaker is open, after too many requests to Asterisk failed
+ */
+public class CircuitOpenException extends ARItyException {
+
+	private static final long serialVersionUID = 1L;
+
+	public CircuitOpenException(String request) {
+		super("ARI circuit breaker is open, rejected " + request);
+	}
+
+}
@@ -0,0 +1,246 @@
+package io.cloudonix.arity.helpers;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A circuit breaker that tracks the outcome of requests to a server, and stops sending requests while the server
+ * appears to be failing.
+ *
+ * The breaker keeps a window of the most recent request outcomes. While it is closed, it opens when the rate of
+ * failed requests, or the rate of slow requests, in the window reaches its threshold. While it is open, requests are
+ * rejected. After the open duration passes, the breaker lets a few probe requests through (half-open): if they all
+ * succeed the breaker closes, otherwise it opens again.
+ *
+ * Callers ask for a {@link Permit} before each request and report the request's outcome to it.
+ */
+public class CircuitBreaker {
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	/**
+	 * Permission to send a request, that the outcome of the request must be reported to
+	 */
+	public class Permit {
+		private final boolean probe;
+
+		private Permit(boolean probe) {
+			this.probe = probe;
+		}
+
+		/**
+		 * Report that the request got a valid response from the server
+		 * @param latencyNanos request latency, in nanoseconds
+		 */
+		public void onSuccess(long latencyNanos) {
+			record(probe, false, latencyNanos);
+		}
+
+		/**
+		 * Report that the request failed due to a server or connection failure
+		 * @param latencyNanos request latency, in nanoseconds
+		 */
+		public void onFailure(long latencyNanos) {
+			record(probe, true, latencyNanos);
+		}
+	}
+
+	private final static Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+	private final static ThreadLocal<Boolean> exempt = new ThreadLocal<>();
+
+	private final String name;
+	private final TimingWheel.Clock clock;
+	private final Permit callPermit = new Permit(false);
+	private final Permit probePermit = new Permit(true);
+	private int minimumCalls = 20;
+	private int failureRateThreshold = 50;
+	private int slowCallRateThreshold = 80;
+	private long slowCallNanos = Duration.ofSeconds(2).toNanos();
+	private long openNanos = Duration.ofSeconds(5).toNanos();
+	private int probes = 3;
+	private boolean[] windowFailed = new boolean[100];
+	private boolean[] windowSlow = new boolean[100];
+	private int windowCount, windowNext, windowFailures, windowSlowCalls;
+	private volatile State state = State.CLOSED;
+	private long openedAt;
+	private int probesStarted, probesSucceeded;
+	private AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Create a new circuit breaker
+	 * @param name name of the breaker, for logging
+	 */
+	public CircuitBreaker(String name) {
+		this(name, TimingWheel.Clock.system());
+	}
+
+	/**
+	 * Create a new circuit breaker with a custom clock
+	 * @param name name of the breaker, for logging
+	 * @param clock time source for the open duration
+	 */
+	public CircuitBreaker(String name, TimingWheel.Clock clock) {
+		this.name = name;
+		this.clock = clock;
+	}
+
+	/**
+	 * Set the window of request outcomes used to calculate failure rates
+	 * @param size number of recent requests in the window. The default is 100
+	 * @param minimumCalls number of requests needed in the window before the breaker may open. The default is 20
+	 * @return itself for fluent calls
+	 */
+	public synchronized CircuitBreaker setWindow(int size, int minimumCalls) {
+		if (size < 1 || minimumCalls < 1 || minimumCalls > size)
+			throw new IllegalArgumentException("Invalid window " + minimumCalls + "/" + size);
+		windowFailed = new boolean[size];
+		windowSlow = new boolean[size];
+		windowCount = windowNext = windowFailures = windowSlowCalls = 0;
+		this.minimumCalls = minimumCalls;
+		return this;
+	}
+
+	/**
+	 * Set the rate of failed requests that opens the breaker
+	 * @param percent percentage of failed requests in the window. The default is 50
+	 * @return itself for fluent calls
+	 */
+	public CircuitBreaker setFailureRateThreshold(int percent) {
+		failureRateThreshold = percent;
+		return this;
+	}
+
+	/**
+	 * Set the rate of slow requests that opens the breaker
+	 * @param slowCall latency above which a request is considered slow. The default is 2 seconds
+	 * @param percent percentage of slow requests in the window. The default is 80
+	 * @return itself for fluent calls
+	 */
+	public CircuitBreaker setSlowCallRateThreshold(Duration slowCall, int percent) {
+		slowCallNanos = slowCall.toNanos();
+		slowCallRateThreshold = percent;
+		return this;
+	}
+
+	/**
+	 * Set how the breaker recovers after opening
+	 * @param openDuration time to reject requests before probing the server. The default is 5 seconds
+	 * @param probes number of successful probe requests needed to close the breaker. The default is 3
+	 * @return itself for fluent calls
+	 */
+	public CircuitBreaker setRecovery(Duration openDuration, int probes) {
+		if (probes < 1)
+			throw new IllegalArgumentException("At least one probe is needed to close the breaker");
+		openNanos = openDuration.toNanos();
+		this.probes = probes;
+		return this;
+	}
+
+	/**
+	 * Ask for permission to send a request
+	 * @return a permit to report the request outcome to, or <code>null</code> if the request should be rejected
+	 */
+	public synchronized Permit tryAcquire() {
+		if (exempt.get() != null)
+			return callPermit;
+		switch (state) {
+		case CLOSED:
+			return callPermit;
+		case OPEN:
+			if (clock.nanoTime() - openedAt < openNanos)
+				break;
+			transition(State.HALF_OPEN);
+			probesStarted = probesSucceeded = 0;
+			// fall through to send the first probe
+		case HALF_OPEN:
+			if (probesStarted >= probes)
+				break;
+			probesStarted++;
+			return probePermit;
+		}
+		rejected.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Run an action whose requests are sent even if the breaker is open, such as requests that shed load from the
+	 * server. Only requests made synchronously by the action on the calling thread are exempt.
+	 * @param <T> type of the action's result
+	 * @param action action to run
+	 * @return the action's result
+	 */
+	public static <T> T exempt(Supplier<T> action) {
+		Boolean previous = exempt.get();
+		exempt.set(Boolean.TRUE);
+		try {
+			return action.get();
+		} finally {
+			exempt.set(previous);
+		}
+	}
+
+	private synchronized void record(boolean probe, boolean failed, long latencyNanos) {
+		boolean slow = latencyNanos >= slowCallNanos;
+		if (probe) {
+			if (state != State.HALF_OPEN)
+				return;
+			if (failed || slow)
+				open();
+			else if (++probesSucceeded >= probes)
+				transition(State.CLOSED);
+			return;
+		}
+		if (state != State.CLOSED)
+			return;
+		if (windowCount == windowFailed.length) { // evict the oldest outcome
+			windowFailures -= windowFailed[windowNext] ? 1 : 0;
+			windowSlowCalls -= windowSlow[windowNext] ? 1 : 0;
+		} else
+			windowCount++;
+		windowFailed[windowNext] = failed;
+		windowSlow[windowNext] = slow;
+		windowFailures += failed ? 1 : 0;
+		windowSlowCalls += slow ? 1 : 0;
+		windowNext = (windowNext + 1) % windowFailed.length;
+		if (windowCount >= minimumCalls && (windowFailures * 100 >= failureRateThreshold * windowCount ||
+				windowSlowCalls * 100 >= slowCallRateThreshold * windowCount))
+			open();
+	}
+
+	private void open() {
+		openedAt = clock.nanoTime();
+		windowCount = windowNext = windowFailures = windowSlowCalls = 0;
+		transition(State.OPEN);
+	}
+
+	private void transition(State newState) {
+		if (state == newState)
+			return;
+		logger.warn("Circuit breaker {}: {} -> {}", name, state, newState);
+		state = newState;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Check whether the breaker currently rejects requests
+	 * @return whether the breaker is open or half open
+	 */
+	public boolean isOpen() {
+		return state != State.CLOSED;
+	}
+
+	/**
+	 * Retrieve the number of requests rejected by the breaker
+	 * @return number of rejected requests since the breaker was created
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+}
@@ -0,0 +1,218 @@
+package io.cloudonix.arity.helpers;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An executor that runs tasks on a fixed set of serial lanes, selected by a key.
+ *
+ * All tasks submitted with the same key are executed in submission order, one at a time, on the same lane thread,
+ * while tasks for different keys are spread across the lanes and run in parallel. ARIty uses the channel ID as the
+ * key, so events for a single call are handled in the order Asterisk sent them.
+ *
+ * Submitting a task never blocks, so tasks can be submitted from I/O threads. Instead, each lane has a capacity:
+ * event sources should check {@link #isFull(String)} before submitting, and apply their own overflow policy - such as
+ * pausing their input or dropping the task - until the executor reports, through its drain listener, that the full
+ * lanes have caught up.
+ */
+public class LaneExecutor implements Executor {
+
+	private final static Logger logger = LoggerFactory.getLogger(LaneExecutor.class);
+	private static final ThreadLocal<Lane> currentLane = new ThreadLocal<>();
+
+	private final Lane[] lanes;
+	private final AtomicInteger nextUnkeyed = new AtomicInteger();
+	private volatile boolean shutdown = false;
+	private volatile Runnable drainListener = () -> {};
+
+	/**
+	 * Create a new lane executor
+	 * @param name name prefix for the lane threads
+	 * @param laneCount number of lanes (and threads) to run
+	 * @param queueSize number of pending tasks per lane at which the lane is considered full
+	 */
+	public LaneExecutor(String name, int laneCount, int queueSize) {
+		this(name, laneCount, queueSize, null);
+	}
+
+	/**
+	 * Create a new lane executor that creates its lane threads using the specified thread factory
+	 * @param name name prefix for the lane threads
+	 * @param laneCount number of lanes (and threads) to run
+	 * @param queueSize number of pending tasks per lane at which the lane is considered full
+	 * @param threadFactory factory to create lane threads with, or <code>null</code> to use daemon platform threads
+	 */
+	public LaneExecutor(String name, int laneCount, int queueSize, ThreadFactory threadFactory) {
+		if (laneCount < 1)
+			throw new IllegalArgumentException("Lane count must be positive");
+		if (queueSize < 1)
+			throw new IllegalArgumentException("Lane queue size must be positive");
+		lanes = new Lane[laneCount];
+		for (int i = 0; i < laneCount; i++)
+			lanes[i] = new Lane(name + "-" + i, queueSize, threadFactory, this);
+	}
+
+	/**
+	 * Set a listener to be notified when a lane that was reported as full by {@link #isFull(String)} has drained
+	 * to half of its capacity. The listener is called on the lane thread, so it must not block.
+	 * @param listener listener to call when a full lane has room again
+	 * @return itself for fluent calls
+	 */
+	public LaneExecutor setDrainListener(Runnable listener) {
+		drainListener = listener == null ? () -> {} : listener;
+		return this;
+	}
+
+	/**
+	 * Check whether the lane selected by the specified key has reached its capacity. A lane that is reported as
+	 * full will notify the drain listener once it catches up.
+	 * @param key key of the task that is about to be submitted, or <code>null</code> for tasks that have no
+	 *   ordering requirements
+	 * @return whether submitting a task for this key would exceed its lane's capacity
+	 */
+	public boolean isFull(String key) {
+		return key != null && laneFor(key).checkFull();
+	}
+
+	/**
+	 * Execute a task on the lane selected by the specified key
+	 * @param key key whose tasks must be executed in order, or <code>null</code> for tasks that have no ordering
+	 *   requirements
+	 * @param task task to execute
+	 * @throws RejectedExecutionException if the executor was shut down
+	 */
+	public void execute(String key, Runnable task) {
+		if (shutdown)
+			throw new RejectedExecutionException("Lane executor is shut down");
+		laneFor(key).submit(task);
+	}
+
+	/**
+	 * Execute a task that has no ordering requirements, on the next lane in a round-robin fashion
+	 */
+	@Override
+	public void execute(Runnable task) {
+		execute(null, task);
+	}
+
+	/**
+	 * Stop all lanes. Tasks that are already queued will still be executed.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		for (Lane lane : lanes)
+			lane.submit(Lane.POISON);
+	}
+
+	/**
+	 * Retrieve the lane that the current thread is running, if any
+	 * @return an executor that runs tasks on the current thread's lane, after all tasks already queued on it, or
+	 *   <code>null</code> if the current thread is not a lane thread
+	 */
+	public static Executor currentLane() {
+		return currentLane.get();
+	}
+
+	/**
+	 * Retrieve the number of lanes this executor runs
+	 * @return number of lanes
+	 */
+	public int getLaneCount() {
+		return lanes.length;
+	}
+
+	/**
+	 * Retrieve the total number of tasks waiting in all lanes
+	 * @return number of queued tasks
+	 */
+	public int getQueuedTasks() {
+		int count = 0;
+		for (Lane lane : lanes)
+			count += lane.queue.size();
+		return count;
+	}
+
+	private Lane laneFor(String key) {
+		int hash = key == null ? nextUnkeyed.getAndIncrement() : spread(key.hashCode());
+		return lanes[Math.floorMod(hash, lanes.length)];
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static class Lane implements Runnable, Executor {
+		private static final Runnable POISON = () -> {};
+
+		private final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+		private final int capacity;
+		private final LaneExecutor owner;
+		private final Thread thread;
+		private volatile boolean full;
+
+		Lane(String name, int queueSize, ThreadFactory threadFactory, LaneExecutor owner) {
+			capacity = queueSize;
+			this.owner = owner;
+			if (threadFactory != null) {
+				thread = threadFactory.newThread(this);
+				thread.setName(name);
+			} else {
+				thread = new Thread(this, name);
+				thread.setDaemon(true);
+			}
+			thread.start();
+		}
+
+		boolean checkFull() {
+			if (queue.size() < capacity)
+				return false;
+			if (!full)
+				logger.debug("Lane {} is full", thread.getName());
+			full = true;
+			return true;
+		}
+
+		void submit(Runnable task) {
+			queue.add(task);
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			submit(task);
+		}
+
+		@Override
+		public void run() {
+			currentLane.set(this);
+			while (true) {
+				Runnable task;
+				try {
+					task = queue.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (full && queue.size() <= capacity / 2) {
+					full = false;
+					try {
+						owner.drainListener.run();
+					} catch (Throwable t) {
+						logger.error("Unexpected error in lane {} drain listener", thread.getName(), t);
+					}
+				}
+				if (task == POISON)
+					return;
+				try {
+					task.run();
+				} catch (Throwable t) {
+					logger.error("Unexpected error in lane {} running {}", thread.getName(), task, t);
+				}
+			}
+		}
+	}
+}
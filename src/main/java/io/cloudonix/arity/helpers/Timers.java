@@ -1,23 +1,77 @@
 package io.cloudonix.arity.helpers;
 
-import java.util.Timer;
+import java.util.Objects;
 import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Timers {
 
-	private static Timer myTimer = new Timer("arity-timer", true);
+	private static final AtomicInteger taskThreadCount = new AtomicInteger();
+	private static volatile TimingWheel scheduler = new TimingWheel("arity-timer", 10, 512, TimingWheel.Clock.system(),
+			Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "arity-timer-task-" + taskThreadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			})).start();
 
 	public static TimerTask schedule(Runnable action, long delay) {
-		var newTask = new TimerTask() {
-			
-			@Override
-			public void run() {
-				action.run();
-			}
-		};
-		myTimer.schedule(newTask, delay);
+		var newTask = new ScheduledTask(action);
+		newTask.setTimeout(scheduler.schedule(newTask, delay));
 		return newTask;
 	}
 
+	/**
+	 * Retrieve the scheduler used for ARIty timers, for example to monitor its pending timers and lateness
+	 * @return the current timer scheduler
+	 */
+	public static TimingWheel getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Replace the scheduler used for ARIty timers, for example with a scheduler using a manual clock for tests.
+	 * Timers that were already scheduled will still be run by the previous scheduler.
+	 * @param newScheduler scheduler to use for new timers
+	 */
+	public static void setScheduler(TimingWheel newScheduler) {
+		scheduler = Objects.requireNonNull(newScheduler);
+	}
+
+	/**
+	 * A timer task whose cancellation removes it from the scheduler. The task may run, and be cancelled, before the
+	 * scheduler returned its timeout - e.g. when it is already due when scheduled
+	 */
+	private static class ScheduledTask extends TimerTask {
+		private final Runnable action;
+		private final AtomicBoolean done = new AtomicBoolean();
+		private volatile TimingWheel.Timeout timeout;
 
+		ScheduledTask(Runnable action) {
+			this.action = action;
+		}
+
+		private void setTimeout(TimingWheel.Timeout timeout) {
+			this.timeout = timeout;
+			if (done.get()) // cancelled before the timeout was set
+				timeout.cancel();
+		}
+
+		@Override
+		public void run() {
+			if (done.compareAndSet(false, true))
+				action.run();
+		}
+
+		@Override
+		public boolean cancel() {
+			super.cancel();
+			boolean prevented = done.compareAndSet(false, true);
+			var current = timeout;
+			if (current != null)
+				current.cancel();
+			return prevented;
+		}
+	}
 }
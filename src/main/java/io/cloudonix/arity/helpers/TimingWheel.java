@@ -0,0 +1,331 @@
+package io.cloudonix.arity.helpers;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timing wheel scheduler.
+ *
+ * Timeouts are hashed by their deadline tick into a fixed ring of buckets, each holding a doubly linked list, so
+ * scheduling and cancelling are both O(1) and a cancelled timeout is unlinked from its bucket immediately. A single
+ * ticker thread visits one bucket per tick and hands expired tasks to an executor, so a slow task does not delay
+ * other timeouts. Timeouts fire up to one tick late.
+ *
+ * The wheel reads time from a {@link Clock}, so tests can use a manual clock and call {@link #advance()} instead
+ * of starting the ticker thread.
+ */
+public class TimingWheel {
+
+	/**
+	 * Source of monotonic time for the timing wheel
+	 */
+	@FunctionalInterface
+	public interface Clock {
+		/**
+		 * Retrieve the current time
+		 * @return current time, in nanoseconds from an arbitrary origin
+		 */
+		long nanoTime();
+
+		static Clock system() {
+			return System::nanoTime;
+		}
+	}
+
+	private final static Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+	private final String name;
+	private final Clock clock;
+	private final Executor executor;
+	private final long tickNanos;
+	private final long startTime;
+	private final Bucket[] wheel;
+	private final int mask;
+	private volatile long processedTick = -1; // last tick whose bucket was processed, written under the bucket lock
+	private volatile Thread ticker;
+
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicLong fired = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+	private final AtomicLong totalLateness = new AtomicLong();
+	private final AtomicLong maxLateness = new AtomicLong();
+
+	/**
+	 * Create a new timing wheel
+	 * @param name name of the ticker thread
+	 * @param tickMillis duration of a single tick, which is also the timer resolution
+	 * @param wheelSize number of buckets in the wheel - rounded up to a power of 2
+	 * @param clock time source
+	 * @param executor executor to run expired tasks
+	 */
+	public TimingWheel(String name, long tickMillis, int wheelSize, Clock clock, Executor executor) {
+		if (tickMillis < 1)
+			throw new IllegalArgumentException("Tick duration must be positive");
+		if (wheelSize < 1 || wheelSize > 1 << 30)
+			throw new IllegalArgumentException("Invalid wheel size " + wheelSize);
+		this.name = name;
+		this.clock = clock;
+		this.executor = executor;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		int size = Integer.highestOneBit(wheelSize);
+		if (size < wheelSize)
+			size <<= 1;
+		wheel = new Bucket[size];
+		for (int i = 0; i < size; i++)
+			wheel[i] = new Bucket();
+		mask = size - 1;
+		startTime = clock.nanoTime();
+	}
+
+	/**
+	 * Start the ticker thread, that processes expired timeouts in real time
+	 * @return itself for fluent calls
+	 */
+	public synchronized TimingWheel start() {
+		if (ticker != null)
+			return this;
+		ticker = new Thread(this::run, name);
+		ticker.setDaemon(true);
+		ticker.start();
+		return this;
+	}
+
+	/**
+	 * Stop the ticker thread. Pending timeouts will not fire unless the wheel is started again.
+	 */
+	public synchronized void stop() {
+		Thread t = ticker;
+		ticker = null;
+		if (t != null)
+			t.interrupt();
+	}
+
+	/**
+	 * Schedule a task to run after a delay
+	 * @param task task to run
+	 * @param delayMillis delay in milliseconds
+	 * @return a timeout that can be used to cancel the task
+	 */
+	public Timeout schedule(Runnable task, long delayMillis) {
+		long deadline = clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+		Timeout timeout = new Timeout(task, deadline);
+		// round up, so the timeout never fires early
+		long tick = Math.max(0, (deadline - startTime + tickNanos - 1) / tickNanos);
+		timeout.tick = tick;
+		Bucket bucket = wheel[(int) (tick & mask)];
+		synchronized (bucket) {
+			if (tick > processedTick) {
+				bucket.add(timeout);
+				pending.incrementAndGet();
+				return timeout;
+			}
+		}
+		// the deadline's tick has already been processed, so the timeout is due
+		pending.incrementAndGet();
+		expire(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Process all ticks up to the current time, running the timeouts that expired.
+	 * This is called by the ticker thread, and can be called by tests that use a manual clock instead of starting
+	 * the ticker thread.
+	 */
+	public void advance() {
+		long now = clock.nanoTime();
+		long currentTick = (now - startTime) / tickNanos;
+		for (long tick = processedTick + 1; tick <= currentTick; tick++) {
+			Bucket bucket = wheel[(int) (tick & mask)];
+			Timeout expired;
+			synchronized (bucket) {
+				expired = bucket.removeExpired(tick);
+				processedTick = tick;
+			}
+			while (expired != null) {
+				Timeout next = expired.next;
+				expired.next = null;
+				expire(expired);
+				expired = next;
+			}
+		}
+	}
+
+	private void expire(Timeout timeout) {
+		if (!timeout.setState(Timeout.EXPIRED))
+			return;
+		pending.decrementAndGet();
+		fired.incrementAndGet();
+		long lateness = Math.max(0, clock.nanoTime() - timeout.deadline);
+		totalLateness.addAndGet(lateness);
+		maxLateness.accumulateAndGet(lateness, Math::max);
+		try {
+			executor.execute(timeout.task);
+		} catch (Throwable t) {
+			logger.error("Failed to dispatch timer task {}", timeout.task, t);
+		}
+	}
+
+	private void run() {
+		while (ticker == Thread.currentThread()) {
+			try {
+				advance();
+			} catch (Throwable t) {
+				logger.error("Unexpected error in timer {}", name, t);
+			}
+			long nextTick = startTime + (processedTick + 1) * tickNanos;
+			long sleep = nextTick - clock.nanoTime();
+			if (sleep > 0)
+				LockSupport.parkNanos(this, sleep);
+		}
+	}
+
+	/**
+	 * Retrieve the number of timeouts that are scheduled and not yet expired or cancelled
+	 * @return number of pending timeouts
+	 */
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	/**
+	 * Retrieve the number of timeouts that expired since the wheel was created
+	 * @return number of fired timeouts
+	 */
+	public long getFiredCount() {
+		return fired.get();
+	}
+
+	/**
+	 * Retrieve the number of timeouts that were cancelled before they expired
+	 * @return number of cancelled timeouts
+	 */
+	public long getCancelledCount() {
+		return cancelled.get();
+	}
+
+	/**
+	 * Retrieve the average time between the deadline of fired timeouts and when they were dispatched
+	 * @return average lateness, in milliseconds
+	 */
+	public double getAverageLatenessMillis() {
+		long count = fired.get();
+		return count == 0 ? 0 : totalLateness.get() / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * Retrieve the longest time between the deadline of a fired timeout and when it was dispatched
+	 * @return maximum lateness, in milliseconds
+	 */
+	public long getMaxLatenessMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxLateness.get());
+	}
+
+	/**
+	 * A handle for a scheduled task
+	 */
+	public class Timeout {
+		private static final int WAITING = 0, EXPIRED = 1, CANCELLED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+		private long tick;
+		private Timeout prev, next;
+		private volatile Bucket bucket;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		private boolean setState(int newState) {
+			return state.compareAndSet(WAITING, newState);
+		}
+
+		/**
+		 * Cancel the timeout, removing it from the wheel
+		 * @return <code>true</code> if the timeout was cancelled, <code>false</code> if it has already expired or
+		 *   was already cancelled
+		 */
+		public boolean cancel() {
+			if (!setState(CANCELLED))
+				return false;
+			pending.decrementAndGet();
+			cancelled.incrementAndGet();
+			Bucket b = bucket;
+			if (b != null)
+				synchronized (b) {
+					b.remove(this);
+				}
+			return true;
+		}
+
+		/**
+		 * Check whether this timeout was cancelled
+		 * @return whether {@link #cancel()} was called before the timeout expired
+		 */
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		/**
+		 * Check whether this timeout expired
+		 * @return whether the timeout's task was dispatched
+		 */
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+	}
+
+	/**
+	 * A doubly linked list of timeouts hashed to the same wheel position. Must be accessed while holding its monitor.
+	 */
+	private static class Bucket {
+		private Timeout head;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			timeout.next = head;
+			if (head != null)
+				head.prev = timeout;
+			head = timeout;
+		}
+
+		void remove(Timeout timeout) {
+			if (timeout.bucket != this)
+				return;
+			if (timeout.prev != null)
+				timeout.prev.next = timeout.next;
+			else
+				head = timeout.next;
+			if (timeout.next != null)
+				timeout.next.prev = timeout.prev;
+			timeout.prev = timeout.next = null;
+			timeout.bucket = null;
+		}
+
+		/**
+		 * Unlink all timeouts that are due by the specified tick
+		 * @return a list of the expired timeouts, linked through their <code>next</code> field
+		 */
+		Timeout removeExpired(long tick) {
+			Timeout expired = null;
+			for (Timeout t = head; t != null; ) {
+				Timeout next = t.next;
+				if (t.tick <= tick) {
+					remove(t);
+					t.next = expired;
+					expired = t;
+				}
+				t = next;
+			}
+			return expired;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package io.cloudonix.arity.helpers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Coalesces reads and writes of the channel variables of a single channel, that are made within a short window, into
+ * as few ARI requests as possible.
+ *
+ * ARI can only read or write one channel variable per request, so:
+ * <ul>
+ * <li>Reads of several variables are combined into a single read of the <code>EVAL()</code> dialplan function, whose
+ * argument joins the variables with a separator. If the combined read fails, or a value contains the separator, the
+ * variables are read one by one instead. Asterisk expands unset variables to an empty string, so variables whose
+ * combined value is empty are read again one by one, to tell empty variables from unset ones.</li>
+ * <li>Reads of a variable that is already being read share the pending read, and reads of a variable that is about
+ * to be written return the written value.</li>
+ * <li>Writes are sent concurrently, and repeated writes of the same variable only send the last value.</li>
+ * </ul>
+ *
+ * Read-only dialplan functions, such as <code>SIP_HEADER(X-Foo)</code> or <code>CALLERID(num)</code>, are batched
+ * like variables. Functions that have side effects or return a different value on each call, such as
+ * <code>SHIFT(list)</code>, <code>RAND()</code> or <code>PJSIP_HEADER(add,X-Foo)</code>, are read with their own
+ * request each time, and writes of dialplan functions are never coalesced.
+ *
+ * The order between reads and writes of different variables in the same window is not preserved.
+ */
+public class VariableBatcher {
+
+	/**
+	 * The ARI requests used by the batcher
+	 */
+	public interface Transport {
+		/**
+		 * Read a single channel variable
+		 * @param name variable or dialplan function to read
+		 * @return a promise for the value, that resolves to <code>null</code> if the variable is not set, and fails
+		 *   if the variable could not be read
+		 */
+		CompletableFuture<String> read(String name);
+
+		/**
+		 * Write a single channel variable
+		 * @param name variable or dialplan function to write
+		 * @param value value to set
+		 * @return a promise that resolves when the variable was set
+		 */
+		CompletableFuture<Void> write(String name, String value);
+	}
+
+	static final String SEPARATOR = "|~|";
+	private static final Pattern SEPARATOR_PATTERN = Pattern.compile(Pattern.quote(SEPARATOR));
+	/** Dialplan functions whose reads modify the channel or whose value changes between reads */
+	private static final Pattern VOLATILE_FUNCTION = Pattern.compile(
+			"(?i)(SHIFT|POP|RAND)\\(|\\w*_HEADER\\(\\s*(add|remove)\\s*,");
+	/** Maximum number of variables combined into one read, to keep request URLs short */
+	static final int MAX_BATCH = 20;
+
+	private final Transport transport;
+	private final Executor executor;
+	private final long window;
+	private Map<String, CompletableFuture<String>> pendingReads = new LinkedHashMap<>();
+	private final Map<String, CompletableFuture<String>> inFlightReads = new HashMap<>();
+	private Map<String, String> pendingWrites = new LinkedHashMap<>();
+	private CompletableFuture<Void> pendingWritesDone;
+	private boolean flushScheduled;
+	private final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * Create a batcher for a channel
+	 * @param transport ARI requests to read and write the channel's variables
+	 * @param executor executor to send the batched requests from, used when there is no window
+	 * @param windowMillis time to collect reads and writes before sending them, or 0 to send them as soon as the
+	 *   executor runs - which collects reads and writes made together by the caller
+	 */
+	public VariableBatcher(Transport transport, Executor executor, long windowMillis) {
+		this.transport = transport;
+		this.executor = executor;
+		this.window = windowMillis;
+	}
+
+	/**
+	 * Read a channel variable
+	 * @param name variable or dialplan function to read
+	 * @return a promise for the value, that resolves to <code>null</code> if the variable is not set, and fails if
+	 *   the variable could not be read
+	 */
+	public synchronized CompletableFuture<String> read(String name) {
+		if (isVolatile(name)) {
+			CompletableFuture<String> read = new CompletableFuture<>();
+			readOne(name, read);
+			return read;
+		}
+		CompletableFuture<String> read = inFlightReads.get(name);
+		if (read == null)
+			read = pendingReads.get(name);
+		if (read != null)
+			return read;
+		if (pendingWrites.containsKey(name))
+			return CompletableFuture.completedFuture(pendingWrites.get(name));
+		read = new CompletableFuture<>();
+		pendingReads.put(name, read);
+		scheduleFlush();
+		return read;
+	}
+
+	/**
+	 * Read several channel variables
+	 * @param names variables or dialplan functions to read
+	 * @return a promise for the values by name. Variables that are not set have <code>null</code> values. The promise
+	 *   fails if any of the variables could not be read
+	 */
+	public CompletableFuture<Map<String, String>> readAll(Iterable<String> names) {
+		Map<String, CompletableFuture<String>> reads = readEach(names);
+		return CompletableFuture.allOf(reads.values().toArray(CompletableFuture[]::new)).thenApply(v -> {
+			Map<String, String> values = new LinkedHashMap<>();
+			reads.forEach((name, read) -> values.put(name, read.join()));
+			return values;
+		});
+	}
+
+	/**
+	 * Read several channel variables in the same batch, reporting the outcome of each read separately
+	 * @param names variables or dialplan functions to read
+	 * @return promises for the values by name, as returned by {@link #read(String)}
+	 */
+	public synchronized Map<String, CompletableFuture<String>> readEach(Iterable<String> names) {
+		Map<String, CompletableFuture<String>> reads = new LinkedHashMap<>();
+		for (String name : names)
+			reads.put(name, read(name));
+		return reads;
+	}
+
+	/**
+	 * Write a channel variable
+	 * @param name variable or dialplan function to write
+	 * @param value value to set
+	 * @return a promise that resolves when the writes of the batch were sent. Failures to write are not reported
+	 */
+	public synchronized CompletableFuture<Void> write(String name, String value) {
+		if (isFunction(name)) {
+			requests.incrementAndGet();
+			return send(() -> transport.write(name, value)).handle((v, t) -> null);
+		}
+		pendingWrites.put(name, value);
+		if (pendingWritesDone == null)
+			pendingWritesDone = new CompletableFuture<>();
+		scheduleFlush();
+		return pendingWritesDone;
+	}
+
+	/**
+	 * Retrieve the number of ARI requests sent by the batcher
+	 * @return number of requests
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * Check whether a name is a dialplan function call rather than a plain variable name
+	 */
+	private static boolean isFunction(String name) {
+		return name.indexOf('(') >= 0;
+	}
+
+	/**
+	 * Check whether reading a name has side effects or returns a different value each time, so reads of it can not
+	 * be combined or shared
+	 */
+	private static boolean isVolatile(String name) {
+		return VOLATILE_FUNCTION.matcher(name).lookingAt();
+	}
+
+	private void scheduleFlush() {
+		if (flushScheduled)
+			return;
+		flushScheduled = true;
+		if (window > 0)
+			Timers.schedule(this::flush, window);
+		else
+			executor.execute(this::flush);
+	}
+
+	private void flush() {
+		Map<String, CompletableFuture<String>> reads;
+		Map<String, String> writes;
+		CompletableFuture<Void> writesDone;
+		synchronized (this) {
+			flushScheduled = false;
+			reads = pendingReads;
+			writes = pendingWrites;
+			writesDone = pendingWritesDone;
+			pendingReads = new LinkedHashMap<>();
+			pendingWrites = new LinkedHashMap<>();
+			pendingWritesDone = null;
+			inFlightReads.putAll(reads);
+		}
+		if (!writes.isEmpty()) {
+			List<CompletableFuture<Void>> sent = new ArrayList<>();
+			writes.forEach((name, value) -> {
+				requests.incrementAndGet();
+				sent.add(send(() -> transport.write(name, value)));
+			});
+			CompletableFuture.allOf(sent.toArray(CompletableFuture[]::new))
+					.whenComplete((v, t) -> writesDone.complete(null));
+		}
+		List<String> names = new ArrayList<>(reads.keySet());
+		for (int i = 0; i < names.size(); i += MAX_BATCH) {
+			List<String> batch = names.subList(i, Math.min(names.size(), i + MAX_BATCH));
+			if (batch.size() == 1)
+				readOne(batch.get(0), reads.get(batch.get(0)));
+			else
+				readBatch(batch, reads);
+		}
+	}
+
+	private void readBatch(List<String> names, Map<String, CompletableFuture<String>> reads) {
+		StringBuilder expression = new StringBuilder("EVAL(");
+		for (String name : names) {
+			if (expression.length() > 5)
+				expression.append(SEPARATOR);
+			expression.append("${").append(name).append('}');
+		}
+		requests.incrementAndGet();
+		String evaluation = expression.append(')').toString();
+		send(() -> transport.read(evaluation)).whenComplete((result, error) -> {
+			String[] values = result == null ? null : SEPARATOR_PATTERN.split(result, -1);
+			if (error != null || values == null || values.length != names.size()) {
+				// the function failed, or a value contains the separator - fall back to reading each variable
+				for (String name : names)
+					readOne(name, reads.get(name));
+				return;
+			}
+			for (int i = 0; i < values.length; i++) {
+				if (values[i].isEmpty()) // empty or not set
+					readOne(names.get(i), reads.get(names.get(i)));
+				else
+					complete(names.get(i), reads.get(names.get(i)), values[i], null);
+			}
+		});
+	}
+
+	private void readOne(String name, CompletableFuture<String> read) {
+		requests.incrementAndGet();
+		send(() -> transport.read(name)).whenComplete((value, error) -> complete(name, read, value, error));
+	}
+
+	/**
+	 * Send a request, reporting a failure to send it as a failed promise, so the requests' callers are not left
+	 * waiting
+	 */
+	private <T> CompletableFuture<T> send(Supplier<CompletableFuture<T>> request) {
+		try {
+			return request.get();
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private void complete(String name, CompletableFuture<String> read, String value, Throwable error) {
+		// complete before removing the read, so callers that cache the value do so while new reads still share it
+		if (error != null)
+			read.completeExceptionally(error);
+		else
+			read.complete(value);
+		synchronized (this) {
+			inFlightReads.remove(name, read);
+		}
+	}
+}
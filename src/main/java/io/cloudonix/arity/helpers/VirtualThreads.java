@@ -0,0 +1,74 @@
+package io.cloudonix.arity.helpers;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access to virtual threads, when running on a JVM that supports them.
+ *
+ * ARIty is compiled for Java 11, so the virtual thread API is accessed reflectively: on older JVMs
+ * {@link #isAvailable()} returns <code>false</code> and callers should fall back to platform threads.
+ */
+public class VirtualThreads {
+
+	private final static Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+	private static final Method ofVirtual = findMethod(Thread.class, "ofVirtual");
+	private static final Method newThreadPerTaskExecutor = findMethod(Executors.class, "newThreadPerTaskExecutor",
+			ThreadFactory.class);
+
+	/**
+	 * Check whether the current JVM supports virtual threads
+	 * @return <code>true</code> if virtual threads can be created
+	 */
+	public static boolean isAvailable() {
+		return ofVirtual != null && newThreadPerTaskExecutor != null;
+	}
+
+	/**
+	 * Create a thread factory that creates virtual threads
+	 * @param name prefix for the names of the created threads, that will be suffixed by a running counter
+	 * @return a virtual thread factory
+	 * @throws UnsupportedOperationException if the JVM does not support virtual threads
+	 */
+	public static ThreadFactory factory(String name) {
+		if (!isAvailable())
+			throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+		try {
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			Object builder = ofVirtual.invoke(null);
+			builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+			return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			throw new UnsupportedOperationException("Failed to create a virtual thread factory", e);
+		}
+	}
+
+	/**
+	 * Create an executor service that runs each task on a new virtual thread
+	 * @param name prefix for the names of the created threads
+	 * @return an unbounded virtual thread executor service
+	 * @throws UnsupportedOperationException if the JVM does not support virtual threads
+	 */
+	public static ExecutorService newExecutor(String name) {
+		ThreadFactory factory = factory(name);
+		try {
+			return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			throw new UnsupportedOperationException("Failed to create a virtual thread executor", e);
+		}
+	}
+
+	private static Method findMethod(Class<?> clazz, String name, Class<?>... parameterTypes) {
+		try {
+			return clazz.getMethod(name, parameterTypes);
+		} catch (NoSuchMethodException e) {
+			logger.debug("Virtual threads are not available: {}.{} is missing", clazz.getSimpleName(), name);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package io.cloudonix.arity.metrics;
+
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Instrumentation interface that ARIty reports its internal metrics to.
+ *
+ * Implement this interface to collect ARIty metrics into your monitoring system, or use
+ * {@link MicrometerArityMetrics} to report to a Micrometer registry. All methods have empty default implementations,
+ * so implementations may only override the metrics they are interested in. Methods are called on ARIty's internal
+ * threads and must not block.
+ */
+public interface ArityMetrics {
+
+	/**
+	 * Metrics implementation that discards all metrics. This is the default.
+	 */
+	static final ArityMetrics NOOP = new ArityMetrics() {
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+	};
+
+	/**
+	 * Check whether metrics should be collected. When this returns <code>false</code>, ARIty skips taking the
+	 * timestamps needed to report latencies.
+	 * @return whether metrics are collected
+	 */
+	default boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * Retrieve the metrics implementation that an ARIty instance should report its own events, gauges and counters
+	 * to, so that several instances - such as the members of an {@link io.cloudonix.arity.ARItyCluster} - can
+	 * share a metrics implementation without their meters clashing. The default returns this implementation.
+	 * @param appName Stasis application name of the instance
+	 * @param url ARI URL of the instance, or <code>null</code> if it does not connect to Asterisk
+	 * @return metrics implementation that identifies the instance
+	 */
+	default ArityMetrics forInstance(String appName, String url) {
+		return this;
+	}
+
+	/**
+	 * Report the time between receiving an event from Asterisk and running an event handler for it
+	 * @param eventType ARI event type, such as <code>StasisStart</code>
+	 * @param latencyNanos dispatch latency, in nanoseconds
+	 */
+	default void eventDispatched(String eventType, long latencyNanos) {}
+
+	/**
+	 * Report the completion of a single ARI REST request
+	 * @param endpoint HTTP method and templated path of the request, such as <code>POST /channels/{id}/answer</code>
+	 * @param latencyNanos time from sending the request until its response was received, in nanoseconds
+	 * @param failureClass classification of the failure, or <code>null</code> if the request was successful
+	 */
+	default void restCall(String endpoint, long latencyNanos, String failureClass) {}
+
+	/**
+	 * Report that a failed ARI REST request is being retried
+	 * @param endpoint HTTP method and templated path of the request
+	 * @param failureClass classification of the failure that caused the retry
+	 */
+	default void restRetry(String endpoint, String failureClass) {}
+
+	/**
+	 * Report that an ARI operation failed, after all retries
+	 * @param endpoint HTTP method and templated path of the request
+	 * @param failureClass classification of the failure
+	 */
+	default void restFailure(String endpoint, String failureClass) {}
+
+	/**
+	 * Report that a failed ARI REST request was not retried because the retry budget was exhausted
+	 * @param endpoint HTTP method and templated path of the request
+	 */
+	default void restRetryBudgetExhausted(String endpoint) {}
+
+	/**
+	 * Register a gauge that reports a value sampled from ARIty, such as the number of queued events
+	 * @param name gauge name
+	 * @param value supplier for the current value of the gauge
+	 */
+	default void gauge(String name, Supplier<Number> value) {}
+
+	/**
+	 * Register a counter that reports a monotonically increasing total sampled from ARIty, such as the number of
+	 * rejected calls. Unlike gauges, counters can be used to compute rates
+	 * @param name counter name
+	 * @param source object that holds the total
+	 * @param count function that reads the current total from the source
+	 */
+	default <T> void counter(String name, T source, ToDoubleFunction<T> count) {}
+}
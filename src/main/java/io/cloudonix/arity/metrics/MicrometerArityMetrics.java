@@ -0,0 +1,114 @@
+package io.cloudonix.arity.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * ARIty metrics adapter that reports to a Micrometer {@link MeterRegistry}.
+ *
+ * Micrometer is an optional dependency of ARIty - applications that use this adapter need to add
+ * <code>io.micrometer:micrometer-core</code> to their dependencies.
+ *
+ * The following meters are reported:
+ * <ul>
+ * <li><code>arity.event.dispatch</code> - timer of event dispatch latency, tagged with the event <code>type</code></li>
+ * <li><code>arity.rest.requests</code> - timer (with a percentiles histogram) of ARI REST request latency, tagged
+ * with the <code>endpoint</code> - the HTTP method and templated path, such as <code>POST /channels/{id}/answer</code> -
+ * and <code>outcome</code> (<code>success</code> or the failure class)</li>
+ * <li><code>arity.rest.retries</code> - counter of retried requests, tagged with the <code>endpoint</code> and
+ * <code>failure</code> class</li>
+ * <li><code>arity.rest.failures</code> - counter of operations that failed after all retries, tagged with the
+ * <code>endpoint</code> and <code>failure</code> class</li>
+ * <li><code>arity.rest.retries.exhausted</code> - counter of failed requests that were not retried because the retry
+ * budget was exhausted, tagged with the <code>endpoint</code></li>
+ * <li>gauges registered by ARIty, such as <code>arity.events.queued</code></li>
+ * <li>counters of totals kept by ARIty, such as <code>arity.calls.rejected.total</code></li>
+ * </ul>
+ * Event timers, gauges and counters are tagged with the <code>app</code> name and ARI URL (<code>instance</code>) of
+ * the ARIty instance that reported them, so several instances can share a registry.
+ */
+public class MicrometerArityMetrics implements ArityMetrics {
+
+	private final MeterRegistry registry;
+	private final Tags tags;
+	private final ConcurrentHashMap<String, Timer> eventTimers = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Timer> restTimers = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Counter> retryCounters = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Counter> failureCounters = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Counter> budgetExhaustedCounters = new ConcurrentHashMap<>();
+
+	public MicrometerArityMetrics(MeterRegistry registry) {
+		this(registry, Tags.empty());
+	}
+
+	private MicrometerArityMetrics(MeterRegistry registry, Tags tags) {
+		this.registry = registry;
+		this.tags = tags;
+	}
+
+	@Override
+	public ArityMetrics forInstance(String appName, String url) {
+		return new MicrometerArityMetrics(registry, Tags.of("app", appName, "instance", url == null ? "none" : url));
+	}
+
+	@Override
+	public void eventDispatched(String eventType, long latencyNanos) {
+		eventTimers.computeIfAbsent(eventType, type -> Timer.builder("arity.event.dispatch")
+				.description("Time from receiving an ARI event until an event handler runs")
+				.tag("type", type).tags(tags).register(registry))
+		.record(latencyNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void restCall(String endpoint, long latencyNanos, String failureClass) {
+		String outcome = failureClass == null ? "success" : failureClass;
+		restTimers.computeIfAbsent(endpoint + '\0' + outcome, k -> Timer.builder("arity.rest.requests")
+				.description("ARI REST request latency")
+				.tag("endpoint", endpoint).tag("outcome", outcome)
+				.publishPercentileHistogram().register(registry))
+		.record(latencyNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void restRetry(String endpoint, String failureClass) {
+		retryCounters.computeIfAbsent(endpoint + '\0' + failureClass, k -> Counter.builder("arity.rest.retries")
+				.description("ARI REST requests retried")
+				.tag("endpoint", endpoint).tag("failure", failureClass).register(registry))
+		.increment();
+	}
+
+	@Override
+	public void restFailure(String endpoint, String failureClass) {
+		failureCounters.computeIfAbsent(endpoint + '\0' + failureClass, k -> Counter.builder("arity.rest.failures")
+				.description("ARI operations that failed after all retries")
+				.tag("endpoint", endpoint).tag("failure", failureClass).register(registry))
+		.increment();
+	}
+
+	@Override
+	public void restRetryBudgetExhausted(String endpoint) {
+		budgetExhaustedCounters.computeIfAbsent(endpoint, k -> Counter.builder("arity.rest.retries.exhausted")
+				.description("Failed ARI REST requests that were not retried because the retry budget was exhausted")
+				.tag("endpoint", endpoint).register(registry))
+		.increment();
+	}
+
+	@Override
+	public void gauge(String name, Supplier<Number> value) {
+		Gauge.builder(name, value).tags(tags).register(registry);
+	}
+
+	@Override
+	public <T> void counter(String name, T source, ToDoubleFunction<T> count) {
+		FunctionCounter.builder(name, source, count).tags(tags).register(registry);
+	}
+}
@@ -0,0 +1,51 @@
+package io.cloudonix.samples;
+
+import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.cloudonix.arity.ARIty;
+import io.cloudonix.arity.CallController;
+import io.cloudonix.arity.errors.ConnectionFailedException;
+
+/**
+ * Sample for writing a call controller in a blocking style, running on virtual threads.
+ *
+ * With virtual threads each call can wait for its operations to complete, without tying up a platform thread for the
+ * whole duration of the call. Requires Java 21 or later - on older JVMs ARIty falls back to platform threads.
+ */
+public class VirtualThreadsSample extends CallController {
+	private final static Logger logger = LoggerFactory.getLogger(VirtualThreadsSample.class);
+
+	@Override
+	public CompletableFuture<Void> run() {
+		try {
+			answer().run().join();
+			var pb = play("hello-world").loop(2).run().join();
+			logger.info("finished playback! id: " + pb.getPlayback().getId() + " on " + Thread.currentThread());
+			hangup().run().join();
+			return CompletableFuture.completedFuture(null);
+		} catch (Throwable t) {
+			logger.error("Error running call", t);
+			return CompletableFuture.failedFuture(t);
+		}
+	}
+
+	public static void main(String[] args) throws ConnectionFailedException, URISyntaxException {
+		ARIty arity = new ARIty(b -> b.setUri("http://127.0.0.1:8088/").setAppName("stasisApp")
+				.setLogin("userid").setPassword("secret").setVirtualThreads(true));
+		logger.info("websocket is connected to: " + arity.getConnetion());
+
+		arity.registerVoiceApp(VirtualThreadsSample::new);
+
+		while (true) {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				System.out.println("Thread is not sleeping");
+			}
+		}
+	}
+}
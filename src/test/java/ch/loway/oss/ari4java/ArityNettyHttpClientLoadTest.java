@@ -0,0 +1,151 @@
+package ch.loway.oss.ari4java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpServer;
+
+import ch.loway.oss.ari4java.tools.HttpResponseHandler;
+import ch.loway.oss.ari4java.tools.RestException;
+
+/**
+ * Load the ARI HTTP client against a local stub HTTP server, that responds slowly and tracks how many requests it
+ * handles concurrently
+ */
+public class ArityNettyHttpClientLoadTest {
+
+	private final static Logger logger = LoggerFactory.getLogger(ArityNettyHttpClientLoadTest.class);
+	private static final int REQUESTS = 200;
+	private static final long RESPONSE_DELAY = 20;
+
+	private HttpServer server;
+	private ExecutorService serverThreads = Executors.newCachedThreadPool();
+	private AtomicInteger concurrent = new AtomicInteger();
+	private AtomicInteger maxConcurrent = new AtomicInteger();
+	private ArityNettyHttpClient client;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1000);
+		server.setExecutor(serverThreads);
+		server.createContext("/", exchange -> {
+			int current = concurrent.incrementAndGet();
+			maxConcurrent.accumulateAndGet(current, Math::max);
+			try {
+				Thread.sleep(exchange.getRequestURI().getPath().endsWith("/slow") ? 2000 : RESPONSE_DELAY);
+				byte[] body = "{}".getBytes();
+				exchange.getResponseHeaders().add("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, body.length);
+				exchange.getResponseBody().write(body);
+			} catch (InterruptedException e) {
+			} finally {
+				concurrent.decrementAndGet();
+				exchange.close();
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		if (client != null)
+			client.destroy();
+		server.stop(0);
+		serverThreads.shutdownNow();
+	}
+
+	@Test(timeout = 60000)
+	public void testMaxInFlightRequests() throws Exception {
+		client = createClient(c -> c.setMaxInFlightRequests(4));
+		long start = System.nanoTime();
+		ArrayList<CompletableFuture<String>> responses = new ArrayList<>();
+		for (int i = 0; i < REQUESTS; i++)
+			responses.add(get("/channels/" + i));
+		CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+		logger.info("{} requests with 4 in flight took {}ms, server saw at most {} concurrent requests", REQUESTS,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), maxConcurrent.get());
+		assertTrue("Server saw " + maxConcurrent.get() + " concurrent requests", maxConcurrent.get() <= 4);
+		assertEquals(0, client.getInFlightRequests());
+		assertEquals(0, client.getWaitingRequests());
+	}
+
+	@Test(timeout = 60000)
+	public void testUnlimitedRequests() throws Exception {
+		client = createClient(c -> c);
+		ArrayList<CompletableFuture<String>> responses = new ArrayList<>();
+		for (int i = 0; i < REQUESTS; i++)
+			responses.add(get("/channels/" + i));
+		CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+		logger.info("{} unlimited requests, server saw at most {} concurrent requests", REQUESTS, maxConcurrent.get());
+		assertTrue(maxConcurrent.get() > 4);
+	}
+
+	@Test(timeout = 10000)
+	public void testRequestTimeout() throws Exception {
+		client = createClient(c -> c.setRequestTimeout(Duration.ofMillis(200)).setMaxInFlightRequests(1));
+		long start = System.nanoTime();
+		Throwable error = get("/channels/slow").handle((r, t) -> t).get();
+		assertTrue("Unexpected failure " + error, error instanceof RestException);
+		assertEquals(0, ((RestException) error).getCode());
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+		// the timed out request keeps its slot while the server is still handling it
+		assertEquals(1, client.getInFlightRequests());
+		// so the next request waits for it, and times out without being sent
+		CompletableFuture<String> next = get("/channels/1");
+		assertEquals(1, client.getWaitingRequests());
+		assertTrue(next.handle((r, t) -> t).get() instanceof RestException);
+		assertEquals(1, maxConcurrent.get());
+		while (client.getInFlightRequests() > 0)
+			Thread.sleep(10);
+		assertTrue("Slot was released before the timed out request completed",
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 2000);
+		assertEquals("{}", get("/channels/1").get(5, TimeUnit.SECONDS));
+		assertEquals(1, maxConcurrent.get());
+		assertEquals(0, client.getInFlightRequests());
+	}
+
+	private ArityNettyHttpClient createClient(UnaryOperator<ArityNettyHttpClient> config)
+			throws Exception {
+		ArityNettyHttpClient client = config.apply(new ArityNettyHttpClient());
+		client.initialize("http://127.0.0.1:" + server.getAddress().getPort() + "/", "user", "pass");
+		return client;
+	}
+
+	private CompletableFuture<String> get(String path) {
+		CompletableFuture<String> response = new CompletableFuture<>();
+		// proxy the handler, so the test does not depend on the exact handler interface of the ari4java version
+		HttpResponseHandler handler = (HttpResponseHandler) Proxy.newProxyInstance(
+				HttpResponseHandler.class.getClassLoader(), new Class<?>[] { HttpResponseHandler.class },
+				(proxy, m, args) -> {
+					switch (m.getName()) {
+					case "onSuccess":
+						response.complete(args[0] instanceof byte[] ? new String((byte[]) args[0]) : (String) args[0]);
+						break;
+					case "onFailure":
+						response.completeExceptionally((Throwable) args[0]);
+						break;
+					}
+					return m.getReturnType() == long.class ? 0L : null;
+				});
+		client.httpActionAsync(path, "GET", new ArrayList<>(), null, new ArrayList<>(), handler, false);
+		return response;
+	}
+}
@@ -0,0 +1,92 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.loway.oss.ari4java.generated.models.ChannelCreated;
+import ch.loway.oss.ari4java.generated.models.ChannelDestroyed;
+import ch.loway.oss.ari4java.generated.models.Message;
+import ch.loway.oss.ari4java.generated.models.StasisStart;
+import io.cloudonix.test.support.Events;
+
+public class ARItyClusterTest {
+
+	private ARItyCluster cluster;
+	private ARIty a, b;
+
+	@Before
+	public void setUp() throws Exception {
+		cluster = new ARItyCluster();
+		a = cluster.addMember(builder -> builder.setAppName("cluster-test"));
+		b = cluster.addMember(builder -> builder.setAppName("cluster-test"));
+	}
+
+	@After
+	public void tearDown() {
+		cluster.disconnect();
+	}
+
+	@Test(timeout = 5000)
+	public void testRoutesByOwner() throws InterruptedException {
+		a.onSuccess(event(ChannelCreated.class, "c1", "asterisk-a"));
+		a.onSuccess(event(ChannelCreated.class, "c2", "asterisk-a"));
+		b.onSuccess(event(ChannelCreated.class, "c3", "asterisk-b"));
+		waitFor(() -> cluster.getChannelCount(a) == 2 && cluster.getChannelCount(b) == 1);
+		assertSame(a, cluster.getOwner("c1"));
+		assertSame(b, cluster.getOwner("c3"));
+		assertNull(cluster.getOwner("c4"));
+		assertSame(a, cluster.getMember("asterisk-a"));
+		assertEquals("asterisk-b", cluster.getAsteriskId(b));
+		assertSame(b, cluster.leastLoaded());
+
+		a.onSuccess(event(ChannelDestroyed.class, "c1", "asterisk-a"));
+		a.onSuccess(event(ChannelDestroyed.class, "c2", "asterisk-a"));
+		waitFor(() -> cluster.getChannelCount(a) == 0);
+		assertNull(cluster.getOwner("c1"));
+		assertSame(a, cluster.leastLoaded());
+	}
+
+	@Test(timeout = 5000)
+	public void testGeneralHandlersOnAllMembers() throws Exception {
+		AtomicInteger received = new AtomicInteger();
+		Runnable remove = cluster.addGeneralEventHandler(ChannelCreated.class, (e, h) -> received.incrementAndGet());
+		ARIty c = cluster.addMember(builder -> builder.setAppName("cluster-test"));
+		a.onSuccess(event(ChannelCreated.class, "c1", "asterisk-a"));
+		b.onSuccess(event(ChannelCreated.class, "c2", "asterisk-b"));
+		c.onSuccess(event(ChannelCreated.class, "c3", "asterisk-c"));
+		waitFor(() -> received.get() == 3);
+
+		remove.run();
+		a.onSuccess(event(ChannelCreated.class, "c4", "asterisk-a"));
+		waitFor(() -> cluster.getOwner("c4") != null);
+		assertEquals(3, received.get());
+	}
+
+	@Test(timeout = 5000)
+	public void testStasisStartClaimsChannel() throws InterruptedException {
+		a.registerVoiceApp(call -> {});
+		a.onSuccess(event(StasisStart.class, "c1", "asterisk-a"));
+		waitFor(() -> cluster.getOwner("c1") != null);
+		assertSame(a, cluster.getOwner("c1"));
+		assertEquals(1, cluster.getChannelCount(a));
+	}
+
+	private static <T extends Message> T event(Class<T> type, String channelId, String asteriskId) {
+		return Events.model(type, Map.of("channel", Events.channel(channelId), "type", type.getSimpleName(),
+				"asterisk_id", asteriskId));
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		while (!condition.getAsBoolean())
+			Thread.sleep(10);
+	}
+}
@@ -0,0 +1,87 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+public class AdmissionControllerTest {
+
+	private List<String> started = new CopyOnWriteArrayList<>();
+	private List<String> rejected = new CopyOnWriteArrayList<>();
+
+	private void admit(AdmissionController controller, String channelId) {
+		controller.admit(channelId, () -> started.add(channelId), () -> rejected.add(channelId));
+	}
+
+	@Test
+	public void testConcurrencyLimitRejects() {
+		AdmissionController controller = new AdmissionController().setMaxConcurrentCalls(2);
+		admit(controller, "c1");
+		admit(controller, "c2");
+		admit(controller, "c3");
+		assertEquals(List.of("c1", "c2"), started);
+		assertEquals(List.of("c3"), rejected);
+		controller.release("c1");
+		admit(controller, "c4");
+		assertEquals(List.of("c1", "c2", "c4"), started);
+		assertEquals(3, controller.getAdmittedCount());
+		assertEquals(1, controller.getRejectedCount());
+	}
+
+	@Test
+	public void testQueuedCallsAdmittedWhenCallsEnd() {
+		AdmissionController controller = new AdmissionController().setMaxConcurrentCalls(1)
+				.setQueue(1, Duration.ofSeconds(10));
+		admit(controller, "c1");
+		admit(controller, "c2");
+		admit(controller, "c3");
+		assertEquals(List.of("c1"), started);
+		assertEquals(List.of("c3"), rejected);
+		assertEquals(1, controller.getQueuedCalls());
+		controller.release("c1");
+		assertEquals(List.of("c1", "c2"), started);
+		assertEquals(0, controller.getQueuedCalls());
+	}
+
+	@Test(timeout = 5000)
+	public void testQueuedCallsExpire() throws InterruptedException {
+		AdmissionController controller = new AdmissionController().setMaxConcurrentCalls(1)
+				.setQueue(5, Duration.ofMillis(100));
+		admit(controller, "c1");
+		admit(controller, "c2");
+		while (rejected.isEmpty())
+			Thread.sleep(10);
+		assertEquals(List.of("c2"), rejected);
+		controller.release("c1");
+		assertEquals(List.of("c1"), started);
+	}
+
+	@Test(timeout = 5000)
+	public void testRateLimit() throws InterruptedException {
+		AdmissionController controller = new AdmissionController().setMaxCallsPerSecond(20)
+				.setQueue(100, Duration.ofSeconds(5));
+		for (int i = 0; i < 30; i++)
+			admit(controller, "c" + i);
+		assertEquals(20, started.size()); // a burst of one second's calls
+		while (started.size() < 30)
+			Thread.sleep(10);
+		assertEquals(0, rejected.size());
+	}
+
+	@Test
+	public void testAdaptiveLimit() throws InterruptedException {
+		AdmissionController controller = new AdmissionController().setMaxConcurrentCalls(100)
+				.setAdaptiveLimit(Duration.ofMillis(50), 10);
+		for (int i = 0; i < 5; i++) {
+			controller.observeLatency(Duration.ofMillis(500).toNanos());
+			Thread.sleep(110);
+		}
+		controller.observeLatency(Duration.ofMillis(500).toNanos());
+		int limit = controller.getConcurrencyLimit();
+		assertEquals(true, limit < 100 && limit >= 10);
+	}
+}
@@ -0,0 +1,162 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.loway.oss.ari4java.generated.models.Channel;
+import io.cloudonix.test.support.Events;
+import io.cloudonix.test.support.FakeAsterisk;
+
+/**
+ * Caching of channel variable reads, against a fake Asterisk server
+ */
+public class CallStateVariablesTest {
+
+	private FakeAsterisk asterisk;
+	private ARIty arity;
+	private BlockingQueue<CallState> calls = new LinkedBlockingQueue<>();
+
+	@Before
+	public void setUp() throws Exception {
+		asterisk = new FakeAsterisk().setLatency(Duration.ofMillis(1), Duration.ofMillis(5)).start();
+		arity = new ARIty(b -> b.setUri(asterisk.getAriURL()).setAppName("stasisApp").setLogin("test")
+				.setPassword("test").setUnsetVariableCacheTtl(Duration.ofMillis(300)).setPrefetchVariables("CALLERID(num)")
+				.setRetryPolicy(new RetryPolicy().setMaxRetries(0)));
+		while (arity.getConnectionState() != ARIty.ConnectionState.CONNECTED)
+			Thread.sleep(10);
+		arity.registerVoiceApp(call -> calls.add(call.getCallState()));
+	}
+
+	@After
+	public void tearDown() {
+		arity.disconnect();
+		asterisk.close();
+	}
+
+	private CallState startCall(Map<String, String> variables) throws InterruptedException {
+		asterisk.startCall("1000", "100", variables);
+		return calls.take();
+	}
+
+	@Test(timeout = 5000)
+	public void testUnsetVariableIsRemembered() throws InterruptedException {
+		CallState callState = startCall(Map.of());
+		assertNull(callState.readVariable("SIP_HEADER(X-Missing)").join());
+		long requests = asterisk.getRequestCount();
+		CompletableFuture<String> cached = callState.readVariable("SIP_HEADER(X-Missing)");
+		assertTrue("Unset variable should be answered from the cache", cached.isDone());
+		assertNull(cached.join());
+		assertEquals(requests, asterisk.getRequestCount());
+		Thread.sleep(400);
+		assertNull(callState.readVariable("SIP_HEADER(X-Missing)").join());
+		assertEquals("Unset variable should be read again after the TTL", requests + 1, asterisk.getRequestCount());
+	}
+
+	@Test(timeout = 5000)
+	public void testReadsSetAndEmptyVariables() throws InterruptedException {
+		CallState callState = startCall(Map.of("SIP_HEADER(X-Foo)", "foo", "EMPTY", ""));
+		assertEquals("foo", callState.readVariable("SIP_HEADER(X-Foo)").join());
+		assertEquals("", callState.readVariable("EMPTY").join());
+		var values = callState.readVariables(List.of("SIP_HEADER(X-Foo)", "EMPTY", "UNSET")).join();
+		assertEquals("foo", values.get("SIP_HEADER(X-Foo)"));
+		assertEquals("", values.get("EMPTY"));
+		assertNull(values.get("UNSET"));
+	}
+
+	@Test(timeout = 5000)
+	public void testSettingClearsUnsetEntry() throws InterruptedException {
+		CallState callState = startCall(Map.of());
+		assertNull(callState.readVariable("FOO").join());
+		callState.setVariable("FOO", "bar");
+		assertEquals("bar", callState.readVariable("FOO").join());
+		while (!"bar".equals(asterisk.getVariable(callState.getChannelId(), "FOO")))
+			Thread.sleep(10);
+
+		// set by another call state - ARIty caches the value from the ChannelVarset event
+		assertNull(callState.readVariable("BAZ").join());
+		new CallState(Events.channel(callState.getChannelId()), arity).setVariable("BAZ", "qux");
+		while (callState.getVariable("BAZ") == null)
+			Thread.sleep(10);
+		assertEquals("qux", callState.readVariable("BAZ").join());
+	}
+
+	@Test(timeout = 5000)
+	public void testReadVariablesSkipsUnset() throws InterruptedException {
+		CallState callState = startCall(Map.of());
+		callState.cacheVariable("A", "1");
+		assertNull(callState.readVariable("B").join());
+		var values = callState.readVariables(List.of("A", "B"));
+		assertTrue(values.isDone());
+		assertEquals("1", values.join().get("A"));
+		assertNull(values.join().get("B"));
+	}
+
+	@Test(timeout = 5000)
+	public void testFailedReadsAreNotCached() throws InterruptedException {
+		CallState callState = startCall(Map.of());
+		callState.setVariable("FOO", "bar").join();
+		callState = new CallState(Events.channel(callState.getChannelId()), arity); // without the cached value
+		asterisk.injectFailure("GET /ari/channels/.*/variable", 500, 1);
+		assertNull(callState.readVariable("FOO").join()); // resolves to null, as the read failed
+		CompletableFuture<String> retry = callState.readVariable("FOO");
+		assertFalse("A failed read should not be answered from the cache", retry.isDone());
+		assertEquals("bar", retry.join());
+		assertTrue(callState.readVariable("FOO").isDone());
+	}
+
+	@Test(timeout = 5000)
+	public void testFailedReadDoesNotFailOtherVariables() throws InterruptedException {
+		CallState callState = startCall(Map.of("A", "1", "B", "2"));
+		asterisk.injectFailure("GET /ari/channels/.*/variable", 500, 1);
+		var values = callState.readVariables(List.of("A", "B")).join(); // the combined read fails, then each is read
+		assertEquals(2, values.size());
+		assertEquals("1", values.get("A"));
+		assertEquals("2", values.get("B"));
+	}
+
+	@Test(timeout = 5000)
+	public void testChannelVarsAreCached() {
+		var channel = Events.model(Channel.class, Map.of("id", "c2", "name", "PJSIP/c2", "state", "Up",
+				"channelvars", Map.of("ACCOUNT", "42")));
+		var state = new CallState(channel, arity);
+		var snapshot = state.prefetchVariables(List.of("ACCOUNT"));
+		assertTrue("Variables sent with the channel should not be read from ARI", snapshot.isDone());
+		assertEquals(42, snapshot.join().getInt("ACCOUNT", 0));
+	}
+
+	@Test(timeout = 5000)
+	public void testControllerRunsWithPrefetchedVariables() throws Exception {
+		CompletableFuture<VariableSnapshot> seen = new CompletableFuture<>();
+		arity.registerVoiceApp(() -> new CallController() {
+			@Override
+			protected List<String> getPrefetchVariables() {
+				return List.of("ACCOUNT", "SIP_HEADER(X-Missing)");
+			}
+
+			@Override
+			public CompletableFuture<Void> run() {
+				seen.complete(getVariables());
+				return CompletableFuture.completedFuture(null);
+			}
+		});
+		asterisk.startCall("1000", "100", Map.of("ACCOUNT", "acme"));
+		VariableSnapshot snapshot = seen.join();
+		assertEquals("1000", snapshot.get("CALLERID(num)"));
+		assertEquals("acme", snapshot.get("ACCOUNT"));
+		assertTrue(snapshot.contains("SIP_HEADER(X-Missing)"));
+		assertFalse(snapshot.isSet("SIP_HEADER(X-Missing)"));
+	}
+}
@@ -0,0 +1,107 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.cloudonix.test.support.FakeAsterisk;
+
+public class CampaignTest {
+
+	private FakeAsterisk asterisk;
+	private ARIty arity;
+
+	@Before
+	public void setUp() throws Exception {
+		asterisk = new FakeAsterisk().setLatency(Duration.ofMillis(1), Duration.ofMillis(5)).start();
+		arity = new ARIty(b -> b.setUri(asterisk.getAriURL()).setAppName("stasisApp").setLogin("test").setPassword("test"));
+		while (arity.getConnectionState() != ARIty.ConnectionState.CONNECTED)
+			Thread.sleep(10);
+	}
+
+	@After
+	public void tearDown() {
+		arity.disconnect();
+		asterisk.close();
+	}
+
+	@Test(timeout = 10000)
+	public void testOutcomes() {
+		asterisk.setDialResult("PJSIP/answer", "ANSWER", Duration.ofMillis(20));
+		asterisk.setDialResult("PJSIP/busy", "BUSY", Duration.ofMillis(20));
+		asterisk.setDialResult("PJSIP/noanswer", "NOANSWER", Duration.ofMillis(20));
+		asterisk.setDialResult("PJSIP/unavailable", "CHANUNAVAIL", Duration.ofMillis(20));
+		AtomicInteger answered = new AtomicInteger();
+		List<Campaign.Batch> reported = new CopyOnWriteArrayList<>();
+		Campaign campaign = new Campaign(arity).setCallerId("1000").setBatchSize(4)
+				.setAnswerHandler(call -> {
+					answered.incrementAndGet();
+					call.hangup().run();
+				}).setProgressListener(reported::add);
+		Campaign.Statistics stats = campaign.run(IntStream.range(0, 3).boxed().flatMap(i ->
+				Stream.of("PJSIP/answer", "PJSIP/busy", "PJSIP/noanswer", "PJSIP/unavailable"))).join();
+		assertEquals(12, stats.getDialed());
+		assertEquals(3, stats.getAnswered());
+		assertEquals(3, stats.getBusy());
+		assertEquals(3, stats.getNoAnswer());
+		assertEquals(3, stats.getUnavailable());
+		assertEquals(0, stats.getFailed());
+		assertEquals(3, answered.get());
+		assertEquals(3, reported.size());
+		for (Campaign.Batch batch : reported) {
+			assertTrue(batch.isComplete());
+			assertEquals(1, batch.getAnswered());
+		}
+		assertEquals(0, campaign.getActiveCalls());
+	}
+
+	@Test(timeout = 10000)
+	public void testPacing() {
+		asterisk.setDialResult("PJSIP/answer", "ANSWER", Duration.ofMillis(100));
+		AtomicInteger active = new AtomicInteger(), maxActive = new AtomicInteger();
+		Campaign campaign = new Campaign(arity).setMaxCallsPerSecond(50).setMaxConcurrentCalls(3)
+				.setAnswerHandler(call -> {
+					maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+					call.hangup().run().whenComplete((v, t) -> active.decrementAndGet());
+				});
+		long start = System.currentTimeMillis();
+		Campaign.Statistics stats = campaign.run(Stream.generate(() -> "PJSIP/answer").limit(20)).join();
+		assertEquals(20, stats.getAnswered());
+		assertTrue("Campaign should not exceed 50 calls per second", System.currentTimeMillis() - start >= 350);
+		assertTrue("Campaign should not exceed 3 concurrent calls", maxActive.get() <= 3);
+	}
+
+	@Test(timeout = 10000)
+	public void testStop() {
+		asterisk.setDialResult("PJSIP/answer", "ANSWER", Duration.ofMillis(20));
+		Campaign campaign = new Campaign(arity).setMaxConcurrentCalls(2);
+		AtomicInteger generated = new AtomicInteger();
+		Campaign.Statistics stats = campaign.setProgressListener(batch -> campaign.stop()).setBatchSize(2)
+				.run(Stream.generate(() -> {
+					generated.incrementAndGet();
+					return "PJSIP/answer";
+				})).join();
+		assertEquals(generated.get(), stats.getDialed());
+		assertEquals(stats.getDialed(), stats.getAnswered());
+		assertTrue("Campaign should stop dialing after the first batch", stats.getDialed() < 5);
+	}
+
+	@Test(timeout = 10000)
+	public void testFailedOriginatesStopWaitingForStasis() {
+		asterisk.injectFailure("POST /ari/channels(/[^/]+)?", 400, -1);
+		Campaign.Statistics stats = new Campaign(arity).run(Stream.generate(() -> "PJSIP/answer").limit(5)).join();
+		assertEquals(5, stats.getDialed());
+		assertEquals(5, stats.getFailed());
+		assertEquals(0, arity.getStasisStartListenerCount());
+	}
+}
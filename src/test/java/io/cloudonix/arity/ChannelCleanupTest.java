@@ -0,0 +1,64 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.loway.oss.ari4java.generated.models.ChannelDestroyed;
+import ch.loway.oss.ari4java.generated.models.ChannelStateChange;
+import ch.loway.oss.ari4java.generated.models.StasisEnd;
+import io.cloudonix.arity.errors.ChannelNotFoundException;
+import io.cloudonix.test.support.Events;
+
+public class ChannelCleanupTest {
+
+	private ARIty arity;
+
+	@Before
+	public void setUp() throws Exception {
+		arity = new ARIty(b -> b.setAppName("cleanup-test").setChannelCleanupGrace(Duration.ofMillis(200)));
+	}
+
+	@After
+	public void tearDown() {
+		arity.disconnect();
+	}
+
+	@Test(timeout = 5000)
+	public void testHandlersRemovedAfterStasisEnd() throws InterruptedException {
+		arity.addEventHandler(ChannelStateChange.class, "c1", (e,h) -> {});
+		arity.addEventHandler(ChannelStateChange.class, "c2", (e,h) -> {});
+		assertEquals(2, arity.getLiveChannelCount());
+		arity.onSuccess(Events.channelEvent(StasisEnd.class, "c1"));
+		assertEquals(1, arity.getPendingCleanupCount());
+		assertEquals(2, arity.getLiveChannelCount()); // still in the grace period
+		while (arity.getPendingCleanupCount() > 0)
+			Thread.sleep(50);
+		assertEquals(1, arity.getLiveChannelCount());
+	}
+
+	@Test(timeout = 5000)
+	public void testStasisListenerFailsWhenChannelDestroyed() throws InterruptedException {
+		CompletableFuture<CallState> waiter = arity.waitForNewCallState("c3");
+		assertEquals(1, arity.getStasisStartListenerCount());
+		arity.onSuccess(Events.channelEvent(ChannelDestroyed.class, "c3"));
+		try {
+			waiter.get(3, TimeUnit.SECONDS);
+			fail("Waiting for stasis should fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ChannelNotFoundException);
+		} catch (Exception e) {
+			throw new AssertionError("Unexpected error " + e);
+		}
+		assertEquals(0, arity.getStasisStartListenerCount());
+	}
+}
@@ -0,0 +1,161 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.cloudonix.arity.DialState.State;
+
+public class DialStateTest {
+
+	private static final int THREADS = 8, ROUNDS = 2000;
+	private ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Run tasks concurrently, starting them together
+	 */
+	private List<Boolean> race(List<Runnable> tasks) throws Exception {
+		CyclicBarrier start = new CyclicBarrier(tasks.size());
+		List<Future<Boolean>> results = new ArrayList<>();
+		for (Runnable task : tasks)
+			results.add(executor.submit(() -> {
+				start.await();
+				task.run();
+				return true;
+			}));
+		List<Boolean> out = new ArrayList<>();
+		for (Future<Boolean> result : results)
+			out.add(result.get());
+		return out;
+	}
+
+	@Test(timeout = 60000)
+	public void testListenersRegisteredDuringTransitionRunOnce() throws Exception {
+		for (int round = 0; round < ROUNDS; round++) {
+			DialState state = new DialState();
+			AtomicInteger[] calls = new AtomicInteger[THREADS - 1];
+			List<Runnable> tasks = new ArrayList<>();
+			for (int i = 0; i < calls.length; i++) {
+				AtomicInteger count = calls[i] = new AtomicInteger();
+				tasks.add(() -> state.on(State.CONNECTED, count::incrementAndGet));
+			}
+			tasks.add(() -> {
+				state.enter(State.RINGING);
+				state.enter(State.CONNECTED);
+			});
+			race(tasks);
+			for (AtomicInteger count : calls)
+				assertEquals(1, count.get());
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testStateIsEnteredOnce() throws Exception {
+		for (int round = 0; round < ROUNDS; round++) {
+			DialState state = new DialState();
+			AtomicInteger entered = new AtomicInteger(), listened = new AtomicInteger();
+			state.on(State.DISCONNECTED, listened::incrementAndGet);
+			List<Runnable> tasks = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++)
+				tasks.add(() -> {
+					if (state.enter(State.DISCONNECTED))
+						entered.incrementAndGet();
+				});
+			race(tasks);
+			assertEquals(1, entered.get());
+			assertEquals(1, listened.get());
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testConnectAndFailAreExclusive() throws Exception {
+		for (int round = 0; round < ROUNDS; round++) {
+			DialState state = new DialState();
+			AtomicInteger connected = new AtomicInteger(), failed = new AtomicInteger();
+			state.on(State.CONNECTED, connected::incrementAndGet);
+			state.on(State.FAILED, failed::incrementAndGet);
+			race(List.of(() -> state.enter(State.CONNECTED), () -> state.enter(State.FAILED)));
+			assertEquals(1, connected.get() + failed.get());
+			assertTrue(state.is(State.CONNECTED) != state.is(State.FAILED));
+		}
+	}
+
+	@Test
+	public void testCancelledDialDoesNotConnect() {
+		DialState state = new DialState();
+		AtomicInteger connected = new AtomicInteger();
+		state.on(State.CONNECTED, connected::incrementAndGet);
+		assertTrue(state.enter(State.CANCELLED));
+		assertFalse(state.enter(State.RINGING));
+		assertFalse(state.enter(State.CONNECTED));
+		assertEquals(0, connected.get());
+		assertTrue(state.enter(State.DISCONNECTED));
+		assertTrue(state.isEnded());
+	}
+
+	@Test
+	public void testEndActionRunsBeforeListenersOfFirstEndOnly() {
+		DialState state = new DialState();
+		List<String> events = new ArrayList<>();
+		state.on(State.CANCELLED, () -> events.add("cancelled"));
+		state.on(State.DISCONNECTED, () -> events.add("disconnected"));
+		assertTrue(state.enter(State.CANCELLED, () -> events.add("end cancelled")));
+		assertTrue(state.enter(State.DISCONNECTED, () -> events.add("end disconnected")));
+		assertFalse(state.enter(State.CANCELLED, () -> events.add("end cancelled again")));
+		assertEquals(List.of("end cancelled", "cancelled", "disconnected"), events);
+	}
+
+	@Test(timeout = 60000)
+	public void testListenersRegisteredDuringEndActionRunAfterIt() throws Exception {
+		for (int round = 0; round < ROUNDS; round++) {
+			DialState state = new DialState();
+			AtomicInteger ended = new AtomicInteger(), early = new AtomicInteger();
+			List<Runnable> tasks = new ArrayList<>();
+			for (int i = 0; i < THREADS - 1; i++)
+				tasks.add(() -> state.on(State.DISCONNECTED, () -> {
+					if (ended.get() == 0)
+						early.incrementAndGet();
+				}));
+			tasks.add(() -> state.enter(State.DISCONNECTED, ended::incrementAndGet));
+			race(tasks);
+			assertEquals("Listeners should not run before the end action", 0, early.get());
+		}
+	}
+
+	@Test
+	public void testLateListenerRunsImmediately() {
+		DialState state = new DialState();
+		state.enter(State.ACTIVE);
+		AtomicInteger active = new AtomicInteger();
+		state.on(State.ACTIVE, active::incrementAndGet);
+		assertEquals(1, active.get());
+		state.enter(State.ACTIVE);
+		assertEquals(1, active.get());
+	}
+
+	@Test
+	public void testFailingListenerDoesNotStopOthers() {
+		DialState state = new DialState();
+		AtomicInteger ran = new AtomicInteger();
+		state.on(State.RINGING, () -> { throw new IllegalStateException("test"); });
+		state.on(State.RINGING, ran::incrementAndGet);
+		state.enter(State.RINGING);
+		assertEquals(1, ran.get());
+	}
+}
@@ -0,0 +1,89 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ch.loway.oss.ari4java.generated.models.ChannelStateChange;
+import io.cloudonix.test.support.Events;
+
+public class EventOverflowTest {
+
+	private ARIty arity;
+
+	@After
+	public void tearDown() {
+		arity.disconnect();
+	}
+
+	private CountDownLatch blockLane(String channelId) throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1), blocked = new CountDownLatch(1);
+		arity.addEventHandler(ChannelStateChange.class, channelId, (e,h) -> {
+			h.unregister();
+			blocked.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException ex) {
+			}
+		});
+		arity.onSuccess(Events.channelEvent(ChannelStateChange.class, channelId));
+		assertTrue(blocked.await(3, TimeUnit.SECONDS));
+		return release;
+	}
+
+	@Test(timeout = 10000)
+	public void testDropWhenLaneIsFull() throws Exception {
+		arity = new ARIty(b -> b.setAppName("overflow-test").setEventLanes(1).setEventLaneQueueSize(4)
+				.setEventOverflowPolicy(ARIty.EventOverflowPolicy.DROP));
+		CountDownLatch release = blockLane("c1");
+		AtomicInteger handled = new AtomicInteger();
+		arity.addEventHandler(ChannelStateChange.class, "c1", (e,h) -> handled.incrementAndGet());
+		for (int i = 0; i < 10; i++)
+			arity.onSuccess(Events.channelEvent(ChannelStateChange.class, "c1"));
+		assertEquals(6, arity.getDroppedEventCount());
+		release.countDown();
+		while (handled.get() < 4)
+			Thread.sleep(10);
+		Thread.sleep(50);
+		assertEquals(4, handled.get());
+	}
+
+	@Test(timeout = 10000)
+	public void testQueueWhenReadsCanNotBePaused() throws Exception {
+		arity = new ARIty(b -> b.setAppName("overflow-test").setEventLanes(1).setEventLaneQueueSize(4));
+		CountDownLatch release = blockLane("c1");
+		AtomicInteger handled = new AtomicInteger();
+		arity.addEventHandler(ChannelStateChange.class, "c1", (e,h) -> handled.incrementAndGet());
+		for (int i = 0; i < 10; i++) // not connected, so nothing to pause: events are queued without blocking
+			arity.onSuccess(Events.channelEvent(ChannelStateChange.class, "c1"));
+		assertEquals(0, arity.getDroppedEventCount());
+		release.countDown();
+		while (handled.get() < 10)
+			Thread.sleep(10);
+	}
+
+	@Test(timeout = 10000)
+	public void testUnregisteredHandlerSkipsQueuedEvents() throws Exception {
+		arity = new ARIty(b -> b.setAppName("overflow-test").setEventLanes(1));
+		CountDownLatch release = blockLane("c1");
+		AtomicInteger handled = new AtomicInteger();
+		arity.addEventHandler(ChannelStateChange.class, "c1", (e,h) -> {
+			h.unregister();
+			handled.incrementAndGet();
+		});
+		for (int i = 0; i < 3; i++) // queued while the handler is still registered
+			arity.onSuccess(Events.channelEvent(ChannelStateChange.class, "c1"));
+		CountDownLatch drained = new CountDownLatch(1);
+		arity.addEventHandler(ChannelStateChange.class, "c1", (e,h) -> drained.countDown());
+		arity.onSuccess(Events.channelEvent(ChannelStateChange.class, "c1"));
+		release.countDown();
+		assertTrue(drained.await(3, TimeUnit.SECONDS));
+		assertEquals(1, handled.get());
+	}
+}
@@ -0,0 +1,91 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.loway.oss.ari4java.ArityNettyHttpClient;
+import ch.loway.oss.ari4java.generated.models.ChannelStateChange;
+import io.cloudonix.arity.metrics.ArityMetrics;
+import io.cloudonix.test.support.Events;
+
+public class MetricsTest {
+
+	private List<String> dispatched = new CopyOnWriteArrayList<>();
+	private Map<String, Supplier<Number>> gauges = new ConcurrentHashMap<>();
+	private Map<String, Supplier<Double>> counters = new ConcurrentHashMap<>();
+	private ARIty arity;
+
+	@Before
+	public void setUp() throws Exception {
+		ArityMetrics metrics = new ArityMetrics() {
+			@Override
+			public boolean isEnabled() {
+				return true;
+			}
+
+			@Override
+			public void eventDispatched(String eventType, long latencyNanos) {
+				dispatched.add(eventType);
+			}
+
+			@Override
+			public void gauge(String name, Supplier<Number> value) {
+				gauges.put(name, value);
+			}
+
+			@Override
+			public <T> void counter(String name, T source, ToDoubleFunction<T> count) {
+				counters.put(name, () -> count.applyAsDouble(source));
+			}
+		};
+		arity = new ARIty(b -> b.setAppName("metrics-test").setMetrics(metrics)
+				.setAdmissionController(new AdmissionController().setMaxConcurrentCalls(1)));
+	}
+
+	@After
+	public void tearDown() {
+		arity.disconnect();
+	}
+
+	@Test(timeout = 5000)
+	public void testEventDispatchReported() throws InterruptedException {
+		CountDownLatch handled = new CountDownLatch(1);
+		arity.addEventHandler(ChannelStateChange.class, "c1", (e,h) -> handled.countDown());
+		assertEquals(1, gauges.get("arity.channels.live").get().intValue());
+		arity.onSuccess(Events.channelEvent(ChannelStateChange.class, "c1"));
+		assertTrue(handled.await(3, TimeUnit.SECONDS));
+		assertEquals(List.of("ChannelStateChange"), dispatched);
+	}
+
+	@Test
+	public void testTotalsReportedAsCounters() {
+		assertEquals(0, counters.get("arity.calls.admitted.total").get(), 0);
+		assertEquals(0, counters.get("arity.ws.reconnects").get(), 0);
+		assertFalse(gauges.containsKey("arity.calls.admitted.total"));
+		assertFalse(gauges.containsKey("arity.ws.reconnects"));
+	}
+
+	@Test
+	public void testRestEndpointsAreTemplated() {
+		assertEquals("POST /channels/{id}/answer", ArityNettyHttpClient.describeEndpoint("POST", "/channels/1596541.12/answer"));
+		assertEquals("POST /channels/create", ArityNettyHttpClient.describeEndpoint("POST", "/channels/create"));
+		assertEquals("POST /channels/{id}/snoop/{id}", ArityNettyHttpClient.describeEndpoint("POST", "/channels/c1/snoop/s1"));
+		assertEquals("DELETE /bridges/{id}", ArityNettyHttpClient.describeEndpoint("DELETE", "http://asterisk:8088/ari/bridges/b1?x=1"));
+		assertEquals("POST /recordings/live/{id}/stop", ArityNettyHttpClient.describeEndpoint("POST", "/recordings/live/rec-1/stop"));
+		assertEquals("GET /asterisk/info", ArityNettyHttpClient.describeEndpoint("GET", "/asterisk/info"));
+	}
+}
@@ -0,0 +1,119 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ch.loway.oss.ari4java.tools.RestException;
+import io.cloudonix.arity.Operation.CompletionStrategy;
+import io.cloudonix.arity.helpers.LaneExecutor;
+
+/**
+ * Checks the thread that completes ARI operations under each completion strategy, using a fake ARI client that
+ * responds on its own I/O thread
+ */
+public class OperationCompletionTest {
+
+	private static final String IO_THREAD = "fake-ari-io";
+
+	private ExecutorService io = Executors.newSingleThreadExecutor(r -> new Thread(r, IO_THREAD));
+	private LaneExecutor lanes = new LaneExecutor("completion-test", 1, 2);
+
+	@After
+	public void tearDown() {
+		Operation.setCompletionStrategy(CompletionStrategy.EXECUTOR);
+		lanes.shutdown();
+		io.shutdown();
+	}
+
+	/**
+	 * Start an operation and report the name of the thread that completed it. The fake ARI client responds only
+	 * after the completion stage is attached, so the stage is never run by the caller
+	 */
+	private CompletableFuture<String> completingThread() {
+		CountDownLatch attached = new CountDownLatch(1);
+		CompletableFuture<String> thread = Operation.<String>retry(cb -> io.execute(() -> {
+			try {
+				attached.await();
+				cb.onSuccess("ok");
+			} catch (InterruptedException e) {
+				cb.onFailure(new RestException(e.toString()));
+			}
+		})).thenApply(v -> Thread.currentThread().getName());
+		attached.countDown();
+		return thread;
+	}
+
+	/**
+	 * Run a task on an event lane and report its result, propagating failures
+	 */
+	private <T> T onLane(Supplier<CompletableFuture<T>> task) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		lanes.execute("channel", () -> task.get().whenComplete((v,t) -> {
+			if (t != null)
+				result.completeExceptionally(t);
+			else
+				result.complete(v);
+		}));
+		return result.join();
+	}
+
+	@Test(timeout = 5000)
+	public void testDirect() {
+		Operation.setCompletionStrategy(CompletionStrategy.DIRECT);
+		assertEquals(IO_THREAD, completingThread().join());
+	}
+
+	@Test(timeout = 5000)
+	public void testExecutor() {
+		Operation.setCompletionStrategy(CompletionStrategy.EXECUTOR);
+		String thread = onLane(this::completingThread);
+		assertNotEquals(IO_THREAD, thread);
+		assertTrue(thread, !thread.startsWith("completion-test"));
+	}
+
+	@Test(timeout = 5000)
+	public void testCallerLane() {
+		Operation.setCompletionStrategy(CompletionStrategy.CALLER_LANE);
+		assertEquals("completion-test-0", onLane(this::completingThread));
+		String thread = completingThread().join(); // not started from a lane, so completed by the executor
+		assertNotEquals(IO_THREAD, thread);
+		assertTrue(thread, !thread.startsWith("completion-test"));
+	}
+
+	@Test(timeout = 5000)
+	public void testCallerLaneDoesNotBlockIoThreadOnFullLane() throws InterruptedException {
+		Operation.setCompletionStrategy(CompletionStrategy.CALLER_LANE);
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<String> operation = new CompletableFuture<>();
+		lanes.execute("channel", () -> {
+			completingThread().whenComplete((v,t) -> {
+				if (t != null)
+					operation.completeExceptionally(t);
+				else
+					operation.complete(v);
+			});
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			}
+		});
+		for (int i = 0; i < 10; i++) // fill the lane well beyond its capacity
+			lanes.execute("channel", () -> {});
+		// the I/O thread must be able to queue the completion and handle other responses meanwhile
+		CompletableFuture<Void> ioFree = CompletableFuture.runAsync(() -> {}, io);
+		assertEquals(null, ioFree.orTimeout(2, TimeUnit.SECONDS).join());
+		release.countDown();
+		assertEquals("completion-test-0", operation.join());
+	}
+}
@@ -0,0 +1,116 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.loway.oss.ari4java.generated.models.ChannelDestroyed;
+import ch.loway.oss.ari4java.generated.models.ChannelHangupRequest;
+import ch.loway.oss.ari4java.generated.models.Message;
+import ch.loway.oss.ari4java.generated.models.StasisEnd;
+import io.cloudonix.test.support.Events;
+import io.cloudonix.test.support.FakeAsterisk;
+
+public class ReconnectTest {
+
+	private ARIty arity;
+
+	@Before
+	public void setUp() throws Exception {
+		arity = new ARIty(b -> b.setAppName("reconnect-test").setChannelCleanupGrace(Duration.ofMillis(200)));
+	}
+
+	@After
+	public void tearDown() {
+		arity.disconnect();
+	}
+
+	@Test(timeout = 5000)
+	public void testLostChannelsGetHangupEvents() throws InterruptedException {
+		List<String> received = new CopyOnWriteArrayList<>();
+		for (String channelId : List.of("c1", "c2"))
+			for (Class<? extends Message> type : List.of(ChannelHangupRequest.class, StasisEnd.class, ChannelDestroyed.class))
+				arity.addEventHandler(type, channelId, (e, h) -> received.add(e.getType() + ":" + channelId));
+
+		assertEquals(1, arity.endLostChannels(Set.of("c1", "c2"), Set.of("c2")));
+		while (received.size() < 3)
+			Thread.sleep(10);
+		assertEquals(List.of("ChannelHangupRequest:c1", "StasisEnd:c1", "ChannelDestroyed:c1"), received);
+		assertEquals(1, arity.getLostChannelCount());
+		assertEquals(1, arity.getPendingCleanupCount());
+		while (arity.getPendingCleanupCount() > 0)
+			Thread.sleep(50);
+		assertEquals(1, arity.getLiveChannelCount());
+	}
+
+	@Test(timeout = 5000)
+	public void testChannelsThatAlreadyEndedAreSkipped() {
+		arity.addEventHandler(ChannelHangupRequest.class, "c1", (e, h) -> {});
+		arity.onSuccess(Events.channelEvent(StasisEnd.class, "c1"));
+		assertEquals(0, arity.endLostChannels(Set.of("c1"), Set.of()));
+	}
+
+	@Test
+	public void testConnectionStateListeners() {
+		List<ARIty.ConnectionState> states = new CopyOnWriteArrayList<>();
+		arity.addConnectionStateListener(states::add);
+		assertEquals(ARIty.ConnectionState.CLOSED, arity.getConnectionState()); // no websocket without a URI
+		arity.disconnect();
+		assertEquals(List.of(ARIty.ConnectionState.CLOSED), states);
+		assertFalse(arity.getReconnectCount() > 0);
+	}
+
+	@Test(timeout = 15000)
+	public void testReconnectEndsChannelsLostWhileDisconnected() throws Exception {
+		FakeAsterisk asterisk = new FakeAsterisk().setLatency(Duration.ofMillis(1), Duration.ofMillis(5)).start();
+		ARIty arity = new ARIty(b -> b.setUri(asterisk.getAriURL()).setAppName("stasisApp").setLogin("test")
+				.setPassword("test").setReconnectBackoff(Duration.ofMillis(50), Duration.ofMillis(500)));
+		try {
+			while (arity.getConnectionState() != ARIty.ConnectionState.CONNECTED)
+				Thread.sleep(10);
+			List<ARIty.ConnectionState> states = new CopyOnWriteArrayList<>();
+			arity.addConnectionStateListener(states::add);
+			List<String> ended = new CopyOnWriteArrayList<>();
+			BlockingQueue<String> answered = new LinkedBlockingQueue<>();
+			arity.registerVoiceApp(call -> call.answer().run().thenAccept(v -> {
+				arity.addEventHandler(StasisEnd.class, call.getChannelId(), (e, h) -> ended.add(call.getChannelId()));
+				answered.add(call.getChannelId());
+			}));
+			String lost = asterisk.startCall("1000", "100"), kept = asterisk.startCall("1001", "100");
+			assertEquals(Set.of(lost, kept), Set.of(answered.take(), answered.take()));
+
+			// the hangup events of the lost call are emitted while the websocket is closed
+			asterisk.dropEventConnections();
+			asterisk.hangup(lost);
+			while (arity.getLostChannelCount() == 0)
+				Thread.sleep(10);
+			assertEquals(List.of(ARIty.ConnectionState.DISCONNECTED, ARIty.ConnectionState.CONNECTED), states);
+			assertEquals(1, arity.getReconnectCount());
+			assertEquals(1, arity.getLostChannelCount());
+			assertEquals(1, asterisk.getEventConnectionCount());
+			assertEquals(List.of(lost), ended);
+			assertTrue(asterisk.hasChannel(kept));
+
+			// the call that survived keeps getting its events over the new websocket
+			asterisk.hangup(kept);
+			while (ended.size() < 2)
+				Thread.sleep(10);
+			assertEquals(List.of(lost, kept), ended);
+			assertEquals(1, arity.getLostChannelCount());
+		} finally {
+			arity.disconnect();
+			asterisk.close();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ch.loway.oss.ari4java.tools.RestException;
+
+public class RetryPolicyTest {
+
+	private RetryPolicy originalPolicy = Operation.getRetryPolicy();
+
+	@After
+	public void tearDown() {
+		Operation.setRetryPolicy(originalPolicy);
+	}
+
+	@Test
+	public void testBackoffWithJitter() {
+		RetryPolicy policy = new RetryPolicy().setBackoff(Duration.ofMillis(100), Duration.ofMillis(1000), 2).setJitter(0.5);
+		for (int i = 0; i < 100; i++) {
+			long first = policy.getDelay(0), third = policy.getDelay(2), last = policy.getDelay(10);
+			assertTrue(first >= 50 && first <= 100);
+			assertTrue(third >= 200 && third <= 400);
+			assertTrue(last >= 500 && last <= 1000);
+		}
+		assertEquals(400, new RetryPolicy().setJitter(0).getDelay(2));
+	}
+
+	@Test
+	public void testClassification() {
+		RetryPolicy policy = new RetryPolicy();
+		assertTrue(policy.isRetriable(new CompletionException(new RestException("Internal error", "", 500))));
+		assertTrue(policy.isRetriable(new RestException("Client Shutdown")));
+		assertTrue(policy.isRetriable(new CompletionException(new TimeoutException())));
+		assertFalse(policy.isRetriable(new RestException("Channel not found", "", 404)));
+		assertFalse(policy.isRetriable(new IllegalStateException("timeout")));
+	}
+
+	@Test
+	public void testBudget() {
+		RetryPolicy policy = new RetryPolicy().setRetryBudget(2, 0);
+		assertTrue(policy.tryAcquireRetry());
+		assertTrue(policy.tryAcquireRetry());
+		assertFalse(policy.tryAcquireRetry());
+		assertEquals(0, policy.getAvailableRetries());
+	}
+
+	@Test(timeout = 5000)
+	public void testOperationRetries() {
+		Operation.setRetryPolicy(new RetryPolicy().setBackoff(Duration.ofMillis(1), Duration.ofMillis(5), 2));
+		AtomicInteger attempts = new AtomicInteger();
+		String result = Operation.<String>retry(cb -> {
+			if (attempts.incrementAndGet() < 3)
+				cb.onFailure(new RestException("Service unavailable", "", 503));
+			else
+				cb.onSuccess("ok");
+		}).join();
+		assertEquals("ok", result);
+		assertEquals(3, attempts.get());
+	}
+
+	@Test(timeout = 5000)
+	public void testBudgetExhaustionStopsRetries() {
+		Operation.setRetryPolicy(new RetryPolicy().setBackoff(Duration.ofMillis(1), Duration.ofMillis(5), 2)
+				.setRetryBudget(1, 0));
+		AtomicInteger attempts = new AtomicInteger();
+		try {
+			Operation.<String>retry(cb -> {
+				attempts.incrementAndGet();
+				cb.onFailure(new RestException("Service unavailable", "", 503));
+			}).join();
+			fail("Operation should fail");
+		} catch (CompletionException e) {
+			assertTrue(e.getMessage().contains("retry budget exhausted"));
+		}
+		assertEquals(2, attempts.get());
+	}
+}
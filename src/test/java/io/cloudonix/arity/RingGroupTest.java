@@ -0,0 +1,199 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.cloudonix.test.support.FakeAsterisk;
+
+public class RingGroupTest {
+
+	private FakeAsterisk asterisk;
+	private ARIty arity;
+
+	@Before
+	public void setUp() throws Exception {
+		asterisk = new FakeAsterisk().setLatency(Duration.ofMillis(1), Duration.ofMillis(5)).start();
+		arity = new ARIty(b -> b.setUri(asterisk.getAriURL()).setAppName("stasisApp").setLogin("test").setPassword("test"));
+		while (arity.getConnectionState() != ARIty.ConnectionState.CONNECTED)
+			Thread.sleep(10);
+	}
+
+	@After
+	public void tearDown() {
+		arity.disconnect();
+		asterisk.close();
+	}
+
+	/**
+	 * Answer a call and run a ring group for it
+	 * @return a promise for the ring group, that resolves when an endpoint answered or the ring group ended
+	 */
+	private CompletableFuture<RingGroup> ringGroup(Function<CallController, RingGroup> configure) {
+		CompletableFuture<RingGroup> result = new CompletableFuture<>();
+		arity.registerVoiceApp(call -> call.answer().run().thenAccept(v -> {
+			RingGroup group = configure.apply(call);
+			group.whenConnect(() -> result.complete(group)).run().whenComplete((g, t) -> {
+				if (t != null)
+					result.completeExceptionally(t);
+				else
+					result.complete(g);
+			});
+		}));
+		asterisk.startCall("1000", "100");
+		return result;
+	}
+
+	@Test(timeout = 10000)
+	public void testFirstAnswerWins() throws InterruptedException {
+		asterisk.setDialResult("PJSIP/fast", "ANSWER", Duration.ofMillis(50));
+		asterisk.setDialResult("PJSIP/slow", "ANSWER", Duration.ofSeconds(3));
+		RingGroup group = ringGroup(call -> call.ringGroup("1000").withEndpoints("PJSIP/fast", "PJSIP/slow")).join();
+		assertEquals("PJSIP/fast", group.getWinner().getEndpoint());
+		assertEquals(Dial.Status.ANSWER, group.getDialStatus());
+		List<RingGroup.Leg> legs = group.getLegs();
+		assertEquals(Dial.Status.CANCEL, legs.get(1).getStatus());
+		while (asterisk.hasChannel(legs.get(1).getChannelId()))
+			Thread.sleep(10);
+		assertEquals("Up", asterisk.getChannelState(group.getWinner().getChannelId()));
+	}
+
+	@Test(timeout = 10000)
+	public void testSequentialHunt() {
+		asterisk.setDialResult("PJSIP/busy", "BUSY", Duration.ofMillis(20));
+		asterisk.setDialResult("PJSIP/late", "ANSWER", Duration.ofSeconds(5));
+		asterisk.setDialResult("PJSIP/ok", "ANSWER", Duration.ofMillis(50));
+		RingGroup group = ringGroup(call -> call.ringGroup("1000")
+				.withSequence(Duration.ofMillis(500), "PJSIP/busy", "PJSIP/late", "PJSIP/ok")).join();
+		List<RingGroup.Leg> legs = group.getLegs();
+		assertEquals(3, legs.size());
+		assertEquals(Dial.Status.BUSY, legs.get(0).getStatus());
+		assertEquals(Dial.Status.NOANSWER, legs.get(1).getStatus());
+		assertEquals(Dial.Status.ANSWER, legs.get(2).getStatus());
+		assertEquals(2, legs.get(2).getWave());
+	}
+
+	@Test(timeout = 10000)
+	public void testNoAnswer() throws InterruptedException {
+		asterisk.setDialResult("PJSIP/a", "BUSY", Duration.ofMillis(20));
+		asterisk.setDialResult("PJSIP/b", "CONGESTION", Duration.ofMillis(40));
+		CompletableFuture<Boolean> failed = new CompletableFuture<>();
+		RingGroup group = ringGroup(call -> call.ringGroup("1000").withEndpoints("PJSIP/a", "PJSIP/b")
+				.whenFailed(() -> failed.complete(true))).join();
+		assertNull(group.getWinner());
+		assertEquals(true, failed.join());
+		for (RingGroup.Leg leg : group.getLegs())
+			assertFalse(asterisk.hasChannel(leg.getChannelId()));
+		while (asterisk.getBridgeCount() > 0)
+			Thread.sleep(10);
+	}
+
+	/**
+	 * Start a ring group that dials endpoints that do not answer in time, and wait until all of its legs were created
+	 * @param ended receives the promise for the ring group, that resolves when it ended
+	 * @return the running ring group
+	 */
+	private RingGroup startRinging(CompletableFuture<CompletableFuture<RingGroup>> ended) throws InterruptedException {
+		asterisk.setDialResult("PJSIP/a", "ANSWER", Duration.ofSeconds(30));
+		asterisk.setDialResult("PJSIP/b", "ANSWER", Duration.ofSeconds(30));
+		CompletableFuture<RingGroup> started = new CompletableFuture<>();
+		ended.complete(ringGroup(call -> {
+			RingGroup group = call.ringGroup("1000").withEndpoints("PJSIP/a", "PJSIP/b");
+			started.complete(group);
+			return group;
+		}));
+		RingGroup group = started.join();
+		while (group.getLegs().size() < 2 ||
+				!group.getLegs().stream().allMatch(leg -> asterisk.hasChannel(leg.getChannelId())))
+			Thread.sleep(10);
+		return group;
+	}
+
+	private void assertAllLegsCancelled(RingGroup group) throws InterruptedException {
+		assertNull(group.getWinner());
+		for (RingGroup.Leg leg : group.getLegs()) {
+			assertEquals(Dial.Status.CANCEL, leg.getStatus());
+			while (asterisk.hasChannel(leg.getChannelId()))
+				Thread.sleep(10);
+		}
+		while (asterisk.getBridgeCount() > 0)
+			Thread.sleep(10);
+	}
+
+	@Test(timeout = 10000)
+	public void testFailedCreateStopsWaitingForStasis() {
+		asterisk.injectFailure("POST /ari/channels/create", 400, -1);
+		RingGroup group = ringGroup(call -> call.ringGroup("1000").withEndpoints("PJSIP/a", "PJSIP/b")).join();
+		for (RingGroup.Leg leg : group.getLegs())
+			assertEquals(Dial.Status.CHANUNAVAIL, leg.getStatus());
+		assertEquals(0, arity.getStasisStartListenerCount());
+	}
+
+	@Test(timeout = 10000)
+	public void testLateHandlersRunImmediately() {
+		asterisk.setDialResult("PJSIP/a", "BUSY", Duration.ofMillis(20));
+		RingGroup group = ringGroup(call -> call.ringGroup("1000").withEndpoints("PJSIP/a")).join();
+		AtomicInteger failed = new AtomicInteger(), connected = new AtomicInteger();
+		group.whenFailed(failed::incrementAndGet).whenConnect(connected::incrementAndGet);
+		assertEquals(1, failed.get());
+		assertEquals(0, connected.get());
+	}
+
+	@Test(timeout = 10000)
+	public void testCancel() throws InterruptedException {
+		CompletableFuture<CompletableFuture<RingGroup>> ended = new CompletableFuture<>();
+		RingGroup group = startRinging(ended);
+		group.cancel().join();
+		assertEquals(group, ended.join().join());
+		assertAllLegsCancelled(group);
+		assertTrue("Cancelling should not hang up the caller", asterisk.hasChannel(group.getChannelId()));
+	}
+
+	@Test(timeout = 10000)
+	public void testCallerHangupCancels() throws InterruptedException {
+		CompletableFuture<CompletableFuture<RingGroup>> ended = new CompletableFuture<>();
+		RingGroup group = startRinging(ended);
+		asterisk.hangup(group.getChannelId());
+		assertEquals(group, ended.join().join());
+		assertAllLegsCancelled(group);
+	}
+
+	@Test(timeout = 10000)
+	public void testWeightedWaves() {
+		asterisk.setDialResult("PJSIP/a", "BUSY", Duration.ofMillis(20));
+		asterisk.setDialResult("PJSIP/b", "BUSY", Duration.ofMillis(20));
+		asterisk.setDialResult("PJSIP/c", "BUSY", Duration.ofMillis(20));
+		RingGroup group = ringGroup(call -> call.ringGroup("1000")
+				.withWeightedWaves(Map.of("PJSIP/a", 1, "PJSIP/b", 1, "PJSIP/c", 1), 2, Duration.ofSeconds(2))).join();
+		List<RingGroup.Leg> legs = group.getLegs();
+		assertEquals(Set.of("PJSIP/a", "PJSIP/b", "PJSIP/c"),
+				legs.stream().map(RingGroup.Leg::getEndpoint).collect(Collectors.toSet()));
+		assertEquals(List.of(0, 0, 1), legs.stream().map(RingGroup.Leg::getWave).collect(Collectors.toList()));
+		for (RingGroup.Leg leg : legs)
+			assertEquals(Dial.Status.BUSY, leg.getStatus());
+	}
+
+	@Test(timeout = 10000)
+	public void testHeavierEndpointsAreDialedFirst() {
+		asterisk.setDialResult("PJSIP/heavy", "ANSWER", Duration.ofMillis(20));
+		asterisk.setDialResult("PJSIP/light", "ANSWER", Duration.ofMillis(20));
+		RingGroup group = ringGroup(call -> call.ringGroup("1000")
+				.withWeightedWaves(Map.of("PJSIP/heavy", 1000000, "PJSIP/light", 1), 1, Duration.ofSeconds(2))).join();
+		assertEquals("PJSIP/heavy", group.getWinner().getEndpoint());
+		assertEquals(1, group.getLegs().size());
+	}
+}
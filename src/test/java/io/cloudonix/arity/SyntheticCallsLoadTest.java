@@ -0,0 +1,99 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.cloudonix.test.support.FakeAsterisk;
+
+/**
+ * Drive synthetic calls through ARIty against the in-process ARI emulator. The number of calls can be raised for
+ * load testing with the <code>arity.loadtest.calls</code> system property, e.g. <code>-Darity.loadtest.calls=10000</code>
+ */
+public class SyntheticCallsLoadTest {
+
+	private final static Logger logger = LoggerFactory.getLogger(SyntheticCallsLoadTest.class);
+	private static final int CALLS = Integer.getInteger("arity.loadtest.calls", 200);
+
+	private FakeAsterisk asterisk;
+	private ARIty arity;
+
+	@Before
+	public void setUp() throws Exception {
+		asterisk = new FakeAsterisk().setLatency(Duration.ofMillis(1), Duration.ofMillis(5)).start();
+		arity = new ARIty(b -> b.setUri(asterisk.getAriURL()).setAppName("stasisApp").setLogin("test").setPassword("test"));
+		while (arity.getConnectionState() != ARIty.ConnectionState.CONNECTED)
+			Thread.sleep(10);
+	}
+
+	@After
+	public void tearDown() {
+		arity.disconnect();
+		asterisk.close();
+	}
+
+	@Test(timeout = 120000)
+	public void testSyntheticCalls() throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(CALLS);
+		AtomicInteger failures = new AtomicInteger();
+		arity.registerVoiceApp(call -> {
+			Dial dial = call.dial("1000", "PJSIP/2000");
+			dial.whenConnect(() -> asterisk.hangup(dial.getEndPointChannelId()));
+			call.answer().run()
+					.thenCompose(v -> call.play("hello-world").run())
+					.thenCompose(v -> call.setVariable("ACCOUNT", "acme"))
+					.thenCompose(v -> call.getVariable("ACCOUNT"))
+					.thenCompose(account -> dial.run())
+					.thenCompose(v -> call.hangup().run())
+					.whenComplete((v, t) -> {
+						if (t != null) {
+							logger.error("Call {} failed", call.getChannelId(), t);
+							failures.incrementAndGet();
+						}
+						done.countDown();
+					});
+		});
+
+		long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++)
+			asterisk.startCall(String.valueOf(1000 + i), "100");
+		done.await();
+		long elapsed = System.nanoTime() - start;
+		logger.info("{} calls in {}ms ({} calls/s), {} ARI requests, {} events", CALLS, TimeUnit.NANOSECONDS.toMillis(elapsed),
+				Math.round(CALLS / (elapsed / 1e9)), asterisk.getRequestCount(), asterisk.getEventCount());
+		assertEquals(0, failures.get());
+		while (asterisk.getChannelCount() > 0)
+			Thread.sleep(10);
+	}
+
+	@Test(timeout = 10000)
+	public void testBusyDial() {
+		asterisk.setDialResult("PJSIP/busy", "BUSY", Duration.ofMillis(20));
+		CompletableFuture<Dial.Status> status = new CompletableFuture<>();
+		arity.registerVoiceApp(call -> call.dial("1000", "PJSIP/busy").run()
+				.whenComplete((dial, t) -> status.complete(t == null ? dial.getDialStatus() : null)));
+		asterisk.startCall("1000", "100");
+		assertEquals(Dial.Status.BUSY, status.join());
+	}
+
+	@Test(timeout = 10000)
+	public void testFailedRequestsAreRetried() {
+		asterisk.injectFailure("POST /ari/channels/.*/answer", 503, 1);
+		CompletableFuture<String> answered = new CompletableFuture<>();
+		arity.registerVoiceApp(call -> call.answer().run()
+				.whenComplete((v, t) -> answered.complete(t == null ? call.getChannelId() : null)));
+		String channelId = asterisk.startCall("1000", "100");
+		assertEquals(channelId, answered.join());
+		assertEquals("Up", asterisk.getChannelState(channelId));
+	}
+}
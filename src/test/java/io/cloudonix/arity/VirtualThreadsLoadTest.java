@@ -0,0 +1,119 @@
+package io.cloudonix.arity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.loway.oss.ari4java.generated.models.ChannelDtmfReceived;
+import io.cloudonix.arity.helpers.VirtualThreads;
+import io.cloudonix.test.support.FakeAsterisk;
+
+/**
+ * Run many concurrent calls whose controllers and event handlers block, through ARIty in virtual threads mode against
+ * the in-process ARI emulator. The number of calls can be raised with the <code>arity.loadtest.calls</code> system
+ * property.
+ */
+public class VirtualThreadsLoadTest {
+
+	private final static Logger logger = LoggerFactory.getLogger(VirtualThreadsLoadTest.class);
+	private static final int CALLS = Integer.getInteger("arity.loadtest.calls", 500);
+	private static final String DIGITS = "0123456789";
+
+	private FakeAsterisk asterisk;
+	private ARIty arity;
+
+	@Before
+	public void setUp() throws Exception {
+		assumeTrue("Virtual threads are not supported by this JVM", VirtualThreads.isAvailable());
+		asterisk = new FakeAsterisk().setLatency(Duration.ofMillis(1), Duration.ofMillis(5)).start();
+		arity = new ARIty(b -> b.setUri(asterisk.getAriURL()).setAppName("stasisApp").setLogin("test").setPassword("test")
+				.setVirtualThreads(true));
+		while (arity.getConnectionState() != ARIty.ConnectionState.CONNECTED)
+			Thread.sleep(10);
+	}
+
+	@After
+	public void tearDown() {
+		if (arity != null)
+			arity.disconnect();
+		if (asterisk != null)
+			asterisk.close();
+	}
+
+	@Test(timeout = 120000)
+	public void testBlockingCallsOnVirtualThreads() throws InterruptedException {
+		Map<String, CompletableFuture<Void>> answered = new ConcurrentHashMap<>();
+		Map<String, List<String>> received = new ConcurrentHashMap<>();
+		AtomicInteger failures = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(CALLS);
+		arity.registerVoiceApp(call -> {
+			String channelId = call.getChannelId();
+			List<String> digits = Collections.synchronizedList(new ArrayList<>());
+			CompletableFuture<Void> allDigits = new CompletableFuture<>();
+			arity.addEventHandler(ChannelDtmfReceived.class, channelId, (dtmf, handler) -> {
+				try {
+					Thread.sleep(1); // a blocking event handler, holding the channel's lane
+				} catch (InterruptedException e) {
+				}
+				digits.add(dtmf.getDigit());
+				if (digits.size() == DIGITS.length()) {
+					handler.unregister();
+					allDigits.complete(null);
+				}
+			});
+			try {
+				// blocking call controller code, each call holding a (virtual) thread until all its digits arrive
+				call.answer().run().join();
+				answered.computeIfAbsent(channelId, id -> new CompletableFuture<>()).complete(null);
+				allDigits.get(60, TimeUnit.SECONDS);
+				received.put(channelId, digits);
+				call.hangup().run().join();
+			} catch (Exception e) {
+				logger.error("Call {} failed", channelId, e);
+				failures.incrementAndGet();
+			} finally {
+				done.countDown();
+			}
+		});
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		int baseThreads = threads.getThreadCount();
+		threads.resetPeakThreadCount();
+		long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++) {
+			String channelId = asterisk.startCall(String.valueOf(1000 + i), "100");
+			answered.computeIfAbsent(channelId, id -> new CompletableFuture<>()).thenRun(() -> {
+				for (char digit : DIGITS.toCharArray())
+					asterisk.sendDtmf(channelId, digit);
+			});
+		}
+		assertTrue(done.await(100, TimeUnit.SECONDS));
+		logger.info("{} blocking calls in {}ms, peak threads {} (base {})", CALLS,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), threads.getPeakThreadCount(), baseThreads);
+		assertEquals(0, failures.get());
+		assertEquals(CALLS, received.size());
+		for (List<String> digits : received.values())
+			assertEquals("Events of a channel must be handled in order", DIGITS, String.join("", digits));
+		assertTrue("Virtual threads should not need a platform thread per call",
+				threads.getPeakThreadCount() - baseThreads < CALLS / 10);
+	}
+}
@@ -0,0 +1,39 @@
+package io.cloudonix.arity.errors;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ch.loway.oss.ari4java.tools.RestException;
+
+public class ARItyExceptionTest {
+
+	@SuppressWarnings("serial")
+	static class BridgeBusyException extends ARItyException {
+		public BridgeBusyException(Throwable cause) {
+			super(cause);
+		}
+	}
+
+	@Test
+	public void testBuiltinErrorTypes() {
+		RestException err = new RestException("Channel not found");
+		ARItyException mapped = ARItyException.ariRestExceptionMapper(err);
+		assertTrue(mapped instanceof ChannelNotFoundException);
+		assertSame(err, mapped.getCause());
+		assertTrue(ARItyException.ariRestExceptionMapper(new RestException("Channel not in Stasis application"))
+				instanceof ChannelNotInStasisApplicationException);
+		assertTrue(ARItyException.ariRestExceptionMapper(new RestException(" Playback  not found"))
+				instanceof PlaybackNotFoundException);
+	}
+
+	@Test
+	public void testUnknownAndRegisteredErrorTypes() {
+		assertNull(ARItyException.ariRestExceptionMapper(new RestException("Bridge is busy")));
+		assertNull(ARItyException.ariRestExceptionMapper(new RestException("Bridge is busy")));
+		ARItyException.registerErrorType("Bridge is busy", BridgeBusyException::new);
+		assertTrue(ARItyException.ariRestExceptionMapper(new RestException("Bridge is busy")) instanceof BridgeBusyException);
+	}
+}
@@ -0,0 +1,71 @@
+package io.cloudonix.arity.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	private AtomicLong now = new AtomicLong();
+	private CircuitBreaker breaker = new CircuitBreaker("test", now::get).setWindow(10, 5)
+			.setRecovery(Duration.ofSeconds(1), 2);
+
+	private void calls(int count, boolean fail, long latencyMillis) {
+		for (int i = 0; i < count; i++) {
+			CircuitBreaker.Permit permit = breaker.tryAcquire();
+			assertNotNull(permit);
+			if (fail)
+				permit.onFailure(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+			else
+				permit.onSuccess(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+		}
+	}
+
+	@Test
+	public void testOpensOnFailureRate() {
+		calls(3, false, 10);
+		calls(2, true, 10);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		calls(1, true, 10);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertNull(breaker.tryAcquire());
+		assertEquals(1, breaker.getRejectedCount());
+	}
+
+	@Test
+	public void testOpensOnSlowCalls() {
+		calls(5, false, 3000);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testHalfOpenProbes() {
+		calls(5, true, 10);
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		CircuitBreaker.Permit first = breaker.tryAcquire(), second = breaker.tryAcquire();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertNotNull(first);
+		assertNotNull(second);
+		assertNull(breaker.tryAcquire()); // only two probes at a time
+		first.onSuccess(0);
+		second.onFailure(0);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		breaker.tryAcquire().onSuccess(0);
+		breaker.tryAcquire().onSuccess(0);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testExemptRequests() {
+		calls(5, true, 10);
+		assertNull(breaker.tryAcquire());
+		assertNotNull(CircuitBreaker.exempt(() -> breaker.tryAcquire()));
+	}
+}
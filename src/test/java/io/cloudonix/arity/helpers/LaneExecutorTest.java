@@ -0,0 +1,77 @@
+package io.cloudonix.arity.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class LaneExecutorTest {
+
+	private LaneExecutor executor = new LaneExecutor("test", 4, 16);
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test(timeout = 10000)
+	public void testTasksForSameKeyRunInOrder() throws InterruptedException {
+		int keys = 20, tasks = 500;
+		List<List<Integer>> results = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(keys * tasks);
+		for (int k = 0; k < keys; k++)
+			results.add(new ArrayList<>());
+		for (int i = 0; i < tasks; i++)
+			for (int k = 0; k < keys; k++) {
+				int key = k, value = i;
+				executor.execute("channel-" + key, () -> {
+					results.get(key).add(value); // not synchronized: tasks of the same key must never run concurrently
+					done.countDown();
+				});
+			}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		for (List<Integer> result : results) {
+			assertEquals(tasks, result.size());
+			for (int i = 0; i < tasks; i++)
+				assertEquals(i, result.get(i).intValue());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testReentrantSubmissionOnFullLane() throws InterruptedException {
+		LaneExecutor single = new LaneExecutor("single", 1, 1);
+		CountDownLatch done = new CountDownLatch(10);
+		single.execute("a", () -> {
+			for (int i = 0; i < 10; i++)
+				single.execute("a", done::countDown);
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		single.shutdown();
+	}
+
+	@Test(timeout = 10000)
+	public void testFullLaneDoesNotBlockSubmitters() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1), drained = new CountDownLatch(1);
+		LaneExecutor single = new LaneExecutor("single", 1, 4).setDrainListener(drained::countDown);
+		single.execute("a", () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			}
+		});
+		for (int i = 0; i < 10; i++) // more than the lane's capacity, must not block
+			single.execute("a", () -> {});
+		assertTrue(single.isFull("a"));
+		assertFalse(single.isFull(null));
+		release.countDown();
+		assertTrue(drained.await(5, TimeUnit.SECONDS));
+		single.shutdown();
+	}
+}
@@ -0,0 +1,109 @@
+package io.cloudonix.arity.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+	private AtomicLong now = new AtomicLong(1000);
+	private TimingWheel wheel = new TimingWheel("test", 10, 8, now::get, Runnable::run);
+
+	private void advanceMillis(long millis) {
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+		wheel.advance();
+	}
+
+	@Test
+	public void testTimeoutsFireInOrderAndNotEarly() {
+		List<Integer> fired = new ArrayList<>();
+		wheel.schedule(() -> fired.add(3), 250); // more than a full rotation of the wheel
+		wheel.schedule(() -> fired.add(1), 15);
+		wheel.schedule(() -> fired.add(2), 30);
+		assertEquals(3, wheel.getPendingCount());
+		advanceMillis(10);
+		assertTrue(fired.isEmpty());
+		advanceMillis(10);
+		assertEquals(List.of(1), fired);
+		advanceMillis(20);
+		assertEquals(List.of(1, 2), fired);
+		advanceMillis(200);
+		assertEquals(List.of(1, 2), fired);
+		advanceMillis(10);
+		assertEquals(List.of(1, 2, 3), fired);
+		assertEquals(0, wheel.getPendingCount());
+		assertEquals(3, wheel.getFiredCount());
+	}
+
+	@Test
+	public void testTimerCanCancelItselfWhenDueImmediately() {
+		TimingWheel previous = Timers.getScheduler();
+		Timers.setScheduler(wheel);
+		try {
+			advanceMillis(10);
+			List<TimerTask> task = new ArrayList<>();
+			AtomicInteger ran = new AtomicInteger();
+			task.add(Timers.schedule(() -> { // runs before schedule() returns
+				ran.incrementAndGet();
+				assertTrue(task.isEmpty());
+			}, 0));
+			assertEquals(1, ran.get());
+			assertFalse("An expired timer can not be cancelled", task.get(0).cancel());
+		} finally {
+			Timers.setScheduler(previous);
+		}
+	}
+
+	@Test
+	public void testCancelRemovesTimeout() {
+		List<Integer> fired = new ArrayList<>();
+		TimingWheel.Timeout timeout = wheel.schedule(() -> fired.add(1), 20);
+		wheel.schedule(() -> fired.add(2), 20);
+		assertTrue(timeout.cancel());
+		assertFalse(timeout.cancel());
+		assertEquals(1, wheel.getPendingCount());
+		assertEquals(1, wheel.getCancelledCount());
+		advanceMillis(30);
+		assertEquals(List.of(2), fired);
+		assertTrue(timeout.isCancelled());
+		assertFalse(timeout.isExpired());
+	}
+
+	@Test
+	public void testLateness() {
+		wheel.schedule(() -> {}, 10);
+		advanceMillis(55);
+		assertEquals(1, wheel.getFiredCount());
+		assertEquals(45, wheel.getMaxLatenessMillis());
+	}
+
+	@Test
+	public void testPastDeadlineFiresImmediately() {
+		advanceMillis(100);
+		List<Integer> fired = new ArrayList<>();
+		wheel.schedule(() -> fired.add(1), 0);
+		assertEquals(List.of(1), fired);
+	}
+
+	@Test(timeout = 5000)
+	public void testRealTimeTicker() throws InterruptedException {
+		TimingWheel realtime = new TimingWheel("realtime", 5, 64, TimingWheel.Clock.system(), Runnable::run).start();
+		CountDownLatch done = new CountDownLatch(100);
+		long start = System.nanoTime();
+		for (int i = 0; i < 100; i++)
+			realtime.schedule(done::countDown, 50);
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+		realtime.stop();
+	}
+}
@@ -0,0 +1,180 @@
+package io.cloudonix.arity.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class VariableBatcherTest {
+
+	private Map<String, String> channelVariables = new HashMap<>();
+	private List<String> requests = new ArrayList<>();
+	private List<Runnable> tasks = new ArrayList<>();
+	private VariableBatcher batcher;
+
+	@Before
+	public void setUp() {
+		channelVariables.put("A", "1");
+		channelVariables.put("B", "2");
+		channelVariables.put("SIP_HEADER(X-Foo)", "foo");
+		channelVariables.put("PJSIP_HEADER(read,X-Foo)", "foo");
+		batcher = new VariableBatcher(new VariableBatcher.Transport() {
+			@Override
+			public CompletableFuture<String> read(String name) {
+				requests.add("GET " + name);
+				if (name.contains("FAIL"))
+					return CompletableFuture.failedFuture(new IllegalStateException("Read failed"));
+				if (name.startsWith("EVAL(")) { // expand ${...} like Asterisk would
+					String expression = name.substring(5, name.length() - 1);
+					for (var variable : channelVariables.entrySet())
+						expression = expression.replace("${" + variable.getKey() + "}", variable.getValue());
+					return CompletableFuture.completedFuture(expression.replaceAll("\\$\\{[^}]*\\}", ""));
+				}
+				return CompletableFuture.completedFuture(channelVariables.get(name));
+			}
+
+			@Override
+			public CompletableFuture<Void> write(String name, String value) {
+				requests.add("SET " + name + "=" + value);
+				channelVariables.put(name, value);
+				return CompletableFuture.completedFuture(null);
+			}
+		}, tasks::add, 0);
+	}
+
+	private void flush() {
+		List<Runnable> run = new ArrayList<>(tasks);
+		tasks.clear();
+		run.forEach(Runnable::run);
+	}
+
+	@Test
+	public void testReadsAreCombined() {
+		CompletableFuture<Map<String, String>> values = batcher.readAll(List.of("A", "B"));
+		CompletableFuture<String> b = batcher.read("B");
+		flush();
+		assertEquals(1, requests.size());
+		assertEquals("1", values.join().get("A"));
+		assertEquals("2", values.join().get("B"));
+		assertEquals("2", b.join());
+	}
+
+	@Test
+	public void testEmptyValuesAreReadAgain() {
+		channelVariables.put("EMPTY", "");
+		CompletableFuture<Map<String, String>> values = batcher.readAll(List.of("A", "EMPTY", "UNSET"));
+		flush();
+		assertEquals(List.of("GET EVAL(${A}" + VariableBatcher.SEPARATOR + "${EMPTY}" + VariableBatcher.SEPARATOR +
+				"${UNSET})", "GET EMPTY", "GET UNSET"), requests);
+		assertEquals("1", values.join().get("A"));
+		assertEquals("", values.join().get("EMPTY"));
+		assertNull(values.join().get("UNSET"));
+	}
+
+	@Test
+	public void testReadOnlyFunctionsAreBatched() {
+		CompletableFuture<Map<String, String>> values = batcher.readAll(List.of("A", "SIP_HEADER(X-Foo)",
+				"PJSIP_HEADER(read,X-Foo)"));
+		flush();
+		assertEquals(1, requests.size());
+		assertEquals("foo", values.join().get("SIP_HEADER(X-Foo)"));
+		assertEquals("foo", values.join().get("PJSIP_HEADER(read,X-Foo)"));
+	}
+
+	@Test
+	public void testConcurrentFunctionReadsAreShared() {
+		CompletableFuture<String> first = batcher.read("PJSIP_HEADER(read,X-Foo)");
+		assertSame(first, batcher.read("PJSIP_HEADER(read,X-Foo)"));
+		flush();
+		assertEquals(List.of("GET PJSIP_HEADER(read,X-Foo)"), requests);
+		assertEquals("foo", first.join());
+	}
+
+	@Test
+	public void testVolatileFunctionsAreNotBatched() {
+		channelVariables.put("SHIFT(list)", "1");
+		CompletableFuture<String> first = batcher.read("SHIFT(list)");
+		CompletableFuture<String> second = batcher.read("SHIFT(list)");
+		batcher.read("A");
+		batcher.write("PJSIP_HEADER(add,X-Bar)", "1");
+		batcher.write("PJSIP_HEADER(add,X-Bar)", "2");
+		assertEquals(List.of("GET SHIFT(list)", "GET SHIFT(list)", "SET PJSIP_HEADER(add,X-Bar)=1",
+				"SET PJSIP_HEADER(add,X-Bar)=2"), requests);
+		assertEquals("1", first.join());
+		assertEquals("1", second.join());
+		flush();
+		assertEquals("GET A", requests.get(4));
+	}
+
+	@Test
+	public void testSingleReadIsNotEvaluated() {
+		CompletableFuture<String> a = batcher.read("A");
+		flush();
+		assertEquals(List.of("GET A"), requests);
+		assertEquals("1", a.join());
+	}
+
+	@Test
+	public void testValueWithSeparatorFallsBack() {
+		channelVariables.put("A", "x" + VariableBatcher.SEPARATOR + "y");
+		CompletableFuture<Map<String, String>> values = batcher.readAll(List.of("A", "B"));
+		flush();
+		assertEquals(3, requests.size());
+		assertEquals("x" + VariableBatcher.SEPARATOR + "y", values.join().get("A"));
+		assertEquals("2", values.join().get("B"));
+	}
+
+	@Test
+	public void testFailedReadsFail() {
+		CompletableFuture<Map<String, String>> values = batcher.readAll(List.of("A", "FAIL"));
+		CompletableFuture<String> fail = batcher.read("FAIL");
+		flush();
+		assertEquals(List.of("GET EVAL(${A}" + VariableBatcher.SEPARATOR + "${FAIL})", "GET A", "GET FAIL"), requests);
+		assertTrue(values.isCompletedExceptionally());
+		assertTrue(fail.isCompletedExceptionally());
+		batcher.read("FAIL");
+		flush();
+		assertEquals("A failed read should not be shared with later reads", 4, requests.size());
+	}
+
+	@Test
+	public void testConcurrentReadsAreShared() {
+		CompletableFuture<String> first = batcher.read("A");
+		assertSame(first, batcher.read("A"));
+		flush();
+		assertEquals(1, requests.size());
+	}
+
+	@Test
+	public void testWritesAreCoalesced() {
+		CompletableFuture<Void> first = batcher.write("A", "10");
+		batcher.write("B", "20");
+		CompletableFuture<Void> last = batcher.write("A", "11");
+		assertEquals("11", batcher.read("A").join()); // answered by the pending write
+		flush();
+		assertEquals(List.of("SET A=11", "SET B=20"), requests);
+		assertSame(first, last);
+		assertTrue(last.isDone());
+	}
+
+	@Test
+	public void testLargeReadsAreSplit() {
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < VariableBatcher.MAX_BATCH * 2 + 1; i++) {
+			names.add("V" + i);
+			channelVariables.put("V" + i, String.valueOf(i));
+		}
+		batcher.readAll(names);
+		flush();
+		assertEquals(3, requests.size());
+	}
+}
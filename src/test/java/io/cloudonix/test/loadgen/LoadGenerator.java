@@ -0,0 +1,379 @@
+package io.cloudonix.test.loadgen;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.loway.oss.ari4java.generated.models.PlaybackStarted;
+import ch.loway.oss.ari4java.generated.models.RecordingStarted;
+import io.cloudonix.arity.ARIty;
+import io.cloudonix.arity.CallController;
+import io.cloudonix.arity.Dial;
+import io.cloudonix.test.support.FakeAsterisk;
+
+/**
+ * Synthetic call-load generator and soak-test harness.
+ *
+ * The generator starts calls on an in-process {@link FakeAsterisk} according to a {@link LoadProfile}, so they reach
+ * ARIty through the events websocket and run a call controller like a real application would. It records end-to-end
+ * latencies into HDR histograms - from the call's arrival to its controller running, from a play request to the
+ * playback starting, from a record request to the recording starting and from dialing to the first answer - and
+ * periodically reports them together with the JVM's heap, thread and GC statistics, and ARIty's channel, event handler
+ * and cleanup counts. At the end of a run it waits for the calls to drain and reports any state left behind, to catch
+ * leaks over multi-hour soak runs.
+ *
+ * Run with <code>make soak</code>, configuring the load with the system properties described in
+ * {@link LoadProfile#fromSystemProperties()}, e.g.
+ * <code>make soak MVNARGS="-Dloadgen.rate=200 -Dloadgen.duration=PT4H"</code>
+ */
+public class LoadGenerator implements AutoCloseable {
+
+	private final static Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+	private static final String[] DTMF_DIGITS = "0123456789*#".split("");
+	private static final Duration CLEANUP_GRACE = Duration.ofSeconds(1);
+	private static final Duration DRAIN_MARGIN = Duration.ofSeconds(30);
+
+	private final LoadProfile profile;
+	private final Random random;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "loadgen");
+		t.setDaemon(true);
+		return t;
+	});
+	private FakeAsterisk asterisk;
+	private ARIty arity;
+	private volatile boolean generating;
+	private int baselineHandlers;
+
+	private final Map<String, Long> arrivals = new ConcurrentHashMap<>();
+	private final AtomicLong callSequence = new AtomicLong();
+	private final AtomicLong started = new AtomicLong(), dropped = new AtomicLong(), completed = new AtomicLong(),
+			failed = new AtomicLong(), dialFailures = new AtomicLong();
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final Latency stasisToRun = new Latency("stasis->run"), playToStarted = new Latency("play->started"),
+			recordToStarted = new Latency("record->started"), dialToAnswer = new Latency("dial->answer");
+	private final List<Latency> latencies = List.of(stasisToRun, playToStarted, recordToStarted, dialToAnswer);
+	private long lastReportStarted, lastReportTime;
+
+	/**
+	 * End-to-end latency of one kind of operation, recorded in microseconds
+	 */
+	private static class Latency {
+		private final String name;
+		private final Recorder recorder = new Recorder(3);
+		private final Histogram total = new Histogram(3);
+		private Histogram interval;
+
+		Latency(String name) {
+			this.name = name;
+		}
+
+		void record(long startNanos) {
+			recorder.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos)));
+		}
+
+		void roll() {
+			interval = interval == null ? recorder.getIntervalHistogram() : recorder.getIntervalHistogram(interval);
+			total.add(interval);
+		}
+
+		static String format(String name, Histogram histogram) {
+			if (histogram.getTotalCount() == 0)
+				return name + " -";
+			return String.format("%s p50 %.1f p99 %.1f max %.1f ms", name, histogram.getValueAtPercentile(50) / 1000.0,
+					histogram.getValueAtPercentile(99) / 1000.0, histogram.getMaxValue() / 1000.0);
+		}
+	}
+
+	public LoadGenerator(LoadProfile profile) {
+		this.profile = profile;
+		this.random = new Random(profile.getSeed());
+	}
+
+	/**
+	 * Start the ARI emulator and connect ARIty to it
+	 * @return itself for fluent calls
+	 * @throws Exception if the emulator failed to start or ARIty failed to connect
+	 */
+	public LoadGenerator start() throws Exception {
+		asterisk = new FakeAsterisk()
+				.setLatency(profile.getMinAriLatency(), profile.getMaxAriLatency())
+				.setFailureRate(profile.getAriFailureRate())
+				.setSeed(profile.getSeed())
+				.setPlaybackDuration(Duration.ofMillis(500));
+		// the first endpoint usually answers first, so the other endpoints are cancelled while ringing
+		for (int i = 0; i < profile.getDialFanOut(); i++)
+			asterisk.setDialResult(endpoint(i), "ANSWER", Duration.ofMillis(200 * (i + 1)));
+		asterisk.start();
+		arity = new ARIty(b -> b.setUri(asterisk.getAriURL()).setAppName("stasisApp").setLogin("loadgen").setPassword("loadgen")
+				.setChannelCleanupGrace(CLEANUP_GRACE));
+		while (arity.getConnectionState() != ARIty.ConnectionState.CONNECTED)
+			Thread.sleep(10);
+		arity.registerVoiceApp(this::handleCall);
+		baselineHandlers = arity.getEventHandlerCount();
+		return this;
+	}
+
+	/**
+	 * Generate calls for the profile's duration, then wait for the calls to end and report the results
+	 * @return descriptions of the state that was left behind after the calls ended, which is empty if nothing leaked
+	 * @throws InterruptedException if interrupted while waiting for the run to end
+	 */
+	public List<String> run() throws InterruptedException {
+		logger.info("Generating load: {}", profile);
+		lastReportTime = System.nanoTime();
+		long reportMillis = profile.getReportInterval().toMillis();
+		scheduler.scheduleAtFixedRate(this::report, reportMillis, reportMillis, TimeUnit.MILLISECONDS);
+		generating = true;
+		scheduleArrival();
+		Thread.sleep(profile.getDuration().toMillis());
+		generating = false;
+		logger.info("Load generation ended, waiting for {} calls to end", active.get());
+		long drainDeadline = System.nanoTime()
+				+ profile.getMaxHoldTime().plus(CLEANUP_GRACE).plus(DRAIN_MARGIN).toNanos();
+		while (!drained() && System.nanoTime() < drainDeadline)
+			Thread.sleep(100);
+		scheduler.shutdownNow();
+		report();
+		List<String> leaks = checkForLeaks();
+		logger.info("Total: {} calls, {} completed, {} failed, {} dropped, {} failed dials", started.get(), completed.get(),
+				failed.get(), dropped.get(), dialFailures.get());
+		for (Latency latency : latencies)
+			logger.info("Total: {}", Latency.format(latency.name, latency.total));
+		if (leaks.isEmpty())
+			logger.info("No state was left behind");
+		else
+			leaks.forEach(leak -> logger.warn("Leak: {}", leak));
+		return leaks;
+	}
+
+	public long getStartedCalls() {
+		return started.get();
+	}
+
+	public long getCompletedCalls() {
+		return completed.get();
+	}
+
+	public long getFailedCalls() {
+		return failed.get();
+	}
+
+	@Override
+	public void close() {
+		generating = false;
+		scheduler.shutdownNow();
+		if (arity != null)
+			arity.disconnect();
+		if (asterisk != null)
+			asterisk.close();
+	}
+
+	private static String endpoint(int index) {
+		return "PJSIP/load-" + index;
+	}
+
+	private long exponentialNanos(double meanSeconds) {
+		return Math.round(-Math.log(1 - random.nextDouble()) * meanSeconds * 1e9);
+	}
+
+	private void scheduleArrival() {
+		scheduler.schedule(this::arrive, exponentialNanos(1 / profile.getCallRate()), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Start a new call, and schedule its DTMF digits and its hangup. Runs on the generator thread.
+	 */
+	private void arrive() {
+		if (!generating)
+			return;
+		scheduleArrival();
+		if (active.get() >= profile.getMaxConcurrentCalls()) {
+			dropped.incrementAndGet();
+			return;
+		}
+		String callerNumber = String.valueOf(callSequence.incrementAndGet());
+		arrivals.put(callerNumber, System.nanoTime());
+		String channelId = asterisk.startCall(callerNumber, "100");
+		started.incrementAndGet();
+		active.incrementAndGet();
+		long holdNanos = Math.min(exponentialNanos(profile.getMeanHoldTime().toNanos() / 1e9),
+				profile.getMaxHoldTime().toNanos());
+		if (profile.getDtmfRate() > 0)
+			scheduleDtmf(channelId, System.nanoTime() + holdNanos);
+		scheduler.schedule(() -> {
+			asterisk.hangup(channelId);
+			active.decrementAndGet();
+		}, holdNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private void scheduleDtmf(String channelId, long hangupTime) {
+		long delay = exponentialNanos(60 / profile.getDtmfRate());
+		if (System.nanoTime() + delay >= hangupTime)
+			return;
+		scheduler.schedule(() -> {
+			asterisk.sendDtmf(channelId, DTMF_DIGITS[random.nextInt(DTMF_DIGITS.length)].charAt(0));
+			scheduleDtmf(channelId, hangupTime);
+		}, delay, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * The synthetic call's controller: answer, perform a media action, optionally dial out and then wait for the
+	 * caller to hang up
+	 */
+	private void handleCall(CallController call) {
+		Long arrival = arrivals.remove(call.getChannel().getCallerIdNumber());
+		if (arrival != null)
+			stasisToRun.record(arrival);
+		// controllers run concurrently, so they do not share the generator's seeded random
+		double media = ThreadLocalRandom.current().nextDouble(), dial = ThreadLocalRandom.current().nextDouble();
+		AtomicReference<Dial> connected = new AtomicReference<>();
+		call.getCallState().waitForHangup().thenRun(() -> {
+			Dial winner = connected.get();
+			if (winner != null)
+				winner.cancel();
+		});
+		call.answer().run()
+				.thenCompose(v -> {
+					if (media < profile.getPlayRatio())
+						return play(call);
+					if (media < profile.getPlayRatio() + profile.getRecordRatio())
+						return record(call);
+					return CompletableFuture.completedFuture(null);
+				})
+				.thenCompose(v -> dial < profile.getDialRatio() ? dial(call, connected) : CompletableFuture.completedFuture(null))
+				.thenCompose(v -> call.getCallState().waitForHangup())
+				.whenComplete((v, t) -> {
+					// operations interrupted by the caller hanging up are expected, the call still completed
+					if (t != null && call.getCallState().isActive()) {
+						logger.debug("Call {} failed", call.getChannelId(), t);
+						failed.incrementAndGet();
+						call.hangup().run();
+					} else
+						completed.incrementAndGet();
+				});
+	}
+
+	private CompletableFuture<Void> play(CallController call) {
+		long start = System.nanoTime();
+		call.listenForOneTimeEvent(PlaybackStarted.class, e -> playToStarted.record(start));
+		return call.play("hello-world").run().thenAccept(p -> {});
+	}
+
+	private CompletableFuture<Void> record(CallController call) {
+		long start = System.nanoTime();
+		call.listenForOneTimeEvent(RecordingStarted.class, e -> recordToStarted.record(start));
+		return call.record("loadgen-" + call.getChannelId(), "wav", 1, 0, false, "#").run().thenAccept(r -> {});
+	}
+
+	/**
+	 * Dial all the profile's endpoints in parallel, connect the first to answer and cancel the rest
+	 * @return a promise that resolves when an endpoint answered or all the endpoints failed
+	 */
+	private CompletableFuture<Void> dial(CallController call, AtomicReference<Dial> connected) {
+		long start = System.nanoTime();
+		CompletableFuture<Void> answered = new CompletableFuture<>();
+		List<Dial> legs = new ArrayList<>();
+		AtomicInteger failedLegs = new AtomicInteger();
+		for (int i = 0; i < profile.getDialFanOut(); i++) {
+			Dial leg = call.dial(call.getChannel().getCallerIdNumber(), endpoint(i));
+			legs.add(leg);
+			leg.whenConnect(() -> {
+				if (!connected.compareAndSet(null, leg)) {
+					leg.cancel();
+					return;
+				}
+				dialToAnswer.record(start);
+				legs.stream().filter(other -> other != leg).forEach(Dial::cancel);
+				answered.complete(null);
+			}).whenFailed(() -> {
+				dialFailures.incrementAndGet();
+				if (failedLegs.incrementAndGet() == profile.getDialFanOut())
+					answered.complete(null);
+			});
+		}
+		for (Dial leg : legs)
+			leg.run().exceptionally(t -> null);
+		return answered;
+	}
+
+	private boolean drained() {
+		return active.get() == 0 && asterisk.getChannelCount() == 0 && arity.getLiveChannelCount() == 0
+				&& arity.getPendingCleanupCount() == 0;
+	}
+
+	private List<String> checkForLeaks() {
+		List<String> leaks = new ArrayList<>();
+		if (asterisk.getChannelCount() > 0)
+			leaks.add(asterisk.getChannelCount() + " emulated channels were not hung up");
+		if (asterisk.getBridgeCount() > 0)
+			leaks.add(asterisk.getBridgeCount() + " emulated bridges were not destroyed");
+		if (arity.getLiveChannelCount() > 0)
+			leaks.add(arity.getLiveChannelCount() + " channels are still tracked by ARIty");
+		if (arity.getPendingCleanupCount() > 0)
+			leaks.add(arity.getPendingCleanupCount() + " channels are still waiting for cleanup");
+		if (arity.getEventHandlerCount() > baselineHandlers)
+			leaks.add((arity.getEventHandlerCount() - baselineHandlers) + " event handlers were not removed");
+		if (!arrivals.isEmpty())
+			leaks.add(arrivals.size() + " calls never reached their controller");
+		return leaks;
+	}
+
+	/**
+	 * Log the calls, latencies and resource usage since the last report
+	 */
+	private synchronized void report() {
+		long now = System.nanoTime();
+		double seconds = Math.max(1, now - lastReportTime) / 1e9;
+		long calls = started.get();
+		lastReportTime = now;
+		StringBuilder latencyReport = new StringBuilder();
+		for (Latency latency : latencies) {
+			latency.roll();
+			latencyReport.append(" | ").append(Latency.format(latency.name, latency.interval));
+		}
+		logger.info("Calls: {} started ({} calls/s), {} active, {} completed, {} failed, {} dropped{}", calls,
+				Math.round((calls - lastReportStarted) / seconds), active.get(), completed.get(), failed.get(),
+				dropped.get(), latencyReport);
+		lastReportStarted = calls;
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		long gcCount = 0, gcTime = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += Math.max(0, gc.getCollectionCount());
+			gcTime += Math.max(0, gc.getCollectionTime());
+		}
+		logger.info("JVM: heap {}MB used of {}MB, {} threads, {} GCs in {}ms | ARIty: {} channels, {} event handlers, "
+				+ "{} pending cleanup | ARI: {} requests, {} events", heap.getUsed() >> 20, heap.getCommitted() >> 20,
+				ManagementFactory.getThreadMXBean().getThreadCount(), gcCount, gcTime, arity.getLiveChannelCount(),
+				arity.getEventHandlerCount(), arity.getPendingCleanupCount(), asterisk.getRequestCount(),
+				asterisk.getEventCount());
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<String> leaks;
+		try (LoadGenerator generator = new LoadGenerator(LoadProfile.fromSystemProperties()).start()) {
+			leaks = generator.run();
+		}
+		System.exit(leaks.isEmpty() ? 0 : 1);
+	}
+}
@@ -0,0 +1,28 @@
+package io.cloudonix.test.loadgen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Short soak run, to check that calls through the whole call flow leave no state behind
+ */
+public class LoadGeneratorTest {
+
+	@Test(timeout = 60000)
+	public void testShortRunLeavesNothingBehind() throws Exception {
+		LoadProfile profile = new LoadProfile().setCallRate(20).setHoldTime(Duration.ofSeconds(1), Duration.ofSeconds(3))
+				.setDtmfRate(60).setMediaMix(0.5, 0.25).setDialing(0.5, 2).setDuration(Duration.ofSeconds(3))
+				.setReportInterval(Duration.ofSeconds(1));
+		try (LoadGenerator generator = new LoadGenerator(profile).start()) {
+			List<String> leaks = generator.run();
+			assertTrue(generator.getStartedCalls() > 0);
+			assertEquals(0, generator.getFailedCalls());
+			assertEquals(List.of(), leaks);
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package io.cloudonix.test.loadgen;
+
+import java.time.Duration;
+
+/**
+ * Describes the synthetic call load that the {@link LoadGenerator} produces.
+ *
+ * Calls arrive as a Poisson process at the configured rate and are held for an exponentially distributed time. While
+ * held, callers send DTMF at the configured rate. Each call performs one media action after it is answered - a
+ * playback or a recording, according to the media mix - and some calls dial out to several endpoints in parallel,
+ * connecting to the first one that answers.
+ *
+ * Profiles can also be loaded from system properties, see {@link #fromSystemProperties()}.
+ */
+public class LoadProfile {
+
+	private double callsPerSecond = 20;
+	private Duration meanHoldTime = Duration.ofSeconds(10);
+	private Duration maxHoldTime = Duration.ofSeconds(60);
+	private double dtmfPerMinute = 6;
+	private double playRatio = 0.7;
+	private double recordRatio = 0.1;
+	private double dialRatio = 0.3;
+	private int dialFanOut = 2;
+	private Duration duration = Duration.ofMinutes(1);
+	private Duration reportInterval = Duration.ofSeconds(10);
+	private int maxConcurrentCalls = 20000;
+	private Duration minAriLatency = Duration.ofMillis(1), maxAriLatency = Duration.ofMillis(5);
+	private double ariFailureRate = 0;
+	private long seed = 1;
+
+	/**
+	 * Load a profile from <code>loadgen.*</code> system properties, using the defaults for properties that are not
+	 * set: <code>loadgen.rate</code> (calls per second), <code>loadgen.hold</code> (mean hold time, as an ISO-8601
+	 * duration such as <code>PT30S</code>), <code>loadgen.hold.max</code>, <code>loadgen.dtmf</code> (digits per
+	 * minute), <code>loadgen.play</code>, <code>loadgen.record</code> and <code>loadgen.dial</code> (ratios of
+	 * calls), <code>loadgen.fanout</code>, <code>loadgen.duration</code>, <code>loadgen.report</code>,
+	 * <code>loadgen.concurrency</code>, <code>loadgen.ari.latency</code> (maximum ARI latency),
+	 * <code>loadgen.ari.failures</code> and <code>loadgen.seed</code>
+	 * @return a profile
+	 */
+	public static LoadProfile fromSystemProperties() {
+		LoadProfile profile = new LoadProfile();
+		profile.callsPerSecond = doubleProperty("loadgen.rate", profile.callsPerSecond);
+		profile.meanHoldTime = durationProperty("loadgen.hold", profile.meanHoldTime);
+		profile.maxHoldTime = durationProperty("loadgen.hold.max", profile.maxHoldTime);
+		profile.dtmfPerMinute = doubleProperty("loadgen.dtmf", profile.dtmfPerMinute);
+		profile.playRatio = doubleProperty("loadgen.play", profile.playRatio);
+		profile.recordRatio = doubleProperty("loadgen.record", profile.recordRatio);
+		profile.dialRatio = doubleProperty("loadgen.dial", profile.dialRatio);
+		profile.dialFanOut = Integer.getInteger("loadgen.fanout", profile.dialFanOut);
+		profile.duration = durationProperty("loadgen.duration", profile.duration);
+		profile.reportInterval = durationProperty("loadgen.report", profile.reportInterval);
+		profile.maxConcurrentCalls = Integer.getInteger("loadgen.concurrency", profile.maxConcurrentCalls);
+		profile.maxAriLatency = durationProperty("loadgen.ari.latency", profile.maxAriLatency);
+		profile.ariFailureRate = doubleProperty("loadgen.ari.failures", profile.ariFailureRate);
+		profile.seed = Long.getLong("loadgen.seed", profile.seed);
+		return profile;
+	}
+
+	private static double doubleProperty(String name, double defaultValue) {
+		String value = System.getProperty(name);
+		return value == null ? defaultValue : Double.parseDouble(value);
+	}
+
+	private static Duration durationProperty(String name, Duration defaultValue) {
+		String value = System.getProperty(name);
+		return value == null ? defaultValue : Duration.parse(value);
+	}
+
+	/**
+	 * Set the call arrival rate
+	 * @param callsPerSecond average number of new calls per second. The default is 20
+	 * @return itself for fluent calls
+	 */
+	public LoadProfile setCallRate(double callsPerSecond) {
+		if (callsPerSecond <= 0)
+			throw new IllegalArgumentException("Call rate must be positive");
+		this.callsPerSecond = callsPerSecond;
+		return this;
+	}
+
+	/**
+	 * Set the call hold time distribution
+	 * @param mean mean of the exponentially distributed hold time. The default is 10 seconds
+	 * @param max maximum hold time. The default is 60 seconds
+	 * @return itself for fluent calls
+	 */
+	public LoadProfile setHoldTime(Duration mean, Duration max) {
+		this.meanHoldTime = mean;
+		this.maxHoldTime = max;
+		return this;
+	}
+
+	/**
+	 * Set the rate of DTMF digits callers send while their calls are held
+	 * @param digitsPerMinute average number of digits per minute, per call. The default is 6
+	 * @return itself for fluent calls
+	 */
+	public LoadProfile setDtmfRate(double digitsPerMinute) {
+		this.dtmfPerMinute = digitsPerMinute;
+		return this;
+	}
+
+	/**
+	 * Set the mix of media actions calls perform after they are answered
+	 * @param play ratio of calls that play a prompt. The default is 0.7
+	 * @param record ratio of calls that record a message. The default is 0.1. The other calls perform no media action
+	 * @return itself for fluent calls
+	 */
+	public LoadProfile setMediaMix(double play, double record) {
+		if (play + record > 1)
+			throw new IllegalArgumentException("Media ratios must not add up to more than 1");
+		this.playRatio = play;
+		this.recordRatio = record;
+		return this;
+	}
+
+	/**
+	 * Set how calls dial out
+	 * @param ratio ratio of calls that dial out. The default is 0.3
+	 * @param fanOut number of endpoints each dialing call dials in parallel. The default is 2
+	 * @return itself for fluent calls
+	 */
+	public LoadProfile setDialing(double ratio, int fanOut) {
+		if (fanOut < 1)
+			throw new IllegalArgumentException("Dialing calls must dial at least one endpoint");
+		this.dialRatio = ratio;
+		this.dialFanOut = fanOut;
+		return this;
+	}
+
+	/**
+	 * Set how long to generate new calls. Calls that are running when the time is up are allowed to end
+	 * @param duration duration of the run. The default is one minute
+	 * @return itself for fluent calls
+	 */
+	public LoadProfile setDuration(Duration duration) {
+		this.duration = duration;
+		return this;
+	}
+
+	/**
+	 * Set how often to report progress, latencies and resource usage
+	 * @param interval report interval. The default is 10 seconds
+	 * @return itself for fluent calls
+	 */
+	public LoadProfile setReportInterval(Duration interval) {
+		this.reportInterval = interval;
+		return this;
+	}
+
+	/**
+	 * Set the maximum number of concurrent calls. Calls that arrive while the maximum is reached are dropped
+	 * @param calls maximum number of concurrent calls. The default is 20000
+	 * @return itself for fluent calls
+	 */
+	public LoadProfile setMaxConcurrentCalls(int calls) {
+		this.maxConcurrentCalls = calls;
+		return this;
+	}
+
+	/**
+	 * Set the latency of the emulated ARI responses
+	 * @param min minimum latency. The default is 1 millisecond
+	 * @param max maximum latency. The default is 5 milliseconds
+	 * @return itself for fluent calls
+	 */
+	public LoadProfile setAriLatency(Duration min, Duration max) {
+		this.minAriLatency = min;
+		this.maxAriLatency = max;
+		return this;
+	}
+
+	/**
+	 * Fail a random part of the emulated ARI requests
+	 * @param rate ratio of requests to fail. By default requests do not fail
+	 * @return itself for fluent calls
+	 */
+	public LoadProfile setAriFailureRate(double rate) {
+		this.ariFailureRate = rate;
+		return this;
+	}
+
+	/**
+	 * Set the random seed, so runs of the same profile generate the same load
+	 * @param seed random seed
+	 * @return itself for fluent calls
+	 */
+	public LoadProfile setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	public double getCallRate() {
+		return callsPerSecond;
+	}
+
+	public Duration getMeanHoldTime() {
+		return meanHoldTime;
+	}
+
+	public Duration getMaxHoldTime() {
+		return maxHoldTime;
+	}
+
+	public double getDtmfRate() {
+		return dtmfPerMinute;
+	}
+
+	public double getPlayRatio() {
+		return playRatio;
+	}
+
+	public double getRecordRatio() {
+		return recordRatio;
+	}
+
+	public double getDialRatio() {
+		return dialRatio;
+	}
+
+	public int getDialFanOut() {
+		return dialFanOut;
+	}
+
+	public Duration getDuration() {
+		return duration;
+	}
+
+	public Duration getReportInterval() {
+		return reportInterval;
+	}
+
+	public int getMaxConcurrentCalls() {
+		return maxConcurrentCalls;
+	}
+
+	public Duration getMinAriLatency() {
+		return minAriLatency;
+	}
+
+	public Duration getMaxAriLatency() {
+		return maxAriLatency;
+	}
+
+	public double getAriFailureRate() {
+		return ariFailureRate;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%.1f calls/s, hold %s (max %s), %.1f DTMF/min, play %.0f%% record %.0f%%, dial %.0f%% x%d, "
+				+ "for %s", callsPerSecond, meanHoldTime, maxHoldTime, dtmfPerMinute, playRatio * 100, recordRatio * 100,
+				dialRatio * 100, dialFanOut, duration);
+	}
+}
@@ -0,0 +1,89 @@
+package io.cloudonix.test.support;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import ch.loway.oss.ari4java.generated.models.Channel;
+import ch.loway.oss.ari4java.generated.models.DialplanCEP;
+import ch.loway.oss.ari4java.generated.models.Message;
+import ch.loway.oss.ari4java.generated.models.Playback;
+import ch.loway.oss.ari4java.generated.models.PlaybackFinished;
+
+/**
+ * Generate ARI model instances for tests that do not run against Asterisk, as dynamic proxies that answer
+ * getters from a map of property values
+ */
+public class Events {
+
+	/**
+	 * Create an ARI model instance
+	 * @param <T> model type
+	 * @param type model interface to implement
+	 * @param properties values for the model's getters, keyed by property name (e.g. <code>"id"</code> for
+	 *   <code>getId()</code>). Getters of properties that are not set return <code>null</code> (or a primitive default)
+	 * @return a model instance
+	 */
+	public static <T> T model(Class<T> type, Map<String, Object> properties) {
+		Map<String, Object> values = new HashMap<>(properties);
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "toString": return type.getSimpleName() + values;
+			case "hashCode": return System.identityHashCode(proxy);
+			case "equals": return proxy == args[0];
+			}
+			if (method.getName().startsWith("get") && method.getParameterCount() == 0) {
+				String property = Character.toLowerCase(method.getName().charAt(3)) + method.getName().substring(4);
+				Object value = values.get(property);
+				if (value != null || !method.getReturnType().isPrimitive())
+					return value;
+				return defaultValue(method.getReturnType());
+			}
+			return null;
+		}));
+	}
+
+	private static Object defaultValue(Class<?> primitive) {
+		if (primitive == boolean.class)
+			return false;
+		if (primitive == long.class)
+			return 0L;
+		if (primitive == double.class)
+			return 0.0;
+		return 0;
+	}
+
+	/**
+	 * Create a channel model
+	 * @param channelId ID of the channel
+	 * @return a channel model with the specified ID
+	 */
+	public static Channel channel(String channelId) {
+		return model(Channel.class, Map.of("id", channelId, "name", "PJSIP/" + channelId, "state", "Up",
+				"dialplan", model(DialplanCEP.class, Map.of("context", "default", "exten", "s", "priority", 1L))));
+	}
+
+	/**
+	 * Create an event that refers to a channel
+	 * @param <T> event type
+	 * @param type event interface to implement
+	 * @param channelId ID of the channel the event refers to
+	 * @return an event whose <code>getChannel()</code> returns a channel with the specified ID
+	 */
+	public static <T extends Message> T channelEvent(Class<T> type, String channelId) {
+		return model(type, Map.of("channel", channel(channelId), "type", type.getSimpleName(), "asterisk_id", "test"));
+	}
+
+	/**
+	 * Create a playback event for a playback on a channel
+	 * @param <T> event type
+	 * @param type playback event interface to implement, such as {@link PlaybackFinished}
+	 * @param channelId ID of the channel the playback is playing to
+	 * @return an event whose <code>getPlayback()</code> returns a playback targeting the specified channel
+	 */
+	public static <T extends Message> T playbackEvent(Class<T> type, String channelId) {
+		Playback playback = model(Playback.class, Map.of("id", "pb-" + channelId, "target_uri", "channel:" + channelId,
+				"state", "done"));
+		return model(type, Map.of("playback", playback, "type", type.getSimpleName(), "asterisk_id", "test"));
+	}
+}
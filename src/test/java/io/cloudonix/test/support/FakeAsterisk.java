@@ -0,0 +1,982 @@
+package io.cloudonix.test.support;
+
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.util.CharsetUtil;
+
+/**
+ * In-process Asterisk ARI emulator, for tests and load tests that need ARIty to talk to "Asterisk" without running
+ * Asterisk and a SIP stack.
+ *
+ * The emulator serves the ARI REST API and the events websocket on a local port, and models channels, bridges,
+ * playbacks, recordings and channel variables closely enough for ARIty's operations - answering, playing,
+ * recording, dialing (by originating or creating and dialing channels), bridging and reading and writing
+ * variables - and sends the events Asterisk would send for them. Calls are started with {@link #startCall(String,
+ * String)} and hung up by the far end with {@link #hangup(String)}.
+ *
+ * All the model's state is changed by a single thread, so events are sent in a consistent order, and responses are
+ * delayed by a configurable latency and can fail with injected errors. Latencies and random failures are drawn from
+ * a seeded random generator, so runs with the same requests behave the same.
+ *
+ * Only what ARIty uses is modeled: requests for other resources respond with an empty success (or "not found"
+ * for reads), and request parameters that do not affect the model are ignored.
+ */
+public class FakeAsterisk implements AutoCloseable {
+
+	private final static Logger logger = LoggerFactory.getLogger(FakeAsterisk.class);
+	private static final ObjectMapper json = new ObjectMapper();
+	private static final Pattern EXPRESSION = Pattern.compile("\\$\\{([^}]*)\\}");
+	private static final Pattern CALLER_ID = Pattern.compile("\\s*\"?([^\"<]*)\"?\\s*<([^>]*)>");
+
+	/**
+	 * An error response injected for requests that match a pattern
+	 */
+	private static class InjectedFailure {
+		final Pattern request;
+		final int status;
+		int remaining;
+
+		InjectedFailure(Pattern request, int status, int times) {
+			this.request = request;
+			this.status = status;
+			this.remaining = times;
+		}
+	}
+
+	/**
+	 * How dialing an endpoint ends
+	 */
+	private static class DialResult {
+		final String status;
+		final long ringMillis;
+
+		DialResult(String status, Duration ringTime) {
+			this.status = status;
+			this.ringMillis = ringTime.toMillis();
+		}
+	}
+
+	private class FakeChannel {
+		final String id;
+		final String name;
+		final String app;
+		final String endpoint;
+		final Date created = new Date();
+		final Map<String, String> variables = new HashMap<>();
+		String state;
+		String callerName = "";
+		String callerNumber = "";
+		String exten = "s";
+		String bridgeId;
+		boolean inStasis;
+
+		FakeChannel(String id, String endpoint, String app, String state) {
+			this.id = id;
+			this.endpoint = endpoint;
+			this.name = endpoint + "-" + Long.toHexString(channelSequence.incrementAndGet());
+			this.app = app;
+			this.state = state;
+		}
+
+		Map<String, Object> toJson() {
+			Map<String, Object> channel = new LinkedHashMap<>();
+			channel.put("id", id);
+			channel.put("name", name);
+			channel.put("state", state);
+			channel.put("caller", Map.of("name", callerName, "number", callerNumber));
+			channel.put("connected", Map.of("name", "", "number", ""));
+			channel.put("accountcode", "");
+			channel.put("dialplan", Map.of("context", "default", "exten", exten, "priority", 1,
+					"app_name", "Stasis", "app_data", app));
+			channel.put("creationtime", timestamp(created));
+			channel.put("language", "en");
+			if (!channelVars.isEmpty()) {
+				Map<String, String> vars = new LinkedHashMap<>();
+				for (String name : channelVars)
+					vars.put(name, Objects.toString(readVariable(this, name), ""));
+				channel.put("channelvars", vars);
+			}
+			return channel;
+		}
+	}
+
+	private class FakeBridge {
+		final String id;
+		final String name;
+		final Set<String> channels = new LinkedHashSet<>();
+
+		FakeBridge(String id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		Map<String, Object> toJson() {
+			Map<String, Object> bridge = new LinkedHashMap<>();
+			bridge.put("id", id);
+			bridge.put("technology", "simple_bridge");
+			bridge.put("bridge_type", "mixing");
+			bridge.put("bridge_class", "stasis");
+			bridge.put("creator", "Stasis");
+			bridge.put("name", name);
+			bridge.put("channels", new ArrayList<>(channels));
+			bridge.put("video_mode", "talker");
+			return bridge;
+		}
+	}
+
+	private static class Response {
+		final int status;
+		final String body;
+
+		Response(int status, Object body) {
+			this.status = status;
+			this.body = body == null ? null : toJson(body);
+		}
+	}
+
+	private static Response ok(Object body) {
+		return new Response(200, body);
+	}
+
+	private static Response noContent() {
+		return new Response(204, null);
+	}
+
+	private static Response error(int status, String message) {
+		return new Response(status, Map.of("message", message));
+	}
+
+	private final ScheduledExecutorService model = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "fake-asterisk");
+		t.setDaemon(true);
+		return t;
+	});
+	private final Map<String, FakeChannel> channels = new HashMap<>();
+	private final Map<String, FakeBridge> bridges = new HashMap<>();
+	private final Map<String, Map<String, Object>> playbacks = new HashMap<>();
+	private final Map<String, Map<String, Object>> recordings = new HashMap<>();
+	private final Set<Channel> eventClients = ConcurrentHashMap.newKeySet();
+	private final List<InjectedFailure> failures = new ArrayList<>();
+	private final Map<String, DialResult> dialResults = new HashMap<>();
+	private final AtomicLong requests = new AtomicLong(), events = new AtomicLong(), channelSequence = new AtomicLong();
+
+	private Random random = new Random(0);
+	private String appName = "stasisApp";
+	private String apiVersion = "4.0.0";
+	private long minLatency = 0, maxLatency = 0;
+	private double failureRate = 0;
+	private DialResult defaultDialResult = new DialResult("ANSWER", Duration.ofMillis(10));
+	private long playbackMillis = 20;
+	private List<String> channelVars = Collections.emptyList();
+	private EventLoopGroup bossGroup, workerGroup;
+	private Channel serverChannel;
+
+	/**
+	 * Start the emulator on a random local port
+	 * @return itself for fluent calls
+	 * @throws InterruptedException if interrupted while binding the port
+	 */
+	public FakeAsterisk start() throws InterruptedException {
+		bossGroup = new NioEventLoopGroup(1);
+		workerGroup = new NioEventLoopGroup();
+		serverChannel = new ServerBootstrap().group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
+				.childHandler(new ChannelInitializer<SocketChannel>() {
+					@Override
+					protected void initChannel(SocketChannel ch) {
+						ch.pipeline().addLast(new HttpServerCodec(), new HttpObjectAggregator(1 << 20),
+								new WebSocketServerProtocolHandler("/ari/events", null, true, 1 << 16, false, true),
+								new RequestHandler());
+					}
+				}).bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+		logger.info("Fake Asterisk listening on {}", getAriURL());
+		return this;
+	}
+
+	/**
+	 * Stop the emulator, closing all connections
+	 */
+	@Override
+	public void close() {
+		if (serverChannel != null)
+			serverChannel.close().syncUninterruptibly();
+		eventClients.forEach(Channel::close);
+		if (workerGroup != null) {
+			workerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+			bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+		}
+		model.shutdownNow();
+	}
+
+	/**
+	 * Retrieve the URL to connect ARIty to
+	 * @return the ARI base URL of the emulator
+	 */
+	public String getAriURL() {
+		return "http://127.0.0.1:" + ((InetSocketAddress) serverChannel.localAddress()).getPort() + "/";
+	}
+
+	/**
+	 * Set the name of the Stasis application that calls started by {@link #startCall(String, String)} enter
+	 * @param appName application name. The default is <code>stasisApp</code>
+	 * @return itself for fluent calls
+	 */
+	public FakeAsterisk setAppName(String appName) {
+		return update(() -> this.appName = appName);
+	}
+
+	/**
+	 * Set the ARI version that the emulator reports
+	 * @param apiVersion ARI version, such as <code>4.0.0</code>
+	 * @return itself for fluent calls
+	 */
+	public FakeAsterisk setApiVersion(String apiVersion) {
+		return update(() -> this.apiVersion = apiVersion);
+	}
+
+	/**
+	 * Delay all REST responses
+	 * @param min minimum response latency
+	 * @param max maximum response latency - each response is delayed by a random latency between the minimum and
+	 *   the maximum
+	 * @return itself for fluent calls
+	 */
+	public FakeAsterisk setLatency(Duration min, Duration max) {
+		return update(() -> {
+			minLatency = min.toMillis();
+			maxLatency = Math.max(minLatency, max.toMillis());
+		});
+	}
+
+	/**
+	 * Fail a random part of the REST requests with an internal server error
+	 * @param rate part of the requests to fail, between 0 and 1
+	 * @return itself for fluent calls
+	 */
+	public FakeAsterisk setFailureRate(double rate) {
+		return update(() -> failureRate = rate);
+	}
+
+	/**
+	 * Fail REST requests that match a pattern
+	 * @param request pattern for the request's method and path, such as <code>POST /ari/channels/.*&#47;answer</code>
+	 * @param status HTTP status to respond with
+	 * @param times number of requests to fail, or a negative number to fail all matching requests
+	 * @return itself for fluent calls
+	 */
+	public FakeAsterisk injectFailure(String request, int status, int times) {
+		return update(() -> failures.add(new InjectedFailure(Pattern.compile(request), status, times)));
+	}
+
+	/**
+	 * Set the random seed used for latencies and random failures
+	 * @param seed random seed
+	 * @return itself for fluent calls
+	 */
+	public FakeAsterisk setSeed(long seed) {
+		return update(() -> random = new Random(seed));
+	}
+
+	/**
+	 * Set how dialing endpoints ends
+	 * @param dialStatus Asterisk dial status, such as <code>ANSWER</code>, <code>BUSY</code> or
+	 *   <code>NOANSWER</code>. By default dialed endpoints answer
+	 * @param ringTime time dialed endpoints ring before the dial ends
+	 * @return itself for fluent calls
+	 */
+	public FakeAsterisk setDialResult(String dialStatus, Duration ringTime) {
+		return update(() -> defaultDialResult = new DialResult(dialStatus, ringTime));
+	}
+
+	/**
+	 * Set how dialing a specific endpoint ends
+	 * @param endpoint dialed endpoint, such as <code>PJSIP/1000</code>
+	 * @param dialStatus Asterisk dial status
+	 * @param ringTime time the endpoint rings before the dial ends
+	 * @return itself for fluent calls
+	 */
+	public FakeAsterisk setDialResult(String endpoint, String dialStatus, Duration ringTime) {
+		return update(() -> dialResults.put(endpoint, new DialResult(dialStatus, ringTime)));
+	}
+
+	/**
+	 * Set how long playbacks play, for each media item
+	 * @param duration playback duration. The default is 20 milliseconds
+	 * @return itself for fluent calls
+	 */
+	public FakeAsterisk setPlaybackDuration(Duration duration) {
+		return update(() -> playbackMillis = duration.toMillis());
+	}
+
+	/**
+	 * Set the channel variables that are sent with every channel in events and responses, like the
+	 * <code>channelvars</code> option in Asterisk's <code>ari.conf</code>
+	 * @param names variable names
+	 * @return itself for fluent calls
+	 */
+	public FakeAsterisk setChannelVars(String... names) {
+		return update(() -> channelVars = List.of(names));
+	}
+
+	/**
+	 * Start an incoming call, that enters the Stasis application
+	 * @param callerNumber caller ID number of the call
+	 * @param extension dialed extension
+	 * @return the ID of the call's channel
+	 */
+	public String startCall(String callerNumber, String extension) {
+		return startCall(callerNumber, extension, Map.of());
+	}
+
+	/**
+	 * Start an incoming call, that enters the Stasis application
+	 * @param callerNumber caller ID number of the call
+	 * @param extension dialed extension
+	 * @param variables channel variables set on the call, such as SIP headers
+	 * @return the ID of the call's channel
+	 */
+	public String startCall(String callerNumber, String extension, Map<String, String> variables) {
+		String id = "fake-" + channelSequence.incrementAndGet() + "." + UUID.randomUUID();
+		model.execute(() -> {
+			FakeChannel channel = new FakeChannel(id, "PJSIP/" + callerNumber, appName, "Ring");
+			channel.callerNumber = callerNumber;
+			channel.exten = extension;
+			channel.variables.putAll(variables);
+			channels.put(id, channel);
+			emit("ChannelCreated", channel, Map.of());
+			enterStasis(channel, List.of());
+		});
+		return id;
+	}
+
+	/**
+	 * Hang up a channel from the far end
+	 * @param channelId channel to hang up
+	 */
+	public void hangup(String channelId) {
+		model.execute(() -> {
+			FakeChannel channel = channels.get(channelId);
+			if (channel == null)
+				return;
+			emit("ChannelHangupRequest", channel, Map.of("cause", 16));
+			destroy(channel, 16);
+		});
+	}
+
+	/**
+	 * Send a DTMF digit from the far end of a channel
+	 * @param channelId channel that received the digit
+	 * @param digit digit
+	 */
+	public void sendDtmf(String channelId, char digit) {
+		model.execute(() -> {
+			FakeChannel channel = channels.get(channelId);
+			if (channel != null)
+				emit("ChannelDtmfReceived", channel, Map.of("digit", String.valueOf(digit), "duration_ms", 100));
+		});
+	}
+
+	/**
+	 * Close the events websocket connections, as if the network or Asterisk failed. ARIty may reconnect later.
+	 */
+	public void dropEventConnections() {
+		eventClients.forEach(Channel::close);
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public long getEventCount() {
+		return events.get();
+	}
+
+	public int getEventConnectionCount() {
+		return eventClients.size();
+	}
+
+	public int getChannelCount() {
+		return query(channels::size);
+	}
+
+	public int getBridgeCount() {
+		return query(bridges::size);
+	}
+
+	/**
+	 * Check whether a channel exists
+	 * @param channelId channel ID
+	 * @return whether the channel exists and was not hung up
+	 */
+	public boolean hasChannel(String channelId) {
+		return query(() -> channels.containsKey(channelId));
+	}
+
+	/**
+	 * Retrieve the state of a channel
+	 * @param channelId channel ID
+	 * @return the Asterisk channel state, such as <code>Up</code>, or <code>null</code> if the channel does not exist
+	 */
+	public String getChannelState(String channelId) {
+		return query(() -> channels.containsKey(channelId) ? channels.get(channelId).state : null);
+	}
+
+	/**
+	 * Retrieve a channel variable
+	 * @param channelId channel ID
+	 * @param name variable name
+	 * @return the variable's value, or <code>null</code> if it is not set or the channel does not exist
+	 */
+	public String getVariable(String channelId, String name) {
+		return query(() -> channels.containsKey(channelId) ? readVariable(channels.get(channelId), name) : null);
+	}
+
+	/**
+	 * Retrieve the channels in a bridge
+	 * @param bridgeId bridge ID
+	 * @return IDs of the channels in the bridge, that are empty if the bridge does not exist
+	 */
+	public Set<String> getBridgeChannels(String bridgeId) {
+		return query(() -> bridges.containsKey(bridgeId) ? new LinkedHashSet<>(bridges.get(bridgeId).channels) : Set.of());
+	}
+
+	private FakeAsterisk update(Runnable change) {
+		query(() -> {
+			change.run();
+			return null;
+		});
+		return this;
+	}
+
+	private <T> T query(Callable<T> query) {
+		try {
+			return model.submit(query).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/* HTTP */
+
+	private class RequestHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+			String method = request.method().name();
+			String path = request.uri();
+			QueryStringDecoder uri = new QueryStringDecoder(request.uri());
+			String body = request.content().toString(CharsetUtil.UTF_8);
+			boolean keepAlive = HttpUtil.isKeepAlive(request);
+			model.execute(() -> {
+				Response response;
+				long latency = 0;
+				try {
+					response = handle(method, uri.path(), uri.parameters(), body);
+					if (maxLatency > 0)
+						latency = minLatency + (long) (random.nextDouble() * (maxLatency - minLatency));
+				} catch (RuntimeException e) {
+					logger.error("Failed handling {} {}", method, path, e);
+					response = error(500, e.toString());
+				}
+				Response result = response;
+				if (latency > 0)
+					ctx.executor().schedule(() -> respond(ctx, result, keepAlive), latency, TimeUnit.MILLISECONDS);
+				else
+					respond(ctx, result, keepAlive);
+			});
+		}
+
+		@Override
+		public void userEventTriggered(ChannelHandlerContext ctx, Object event) throws Exception {
+			if (event instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+				eventClients.add(ctx.channel());
+				ctx.channel().closeFuture().addListener(f -> eventClients.remove(ctx.channel()));
+				logger.debug("Events websocket connected: {}", ((WebSocketServerProtocolHandler.HandshakeComplete) event).requestUri());
+			} else
+				super.userEventTriggered(ctx, event);
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			logger.debug("Connection error: {}", cause.toString());
+			ctx.close();
+		}
+	}
+
+	private void respond(ChannelHandlerContext ctx, Response response, boolean keepAlive) {
+		FullHttpResponse res = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.valueOf(response.status),
+				response.body == null ? Unpooled.EMPTY_BUFFER : Unpooled.copiedBuffer(response.body, CharsetUtil.UTF_8));
+		if (response.body != null)
+			res.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+		HttpUtil.setContentLength(res, res.content().readableBytes());
+		HttpUtil.setKeepAlive(res, keepAlive);
+		var written = ctx.writeAndFlush(res);
+		if (!keepAlive)
+			written.addListener(ChannelFutureListener.CLOSE);
+	}
+
+	/**
+	 * Handle a REST request. Called from the model thread
+	 */
+	private Response handle(String method, String path, Map<String, List<String>> params, String body) {
+		if (path.equals("/ari/api-docs/resources.json"))
+			return ok(Map.of("apiVersion", apiVersion, "swaggerVersion", "1.1", "basePath", "/ari", "apis", List.of()));
+		requests.incrementAndGet();
+		String request = method + " " + path;
+		for (InjectedFailure failure : failures) {
+			if (failure.remaining == 0 || !failure.request.matcher(request).matches())
+				continue;
+			if (failure.remaining > 0)
+				failure.remaining--;
+			return error(failure.status, "Injected failure");
+		}
+		if (failureRate > 0 && random.nextDouble() < failureRate)
+			return error(500, "Internal Server Error");
+		List<String> parts = Arrays.asList(path.replaceFirst("^/ari/", "").split("/"));
+		Map<String, String> query = new HashMap<>();
+		params.forEach((name, values) -> query.put(name, String.join(",", values)));
+		switch (parts.get(0)) {
+		case "channels": return handleChannels(method, parts, query, body);
+		case "bridges": return handleBridges(method, parts, query);
+		case "playbacks": return handlePlaybacks(method, parts);
+		case "recordings": return handleRecordings(method, parts);
+		case "asterisk":
+			if (parts.size() > 1 && parts.get(1).equals("info"))
+				return ok(Map.of("system", Map.of("version", "18.0.0-fake", "entity_id", "fake")));
+		}
+		return method.equals("GET") ? error(404, "Resource not found") : noContent();
+	}
+
+	/* channels */
+
+	private Response handleChannels(String method, List<String> parts, Map<String, String> query, String body) {
+		if (parts.size() == 1) {
+			if (method.equals("GET"))
+				return ok(channels.values().stream().map(FakeChannel::toJson).toArray());
+			return originate(query.get("channelId"), query, body);
+		}
+		String id = parts.get(1);
+		if (parts.size() == 2) {
+			if (id.equals("create") && method.equals("POST"))
+				return create(query.get("channelId"), query, body);
+			if (method.equals("POST"))
+				return originate(id, query, body);
+		}
+		FakeChannel channel = channels.get(id);
+		if (channel == null)
+			return error(404, "Channel not found");
+		String action = parts.size() > 2 ? parts.get(2) : "";
+		switch (method + " " + action) {
+		case "GET ": return ok(channel.toJson());
+		case "DELETE ":
+			destroy(channel, 16);
+			return noContent();
+		case "POST answer":
+			setState(channel, "Up");
+			return noContent();
+		case "POST dial":
+			ring(channel, false);
+			return noContent();
+		case "GET variable": {
+			String value = readVariable(channel, query.get("variable"));
+			return value == null ? error(404, "Provided variable was not found") : ok(Map.of("value", value));
+		}
+		case "POST variable":
+			setVariable(channel, query.get("variable"), query.getOrDefault("value", ""));
+			return noContent();
+		case "POST play":
+			return play("channel:" + id, parts.size() > 3 ? parts.get(3) : query.get("playbackId"), query);
+		case "POST record":
+			return record("channel:" + id, query);
+		case "POST snoop":
+			return create(parts.size() > 3 ? parts.get(3) : query.get("snoopId"),
+					Map.of("endpoint", "Snoop/" + id, "app", query.getOrDefault("app", appName)), "");
+		case "POST externalMedia":
+			return create(query.get("channelId"), Map.of("endpoint", "UnicastRTP/" + query.get("external_host"),
+					"app", query.getOrDefault("app", appName)), "");
+		case "POST redirect":
+		case "POST continue":
+			destroy(channel, 16); // the channel leaves the application, and the emulator only models the application
+			return noContent();
+		}
+		return noContent(); // ring, mute, hold, silence, moh and other media controls do not change the model
+	}
+
+	private Response originate(String id, Map<String, String> query, String body) {
+		if (id != null && channels.containsKey(id))
+			return error(409, "Channel with given unique ID already exists");
+		FakeChannel channel = newChannel(id, query, body);
+		ring(channel, true);
+		return ok(channel.toJson());
+	}
+
+	/**
+	 * Create a channel that enters the application immediately, like channels created with
+	 * <code>/channels/create</code>, snoop channels and external media channels
+	 */
+	private Response create(String id, Map<String, String> query, String body) {
+		if (id != null && channels.containsKey(id))
+			return error(409, "Channel with given unique ID already exists");
+		FakeChannel channel = newChannel(id, query, body);
+		enterStasis(channel, List.of());
+		return ok(channel.toJson());
+	}
+
+	private FakeChannel newChannel(String id, Map<String, String> query, String body) {
+		FakeChannel channel = new FakeChannel(id == null || id.isEmpty() ? UUID.randomUUID().toString() : id,
+				query.getOrDefault("endpoint", "Local/s"), query.getOrDefault("app", appName), "Down");
+		String callerId = query.getOrDefault("callerId", "");
+		Matcher nameAndNumber = CALLER_ID.matcher(callerId);
+		if (nameAndNumber.matches()) {
+			channel.callerName = nameAndNumber.group(1).trim();
+			channel.callerNumber = nameAndNumber.group(2);
+		} else
+			channel.callerNumber = callerId;
+		channel.variables.putAll(parseVariables(body));
+		channels.put(channel.id, channel);
+		emit("ChannelCreated", channel, Map.of());
+		return channel;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, String> parseVariables(String body) {
+		if (body == null || body.isBlank())
+			return Map.of();
+		try {
+			Object variables = json.readValue(body, Map.class).get("variables");
+			return variables instanceof Map ? (Map<String, String>) variables : Map.of();
+		} catch (JsonProcessingException e) {
+			return Map.of();
+		}
+	}
+
+	private void dial(FakeChannel channel, String timeout) {
+		ring(channel, false);
+	}
+
+	/**
+	 * Ring a dialed channel, and answer or fail it according to the dial result for its endpoint
+	 * @param originated whether the channel was originated, so it enters the application when it is answered
+	 */
+	private void ring(FakeChannel channel, boolean originated) {
+		DialResult result = dialResults.getOrDefault(channel.endpoint, defaultDialResult);
+		String dialstring = channel.endpoint;
+		emitDial(channel, "", dialstring);
+		setState(channel, "Ringing");
+		emitDial(channel, "RINGING", dialstring);
+		model.schedule(() -> {
+			if (channels.get(channel.id) != channel)
+				return; // hung up while ringing
+			emitDial(channel, result.status, dialstring);
+			if (!result.status.equals("ANSWER")) {
+				destroy(channel, result.status.equals("BUSY") ? 17 : 19);
+				return;
+			}
+			setState(channel, "Up");
+			if (originated)
+				enterStasis(channel, List.of());
+		}, result.ringMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void emitDial(FakeChannel channel, String status, String dialstring) {
+		emit("Dial", null, Map.of("peer", channel.toJson(), "dialstatus", status, "dialstring", dialstring, "forwarded", ""));
+	}
+
+	private void enterStasis(FakeChannel channel, List<String> args) {
+		channel.inStasis = true;
+		emit("StasisStart", channel, Map.of("args", args));
+	}
+
+	private void setState(FakeChannel channel, String state) {
+		if (state.equals(channel.state))
+			return;
+		channel.state = state;
+		emit("ChannelStateChange", channel, Map.of());
+	}
+
+	private void destroy(FakeChannel channel, int cause) {
+		if (channels.remove(channel.id) == null)
+			return;
+		if (channel.bridgeId != null && bridges.containsKey(channel.bridgeId))
+			leaveBridge(bridges.get(channel.bridgeId), channel);
+		playbacks.values().removeIf(p -> p.get("target_uri").equals("channel:" + channel.id));
+		if (channel.inStasis)
+			emit("StasisEnd", channel, Map.of());
+		channel.state = "Down";
+		emit("ChannelDestroyed", channel, Map.of("cause", cause, "cause_txt", cause == 16 ? "Normal Clearing" : "User busy"));
+	}
+
+	private String readVariable(FakeChannel channel, String name) {
+		if (name == null)
+			return null;
+		if (name.startsWith("EVAL(") && name.endsWith(")")) { // expand ${VAR} references, unset variables are empty
+			Matcher references = EXPRESSION.matcher(name.substring(5, name.length() - 1));
+			StringBuilder value = new StringBuilder();
+			while (references.find())
+				references.appendReplacement(value, Matcher.quoteReplacement(
+						Objects.toString(readVariable(channel, references.group(1)), "")));
+			references.appendTail(value);
+			return value.toString();
+		}
+		switch (name) {
+		case "CALLERID(num)": return channel.callerNumber;
+		case "CALLERID(name)": return channel.callerName;
+		case "CHANNEL(name)": return channel.name;
+		case "UNIQUEID": return channel.id;
+		}
+		return channel.variables.get(name);
+	}
+
+	private void setVariable(FakeChannel channel, String name, String value) {
+		switch (name) {
+		case "CALLERID(num)": channel.callerNumber = value; break;
+		case "CALLERID(name)": channel.callerName = value; break;
+		default: channel.variables.put(name, value);
+		}
+		emit("ChannelVarset", channel, Map.of("variable", name, "value", value));
+	}
+
+	/* media */
+
+	private Response play(String target, String playbackId, Map<String, String> query) {
+		String id = playbackId != null ? playbackId : UUID.randomUUID().toString();
+		String[] media = query.getOrDefault("media", "").split(",");
+		Map<String, Object> playback = new LinkedHashMap<>();
+		playback.put("id", id);
+		playback.put("media_uri", media[0]);
+		playback.put("target_uri", target);
+		playback.put("language", query.getOrDefault("lang", "en"));
+		playback.put("state", "playing");
+		playbacks.put(id, playback);
+		emitMedia("PlaybackStarted", "playback", playback);
+		model.schedule(() -> finishPlayback(id), playbackMillis * media.length, TimeUnit.MILLISECONDS);
+		return new Response(201, playback);
+	}
+
+	private void finishPlayback(String id) {
+		Map<String, Object> playback = playbacks.remove(id);
+		if (playback == null)
+			return;
+		playback.put("state", "done");
+		emitMedia("PlaybackFinished", "playback", playback);
+	}
+
+	private Response handlePlaybacks(String method, List<String> parts) {
+		if (parts.size() < 2 || !playbacks.containsKey(parts.get(1)))
+			return error(404, "Playback not found");
+		if (method.equals("GET"))
+			return ok(playbacks.get(parts.get(1)));
+		if (method.equals("DELETE"))
+			finishPlayback(parts.get(1));
+		return noContent();
+	}
+
+	private Response record(String target, Map<String, String> query) {
+		String name = query.getOrDefault("name", UUID.randomUUID().toString());
+		if (recordings.containsKey(name))
+			return error(409, "Recording is already in progress");
+		Map<String, Object> recording = new LinkedHashMap<>();
+		recording.put("name", name);
+		recording.put("format", query.getOrDefault("format", "wav"));
+		recording.put("target_uri", target);
+		recording.put("state", "recording");
+		recordings.put(name, recording);
+		emitMedia("RecordingStarted", "recording", recording);
+		long maxDuration = Long.parseLong(query.getOrDefault("maxDurationSeconds", "0"));
+		if (maxDuration > 0)
+			model.schedule(() -> finishRecording(name, "done"), maxDuration, TimeUnit.SECONDS);
+		return new Response(201, recording);
+	}
+
+	private void finishRecording(String name, String state) {
+		Map<String, Object> recording = recordings.remove(name);
+		if (recording == null)
+			return;
+		recording.put("state", state);
+		recording.put("duration", 1);
+		emitMedia("RecordingFinished", "recording", recording);
+	}
+
+	private Response handleRecordings(String method, List<String> parts) {
+		if (parts.size() < 3)
+			return method.equals("GET") ? ok(List.of()) : noContent();
+		String name = parts.get(2);
+		if (parts.get(1).equals("stored")) {
+			if (method.equals("GET"))
+				return parts.size() > 3 ? new Response(200, "") : ok(Map.of("name", name, "format", "wav"));
+			return noContent();
+		}
+		if (!recordings.containsKey(name))
+			return error(404, "Recording not found");
+		String action = parts.size() > 3 ? parts.get(3) : "";
+		if (method.equals("DELETE"))
+			finishRecording(name, "canceled");
+		else if (action.equals("stop"))
+			finishRecording(name, "done");
+		else if (method.equals("GET"))
+			return ok(recordings.get(name));
+		return noContent();
+	}
+
+	private void emitMedia(String type, String property, Map<String, Object> media) {
+		emit(type, null, Map.of(property, new LinkedHashMap<>(media)));
+	}
+
+	/* bridges */
+
+	private Response handleBridges(String method, List<String> parts, Map<String, String> query) {
+		if (parts.size() == 1) {
+			if (method.equals("GET"))
+				return ok(bridges.values().stream().map(FakeBridge::toJson).toArray());
+			return createBridge(query.get("bridgeId"), query.get("name"));
+		}
+		String id = parts.get(1);
+		FakeBridge bridge = bridges.get(id);
+		if (parts.size() == 2 && method.equals("POST"))
+			return bridge != null ? ok(bridge.toJson()) : createBridge(id, query.get("name"));
+		if (bridge == null)
+			return error(404, "Bridge not found");
+		String action = parts.size() > 2 ? parts.get(2) : "";
+		switch (method + " " + action) {
+		case "GET ": return ok(bridge.toJson());
+		case "DELETE ":
+			for (String channelId : new ArrayList<>(bridge.channels))
+				leaveBridge(bridge, channels.get(channelId));
+			bridges.remove(id);
+			emit("BridgeDestroyed", null, Map.of("bridge", bridge.toJson()));
+			return noContent();
+		case "POST addChannel":
+			for (String channelId : query.getOrDefault("channel", "").split(",")) {
+				FakeChannel channel = channels.get(channelId);
+				if (channel == null)
+					return error(400, "Channel not found");
+				if (!channel.inStasis)
+					return error(422, "Channel not in Stasis application");
+				if (channel.bridgeId != null && bridges.containsKey(channel.bridgeId))
+					leaveBridge(bridges.get(channel.bridgeId), channel);
+				bridge.channels.add(channelId);
+				channel.bridgeId = id;
+				emit("ChannelEnteredBridge", channel, Map.of("bridge", bridge.toJson()));
+			}
+			return noContent();
+		case "POST removeChannel":
+			for (String channelId : query.getOrDefault("channel", "").split(",")) {
+				if (!bridge.channels.contains(channelId))
+					return error(422, "Channel not in this bridge");
+				leaveBridge(bridge, channels.get(channelId));
+			}
+			return noContent();
+		case "POST play":
+			return play("bridge:" + id, parts.size() > 3 ? parts.get(3) : query.get("playbackId"), query);
+		case "POST record":
+			return record("bridge:" + id, query);
+		}
+		return noContent(); // moh and video source controls do not change the model
+	}
+
+	private Response createBridge(String id, String name) {
+		if (id == null || id.isEmpty())
+			id = UUID.randomUUID().toString();
+		FakeBridge bridge = new FakeBridge(id, Objects.toString(name, ""));
+		bridges.put(id, bridge);
+		emit("BridgeCreated", null, Map.of("bridge", bridge.toJson()));
+		return ok(bridge.toJson());
+	}
+
+	private void leaveBridge(FakeBridge bridge, FakeChannel channel) {
+		if (channel == null || !bridge.channels.remove(channel.id))
+			return;
+		channel.bridgeId = null;
+		emit("ChannelLeftBridge", channel, Map.of("bridge", bridge.toJson()));
+	}
+
+	/* events */
+
+	/**
+	 * Send an event to the connected applications. Called from the model thread, so events are sent in order
+	 * @param type event type
+	 * @param channel channel the event is about, or <code>null</code> if the event has no <code>channel</code>
+	 * @param properties other event properties
+	 */
+	private void emit(String type, FakeChannel channel, Map<String, Object> properties) {
+		Map<String, Object> event = new LinkedHashMap<>();
+		event.put("type", type);
+		event.put("application", channel != null ? channel.app : appName);
+		event.put("timestamp", timestamp(new Date()));
+		event.put("asterisk_id", "fa:ke:00:00:00:01");
+		if (channel != null)
+			event.put("channel", channel.toJson());
+		event.putAll(properties);
+		String text = toJson(event);
+		events.incrementAndGet();
+		for (Channel client : eventClients)
+			client.writeAndFlush(new TextWebSocketFrame(text));
+	}
+
+	private static String timestamp(Date date) {
+		return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(date);
+	}
+
+	private static String toJson(Object value) {
+		try {
+			return json.writeValueAsString(value);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}